@@ -0,0 +1,77 @@
+/*-
+ * ---license-start
+ * EU-Federation-Gateway-Service / efgs-federation-gateway
+ * ---
+ * Copyright (C) 2020 - 2022 T-Systems International GmbH and all other contributors
+ * ---
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ---license-end
+ */
+
+package eu.interop.federationgateway.batchsigning;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.cms.CMSObjectIdentifiers;
+import org.bouncycastle.cms.CMSTypedData;
+
+/**
+ * The signed content of a diagnosis key batch. Contains the canonical byte encodings of all keys in the order
+ * defined in the Federation Gateway specification and writes them one after another into the CMS digest, without
+ * copying them into one large array first.
+ */
+public class BatchSignatureContent implements CMSTypedData {
+
+  private final CanonicalBatchEncoding encoding;
+  private final int[] order;
+
+  BatchSignatureContent(CanonicalBatchEncoding encoding, int[] order) {
+    this.encoding = encoding;
+    this.order = order;
+  }
+
+  @Override
+  public ASN1ObjectIdentifier getContentType() {
+    return CMSObjectIdentifiers.data;
+  }
+
+  @Override
+  public void write(OutputStream out) throws IOException {
+    for (int index : order) {
+      encoding.writeTo(index, out);
+    }
+  }
+
+  /**
+   * Returns the concatenated content. Only used if the content has to be accessed as a whole, the signature
+   * verification itself uses {@link #write(OutputStream)}.
+   *
+   * @return the concatenated canonical byte encodings of all keys.
+   */
+  @Override
+  public Object getContent() {
+    return toByteArray();
+  }
+
+  byte[] toByteArray() {
+    final byte[] content = new byte[encoding.getTotalLength()];
+    int position = 0;
+    for (int index : order) {
+      encoding.copyTo(index, content, position);
+      position += encoding.getLength(index);
+    }
+    return content;
+  }
+
+}
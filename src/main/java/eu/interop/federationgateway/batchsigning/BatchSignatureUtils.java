@@ -20,15 +20,11 @@
 
 package eu.interop.federationgateway.batchsigning;
 
-import com.google.protobuf.ByteString;
-import com.google.protobuf.ProtocolStringList;
 import eu.interop.federationgateway.model.EfgsProto.DiagnosisKey;
 import eu.interop.federationgateway.model.EfgsProto.DiagnosisKeyBatch;
-import java.io.ByteArrayOutputStream;
-import java.nio.ByteBuffer;
-import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Base64;
-import java.util.Comparator;
+import java.util.concurrent.ForkJoinPool;
 import lombok.AccessLevel;
 import lombok.NoArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -40,6 +36,46 @@
 @NoArgsConstructor(access = AccessLevel.PRIVATE)
 public class BatchSignatureUtils {
 
+  /**
+   * Generates the content used to verify the batch signature. The canonical byte encodings of the keys are computed
+   * in parallel on the given pool and sorted once by their precomputed base64 representation.
+   *
+   * @param batch the diagnosis key batch, from which the information to generate the bytes to verify are obtained.
+   * @param pool  the pool used to compute the encodings of the keys.
+   * @return the content that will be used to verify the batch signature.
+   */
+  static BatchSignatureContent generateContentToVerify(final DiagnosisKeyBatch batch, final ForkJoinPool pool) {
+    return generateContentToVerify(CanonicalKeyEncoder.encode(batch.getKeysList(), pool));
+  }
+
+  /**
+   * Generates the content used to verify the batch signature from already encoded keys. The keys are sorted once by
+   * their base64 representation, which is precomputed into a single buffer.
+   *
+   * @param encoding the canonical byte encodings of the keys of the batch.
+   * @return the content that will be used to verify the batch signature.
+   */
+  static BatchSignatureContent generateContentToVerify(final CanonicalBatchEncoding encoding) {
+    final int[] sortKeyOffsets = new int[encoding.size() + 1];
+    for (int i = 0; i < encoding.size(); i++) {
+      sortKeyOffsets[i + 1] = sortKeyOffsets[i] + CanonicalKeyEncoder.base64Length(encoding.getLength(i));
+    }
+
+    final byte[] sortKeys = new byte[sortKeyOffsets[encoding.size()]];
+    final Integer[] order = new Integer[encoding.size()];
+    for (int i = 0; i < encoding.size(); i++) {
+      encoding.encodeBase64(i, sortKeys, sortKeyOffsets[i]);
+      order[i] = i;
+    }
+
+    // base64 only consists of ASCII characters, so comparing the bytes equals comparing the base64 strings
+    Arrays.sort(order, (a, b) -> Arrays.compare(
+      sortKeys, sortKeyOffsets[a], sortKeyOffsets[a + 1],
+      sortKeys, sortKeyOffsets[b], sortKeyOffsets[b + 1]));
+
+    return new BatchSignatureContent(encoding, Arrays.stream(order).mapToInt(Integer::intValue).toArray());
+  }
+
   /**
    * Extracts the information (e.g., keyData, rollingPeriod, origin, etc.) from a {@link DiagnosisKeyBatch} object,
    * and generates with it a byte stream used to verify the batch signature. The created byte stream has an order
@@ -49,16 +85,7 @@ public class BatchSignatureUtils {
    * @return the bytes that will be used to verify the batch signature.
    */
   static byte[] generateBytesToVerify(final DiagnosisKeyBatch batch) {
-    final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-
-    batch.getKeysList().stream()
-      .map(BatchSignatureUtils::generateBytesToVerify)
-      .sorted(Comparator.nullsLast(
-        Comparator.comparing(BatchSignatureUtils::bytesToBase64)
-      ))
-      .forEach(byteArrayOutputStream::writeBytes);
-
-    return byteArrayOutputStream.toByteArray();
+    return generateContentToVerify(batch, ForkJoinPool.commonPool()).toByteArray();
   }
 
   /**
@@ -70,25 +97,7 @@ static byte[] generateBytesToVerify(final DiagnosisKeyBatch batch) {
    * @return the bytes that will be used to verify the key signature.
    */
   public static byte[] generateBytesToVerify(final DiagnosisKey diagnosisKey) {
-    final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-    writeBytesInByteArray(diagnosisKey.getKeyData(), byteArrayOutputStream);
-    writeSeperatorInArray(byteArrayOutputStream);
-    writeIntInByteArray(diagnosisKey.getRollingStartIntervalNumber(), byteArrayOutputStream);
-    writeSeperatorInArray(byteArrayOutputStream);
-    writeIntInByteArray(diagnosisKey.getRollingPeriod(), byteArrayOutputStream);
-    writeSeperatorInArray(byteArrayOutputStream);
-    writeIntInByteArray(diagnosisKey.getTransmissionRiskLevel(), byteArrayOutputStream);
-    writeSeperatorInArray(byteArrayOutputStream);
-    writeVisitedCountriesInByteArray(diagnosisKey.getVisitedCountriesList(),
-      byteArrayOutputStream);
-    writeSeperatorInArray(byteArrayOutputStream);
-    writeB64StringInByteArray(diagnosisKey.getOrigin(), byteArrayOutputStream);
-    writeSeperatorInArray(byteArrayOutputStream);
-    writeIntInByteArray(diagnosisKey.getReportTypeValue(), byteArrayOutputStream);
-    writeSeperatorInArray(byteArrayOutputStream);
-    writeIntInByteArray(diagnosisKey.getDaysSinceOnsetOfSymptoms(), byteArrayOutputStream);
-    writeSeperatorInArray(byteArrayOutputStream);
-    return byteArrayOutputStream.toByteArray();
+    return CanonicalKeyEncoder.encode(diagnosisKey);
   }
 
   /**
@@ -119,41 +128,4 @@ static String bytesToBase64(byte[] bytes) {
     }
   }
 
-  private static void writeSeperatorInArray(final ByteArrayOutputStream byteArray) {
-    byteArray.writeBytes(".".getBytes(StandardCharsets.US_ASCII));
-  }
-
-  private static void writeStringInByteArray(final String batchString, final ByteArrayOutputStream byteArray) {
-    byteArray.writeBytes(batchString.getBytes(StandardCharsets.US_ASCII));
-  }
-
-  private static void writeB64StringInByteArray(final String batchString, final ByteArrayOutputStream byteArray) {
-    String base64String = bytesToBase64(batchString.getBytes(StandardCharsets.US_ASCII));
-
-    if (base64String != null) {
-      writeStringInByteArray(base64String, byteArray);
-    }
-  }
-
-  private static void writeIntInByteArray(final int batchInt, final ByteArrayOutputStream byteArray) {
-    String base64String = bytesToBase64(ByteBuffer.allocate(4).putInt(batchInt).array());
-
-    if (base64String != null) {
-      writeStringInByteArray(base64String, byteArray);
-    }
-  }
-
-  private static void writeBytesInByteArray(final ByteString bytes, ByteArrayOutputStream byteArray) {
-    String base64String = bytesToBase64(bytes.toByteArray());
-
-    if (base64String != null) {
-      writeStringInByteArray(base64String, byteArray);
-    }
-  }
-
-  private static void writeVisitedCountriesInByteArray(final ProtocolStringList countries,
-                                                       final ByteArrayOutputStream byteArray) {
-    writeB64StringInByteArray(String.join(",", countries), byteArray);
-  }
-
 }
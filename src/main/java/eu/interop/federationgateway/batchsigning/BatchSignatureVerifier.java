@@ -20,21 +20,23 @@
 
 package eu.interop.federationgateway.batchsigning;
 
+import eu.interop.federationgateway.config.EfgsProperties;
 import eu.interop.federationgateway.entity.CertificateEntity;
 import eu.interop.federationgateway.model.EfgsProto.DiagnosisKeyBatch;
 import eu.interop.federationgateway.service.CertificateService;
 import eu.interop.federationgateway.utils.CertificateUtils;
 import eu.interop.federationgateway.utils.EfgsMdc;
+import jakarta.annotation.PreDestroy;
 import java.security.cert.CertificateException;
 import java.util.Collection;
 import java.util.Date;
 import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
 import lombok.extern.slf4j.Slf4j;
 import org.bouncycastle.asn1.x500.RDN;
 import org.bouncycastle.asn1.x500.style.BCStyle;
 import org.bouncycastle.cert.X509CertificateHolder;
 import org.bouncycastle.cms.CMSException;
-import org.bouncycastle.cms.CMSProcessableByteArray;
 import org.bouncycastle.cms.CMSSignedData;
 import org.bouncycastle.cms.SignerId;
 import org.bouncycastle.cms.SignerInformation;
@@ -54,8 +56,30 @@ public class BatchSignatureVerifier {
 
   private final CertificateService certificateService;
 
-  public BatchSignatureVerifier(CertificateService certificateService) {
+  private final ForkJoinPool encodingPool;
+
+  /**
+   * Creates the verifier and the pool used to compute the canonical byte encodings of uploaded keys.
+   */
+  public BatchSignatureVerifier(CertificateService certificateService, EfgsProperties properties) {
     this.certificateService = certificateService;
+    this.encodingPool = new ForkJoinPool(properties.getUploadSettings().getSignatureVerificationThreads());
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    encodingPool.shutdown();
+  }
+
+  /**
+   * Creates the processing context of an uploaded batch. The canonical byte encodings and payload hashes of all keys
+   * are calculated once and shared between the signature verification and the entity mapping.
+   *
+   * @param batch the uploaded {@link DiagnosisKeyBatch}.
+   * @return the processing context of the batch.
+   */
+  public UploadProcessingContext createUploadContext(final DiagnosisKeyBatch batch) {
+    return new UploadProcessingContext(batch, CanonicalKeyEncoder.encode(batch.getKeysList(), encodingPool));
   }
 
   /**
@@ -66,10 +90,22 @@ public BatchSignatureVerifier(CertificateService certificateService) {
    * @return true if the batch signature is correct. False otherwise.
    */
   public String checkBatchSignature(final DiagnosisKeyBatch batch, final String base64BatchSignature) {
+    return checkBatchSignature(createUploadContext(batch), base64BatchSignature);
+  }
+
+  /**
+   * Verifies the signature of a batch. The signature is an PKCS#7 object encoded with base64.
+   *
+   * @param context              the processing context of the batch that corresponds to the batch signature.
+   * @param base64BatchSignature the base64-encoded batch signature to be verified.
+   * @return true if the batch signature is correct. False otherwise.
+   */
+  public String checkBatchSignature(final UploadProcessingContext context, final String base64BatchSignature) {
     final byte[] batchSignatureBytes = BatchSignatureUtils.b64ToBytes(base64BatchSignature);
     if (batchSignatureBytes.length > 0) {
       try {
-        final CMSSignedData signedData = new CMSSignedData(getBatchBytes(batch), batchSignatureBytes);
+        final CMSSignedData signedData = new CMSSignedData(
+          BatchSignatureUtils.generateContentToVerify(context.getEncoding()), batchSignatureBytes);
         final SignerInformation signerInfo = getSignerInformation(signedData);
 
         if (signerInfo == null) {
@@ -97,7 +133,7 @@ public String checkBatchSignature(final DiagnosisKeyBatch batch, final String ba
           return null;
         }
 
-        if (!allOriginsMatchingCertCountry(batch, signerCert)) {
+        if (!allOriginsMatchingCertCountry(context.getBatch(), signerCert)) {
           log.error("different origins");
           return null;
         }
@@ -163,10 +199,6 @@ private String getCountryOfCertificate(X509CertificateHolder certificate) {
     }
   }
 
-  private CMSProcessableByteArray getBatchBytes(DiagnosisKeyBatch batch) {
-    return new CMSProcessableByteArray(BatchSignatureUtils.generateBytesToVerify(batch));
-  }
-
   private SignerInformation getSignerInformation(final CMSSignedData signedData) {
     final SignerInformationStore signerInfoStore = signedData.getSignerInfos();
 
@@ -0,0 +1,76 @@
+/*-
+ * ---license-start
+ * EU-Federation-Gateway-Service / efgs-federation-gateway
+ * ---
+ * Copyright (C) 2020 - 2022 T-Systems International GmbH and all other contributors
+ * ---
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ---license-end
+ */
+
+package eu.interop.federationgateway.batchsigning;
+
+import eu.interop.federationgateway.utils.HashUtils;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * The canonical byte encodings of the keys of a batch, stored one after another in a single buffer, together with
+ * the SHA-256 digests of the encodings.
+ */
+public class CanonicalBatchEncoding {
+
+  private final byte[] buffer;
+  private final int[] offsets;
+  private final byte[] digests;
+
+  CanonicalBatchEncoding(byte[] buffer, int[] offsets, byte[] digests) {
+    this.buffer = buffer;
+    this.offsets = offsets;
+    this.digests = digests;
+  }
+
+  public int size() {
+    return offsets.length - 1;
+  }
+
+  public int getTotalLength() {
+    return buffer.length;
+  }
+
+  public int getLength(int index) {
+    return offsets[index + 1] - offsets[index];
+  }
+
+  public byte[] toByteArray(int index) {
+    return Arrays.copyOfRange(buffer, offsets[index], offsets[index + 1]);
+  }
+
+  public void writeTo(int index, OutputStream out) throws IOException {
+    out.write(buffer, offsets[index], getLength(index));
+  }
+
+  public String getPayloadHash(int index) {
+    return HashUtils.toHexNumber(digests, index * HashUtils.SHA256_LENGTH, HashUtils.SHA256_LENGTH);
+  }
+
+  void copyTo(int index, byte[] target, int position) {
+    System.arraycopy(buffer, offsets[index], target, position, getLength(index));
+  }
+
+  void encodeBase64(int index, byte[] target, int position) {
+    CanonicalKeyEncoder.encodeBase64(buffer, offsets[index], getLength(index), target, position);
+  }
+
+}
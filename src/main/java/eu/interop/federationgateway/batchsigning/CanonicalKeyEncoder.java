@@ -0,0 +1,266 @@
+/*-
+ * ---license-start
+ * EU-Federation-Gateway-Service / efgs-federation-gateway
+ * ---
+ * Copyright (C) 2020 - 2022 T-Systems International GmbH and all other contributors
+ * ---
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ---license-end
+ */
+
+package eu.interop.federationgateway.batchsigning;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.ProtocolStringList;
+import eu.interop.federationgateway.model.EfgsProto.DiagnosisKey;
+import eu.interop.federationgateway.utils.HashUtils;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+
+/**
+ * Writes the canonical byte encoding of diagnosis keys, as defined in the Federation Gateway specification, directly
+ * into one pre-sized buffer. Every field is copied raw to the end of its reserved region and then base64 encoded in
+ * place, so no intermediate arrays or strings are created per key.
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public class CanonicalKeyEncoder {
+
+  private static final int ENCODING_TASK_THRESHOLD = 256;
+  private static final int INT_FIELDS = 5;
+  private static final int FIELDS = 8;
+  private static final byte SEPARATOR = '.';
+  private static final byte COUNTRY_DELIMITER = ',';
+  private static final byte NON_ASCII_REPLACEMENT = '?';
+  private static final byte PADDING = '=';
+  private static final byte[] ALPHABET =
+    "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".getBytes(StandardCharsets.US_ASCII);
+
+  /**
+   * Generates the canonical byte encoding of a single key.
+   *
+   * @param key the diagnosis key to encode.
+   * @return the canonical byte encoding of the key.
+   */
+  public static byte[] encode(final DiagnosisKey key) {
+    final byte[] buffer = new byte[encodedLength(key)];
+    encodeInto(key, buffer, 0);
+    return buffer;
+  }
+
+  /**
+   * Generates the canonical byte encodings of all given keys into one buffer. The buffer is sized up front and the
+   * keys are encoded and hashed in parallel on the given pool.
+   *
+   * @param keys the diagnosis keys to encode.
+   * @param pool the pool used to encode the keys.
+   * @return the canonical byte encodings of the keys and their digests, in the order of the given list.
+   */
+  public static CanonicalBatchEncoding encode(final List<DiagnosisKey> keys, final ForkJoinPool pool) {
+    final int[] offsets = new int[keys.size() + 1];
+    for (int i = 0; i < keys.size(); i++) {
+      offsets[i + 1] = offsets[i] + encodedLength(keys.get(i));
+    }
+
+    final byte[] buffer = new byte[offsets[keys.size()]];
+    final byte[] digests = new byte[keys.size() * HashUtils.SHA256_LENGTH];
+    pool.invoke(new EncodeKeysTask(keys, buffer, offsets, digests, 0, keys.size()));
+
+    return new CanonicalBatchEncoding(buffer, offsets, digests);
+  }
+
+  static int base64Length(final int length) {
+    return (length + 2) / 3 * 4;
+  }
+
+  /**
+   * Writes the base64 encoding of the source region into the target buffer. The regions may overlap if the target
+   * starts at least one third of the source length before the source, which allows encoding in place.
+   */
+  static void encodeBase64(final byte[] source, final int sourcePosition, final int length,
+                           final byte[] target, final int targetPosition) {
+    int read = sourcePosition;
+    int written = targetPosition;
+    final int fullGroupsEnd = sourcePosition + length / 3 * 3;
+
+    while (read < fullGroupsEnd) {
+      final int bits = (source[read] & 0xff) << 16 | (source[read + 1] & 0xff) << 8 | (source[read + 2] & 0xff);
+      read += 3;
+      target[written++] = ALPHABET[bits >>> 18 & 0x3f];
+      target[written++] = ALPHABET[bits >>> 12 & 0x3f];
+      target[written++] = ALPHABET[bits >>> 6 & 0x3f];
+      target[written++] = ALPHABET[bits & 0x3f];
+    }
+
+    final int remaining = sourcePosition + length - read;
+    if (remaining > 0) {
+      final int bits = (source[read] & 0xff) << 16 | (remaining == 2 ? (source[read + 1] & 0xff) << 8 : 0);
+      target[written++] = ALPHABET[bits >>> 18 & 0x3f];
+      target[written++] = ALPHABET[bits >>> 12 & 0x3f];
+      target[written++] = remaining == 2 ? ALPHABET[bits >>> 6 & 0x3f] : PADDING;
+      target[written] = PADDING;
+    }
+  }
+
+  private static int encodedLength(final DiagnosisKey key) {
+    return base64Length(key.getKeyData().size())
+      + INT_FIELDS * base64Length(Integer.BYTES)
+      + base64Length(countriesLength(key.getVisitedCountriesList()))
+      + base64Length(asciiLength(key.getOrigin()))
+      + FIELDS;
+  }
+
+  private static int encodeInto(final DiagnosisKey key, final byte[] buffer, final int position) {
+    int next = writeBytes(key.getKeyData(), buffer, position);
+    next = writeInt(key.getRollingStartIntervalNumber(), buffer, next);
+    next = writeInt(key.getRollingPeriod(), buffer, next);
+    next = writeInt(key.getTransmissionRiskLevel(), buffer, next);
+    next = writeCountries(key.getVisitedCountriesList(), buffer, next);
+    next = writeString(key.getOrigin(), buffer, next);
+    next = writeInt(key.getReportTypeValue(), buffer, next);
+    return writeInt(key.getDaysSinceOnsetOfSymptoms(), buffer, next);
+  }
+
+  private static int writeBytes(final ByteString bytes, final byte[] buffer, final int position) {
+    final int end = position + base64Length(bytes.size());
+    bytes.copyTo(buffer, end - bytes.size());
+    return finishField(buffer, position, bytes.size(), end);
+  }
+
+  private static int writeInt(final int value, final byte[] buffer, final int position) {
+    final int end = position + base64Length(Integer.BYTES);
+    final int raw = end - Integer.BYTES;
+    buffer[raw] = (byte) (value >>> 24);
+    buffer[raw + 1] = (byte) (value >>> 16);
+    buffer[raw + 2] = (byte) (value >>> 8);
+    buffer[raw + 3] = (byte) value;
+    return finishField(buffer, position, Integer.BYTES, end);
+  }
+
+  private static int writeString(final String value, final byte[] buffer, final int position) {
+    final int length = asciiLength(value);
+    final int end = position + base64Length(length);
+    writeAscii(value, buffer, end - length);
+    return finishField(buffer, position, length, end);
+  }
+
+  private static int writeCountries(final ProtocolStringList countries, final byte[] buffer, final int position) {
+    final int length = countriesLength(countries);
+    final int end = position + base64Length(length);
+    int raw = end - length;
+    for (int i = 0; i < countries.size(); i++) {
+      if (i > 0) {
+        buffer[raw++] = COUNTRY_DELIMITER;
+      }
+      raw = writeAscii(countries.get(i), buffer, raw);
+    }
+    return finishField(buffer, position, length, end);
+  }
+
+  private static int finishField(final byte[] buffer, final int position, final int rawLength, final int end) {
+    encodeBase64(buffer, end - rawLength, rawLength, buffer, position);
+    buffer[end] = SEPARATOR;
+    return end + 1;
+  }
+
+  private static int countriesLength(final ProtocolStringList countries) {
+    int length = Math.max(countries.size() - 1, 0);
+    for (String country : countries) {
+      length += asciiLength(country);
+    }
+    return length;
+  }
+
+  /**
+   * Length of the string encoded as US-ASCII. Like {@link String#getBytes(java.nio.charset.Charset)} every non-ASCII
+   * character, or surrogate pair, is replaced by a single question mark.
+   */
+  private static int asciiLength(final String value) {
+    int length = 0;
+    for (int i = 0; i < value.length(); i++) {
+      if (isSurrogatePair(value, i)) {
+        i++;
+      }
+      length++;
+    }
+    return length;
+  }
+
+  private static int writeAscii(final String value, final byte[] buffer, final int position) {
+    int written = position;
+    for (int i = 0; i < value.length(); i++) {
+      final char character = value.charAt(i);
+      if (isSurrogatePair(value, i)) {
+        i++;
+      }
+      buffer[written++] = character < 0x80 ? (byte) character : NON_ASCII_REPLACEMENT;
+    }
+    return written;
+  }
+
+  private static boolean isSurrogatePair(final String value, final int index) {
+    return Character.isHighSurrogate(value.charAt(index))
+      && index + 1 < value.length()
+      && Character.isLowSurrogate(value.charAt(index + 1));
+  }
+
+  private static class EncodeKeysTask extends RecursiveAction {
+
+    private final transient List<DiagnosisKey> keys;
+    private final byte[] buffer;
+    private final int[] offsets;
+    private final byte[] digests;
+    private final int from;
+    private final int to;
+
+    EncodeKeysTask(List<DiagnosisKey> keys, byte[] buffer, int[] offsets, byte[] digests, int from, int to) {
+      this.keys = keys;
+      this.buffer = buffer;
+      this.offsets = offsets;
+      this.digests = digests;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from <= ENCODING_TASK_THRESHOLD) {
+        final MessageDigest digest = HashUtils.sha256();
+        for (int i = from; i < to; i++) {
+          encodeInto(keys.get(i), buffer, offsets[i]);
+          digest.update(buffer, offsets[i], offsets[i + 1] - offsets[i]);
+          writeDigest(digest, i);
+        }
+      } else {
+        final int middle = (from + to) >>> 1;
+        invokeAll(
+          new EncodeKeysTask(keys, buffer, offsets, digests, from, middle),
+          new EncodeKeysTask(keys, buffer, offsets, digests, middle, to));
+      }
+    }
+
+    private void writeDigest(MessageDigest digest, int index) {
+      try {
+        digest.digest(digests, index * HashUtils.SHA256_LENGTH, HashUtils.SHA256_LENGTH);
+      } catch (DigestException e) {
+        throw new IllegalStateException("Could not calculate digest of diagnosis key", e);
+      }
+    }
+  }
+
+}
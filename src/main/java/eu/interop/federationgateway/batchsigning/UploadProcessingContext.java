@@ -0,0 +1,43 @@
+/*-
+ * ---license-start
+ * EU-Federation-Gateway-Service / efgs-federation-gateway
+ * ---
+ * Copyright (C) 2020 - 2022 T-Systems International GmbH and all other contributors
+ * ---
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ---license-end
+ */
+
+package eu.interop.federationgateway.batchsigning;
+
+import eu.interop.federationgateway.model.EfgsProto.DiagnosisKeyBatch;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Carries the intermediate results of processing one uploaded batch from the signature verification to the entity
+ * mapping, so that every key is canonicalized and hashed only once per request.
+ */
+@Getter
+@AllArgsConstructor
+public class UploadProcessingContext {
+
+  private final DiagnosisKeyBatch batch;
+
+  private final CanonicalBatchEncoding encoding;
+
+  public String getPayloadHash(int index) {
+    return encoding.getPayloadHash(index);
+  }
+
+}
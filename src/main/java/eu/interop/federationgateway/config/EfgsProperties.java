@@ -40,7 +40,9 @@ public class EfgsProperties {
   private final Batching batching = new Batching();
   private final Callback callback = new Callback();
   private final TrustAnchor trustAnchor = new TrustAnchor();
+  private final CertificateCache certificateCache = new CertificateCache();
   private final DbEncryption dbEncryption = new DbEncryption();
+  private final PayloadReencoding payloadReencoding = new PayloadReencoding();
 
   @Getter
   @Setter
@@ -56,7 +58,23 @@ public static class Callback {
     private int timeout = 10000;
     private int maxRetries = 5;
     private int retryWait = 300000;
-    private int coreThreadPoolSize = 1;
+    private int maxRetryWait = 3600;
+    private int circuitBreakerFailureThreshold = 5;
+    private int circuitBreakerOpenDuration = 300;
+    private double retryBudgetRatio = 0.2;
+    private int retryBudgetMinRetries = 10;
+    private int retryBudgetWindow = 60;
+    private int coreThreadPoolSize = 16;
+    private boolean dispatchOnCommit = true;
+    private boolean coalesceNotifications = false;
+    private int hostResolutionCacheTtl = 300;
+    private int connectionPoolMaxConnections = 16;
+    private int connectionPoolMaxIdleTime = 60;
+    private int connectionPoolMaxLifeTime = 600;
+    private boolean connectionPoolMetrics = true;
+    private int tlsSessionCacheSize = 1000;
+    private int tlsSessionTimeout = 3600;
+    private boolean http2 = false;
     private int taskLockTimeout = 300;
     private String proxyHost;
     private Integer proxyPort;
@@ -81,6 +99,19 @@ public static class Batching {
     private int doclimit = 5000;
     private int timelimit = 1200000;
     private int timeinterval = 300000;
+    private int triggerinterval = 5000;
+    private int locklimit = 1800000;
+    private int threads = 4;
+    private int shards = 4;
+  }
+
+  @Getter
+  @Setter
+  public static class PayloadReencoding {
+    private boolean enabled = true;
+    private int batchSize = 1000;
+    private int maxKeysPerRun = 100000;
+    private int interval = 600000;
     private int locklimit = 1800000;
   }
 
@@ -88,12 +119,26 @@ public static class Batching {
   @Setter
   public static class UploadSettings {
     private int maximumUploadBatchSize;
+    private int insertBatchSize = 500;
+    private int signatureVerificationThreads = 4;
   }
 
   @Getter
   @Setter
   public static class DownloadSettings {
+
+    private final ArtifactCache artifactCache = new ArtifactCache();
     private int maxAgeInDays;
+    private boolean streaming = true;
+
+    @Getter
+    @Setter
+    public static class ArtifactCache {
+      private boolean enabled = true;
+      private long maxSizeInBytes = 268_435_456;
+      private boolean precompute = true;
+      private int precomputeThreads = 4;
+    }
   }
 
   @Getter
@@ -111,6 +156,21 @@ public static class HeaderFields {
     }
   }
 
+  /**
+   * Certificates changed through JPA are evicted immediately. Certificates added, deleted or revoked directly in the
+   * database are evicted by the version check, so on every node the revocation takes effect within the version check
+   * interval (in milliseconds) and at the latest after the time to live.
+   */
+  @Getter
+  @Setter
+  public static class CertificateCache {
+    private boolean enabled = true;
+    private int maxSize = 1000;
+    private int timeToLiveInSeconds = 300;
+    private int negativeTimeToLiveInSeconds = 30;
+    private int versionCheckInterval = 10000;
+  }
+
   @Getter
   @Setter
   public static class DbEncryption {
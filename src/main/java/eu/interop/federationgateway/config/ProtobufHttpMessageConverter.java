@@ -21,12 +21,18 @@
 package eu.interop.federationgateway.config;
 
 import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.Descriptors;
 import com.google.protobuf.Message;
 import com.googlecode.protobuf.format.ProtobufFormatter;
+import eu.interop.federationgateway.model.DiagnosisKeyBatchArtifact;
+import eu.interop.federationgateway.model.DiagnosisKeyBatchStream;
+import eu.interop.federationgateway.model.EfgsProto;
 import eu.interop.federationgateway.utils.EfgsMdc;
 import eu.interop.federationgateway.utils.SemVerUtils;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.lang.reflect.InvocationTargetException;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -42,11 +48,14 @@
  * Minimal implementation of HttpMessageConverter to convert De- and Encode Protobuf messages.
  * But enables the usage the European Federation Gateway special Protobuf Content Type.
  * Inspired from {@link org.springframework.http.converter.protobuf.ProtobufHttpMessageConverter}
+ * Additionally a {@link DiagnosisKeyBatchStream} can be written key by key and a {@link DiagnosisKeyBatchArtifact}
+ * as already serialized bytes, both with the same wire format as the corresponding
+ * {@link EfgsProto.DiagnosisKeyBatch}.
  */
 @Slf4j
 @AllArgsConstructor
 @Component
-public class ProtobufHttpMessageConverter extends AbstractHttpMessageConverter<Message> {
+public class ProtobufHttpMessageConverter extends AbstractHttpMessageConverter<Object> {
 
   /**
    * The HTTP header containing the protobuf schema.
@@ -65,15 +74,30 @@ public class ProtobufHttpMessageConverter extends AbstractHttpMessageConverter<M
 
   private static final String VERSION_STRING = "version";
 
+  private static final byte[] JSON_KEYS_PREFIX = "{\"keys\": [".getBytes(StandardCharsets.UTF_8);
+
+  private static final byte[] JSON_KEYS_SEPARATOR = ",".getBytes(StandardCharsets.UTF_8);
+
+  private static final byte[] JSON_KEYS_SUFFIX = "]}".getBytes(StandardCharsets.UTF_8);
+
+  private static final byte[] JSON_EMPTY_MESSAGE = "{}".getBytes(StandardCharsets.UTF_8);
+
   private final EfgsProperties properties;
 
   @Override
   protected boolean supports(Class<?> clazz) {
-    return Message.class.isAssignableFrom(clazz);
+    return Message.class.isAssignableFrom(clazz)
+      || DiagnosisKeyBatchStream.class.isAssignableFrom(clazz)
+      || DiagnosisKeyBatchArtifact.class.isAssignableFrom(clazz);
+  }
+
+  @Override
+  public boolean canRead(Class<?> clazz, MediaType mediaType) {
+    return Message.class.isAssignableFrom(clazz) && canRead(mediaType);
   }
 
   @Override
-  protected MediaType getDefaultContentType(Message message) {
+  protected MediaType getDefaultContentType(Object object) {
     return PROTOBUF_MEDIA_TYPE;
   }
 
@@ -84,7 +108,7 @@ public List<MediaType> getSupportedMediaTypes() {
 
   @Override
   protected Message readInternal(
-    Class<? extends Message> clazz,
+    Class<?> clazz,
     HttpInputMessage httpInputMessage
   ) throws IOException {
     MediaType contentType = httpInputMessage.getHeaders().getContentType();
@@ -151,7 +175,7 @@ protected Message readInternal(
 
   @Override
   protected void writeInternal(
-    Message message,
+    Object object,
     HttpOutputMessage httpOutputMessage
   ) throws IOException {
     MediaType contentType = httpOutputMessage.getHeaders().getContentType();
@@ -197,7 +221,26 @@ protected void writeInternal(
       throw new ResponseStatusException(HttpStatus.UNSUPPORTED_MEDIA_TYPE, e.getMessage());
     }
 
-    setProtoHeader(httpOutputMessage, message);
+    if (object instanceof DiagnosisKeyBatchArtifact artifact) {
+      setProtoHeader(httpOutputMessage, EfgsProto.DiagnosisKeyBatch.getDescriptor());
+      httpOutputMessage.getBody().write(
+        targetContentType == PROTOBUF_MEDIA_TYPE ? artifact.getProtobuf() : artifact.getJson());
+      httpOutputMessage.getBody().flush();
+      return;
+    }
+
+    if (object instanceof DiagnosisKeyBatchStream batchStream) {
+      setProtoHeader(httpOutputMessage, EfgsProto.DiagnosisKeyBatch.getDescriptor());
+      if (targetContentType == PROTOBUF_MEDIA_TYPE) {
+        writeProtobufStream(batchStream, httpOutputMessage.getBody());
+      } else {
+        writeJsonStream(batchStream, httpOutputMessage.getBody());
+      }
+      return;
+    }
+
+    Message message = (Message) object;
+    setProtoHeader(httpOutputMessage, message.getDescriptorForType());
     if (targetContentType == PROTOBUF_MEDIA_TYPE) {
       CodedOutputStream codedOutputStream = CodedOutputStream.newInstance(httpOutputMessage.getBody());
       message.writeTo(codedOutputStream);
@@ -209,8 +252,36 @@ protected void writeInternal(
     }
   }
 
-  private void setProtoHeader(HttpOutputMessage response, Message message) {
-    response.getHeaders().set(X_PROTOBUF_SCHEMA_HEADER, message.getDescriptorForType().getFile().getName());
-    response.getHeaders().set(X_PROTOBUF_MESSAGE_HEADER, message.getDescriptorForType().getFullName());
+  /**
+   * Writes every key as length-delimited keys field. This is the same encoding
+   * {@link EfgsProto.DiagnosisKeyBatch#writeTo(CodedOutputStream)} produces for the whole batch.
+   */
+  private void writeProtobufStream(DiagnosisKeyBatchStream batchStream, OutputStream body) throws IOException {
+    CodedOutputStream codedOutputStream = CodedOutputStream.newInstance(body);
+    batchStream.writeKeys(key -> codedOutputStream.writeMessage(EfgsProto.DiagnosisKeyBatch.KEYS_FIELD_NUMBER, key));
+    codedOutputStream.flush();
+  }
+
+  /**
+   * Writes the keys wrapped into the keys array the {@link ProtobufConverter} prints for the whole batch.
+   * An empty batch is printed as empty object.
+   */
+  private void writeJsonStream(DiagnosisKeyBatchStream batchStream, OutputStream body) throws IOException {
+    ProtobufFormatter formatter = new ProtobufConverter();
+    boolean[] firstKey = {true};
+
+    batchStream.writeKeys(key -> {
+      body.write(firstKey[0] ? JSON_KEYS_PREFIX : JSON_KEYS_SEPARATOR);
+      firstKey[0] = false;
+      formatter.print(key, body);
+    });
+
+    body.write(firstKey[0] ? JSON_EMPTY_MESSAGE : JSON_KEYS_SUFFIX);
+    body.flush();
+  }
+
+  private void setProtoHeader(HttpOutputMessage response, Descriptors.Descriptor descriptor) {
+    response.getHeaders().set(X_PROTOBUF_SCHEMA_HEADER, descriptor.getFile().getName());
+    response.getHeaders().set(X_PROTOBUF_MESSAGE_HEADER, descriptor.getFullName());
   }
 }
@@ -22,24 +22,28 @@
 
 import eu.interop.federationgateway.mtls.EfgsCallbackTrustManager;
 import eu.interop.federationgateway.mtls.ForceCertUsageX509KeyManager;
+import eu.interop.federationgateway.service.CallbackHostResolver;
 import io.netty.channel.ChannelOption;
-import io.netty.handler.ssl.SslContext;
 import io.netty.handler.ssl.SslContextBuilder;
-import io.netty.handler.timeout.ReadTimeoutHandler;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.PrivateKey;
 import java.security.UnrecoverableKeyException;
 import java.security.cert.X509Certificate;
-import java.util.concurrent.TimeUnit;
-import javax.net.ssl.SSLException;
+import java.time.Duration;
+import java.util.function.Consumer;
 import lombok.RequiredArgsConstructor;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.client.reactive.ReactorClientHttpConnector;
 import org.springframework.web.reactive.function.client.WebClient;
+import reactor.netty.http.Http11SslContextSpec;
+import reactor.netty.http.Http2SslContextSpec;
+import reactor.netty.http.HttpProtocol;
 import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+import reactor.netty.tcp.SslProvider;
 import reactor.netty.transport.ProxyProvider;
 
 @Configuration
@@ -52,60 +56,86 @@ public class WebClientConfig {
 
   private final EfgsCallbackTrustManager efgsCallbackTrustManager;
 
+  private final CallbackHostResolver callbackHostResolver;
+
+  /**
+   * Configures the connection pool of the callback WebClient. Reactor Netty keeps a separate pool per remote host,
+   * so the limits apply to each callback receiver.
+   *
+   * @return Instance of ConnectionProvider
+   */
+  @Bean(destroyMethod = "dispose")
+  public ConnectionProvider callbackConnectionProvider() {
+    EfgsProperties.Callback callbackProperties = efgsProperties.getCallback();
+
+    return ConnectionProvider.builder("efgs-callback")
+      .maxConnections(callbackProperties.getConnectionPoolMaxConnections())
+      .pendingAcquireTimeout(Duration.ofMillis(callbackProperties.getTimeout()))
+      .maxIdleTime(Duration.ofSeconds(callbackProperties.getConnectionPoolMaxIdleTime()))
+      .maxLifeTime(Duration.ofSeconds(callbackProperties.getConnectionPoolMaxLifeTime()))
+      .evictInBackground(Duration.ofSeconds(callbackProperties.getConnectionPoolMaxIdleTime()))
+      .metrics(callbackProperties.isConnectionPoolMetrics())
+      .build();
+  }
+
   /**
    * Configures WebClient for HTTP requests for callback feature.
    *
+   * @param callbackConnectionProvider the connection pool for callbacks
    * @return Instance of WebClient
    * @throws UnrecoverableKeyException if the key cannot be recovered
    * @throws NoSuchAlgorithmException if the algorithm for recovering the key cannot be found
    * @throws KeyStoreException if the keystore has not been initialized
-   * @throws SSLException if the SSL context cannot be build
    */
   @Bean
-  public WebClient webClient() throws UnrecoverableKeyException, NoSuchAlgorithmException,
-          KeyStoreException, SSLException {
+  public WebClient webClient(ConnectionProvider callbackConnectionProvider) throws UnrecoverableKeyException,
+          NoSuchAlgorithmException, KeyStoreException {
+    EfgsProperties.Callback callbackProperties = efgsProperties.getCallback();
 
     PrivateKey privateKey = (PrivateKey) callbackKeyStore.getKey(
-      efgsProperties.getCallback().getKeyStorePrivateKeyAlias(),
-      efgsProperties.getCallback().getKeyStorePass().toCharArray()
+      callbackProperties.getKeyStorePrivateKeyAlias(),
+      callbackProperties.getKeyStorePass().toCharArray()
     );
 
     X509Certificate certificate = (X509Certificate) callbackKeyStore.getCertificate(
-      efgsProperties.getCallback().getKeyStoreCertificateAlias()
+      callbackProperties.getKeyStoreCertificateAlias()
     );
 
-    SslContext sslContext = SslContextBuilder
-      .forClient()
+    // resumed TLS sessions skip the full handshake including the whitelist check of the server certificate
+    Consumer<SslContextBuilder> sslContextConfigurer = sslContextBuilder -> sslContextBuilder
       .enableOcsp(false)
       .keyManager(new ForceCertUsageX509KeyManager(privateKey, certificate))
       .trustManager(efgsCallbackTrustManager)
-      .build();
+      .sessionCacheSize(callbackProperties.getTlsSessionCacheSize())
+      .sessionTimeout(callbackProperties.getTlsSessionTimeout());
+
+    SslProvider.ProtocolSslContextSpec sslContextSpec = callbackProperties.isHttp2()
+      ? Http2SslContextSpec.forClient().configure(sslContextConfigurer)
+      : Http11SslContextSpec.forClient().configure(sslContextConfigurer);
+
+    HttpClient httpClient = HttpClient.create(callbackConnectionProvider)
+      .protocol(callbackProperties.isHttp2()
+        ? new HttpProtocol[] {HttpProtocol.H2, HttpProtocol.HTTP11}
+        : new HttpProtocol[] {HttpProtocol.HTTP11})
+      .secure(sslSpec -> sslSpec.sslContext(sslContextSpec))
+      // connect to the address which has passed the callback url check
+      .resolver(callbackHostResolver.addressResolverGroup())
+      // configure timeout for connection
+      .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, callbackProperties.getTimeout())
+      // configure timeout for answer, pooled connections may stay idle for longer
+      .responseTimeout(Duration.ofMillis(callbackProperties.getTimeout()));
 
-    HttpClient httpClient = HttpClient.create()
-      .secure(sslContextSpec -> sslContextSpec.sslContext(sslContext))
-      .tcpConfiguration(tcpClient -> {
-        // configure timeout for connection
-        tcpClient = tcpClient.option(ChannelOption.CONNECT_TIMEOUT_MILLIS,
-          efgsProperties.getCallback().getTimeout());
-
-        // configure timeout for answer
-        tcpClient = tcpClient.doOnConnected(conn -> conn.addHandlerLast(new ReadTimeoutHandler(
-          efgsProperties.getCallback().getTimeout(), TimeUnit.MILLISECONDS)));
-
-        // configure proxy
-        if (efgsProperties.getCallback().getProxyHost() != null
-          && !efgsProperties.getCallback().getProxyHost().isEmpty()) {
-          tcpClient = tcpClient.proxy(proxy ->
-            proxy
-              .type(ProxyProvider.Proxy.HTTP)
-              .host(efgsProperties.getCallback().getProxyHost())
-              .port(efgsProperties.getCallback().getProxyPort())
-              .username(efgsProperties.getCallback().getProxyUser())
-              .password(s -> efgsProperties.getCallback().getProxyPassword())
-          );
-        }
-        return tcpClient;
-      });
+    // configure proxy
+    if (callbackProperties.getProxyHost() != null && !callbackProperties.getProxyHost().isEmpty()) {
+      httpClient = httpClient.proxy(proxy ->
+        proxy
+          .type(ProxyProvider.Proxy.HTTP)
+          .host(callbackProperties.getProxyHost())
+          .port(callbackProperties.getProxyPort())
+          .username(callbackProperties.getProxyUser())
+          .password(s -> callbackProperties.getProxyPassword())
+      );
+    }
 
     return WebClient.builder()
       .clientConnector(new ReactorClientHttpConnector(httpClient))
@@ -65,7 +65,7 @@ public class CallbackAdminController {
   private final CallbackMapper callbackMapper;
 
   /**
-   * Gets the current callback subscription URLs.
+   * Gets the current callback subscription URLs together with their delivery state.
    *
    * @param country A {@link String} containing the country.
    * @return List with registered callbacks.
@@ -88,7 +88,15 @@ public ResponseEntity<List<Callback>> getCallbackSubscriptions(
     List<CallbackSubscriptionEntity> allCallbackEntities =
       callbackService.getAllCallbackSubscriptionsForCountry(country);
 
-    List<Callback> callbacks = callbackMapper.entityToCallback(allCallbackEntities);
+    List<Callback> callbacks = allCallbackEntities.stream()
+      .map(entity -> {
+        Callback callback = callbackMapper.entityToCallback(entity);
+        callbackService.getCallbackDelivery(entity)
+          .ifPresent(delivery -> callback.setDeliveryStatus(callbackMapper.deliveryToStatus(delivery)));
+        return callback;
+      })
+      .toList();
+
     return ResponseEntity
       .ok()
       .body(callbacks);
@@ -26,7 +26,10 @@
 import eu.interop.federationgateway.filter.CertificateAuthentificationFilter;
 import eu.interop.federationgateway.filter.CertificateAuthentificationRequired;
 import eu.interop.federationgateway.mapper.DiagnosisKeyMapper;
+import eu.interop.federationgateway.model.DiagnosisKeyBatchArtifact;
+import eu.interop.federationgateway.model.DiagnosisKeyBatchStream;
 import eu.interop.federationgateway.model.EfgsProto;
+import eu.interop.federationgateway.service.DiagnosisKeyBatchArtifactService;
 import eu.interop.federationgateway.service.DiagnosisKeyBatchService;
 import eu.interop.federationgateway.service.DiagnosisKeyDownloadService;
 import eu.interop.federationgateway.service.DiagnosisKeyEntityService;
@@ -84,8 +87,13 @@ public class DownloadController {
 
   private final DiagnosisKeyMapper diagnosisKeyMapper;
 
+  private final DiagnosisKeyBatchArtifactService diagnosisKeyBatchArtifactService;
+
   /**
    * This endpoint enabled the download of diagnosis keys.
+   * If the artifact cache is enabled the already serialized batch is returned. Otherwise, if streaming is enabled,
+   * the keys are read and written to the response one by one instead of building the whole
+   * {@link EfgsProto.DiagnosisKeyBatch} in memory.
    *
    * @param date A {@link String} containing an ISO-8601 date descriptor.
    * @param batchTag A {@link String} containing batchTag.
@@ -134,7 +142,7 @@ public class DownloadController {
     produces = {"application/protobuf", "application/json"}
   )
   @CertificateAuthentificationRequired
-  public ResponseEntity<EfgsProto.DiagnosisKeyBatch> downloadDiagnosisKeys(
+  public ResponseEntity<?> downloadDiagnosisKeys(
     @PathVariable("date") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate date,
     @RequestHeader(name = BATCHTAG_HEADER, required = false) String batchTag,
     @RequestAttribute(CertificateAuthentificationFilter.REQUEST_PROP_COUNTRY) String downloaderCountry
@@ -176,6 +184,38 @@ public ResponseEntity<EfgsProto.DiagnosisKeyBatch> downloadDiagnosisKeys(
         "Given date does is not after or equals the requested batchTag");
     }
 
+    String nextBatchTag = diagnosisKeyBatchService.getNextBatchTag(batchEntity.get());
+    if (nextBatchTag == null) {
+      nextBatchTag = "null";
+    }
+
+    ResponseEntity.BodyBuilder response = ResponseEntity
+      .ok()
+      .header(BATCHTAG_HEADER, batchTag)
+      .header(NEXT_BATCHTAG_HEADER, nextBatchTag);
+
+    boolean artifactCache = properties.getDownloadSettings().getArtifactCache().isEnabled();
+    boolean streaming = properties.getDownloadSettings().isStreaming();
+
+    // a batch which is neither cached nor precomputed is streamed or rendered for this request only
+    Optional<DiagnosisKeyBatchArtifact> artifact = artifactCache
+      ? diagnosisKeyBatchArtifactService.findArtifact(batchEntity.get(), downloaderCountry)
+      : Optional.empty();
+
+    if (artifact.isPresent()) {
+      EfgsMdc.put(MDC_PROP_NUMKEYS, artifact.get().getNumberOfKeys());
+
+      diagnosisKeyDownloadService.save(batchEntity.get().getId(), downloaderCountry, artifact.get().getNumberOfKeys());
+
+      log.info("Successful Batch Download");
+
+      return response.body(artifact.get());
+    }
+
+    if (streaming) {
+      return response.body(streamBatch(batchEntity.get(), downloaderCountry));
+    }
+
     List<DiagnosisKeyEntity> entities =
       diagnosisKeyService.getDiagnosisKeysBatchForCountry(batchTag, downloaderCountry);
 
@@ -185,20 +225,26 @@ public ResponseEntity<EfgsProto.DiagnosisKeyBatch> downloadDiagnosisKeys(
     
     EfgsMdc.put(MDC_PROP_NUMKEYS, protoBatch.getKeysCount());
 
-    String nextBatchTag = "null";
-    if (batchEntity.get().getBatchLink() != null) {
-      nextBatchTag = batchEntity.get().getBatchLink();
-    }
-
     diagnosisKeyDownloadService.save(batchEntity.get().getId(), downloaderCountry,protoBatch.getKeysCount());
 
     log.info("Successful Batch Download");
 
-    return ResponseEntity
-      .ok()
-      .header(BATCHTAG_HEADER, batchTag)
-      .header(NEXT_BATCHTAG_HEADER, nextBatchTag)
-      .body(protoBatch);
+    return response.body(protoBatch);
+  }
+
+  private DiagnosisKeyBatchStream streamBatch(DiagnosisKeyBatchEntity batchEntity, String downloaderCountry) {
+    return writer -> {
+      int keysCount = diagnosisKeyService.streamDiagnosisKeysBatchForCountry(
+        batchEntity.getBatchName(),
+        downloaderCountry,
+        entity -> writer.write(diagnosisKeyMapper.entityToProto(entity)));
+
+      EfgsMdc.put(MDC_PROP_NUMKEYS, keysCount);
+
+      diagnosisKeyDownloadService.save(batchEntity.getId(), downloaderCountry, keysCount);
+
+      log.info("Successful Batch Download");
+    };
   }
 
 }
@@ -21,6 +21,7 @@
 package eu.interop.federationgateway.controller;
 
 import eu.interop.federationgateway.batchsigning.BatchSignatureVerifier;
+import eu.interop.federationgateway.batchsigning.UploadProcessingContext;
 import eu.interop.federationgateway.config.EfgsProperties;
 import eu.interop.federationgateway.entity.DiagnosisKeyEntity;
 import eu.interop.federationgateway.filter.CertificateAuthentificationFilter;
@@ -167,7 +168,9 @@ public ResponseEntity<String> uploadDiagnosisKeys(
       throw new ResponseStatusException(HttpStatus.CONFLICT, "BatchTag already exists.");
     }
 
-    String signingCertThumbprint = signatureVerifier.checkBatchSignature(body, batchSignature);
+    UploadProcessingContext uploadContext = signatureVerifier.createUploadContext(body);
+
+    String signingCertThumbprint = signatureVerifier.checkBatchSignature(uploadContext, batchSignature);
     if (signingCertThumbprint == null) {
       throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid signature");
     }
@@ -180,7 +183,7 @@ public ResponseEntity<String> uploadDiagnosisKeys(
     }
 
     List<DiagnosisKeyEntity> entities = diagnosisKeyMapper.protoToEntity(
-      body.getKeysList(),
+      uploadContext,
       batchTag,
       batchSignature,
       uploaderCertThumbprint,
@@ -37,6 +37,10 @@ public class DbEncryptionByteArrayConverter implements AttributeConverter<byte[]
 
   @Override
   public String convertToDatabaseColumn(byte[] s) {
+    if (s == null) {
+      return null;
+    }
+
     try {
       return dbEncryptionService.encryptByteArray(s);
     } catch (InvalidAlgorithmParameterException | InvalidKeyException 
@@ -47,6 +51,10 @@ public String convertToDatabaseColumn(byte[] s) {
 
   @Override
   public byte[] convertToEntityAttribute(String s) {
+    if (s == null) {
+      return null;
+    }
+
     try {
       return dbEncryptionService.decryptByteArray(s);
     } catch (InvalidAlgorithmParameterException | InvalidKeyException 
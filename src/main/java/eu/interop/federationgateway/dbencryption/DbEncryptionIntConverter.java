@@ -37,6 +37,10 @@ public class DbEncryptionIntConverter implements AttributeConverter<Integer, Str
 
   @Override
   public String convertToDatabaseColumn(Integer s) {
+    if (s == null) {
+      return null;
+    }
+
     try {
       return dbEncryptionService.encryptInteger(s);
     } catch (InvalidAlgorithmParameterException | InvalidKeyException 
@@ -47,6 +51,10 @@ public String convertToDatabaseColumn(Integer s) {
 
   @Override
   public Integer convertToEntityAttribute(String s) {
+    if (s == null) {
+      return null;
+    }
+
     try {
       return dbEncryptionService.decryptInteger(s);
     } catch (InvalidAlgorithmParameterException | InvalidKeyException 
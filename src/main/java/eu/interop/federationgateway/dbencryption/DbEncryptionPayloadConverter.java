@@ -0,0 +1,67 @@
+/*-
+ * ---license-start
+ * EU-Federation-Gateway-Service / efgs-federation-gateway
+ * ---
+ * Copyright (C) 2020 - 2022 T-Systems International GmbH and all other contributors
+ * ---
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ---license-end
+ */
+
+package eu.interop.federationgateway.dbencryption;
+
+import eu.interop.federationgateway.entity.DiagnosisKeyPayload;
+import jakarta.persistence.AttributeConverter;
+import jakarta.persistence.Converter;
+import jakarta.persistence.PersistenceException;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import javax.crypto.BadPaddingException;
+import javax.crypto.IllegalBlockSizeException;
+import lombok.RequiredArgsConstructor;
+
+@RequiredArgsConstructor
+@Converter
+public class DbEncryptionPayloadConverter implements AttributeConverter<DiagnosisKeyPayload, String> {
+
+  private final DbEncryptionService dbEncryptionService;
+
+  @Override
+  public String convertToDatabaseColumn(DiagnosisKeyPayload s) {
+    if (s == null) {
+      return null;
+    }
+
+    try {
+      return dbEncryptionService.encryptByteArray(s.toPackedBytes());
+    } catch (InvalidAlgorithmParameterException | InvalidKeyException
+            | BadPaddingException | IllegalBlockSizeException e) {
+      throw new PersistenceException(e);
+    }
+  }
+
+  @Override
+  public DiagnosisKeyPayload convertToEntityAttribute(String s) {
+    if (s == null) {
+      return null;
+    }
+
+    try {
+      return DiagnosisKeyPayload.fromPackedBytes(dbEncryptionService.decryptByteArray(s));
+    } catch (InvalidAlgorithmParameterException | InvalidKeyException
+            | BadPaddingException | IllegalBlockSizeException e) {
+      throw new PersistenceException(e);
+    }
+  }
+
+}
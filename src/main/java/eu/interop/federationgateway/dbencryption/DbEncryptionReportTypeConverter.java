@@ -38,6 +38,10 @@ public class DbEncryptionReportTypeConverter implements AttributeConverter<Diagn
   
   @Override
   public String convertToDatabaseColumn(DiagnosisKeyPayload.ReportType s) {
+    if (s == null) {
+      return null;
+    }
+
     try {
       return dbEncryptionService.encryptString(s.name());
     } catch (InvalidAlgorithmParameterException | InvalidKeyException 
@@ -48,6 +52,10 @@ public String convertToDatabaseColumn(DiagnosisKeyPayload.ReportType s) {
 
   @Override
   public DiagnosisKeyPayload.ReportType convertToEntityAttribute(String s) {
+    if (s == null) {
+      return null;
+    }
+
     try {
       return DiagnosisKeyPayload.ReportType.valueOf(dbEncryptionService.decryptString(s));
     } catch (InvalidAlgorithmParameterException | InvalidKeyException 
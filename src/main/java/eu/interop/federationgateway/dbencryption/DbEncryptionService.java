@@ -27,7 +27,9 @@
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.Key;
+import java.util.ArrayList;
 import java.util.Base64;
+import java.util.List;
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
@@ -42,16 +44,18 @@
 public class DbEncryptionService {
 
   private static final Charset CHARSET = StandardCharsets.UTF_8;
-  private final Cipher cipher;
+  private static final IvParameterSpec INITIALIZATION_VECTOR =
+    new IvParameterSpec("WnU2IQhlAAN@bK~L".getBytes(CHARSET));
+  private final ThreadLocal<Cipher> encryptCiphers = new ThreadLocal<>();
+  private final ThreadLocal<Cipher> decryptCiphers = new ThreadLocal<>();
   private final Key key;
 
   /**
    * Constructor for DbEncryptionService.
-   * Initializes Cipher with ciphersuite configured in application properties.
+   * Every thread gets its own pair of ciphers, which are initialized once with the configured key and reused for
+   * all following calls, so encryption does not need any lock.
    */
   private DbEncryptionService(EfgsProperties efgsProperties) {
-    cipher = AesBytesEncryptor.CipherAlgorithm.CBC.createCipher();
-
     if (efgsProperties.getDbEncryption().getPassword() != null) {
       int passwordLength = efgsProperties.getDbEncryption().getPassword().length();
       if (passwordLength != 16 && passwordLength != 24 && passwordLength != 32) {
@@ -160,23 +164,91 @@ public String encryptByteArray(byte[] plain)
     return Base64.getEncoder().encodeToString(encrypt(plain));
   }
 
-  private byte[] decrypt(byte[] encrypted)
+  /**
+   * Encrypts and base 64 encodes all given ByteArrays with the cipher of the calling thread.
+   *
+   * @param plain the plain ByteArrays.
+   * @return encrypted strings in the order of the given ByteArrays.
+   * @throws InvalidKeyException if the given key is inappropriate for initializing this cipher
+   * @throws BadPaddingException if this cipher is in decryption mode, and (un)padding has been requested,
+   *     but the decrypted data is not bounded by the appropriate padding bytes
+   * @throws IllegalBlockSizeException if this cipher is a block cipher,
+   *     no padding has been requested (only in encryption mode), and the total input length
+   *     of the data processed by this cipher is not a multiple of block size;
+   * @throws InvalidAlgorithmParameterException if the given algorithm parameters are inappropriate for this cipher
+   */
+  public List<String> encryptAll(List<byte[]> plain)
+    throws InvalidKeyException, BadPaddingException, IllegalBlockSizeException, InvalidAlgorithmParameterException {
+    Cipher cipher = getCipher(encryptCiphers, Cipher.ENCRYPT_MODE);
+    List<String> encrypted = new ArrayList<>(plain.size());
+
+    for (byte[] value : plain) {
+      encrypted.add(Base64.getEncoder().encodeToString(doFinal(cipher, encryptCiphers, value)));
+    }
+
+    return encrypted;
+  }
+
+  /**
+   * Decrypts all given AES-256 encrypted and base64 encoded Strings with the cipher of the calling thread.
+   *
+   * @param encrypted the encrypted strings
+   * @return decrypted ByteArrays in the order of the given strings.
+   * @throws InvalidKeyException if the given key is inappropriate for initializing this cipher
+   * @throws BadPaddingException if this cipher is in decryption mode, and (un)padding has been requested,
+   *     but the decrypted data is not bounded by the appropriate padding bytes
+   * @throws IllegalBlockSizeException if this cipher is a block cipher,
+   *     no padding has been requested (only in encryption mode), and the total input length
+   *     of the data processed by this cipher is not a multiple of block size;
+   * @throws InvalidAlgorithmParameterException if the given algorithm parameters are inappropriate for this cipher
+   */
+  public List<byte[]> decryptAll(List<String> encrypted)
     throws InvalidKeyException, BadPaddingException, IllegalBlockSizeException, InvalidAlgorithmParameterException {
-    synchronized (cipher) {
-      cipher.init(Cipher.DECRYPT_MODE, key, getInitializationVector());
-      return cipher.doFinal(encrypted);
+    Cipher cipher = getCipher(decryptCiphers, Cipher.DECRYPT_MODE);
+    List<byte[]> decrypted = new ArrayList<>(encrypted.size());
+
+    for (String value : encrypted) {
+      decrypted.add(doFinal(cipher, decryptCiphers, Base64.getDecoder().decode(value)));
     }
+
+    return decrypted;
+  }
+
+  private byte[] decrypt(byte[] encrypted)
+    throws InvalidKeyException, BadPaddingException, IllegalBlockSizeException, InvalidAlgorithmParameterException {
+    return doFinal(getCipher(decryptCiphers, Cipher.DECRYPT_MODE), decryptCiphers, encrypted);
   }
 
   private byte[] encrypt(byte[] plain)
     throws InvalidKeyException, BadPaddingException, IllegalBlockSizeException, InvalidAlgorithmParameterException {
-    synchronized (cipher) {
-      cipher.init(Cipher.ENCRYPT_MODE, key, getInitializationVector());
-      return cipher.doFinal(plain);
+    return doFinal(getCipher(encryptCiphers, Cipher.ENCRYPT_MODE), encryptCiphers, plain);
+  }
+
+  /**
+   * Returns the cipher of the calling thread. A cipher is initialized only once, because
+   * {@link Cipher#doFinal(byte[])} resets it to the initialized state with the same key and initialization vector.
+   */
+  private Cipher getCipher(ThreadLocal<Cipher> ciphers, int mode)
+    throws InvalidKeyException, InvalidAlgorithmParameterException {
+    Cipher cipher = ciphers.get();
+
+    if (cipher == null) {
+      cipher = AesBytesEncryptor.CipherAlgorithm.CBC.createCipher();
+      cipher.init(mode, key, INITIALIZATION_VECTOR);
+      ciphers.set(cipher);
     }
+
+    return cipher;
   }
 
-  private IvParameterSpec getInitializationVector() {
-    return new IvParameterSpec("WnU2IQhlAAN@bK~L".getBytes(CHARSET));
+  private byte[] doFinal(Cipher cipher, ThreadLocal<Cipher> ciphers, byte[] input)
+    throws BadPaddingException, IllegalBlockSizeException {
+    try {
+      return cipher.doFinal(input);
+    } catch (BadPaddingException | IllegalBlockSizeException | RuntimeException e) {
+      // do not reuse a cipher whose state is unknown after a failed operation
+      ciphers.remove();
+      throw e;
+    }
   }
 }
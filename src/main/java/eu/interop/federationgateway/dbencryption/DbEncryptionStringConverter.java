@@ -37,6 +37,10 @@ public class DbEncryptionStringConverter implements AttributeConverter<String, S
 
   @Override
   public String convertToDatabaseColumn(String s) {
+    if (s == null) {
+      return null;
+    }
+
     try {
       return dbEncryptionService.encryptString(s);
     } catch (InvalidAlgorithmParameterException | InvalidKeyException 
@@ -47,6 +51,10 @@ public String convertToDatabaseColumn(String s) {
 
   @Override
   public String convertToEntityAttribute(String s) {
+    if (s == null) {
+      return null;
+    }
+
     try {
       return dbEncryptionService.decryptString(s);
     } catch (InvalidAlgorithmParameterException | InvalidKeyException 
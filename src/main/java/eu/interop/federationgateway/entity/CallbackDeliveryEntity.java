@@ -26,7 +26,6 @@
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
 import jakarta.persistence.JoinColumn;
-import jakarta.persistence.ManyToOne;
 import jakarta.persistence.OneToOne;
 import jakarta.persistence.Table;
 import java.time.ZonedDateTime;
@@ -34,12 +33,17 @@
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
+/**
+ * This class represents the delivery state of a callback subscription - entity.
+ * The subscription is notified about every callback outbox event with an id greater than the last acknowledged one,
+ * in the order of the event ids.
+ */
 @Data
 @AllArgsConstructor
 @NoArgsConstructor
 @Entity
-@Table(name = "callback_task")
-public class CallbackTaskEntity {
+@Table(name = "callback_delivery")
+public class CallbackDeliveryEntity {
 
   @Id
   @GeneratedValue(strategy = GenerationType.IDENTITY)
@@ -49,6 +53,13 @@ public class CallbackTaskEntity {
   @Column(name = "created_at")
   private ZonedDateTime createdAt;
 
+  @OneToOne
+  @JoinColumn(name = "subscription_id")
+  private CallbackSubscriptionEntity callbackSubscription;
+
+  @Column(name = "last_event_id")
+  private long lastEventId;
+
   @Column(name = "execution_lock")
   private ZonedDateTime executionLock;
 
@@ -58,15 +69,9 @@ public class CallbackTaskEntity {
   @Column(name = "retries")
   private int retries;
 
-  @OneToOne
-  @JoinColumn(name = "not_before_id")
-  private CallbackTaskEntity notBefore;
-
-  @ManyToOne
-  @JoinColumn(name = "batch_id")
-  private DiagnosisKeyBatchEntity batch;
+  @Column(name = "next_try")
+  private ZonedDateTime nextTry;
 
-  @ManyToOne
-  @JoinColumn(name = "subscription_id")
-  private CallbackSubscriptionEntity callbackSubscription;
+  @Column(name = "last_status_code")
+  private Integer lastStatusCode;
 }
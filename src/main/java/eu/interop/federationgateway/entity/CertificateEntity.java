@@ -22,6 +22,7 @@
 
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
+import jakarta.persistence.EntityListeners;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
@@ -39,6 +40,7 @@
 @NoArgsConstructor
 @AllArgsConstructor
 @Entity
+@EntityListeners(CertificateEntityListener.class)
 @Table(name = "certificate")
 public class CertificateEntity implements Serializable {
 
@@ -0,0 +1,72 @@
+/*-
+ * ---license-start
+ * EU-Federation-Gateway-Service / efgs-federation-gateway
+ * ---
+ * Copyright (C) 2020 - 2022 T-Systems International GmbH and all other contributors
+ * ---
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ---license-end
+ */
+
+package eu.interop.federationgateway.entity;
+
+import eu.interop.federationgateway.service.CertificateService;
+import jakarta.persistence.PostPersist;
+import jakarta.persistence.PostRemove;
+import jakarta.persistence.PostUpdate;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Evicts the cached lookups of a certificate from the {@link CertificateService} whenever the certificate is added,
+ * changed or deleted. Within a transaction the lookups are evicted again after its completion, so no lookup running
+ * concurrently to the transaction caches the previous state.
+ */
+@RequiredArgsConstructor
+public class CertificateEntityListener {
+
+  private final ObjectProvider<CertificateService> certificateServiceProvider;
+
+  /**
+   * Evicts the cached lookups of the changed certificate.
+   *
+   * @param certificate the changed certificate.
+   */
+  @PostPersist
+  @PostUpdate
+  @PostRemove
+  public void evictCachedCertificate(CertificateEntity certificate) {
+    CertificateService certificateService = certificateServiceProvider.getIfAvailable();
+    if (certificateService == null) {
+      return;
+    }
+
+    CertificateEntity changedCertificate = new CertificateEntity();
+    changedCertificate.setId(certificate.getId());
+    changedCertificate.setThumbprint(certificate.getThumbprint());
+
+    certificateService.evictCertificate(changedCertificate);
+
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+        @Override
+        public void afterCompletion(int status) {
+          certificateService.evictCertificate(changedCertificate);
+        }
+      });
+    }
+  }
+
+}
@@ -0,0 +1,77 @@
+/*-
+ * ---license-start
+ * EU-Federation-Gateway-Service / efgs-federation-gateway
+ * ---
+ * Copyright (C) 2020 - 2022 T-Systems International GmbH and all other contributors
+ * ---
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ---license-end
+ */
+
+package eu.interop.federationgateway.entity;
+
+import eu.interop.federationgateway.dbencryption.DbEncryptionByteArrayConverter;
+import jakarta.persistence.Column;
+import jakarta.persistence.Convert;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Lob;
+import jakarta.persistence.Table;
+import java.io.Serializable;
+import java.time.ZonedDateTime;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * This class represents a precomputed download of a batch - entity.
+ * The keys uploaded by the given country are excluded, if the country is null the artifact contains all keys.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@Table(name = "diagnosiskeybatchartifact")
+public class DiagnosisKeyBatchArtifactEntity implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  @Id
+  @GeneratedValue(strategy = GenerationType.IDENTITY)
+  @Column(name = "id")
+  private Long id;
+
+  @Column(name = "created_at")
+  private ZonedDateTime createdAt;
+
+  @Column(name = "batch_id")
+  private Long batchId;
+
+  @Column(name = "country")
+  private String country;
+
+  @Column(name = "number_of_keys")
+  private Integer numberOfKeys;
+
+  @Lob
+  @Column(name = "protobuf")
+  @Convert(converter = DbEncryptionByteArrayConverter.class)
+  private byte[] protobuf;
+
+  @Lob
+  @Column(name = "json")
+  @Convert(converter = DbEncryptionByteArrayConverter.class)
+  private byte[] json;
+}
@@ -20,19 +20,26 @@
 
 package eu.interop.federationgateway.entity;
 
+import eu.interop.federationgateway.dbencryption.DbEncryptionPayloadConverter;
 import io.swagger.v3.oas.annotations.media.Schema;
+import jakarta.persistence.CascadeType;
 import jakarta.persistence.Column;
+import jakarta.persistence.Convert;
 import jakarta.persistence.Embedded;
 import jakarta.persistence.Entity;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.JoinColumn;
+import jakarta.persistence.ManyToOne;
 import jakarta.persistence.Table;
 import java.io.Serializable;
 import java.time.ZonedDateTime;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import org.hibernate.annotations.Mutability;
+import org.hibernate.type.descriptor.java.Immutability;
 
 /**
  * This class represents the Diagnosis Key.
@@ -57,20 +64,86 @@ public class DiagnosisKeyEntity implements Serializable {
   @Column(name = "created_at")
   private ZonedDateTime createdAt;
 
-  @Column(name = "batchTag")
-  private String batchTag;
-
   @Column(name = "payloadHash", unique = true)
   private String payloadHash;
 
-  @Embedded
+  /**
+   * The payload, stored encrypted in one packed column. The payload is treated as immutable value, to change it a new
+   * payload has to be set.
+   */
+  @Column(name = "payload_packed")
+  @Convert(converter = DbEncryptionPayloadConverter.class)
+  @Mutability(Immutability.class)
   private DiagnosisKeyPayload payload;
 
   @Embedded
   private FormatInformation format;
 
+  /**
+   * The upload containing the key. The information about the uploader is stored once per upload instead of in every
+   * key.
+   */
+  @ManyToOne(cascade = {CascadeType.PERSIST, CascadeType.MERGE})
+  @JoinColumn(name = "upload_id")
+  private DiagnosisKeyUploadInformationEntity upload;
+
   @Embedded
-  private UploaderInformation uploader;
+  private LegacyDiagnosisKeyPayload legacyPayload;
+
+  /**
+   * Creates a new diagnosis key with a packed payload.
+   */
+  public DiagnosisKeyEntity(Long id, ZonedDateTime createdAt, String payloadHash,
+                            DiagnosisKeyPayload payload, FormatInformation format, UploaderInformation uploader) {
+    this(id, createdAt, payloadHash, payload, format, null, null);
+    setUploader(uploader);
+  }
+
+  /**
+   * Returns the information about the uploader of the key.
+   *
+   * @return the uploader information of the upload containing the key.
+   */
+  public UploaderInformation getUploader() {
+    return upload == null ? null : upload.getUploader();
+  }
+
+  /**
+   * Sets the information about the uploader of the key. The key is assigned to a new upload with this information.
+   *
+   * @param uploader the uploader information.
+   */
+  public void setUploader(UploaderInformation uploader) {
+    upload = uploader == null ? null : new DiagnosisKeyUploadInformationEntity(null, createdAt, uploader);
+  }
+
+  /**
+   * Returns the payload of the key. For keys which are still stored in the legacy layout the payload is read from the
+   * legacy columns.
+   *
+   * @return the payload.
+   */
+  public DiagnosisKeyPayload getPayload() {
+    if (payload == null && legacyPayload != null) {
+      return legacyPayload.toPayload();
+    }
+    return payload;
+  }
+
+  /**
+   * Moves the payload of a key stored in the legacy layout into the packed column.
+   *
+   * @return true if the payload was moved, false if the key already used the packed layout.
+   */
+  public boolean repackLegacyPayload() {
+    if (payload != null || legacyPayload == null) {
+      return false;
+    }
+
+    payload = legacyPayload.toPayload();
+    legacyPayload = null;
+    return true;
+  }
 
 }
 
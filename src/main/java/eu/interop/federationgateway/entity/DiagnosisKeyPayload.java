@@ -20,56 +20,137 @@
 
 package eu.interop.federationgateway.entity;
 
-import eu.interop.federationgateway.dbencryption.DbEncryptionByteArrayConverter;
-import eu.interop.federationgateway.dbencryption.DbEncryptionIntConverter;
-import eu.interop.federationgateway.dbencryption.DbEncryptionReportTypeConverter;
-import eu.interop.federationgateway.dbencryption.DbEncryptionStringConverter;
-import jakarta.persistence.Column;
-import jakarta.persistence.Convert;
-import jakarta.persistence.Embeddable;
+import eu.interop.federationgateway.model.EfgsProto;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
+/**
+ * The payload of a diagnosis key. It is stored encrypted as one packed binary structure, see
+ * {@link #toPackedBytes()}. Keys stored before the packed format was introduced are read from the
+ * {@link LegacyDiagnosisKeyPayload} columns.
+ */
 @AllArgsConstructor
 @NoArgsConstructor
 @Data
-@Embeddable
 public class DiagnosisKeyPayload implements Serializable {
 
-  @Column(name = "payload_keyData")
-  @Convert(converter = DbEncryptionByteArrayConverter.class)
+  private static final byte PACKED_FORMAT_VERSION = 1;
+  private static final int NULL_LENGTH = -1;
+
   private byte[] keyData;
 
-  @Column(name = "payload_rollingStartIntervalNumber")
-  @Convert(converter = DbEncryptionIntConverter.class)
   private int rollingStartIntervalNumber;
 
-  @Column(name = "payload_rollingPeriod")
-  @Convert(converter = DbEncryptionIntConverter.class)
   private int rollingPeriod;
 
-  @Column(name = "payload_transmissionRiskLevel")
-  @Convert(converter = DbEncryptionIntConverter.class)
   private int transmissionRiskLevel;
 
-  @Column(name = "payload_visitedCountries")
-  @Convert(converter = DbEncryptionStringConverter.class)
   private String visitedCountries;
 
-  @Column(name = "payload_origin")
-  @Convert(converter = DbEncryptionStringConverter.class)
   private String origin;
 
-  @Column(name = "payload_reportType")
-  @Convert(converter = DbEncryptionReportTypeConverter.class)
   private ReportType reportType;
 
-  @Column(name = "payload_daysSinceOnsetOfSymptoms")
-  @Convert(converter = DbEncryptionIntConverter.class)
   private int daysSinceOnsetOfSymptoms;
 
+  /**
+   * Packs the payload into one binary structure: a format version byte, the four int fields, the protobuf number of
+   * the report type and the length prefixed key data, visited countries and origin. The protobuf number is stable
+   * across reorderings of the enum constants.
+   *
+   * @return the packed payload.
+   */
+  public byte[] toPackedBytes() {
+    byte[] visitedCountriesBytes = visitedCountries == null ? null : visitedCountries.getBytes(StandardCharsets.UTF_8);
+    byte[] originBytes = origin == null ? null : origin.getBytes(StandardCharsets.UTF_8);
+
+    ByteBuffer buffer = ByteBuffer.allocate(
+      Byte.BYTES + 4 * Integer.BYTES + Byte.BYTES
+        + packedLength(keyData) + packedLength(visitedCountriesBytes) + packedLength(originBytes));
+
+    buffer.put(PACKED_FORMAT_VERSION);
+    buffer.putInt(rollingStartIntervalNumber);
+    buffer.putInt(rollingPeriod);
+    buffer.putInt(transmissionRiskLevel);
+    buffer.putInt(daysSinceOnsetOfSymptoms);
+    buffer.put(reportType == null ? NULL_LENGTH : (byte) EfgsProto.ReportType.valueOf(reportType.name()).getNumber());
+    putBytes(buffer, keyData);
+    putBytes(buffer, visitedCountriesBytes);
+    putBytes(buffer, originBytes);
+
+    return buffer.array();
+  }
+
+  /**
+   * Unpacks a payload created by {@link #toPackedBytes()}.
+   *
+   * @param packed the packed payload.
+   * @return the unpacked payload.
+   * @throws IllegalArgumentException if the packed payload has an unknown format.
+   */
+  public static DiagnosisKeyPayload fromPackedBytes(byte[] packed) {
+    ByteBuffer buffer = ByteBuffer.wrap(packed);
+
+    if (buffer.get() != PACKED_FORMAT_VERSION) {
+      throw new IllegalArgumentException("Unknown packed payload format version");
+    }
+
+    DiagnosisKeyPayload payload = new DiagnosisKeyPayload();
+    payload.setRollingStartIntervalNumber(buffer.getInt());
+    payload.setRollingPeriod(buffer.getInt());
+    payload.setTransmissionRiskLevel(buffer.getInt());
+    payload.setDaysSinceOnsetOfSymptoms(buffer.getInt());
+
+    byte reportTypeNumber = buffer.get();
+    if (reportTypeNumber != NULL_LENGTH) {
+      EfgsProto.ReportType reportType = EfgsProto.ReportType.forNumber(reportTypeNumber);
+      if (reportType == null) {
+        throw new IllegalArgumentException("Unknown report type in packed payload");
+      }
+      payload.setReportType(ReportType.valueOf(reportType.name()));
+    }
+
+    payload.setKeyData(getBytes(buffer));
+    byte[] visitedCountriesBytes = getBytes(buffer);
+    payload.setVisitedCountries(
+      visitedCountriesBytes == null ? null : new String(visitedCountriesBytes, StandardCharsets.UTF_8));
+    byte[] originBytes = getBytes(buffer);
+    payload.setOrigin(originBytes == null ? null : new String(originBytes, StandardCharsets.UTF_8));
+
+    return payload;
+  }
+
+  private static int packedLength(byte[] bytes) {
+    return Short.BYTES + (bytes == null ? 0 : bytes.length);
+  }
+
+  private static void putBytes(ByteBuffer buffer, byte[] bytes) {
+    if (bytes == null) {
+      buffer.putShort((short) NULL_LENGTH);
+    } else if (bytes.length > Short.MAX_VALUE) {
+      throw new IllegalArgumentException("Payload field is too long to be packed");
+    } else {
+      buffer.putShort((short) bytes.length);
+      buffer.put(bytes);
+    }
+  }
+
+  private static byte[] getBytes(ByteBuffer buffer) {
+    short length = buffer.getShort();
+
+    if (length == NULL_LENGTH) {
+      return null;
+    }
+
+    byte[] bytes = new byte[length];
+    buffer.get(bytes);
+    return bytes;
+  }
+
   public enum ReportType {
     UNKNOWN,
     CONFIRMED_TEST,
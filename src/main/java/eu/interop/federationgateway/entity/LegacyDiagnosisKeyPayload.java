@@ -0,0 +1,97 @@
+/*-
+ * ---license-start
+ * EU-Federation-Gateway-Service / efgs-federation-gateway
+ * ---
+ * Copyright (C) 2020 - 2022 T-Systems International GmbH and all other contributors
+ * ---
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ---license-end
+ */
+
+package eu.interop.federationgateway.entity;
+
+import eu.interop.federationgateway.dbencryption.DbEncryptionByteArrayConverter;
+import eu.interop.federationgateway.dbencryption.DbEncryptionIntConverter;
+import eu.interop.federationgateway.dbencryption.DbEncryptionReportTypeConverter;
+import eu.interop.federationgateway.dbencryption.DbEncryptionStringConverter;
+import jakarta.persistence.Column;
+import jakarta.persistence.Convert;
+import jakarta.persistence.Embeddable;
+import java.io.Serializable;
+import java.util.Objects;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * The payload of a diagnosis key stored in the legacy layout, with every field encrypted in its own column.
+ * New keys are stored packed, these columns are only read until the rows are re-encoded.
+ */
+@AllArgsConstructor
+@NoArgsConstructor
+@Data
+@Embeddable
+public class LegacyDiagnosisKeyPayload implements Serializable {
+
+  @Column(name = "payload_keyData")
+  @Convert(converter = DbEncryptionByteArrayConverter.class)
+  private byte[] keyData;
+
+  @Column(name = "payload_rollingStartIntervalNumber")
+  @Convert(converter = DbEncryptionIntConverter.class)
+  private Integer rollingStartIntervalNumber;
+
+  @Column(name = "payload_rollingPeriod")
+  @Convert(converter = DbEncryptionIntConverter.class)
+  private Integer rollingPeriod;
+
+  @Column(name = "payload_transmissionRiskLevel")
+  @Convert(converter = DbEncryptionIntConverter.class)
+  private Integer transmissionRiskLevel;
+
+  @Column(name = "payload_visitedCountries")
+  @Convert(converter = DbEncryptionStringConverter.class)
+  private String visitedCountries;
+
+  @Column(name = "payload_origin")
+  @Convert(converter = DbEncryptionStringConverter.class)
+  private String origin;
+
+  @Column(name = "payload_reportType")
+  @Convert(converter = DbEncryptionReportTypeConverter.class)
+  private DiagnosisKeyPayload.ReportType reportType;
+
+  @Column(name = "payload_daysSinceOnsetOfSymptoms")
+  @Convert(converter = DbEncryptionIntConverter.class)
+  private Integer daysSinceOnsetOfSymptoms;
+
+  /**
+   * Converts the legacy payload into a {@link DiagnosisKeyPayload}. The legacy columns are nullable, missing numbers
+   * become 0 like unset fields of a protobuf key.
+   *
+   * @return the payload.
+   */
+  public DiagnosisKeyPayload toPayload() {
+    return new DiagnosisKeyPayload(
+      keyData,
+      Objects.requireNonNullElse(rollingStartIntervalNumber, 0),
+      Objects.requireNonNullElse(rollingPeriod, 0),
+      Objects.requireNonNullElse(transmissionRiskLevel, 0),
+      visitedCountries,
+      origin,
+      reportType,
+      Objects.requireNonNullElse(daysSinceOnsetOfSymptoms, 0)
+    );
+  }
+
+}
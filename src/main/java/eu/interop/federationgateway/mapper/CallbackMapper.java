@@ -20,18 +20,24 @@
 
 package eu.interop.federationgateway.mapper;
 
+import eu.interop.federationgateway.entity.CallbackDeliveryEntity;
 import eu.interop.federationgateway.entity.CallbackSubscriptionEntity;
 import eu.interop.federationgateway.model.Callback;
+import eu.interop.federationgateway.model.CallbackDeliveryStatus;
 import java.util.List;
 import org.mapstruct.Mapper;
+import org.mapstruct.Mapping;
 
 @Mapper(componentModel = "spring")
 public interface CallbackMapper {
 
   CallbackSubscriptionEntity callbackToEntity(String callbackId, String url, String country);
 
+  @Mapping(target = "deliveryStatus", ignore = true)
   Callback entityToCallback(CallbackSubscriptionEntity entity);
 
   List<Callback> entityToCallback(List<CallbackSubscriptionEntity> callbackEntities);
 
+  CallbackDeliveryStatus deliveryToStatus(CallbackDeliveryEntity entity);
+
 }
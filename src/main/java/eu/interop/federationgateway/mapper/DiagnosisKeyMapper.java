@@ -22,21 +22,21 @@
 
 import com.google.protobuf.ByteString;
 import eu.interop.federationgateway.batchsigning.BatchSignatureUtils;
+import eu.interop.federationgateway.batchsigning.CanonicalKeyEncoder;
+import eu.interop.federationgateway.batchsigning.UploadProcessingContext;
 import eu.interop.federationgateway.entity.DiagnosisKeyEntity;
 import eu.interop.federationgateway.entity.DiagnosisKeyPayload;
 import eu.interop.federationgateway.entity.FormatInformation;
 import eu.interop.federationgateway.entity.UploaderInformation;
 import eu.interop.federationgateway.model.EfgsProto;
+import eu.interop.federationgateway.utils.HashUtils;
 import eu.interop.federationgateway.utils.SemVerUtils;
-import java.math.BigInteger;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
-import java.util.stream.Collectors;
+import java.util.concurrent.ForkJoinPool;
 import lombok.extern.slf4j.Slf4j;
 import org.mapstruct.Mapper;
 import org.mapstruct.MappingConstants;
@@ -69,46 +69,18 @@ public DiagnosisKeyEntity protoToEntity(
     String certificateCountry,
     MediaType format
   ) {
-    DiagnosisKeyEntity entity = new DiagnosisKeyEntity();
-
-    try {
-      SemVerUtils.SemVer semVer = SemVerUtils.parseSemVer(Objects.requireNonNull(format.getParameter("version")));
-      entity.setFormat(new FormatInformation(
-        semVer.getMajor(),
-        semVer.getMinor()
-      ));
-    } catch (SemVerUtils.SemVerParsingException e) {
-      log.error("Could not parse semver from content type!");
-    }
-
-    entity.setPayload(new DiagnosisKeyPayload(
-      proto.getKeyData().toByteArray(),
-      proto.getRollingStartIntervalNumber(),
-      proto.getRollingPeriod(),
-      proto.getTransmissionRiskLevel(),
-      String.join(",", proto.getVisitedCountriesList()),
-      proto.getOrigin(),
-      mapReportType(proto.getReportType()),
-      proto.getDaysSinceOnsetOfSymptoms()
-    ));
-
-    entity.setUploader(new UploaderInformation(
+    DiagnosisKeyEntity entity = toEntityWithoutPayloadHash(
+      proto,
       uploadBatchTag,
       uploadBatchSignature,
       certificateThumbprint,
       signingThumbprint,
-      certificateCountry
-    ));
+      certificateCountry,
+      format
+    );
 
-    try {
-      byte[] hash = MessageDigest.getInstance("SHA-256").digest(
-        BatchSignatureUtils.generateBytesToVerify(proto)
-      );
-
-      entity.setPayloadHash(new BigInteger(1, hash).toString(16));
-    } catch (NoSuchAlgorithmException e) {
-      entity.setPayloadHash(null);
-    }
+    byte[] hash = HashUtils.sha256().digest(BatchSignatureUtils.generateBytesToVerify(proto));
+    entity.setPayloadHash(HashUtils.toHexNumber(hash, 0, hash.length));
 
     return entity;
   }
@@ -134,17 +106,103 @@ public List<DiagnosisKeyEntity> protoToEntity(
     String certificateCountry,
     MediaType format
   ) {
-    return proto.stream()
-      .map(p -> protoToEntity(
-        p,
+    return protoToEntity(
+      new UploadProcessingContext(
+        EfgsProto.DiagnosisKeyBatch.newBuilder().addAllKeys(proto).build(),
+        CanonicalKeyEncoder.encode(proto, ForkJoinPool.commonPool())),
+      uploadBatchTag,
+      uploadBatchSignature,
+      certificateThumbprint,
+      signingThumbprint,
+      certificateCountry,
+      format
+    );
+  }
+
+  /**
+   * Converts the Diagnosis Keys Protobuf messages of an uploaded batch to JPA entities. The payload hashes are taken
+   * from the processing context, which already contains them from the signature verification.
+   *
+   * @param context        the processing context of the uploaded batch
+   * @param uploadBatchTag the batch tag for all messages
+   * @param uploadBatchSignature the signature of the uploaded batch
+   * @param certificateThumbprint the thumbprint of the certificate
+   * @param signingThumbprint the signing thumbprint
+   * @param certificateCountry the certificates country
+   * @param format the media type format
+   * @return set of converted entities
+   */
+  public List<DiagnosisKeyEntity> protoToEntity(
+    UploadProcessingContext context,
+    String uploadBatchTag,
+    String uploadBatchSignature,
+    String certificateThumbprint,
+    String signingThumbprint,
+    String certificateCountry,
+    MediaType format
+  ) {
+    List<EfgsProto.DiagnosisKey> proto = context.getBatch().getKeysList();
+    List<DiagnosisKeyEntity> entities = new ArrayList<>(proto.size());
+
+    for (int i = 0; i < proto.size(); i++) {
+      DiagnosisKeyEntity entity = toEntityWithoutPayloadHash(
+        proto.get(i),
         uploadBatchTag,
         uploadBatchSignature,
         certificateThumbprint,
         signingThumbprint,
         certificateCountry,
         format
-      ))
-      .collect(Collectors.toCollection(ArrayList::new));
+      );
+
+      entity.setPayloadHash(context.getPayloadHash(i));
+      entities.add(entity);
+    }
+
+    return entities;
+  }
+
+  private DiagnosisKeyEntity toEntityWithoutPayloadHash(
+    EfgsProto.DiagnosisKey proto,
+    String uploadBatchTag,
+    String uploadBatchSignature,
+    String certificateThumbprint,
+    String signingThumbprint,
+    String certificateCountry,
+    MediaType format
+  ) {
+    DiagnosisKeyEntity entity = new DiagnosisKeyEntity();
+
+    try {
+      SemVerUtils.SemVer semVer = SemVerUtils.parseSemVer(Objects.requireNonNull(format.getParameter("version")));
+      entity.setFormat(new FormatInformation(
+        semVer.getMajor(),
+        semVer.getMinor()
+      ));
+    } catch (SemVerUtils.SemVerParsingException e) {
+      log.error("Could not parse semver from content type!");
+    }
+
+    entity.setPayload(new DiagnosisKeyPayload(
+      proto.getKeyData().toByteArray(),
+      proto.getRollingStartIntervalNumber(),
+      proto.getRollingPeriod(),
+      proto.getTransmissionRiskLevel(),
+      String.join(",", proto.getVisitedCountriesList()),
+      proto.getOrigin(),
+      mapReportType(proto.getReportType()),
+      proto.getDaysSinceOnsetOfSymptoms()
+    ));
+
+    entity.setUploader(new UploaderInformation(
+      uploadBatchTag,
+      uploadBatchSignature,
+      certificateThumbprint,
+      signingThumbprint,
+      certificateCountry
+    ));
+
+    return entity;
   }
 
   /**
@@ -41,4 +41,7 @@ public class Callback {
   @Schema(example = "https://example42.com")
   private String url;
 
+  @Schema(description = "Delivery state of the callback, only present in responses.")
+  private CallbackDeliveryStatus deliveryStatus;
+
 }
@@ -0,0 +1,51 @@
+/*-
+ * ---license-start
+ * EU-Federation-Gateway-Service / efgs-federation-gateway
+ * ---
+ * Copyright (C) 2020 - 2022 T-Systems International GmbH and all other contributors
+ * ---
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ---license-end
+ */
+
+package eu.interop.federationgateway.model;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import java.time.ZonedDateTime;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+@AllArgsConstructor
+@NoArgsConstructor
+@Getter
+@Setter
+@Schema(
+  description = "Delivery state of a callback subscription."
+)
+public class CallbackDeliveryStatus {
+
+  @Schema(description = "Number of failed attempts to deliver the current callback.", example = "1")
+  private int retries;
+
+  @Schema(description = "Time of the last failed attempt.", example = "2020-07-31T11:24:43.086Z")
+  private ZonedDateTime lastTry;
+
+  @Schema(description = "Earliest time of the next attempt.", example = "2020-07-31T11:29:43.086Z")
+  private ZonedDateTime nextTry;
+
+  @Schema(description = "HTTP status code of the last failed attempt.", example = "503")
+  private Integer lastStatusCode;
+
+}
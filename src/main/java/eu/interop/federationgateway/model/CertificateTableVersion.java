@@ -0,0 +1,32 @@
+/*-
+ * ---license-start
+ * EU-Federation-Gateway-Service / efgs-federation-gateway
+ * ---
+ * Copyright (C) 2020 - 2022 T-Systems International GmbH and all other contributors
+ * ---
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ---license-end
+ */
+
+package eu.interop.federationgateway.model;
+
+/**
+ * Summarizes the certificate table, so certificates added, deleted or revoked directly in the database can be
+ * detected without loading them.
+ *
+ * @param numberOfCertificates the number of certificates
+ * @param highestId            the highest id of a certificate
+ * @param revokedIdSum         the sum of the ids of all revoked certificates
+ */
+public record CertificateTableVersion(Long numberOfCertificates, Long highestId, Long revokedIdSum) {
+}
@@ -0,0 +1,43 @@
+/*-
+ * ---license-start
+ * EU-Federation-Gateway-Service / efgs-federation-gateway
+ * ---
+ * Copyright (C) 2020 - 2022 T-Systems International GmbH and all other contributors
+ * ---
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ---license-end
+ */
+
+package eu.interop.federationgateway.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * The serialized {@link EfgsProto.DiagnosisKeyBatch} of a batch for one downloading country in all supported
+ * content types.
+ */
+@Getter
+@AllArgsConstructor
+public class DiagnosisKeyBatchArtifact {
+
+  private final byte[] protobuf;
+
+  private final byte[] json;
+
+  private final int numberOfKeys;
+
+  public long getSize() {
+    return (long) protobuf.length + json.length;
+  }
+}
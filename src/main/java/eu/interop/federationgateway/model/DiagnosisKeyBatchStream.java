@@ -0,0 +1,47 @@
+/*-
+ * ---license-start
+ * EU-Federation-Gateway-Service / efgs-federation-gateway
+ * ---
+ * Copyright (C) 2020 - 2022 T-Systems International GmbH and all other contributors
+ * ---
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ---license-end
+ */
+
+package eu.interop.federationgateway.model;
+
+import java.io.IOException;
+
+/**
+ * A {@link EfgsProto.DiagnosisKeyBatch} which is not materialized in memory but whose keys are handed one by one
+ * to a {@link KeyWriter} while the response is written.
+ */
+@FunctionalInterface
+public interface DiagnosisKeyBatchStream {
+
+  /**
+   * Passes all keys of the batch in order to the given writer.
+   *
+   * @param writer the writer which encodes the keys into the response.
+   * @throws IOException if writing a key to the response failed.
+   */
+  void writeKeys(KeyWriter writer) throws IOException;
+
+  /**
+   * Encodes a single key of a streamed batch.
+   */
+  @FunctionalInterface
+  interface KeyWriter {
+    void write(EfgsProto.DiagnosisKey key) throws IOException;
+  }
+}
@@ -0,0 +1,51 @@
+/*-
+ * ---license-start
+ * EU-Federation-Gateway-Service / efgs-federation-gateway
+ * ---
+ * Copyright (C) 2020 - 2022 T-Systems International GmbH and all other contributors
+ * ---
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ---license-end
+ */
+
+package eu.interop.federationgateway.model;
+
+import eu.interop.federationgateway.entity.FormatInformation;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * An upload whose diagnosis keys are not assigned to a batch yet.
+ */
+@Getter
+@AllArgsConstructor
+public class UnbatchedUpload {
+
+  private String uploaderBatchTag;
+
+  private int formatMajorVersion;
+
+  private int formatMinorVersion;
+
+  private int numberOfKeys;
+
+  /**
+   * The id of the upload, uploads with lower ids have been uploaded earlier.
+   */
+  private long uploadId;
+
+  public FormatInformation getFormat() {
+    return new FormatInformation(formatMajorVersion, formatMinorVersion);
+  }
+
+}
@@ -0,0 +1,69 @@
+/*-
+ * ---license-start
+ * EU-Federation-Gateway-Service / efgs-federation-gateway
+ * ---
+ * Copyright (C) 2020 - 2022 T-Systems International GmbH and all other contributors
+ * ---
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ---license-end
+ */
+
+package eu.interop.federationgateway.repository;
+
+import eu.interop.federationgateway.entity.CallbackDeliveryEntity;
+import eu.interop.federationgateway.entity.CallbackSubscriptionEntity;
+import jakarta.persistence.LockModeType;
+import jakarta.persistence.QueryHint;
+import jakarta.transaction.Transactional;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.Optional;
+import org.hibernate.jpa.SpecHints;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+
+public interface CallbackDeliveryRepository extends JpaRepository<CallbackDeliveryEntity, Long> {
+
+  /**
+   * Lock timeout hint value of Hibernate's LockOptions.SKIP_LOCKED. Dialects without SKIP LOCKED support (e.g. H2)
+   * fall back to a plain SELECT ... FOR UPDATE.
+   */
+  String SKIP_LOCKED = "-2";
+
+  @Modifying
+  @Transactional(Transactional.TxType.REQUIRED)
+  void deleteAllByCallbackSubscriptionIs(CallbackSubscriptionEntity subscriptionEntity);
+
+  @Lock(LockModeType.PESSIMISTIC_WRITE)
+  @QueryHints(@QueryHint(name = SpecHints.HINT_SPEC_LOCK_TIMEOUT, value = SKIP_LOCKED))
+  @Query("SELECT d FROM CallbackDeliveryEntity d "
+    + "WHERE (d.executionLock is null OR d.executionLock < :leaseExpiredBefore) "
+    + "AND (d.nextTry is null OR d.nextTry <= :now) "
+    + "AND EXISTS (SELECT o.id FROM CallbackOutboxEntity o WHERE o.id > d.lastEventId) ORDER BY d.id")
+  @Transactional(Transactional.TxType.MANDATORY)
+  List<CallbackDeliveryEntity> findPendingDeliveriesForUpdate(
+    @Param("now") ZonedDateTime now,
+    @Param("leaseExpiredBefore") ZonedDateTime leaseExpiredBefore,
+    Pageable pageable);
+
+  Optional<CallbackDeliveryEntity> findByCallbackSubscription(CallbackSubscriptionEntity subscriptionEntity);
+
+  @Query("SELECT MIN(d.lastEventId) FROM CallbackDeliveryEntity d")
+  Long getLowestLastEventId();
+
+}
@@ -20,35 +20,28 @@
 
 package eu.interop.federationgateway.repository;
 
-import eu.interop.federationgateway.entity.CallbackSubscriptionEntity;
-import eu.interop.federationgateway.entity.CallbackTaskEntity;
+import eu.interop.federationgateway.entity.CallbackOutboxEntity;
 import jakarta.transaction.Transactional;
-import java.time.ZonedDateTime;
 import java.util.List;
 import java.util.Optional;
-import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
-public interface CallbackTaskRepository extends JpaRepository<CallbackTaskEntity, Long> {
+public interface CallbackOutboxRepository extends JpaRepository<CallbackOutboxEntity, Long> {
 
-  @Modifying
-  @Query("UPDATE CallbackTaskEntity c SET c.executionLock = null WHERE c.executionLock < :timestamp")
-  @Transactional(Transactional.TxType.REQUIRED)
-  int removeTaskLocksOlderThan(@Param("timestamp") ZonedDateTime timestamp);
+  Optional<CallbackOutboxEntity> findFirstByIdGreaterThanOrderByIdAsc(long id);
+
+  @Query("SELECT o FROM CallbackOutboxEntity o JOIN FETCH o.batch WHERE o.id > :after AND o.id <= :upTo")
+  List<CallbackOutboxEntity> findAllWithBatchByIdBetween(@Param("after") long after, @Param("upTo") long upTo);
 
-  CallbackTaskEntity findFirstByCallbackSubscriptionIsOrderByCreatedAtDesc(CallbackSubscriptionEntity subscription);
+  @Query("SELECT MAX(o.id) FROM CallbackOutboxEntity o")
+  Long getLastEventId();
 
   @Modifying
+  @Query("DELETE FROM CallbackOutboxEntity o WHERE o.id <= :id")
   @Transactional(Transactional.TxType.REQUIRED)
-  void deleteAllByCallbackSubscriptionIs(CallbackSubscriptionEntity subscriptionEntity);
-
-  @Query("SELECT t FROM CallbackTaskEntity t WHERE t.notBefore is null "
-    + " AND t.executionLock is null AND (t.lastTry is null OR t.lastTry < :lastTry)")
-  List<CallbackTaskEntity> findNextPendingCallbackTask(@Param("lastTry") ZonedDateTime lastTry, Pageable pageable);
-
-  Optional<CallbackTaskEntity> findFirstByNotBeforeIs(CallbackTaskEntity callbackTaskEntity);
+  int deleteByIdLessThanEqual(@Param("id") long id);
 
 }
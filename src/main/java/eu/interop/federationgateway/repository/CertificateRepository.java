@@ -21,8 +21,10 @@
 package eu.interop.federationgateway.repository;
 
 import eu.interop.federationgateway.entity.CertificateEntity;
+import eu.interop.federationgateway.model.CertificateTableVersion;
 import java.util.Optional;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 
 public interface CertificateRepository extends JpaRepository<CertificateEntity, Long> {
 
@@ -31,4 +33,8 @@ Optional<CertificateEntity> getFirstByThumbprintAndCountryAndType(
 
   Optional<CertificateEntity> getFirstByThumbprintAndType(String thumbprint, CertificateEntity.CertificateType type);
 
+  @Query("SELECT new eu.interop.federationgateway.model.CertificateTableVersion("
+    + "COUNT(c), MAX(c.id), SUM(CASE WHEN c.revoked = true THEN c.id ELSE 0L END)) FROM CertificateEntity c")
+  CertificateTableVersion getCertificateTableVersion();
+
 }
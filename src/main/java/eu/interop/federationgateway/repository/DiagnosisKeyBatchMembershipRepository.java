@@ -0,0 +1,80 @@
+/*-
+ * ---license-start
+ * EU-Federation-Gateway-Service / efgs-federation-gateway
+ * ---
+ * Copyright (C) 2020 - 2022 T-Systems International GmbH and all other contributors
+ * ---
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ---license-end
+ */
+
+package eu.interop.federationgateway.repository;
+
+import eu.interop.federationgateway.entity.DiagnosisKeyBatchMembershipEntity;
+import eu.interop.federationgateway.entity.FormatInformation;
+import eu.interop.federationgateway.model.UnbatchedUpload;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.Optional;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Isolation;
+import org.springframework.transaction.annotation.Transactional;
+
+@Transactional(isolation = Isolation.READ_COMMITTED)
+public interface DiagnosisKeyBatchMembershipRepository
+  extends JpaRepository<DiagnosisKeyBatchMembershipEntity, Long> {
+
+  Optional<DiagnosisKeyBatchMembershipEntity> findFirstByUploaderBatchTag(String uploaderBatchTag);
+
+  @Query("SELECT new eu.interop.federationgateway.model.UnbatchedUpload("
+    + "m.uploaderBatchTag, m.formatMajorVersion, m.formatMinorVersion, m.numberOfKeys, m.id) "
+    + "FROM DiagnosisKeyBatchMembershipEntity m WHERE m.batchTag IS NULL ORDER BY m.id ASC")
+  List<UnbatchedUpload> getUnbatchedUploads();
+
+  @Query("SELECT new eu.interop.federationgateway.model.UnbatchedUpload("
+    + "m.uploaderBatchTag, m.formatMajorVersion, m.formatMinorVersion, m.numberOfKeys, m.id) "
+    + "FROM DiagnosisKeyBatchMembershipEntity m WHERE m.batchTag IS NULL "
+    + "AND m.formatMajorVersion = :majorVersion AND m.formatMinorVersion = :minorVersion "
+    + "AND MOD(m.id, :shards) = :shard ORDER BY m.id ASC")
+  List<UnbatchedUpload> getUnbatchedUploadsOfShard(
+    @Param("majorVersion") int majorVersion,
+    @Param("minorVersion") int minorVersion,
+    @Param("shards") long shards,
+    @Param("shard") long shard);
+
+  @Query("SELECT DISTINCT new eu.interop.federationgateway.entity.FormatInformation("
+    + "m.formatMajorVersion, m.formatMinorVersion) "
+    + "FROM DiagnosisKeyBatchMembershipEntity m WHERE m.batchTag IS NULL")
+  List<FormatInformation> getFormatsOfUnbatchedUploads();
+
+  @Query("SELECT COALESCE(SUM(m.numberOfKeys), 0) FROM DiagnosisKeyBatchMembershipEntity m WHERE m.batchTag IS NULL")
+  long countUnbatchedKeys();
+
+  @Query("SELECT MIN(m.createdAt) FROM DiagnosisKeyBatchMembershipEntity m WHERE m.batchTag IS NULL")
+  ZonedDateTime getOldestUnbatchedUploadTime();
+
+  @Modifying
+  @Query("UPDATE DiagnosisKeyBatchMembershipEntity m SET m.batchTag = :batchTag "
+    + "WHERE m.uploaderBatchTag IN :uploaderBatchTags AND m.batchTag IS NULL")
+  int setBatchTagByUploaderBatchTag(
+    @Param("uploaderBatchTags") List<String> uploaderBatchTags,
+    @Param("batchTag") String batchTag);
+
+  @Modifying
+  @Query("DELETE FROM DiagnosisKeyBatchMembershipEntity m WHERE m.createdAt < :before")
+  int deleteByCreatedAtBefore(@Param("before") ZonedDateTime before);
+
+}
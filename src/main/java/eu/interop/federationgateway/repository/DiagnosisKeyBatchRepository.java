@@ -22,7 +22,9 @@
 
 import eu.interop.federationgateway.entity.DiagnosisKeyBatchEntity;
 import java.time.ZonedDateTime;
+import java.util.List;
 import java.util.Optional;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
@@ -41,7 +43,22 @@ public interface DiagnosisKeyBatchRepository extends JpaRepository<DiagnosisKeyB
 
   Optional<DiagnosisKeyBatchEntity> findByBatchLink(String name);
 
-  Optional<DiagnosisKeyBatchEntity> findTopByOrderByCreatedAtDesc();
+  /**
+   * Gets the tags of the batches of a day which follow the given tag, ordered by their sequence number. The sequence
+   * numbers are not zero padded, so the tags are ordered by their length first.
+   */
+  @Query("SELECT b.batchName FROM DiagnosisKeyBatchEntity b WHERE b.batchName LIKE CONCAT(:prefix, '%') "
+    + "AND (LENGTH(b.batchName) > LENGTH(:batchName) "
+    + "OR (LENGTH(b.batchName) = LENGTH(:batchName) AND b.batchName > :batchName)) "
+    + "ORDER BY LENGTH(b.batchName) ASC, b.batchName ASC")
+  List<String> findBatchNamesOfDayAfter(
+    @Param("prefix") String prefix,
+    @Param("batchName") String batchName,
+    Pageable pageable);
+
+  @Query("SELECT b.batchName FROM DiagnosisKeyBatchEntity b WHERE b.batchName LIKE CONCAT(:prefix, '%') "
+    + "ORDER BY LENGTH(b.batchName) DESC, b.batchName DESC")
+  List<String> findLastBatchNamesOfDay(@Param("prefix") String prefix, Pageable pageable);
 
   Optional<DiagnosisKeyBatchEntity> findFirstByCreatedAtIsGreaterThanOrderByCreatedAtAsc(ZonedDateTime begin);
 }
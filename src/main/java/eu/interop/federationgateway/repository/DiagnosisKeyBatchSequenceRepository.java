@@ -0,0 +1,47 @@
+/*-
+ * ---license-start
+ * EU-Federation-Gateway-Service / efgs-federation-gateway
+ * ---
+ * Copyright (C) 2020 - 2022 T-Systems International GmbH and all other contributors
+ * ---
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ---license-end
+ */
+
+package eu.interop.federationgateway.repository;
+
+import eu.interop.federationgateway.entity.DiagnosisKeyBatchSequenceEntity;
+import java.time.LocalDate;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Isolation;
+import org.springframework.transaction.annotation.Transactional;
+
+@Transactional(isolation = Isolation.READ_COMMITTED)
+public interface DiagnosisKeyBatchSequenceRepository extends JpaRepository<DiagnosisKeyBatchSequenceEntity, LocalDate> {
+
+  @Modifying
+  @Query("UPDATE DiagnosisKeyBatchSequenceEntity s SET s.lastSequence = s.lastSequence + 1 "
+    + "WHERE s.batchDate = :batchDate")
+  int incrementLastSequence(@Param("batchDate") LocalDate batchDate);
+
+  @Query("SELECT s.lastSequence FROM DiagnosisKeyBatchSequenceEntity s WHERE s.batchDate = :batchDate")
+  int getLastSequence(@Param("batchDate") LocalDate batchDate);
+
+  @Modifying
+  @Query("DELETE FROM DiagnosisKeyBatchSequenceEntity s WHERE s.batchDate < :before")
+  int deleteByBatchDateBefore(@Param("before") LocalDate before);
+
+}
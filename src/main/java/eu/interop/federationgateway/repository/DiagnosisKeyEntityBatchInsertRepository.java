@@ -0,0 +1,45 @@
+/*-
+ * ---license-start
+ * EU-Federation-Gateway-Service / efgs-federation-gateway
+ * ---
+ * Copyright (C) 2020 - 2022 T-Systems International GmbH and all other contributors
+ * ---
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ---license-end
+ */
+
+package eu.interop.federationgateway.repository;
+
+import eu.interop.federationgateway.entity.DiagnosisKeyEntity;
+import java.util.List;
+
+/**
+ * Repository fragment to insert many {@link DiagnosisKeyEntity} rows with multi-row JDBC batches.
+ */
+public interface DiagnosisKeyEntityBatchInsertRepository {
+
+  /**
+   * Inserts the given entities with one JDBC batch. The payload columns are encrypted the same way as the
+   * converters of {@link eu.interop.federationgateway.entity.DiagnosisKeyPayload} do.
+   *
+   * @param entities the entities to insert.
+   * @return the insert status of each entity in the same order as the given list.
+   */
+  List<InsertStatus> batchInsert(List<DiagnosisKeyEntity> entities);
+
+  enum InsertStatus {
+    INSERTED,
+    CONFLICT,
+    FAILED
+  }
+}
@@ -0,0 +1,195 @@
+/*-
+ * ---license-start
+ * EU-Federation-Gateway-Service / efgs-federation-gateway
+ * ---
+ * Copyright (C) 2020 - 2022 T-Systems International GmbH and all other contributors
+ * ---
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ---license-end
+ */
+
+package eu.interop.federationgateway.repository;
+
+import eu.interop.federationgateway.dbencryption.DbEncryptionService;
+import eu.interop.federationgateway.entity.DiagnosisKeyEntity;
+import java.security.GeneralSecurityException;
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.SqlTypeValue;
+import org.springframework.jdbc.core.StatementCreatorUtils;
+
+@Slf4j
+@RequiredArgsConstructor
+public class DiagnosisKeyEntityBatchInsertRepositoryImpl implements DiagnosisKeyEntityBatchInsertRepository {
+
+  private static final String INSERT_STATEMENT = "INSERT INTO diagnosiskey ("
+    + "created_at, payload_hash, payload_packed, "
+    + "format_major_version, format_minor_version, upload_id"
+    + ") VALUES (?, ?, ?, ?, ?, ?)";
+
+  private static final String SQL_STATE_CLASS_INTEGRITY_CONSTRAINT_VIOLATION = "23";
+
+  private final JdbcTemplate jdbcTemplate;
+
+  private final DbEncryptionService dbEncryptionService;
+
+  @Override
+  public List<InsertStatus> batchInsert(List<DiagnosisKeyEntity> entities) {
+    InsertStatus[] result = new InsertStatus[entities.size()];
+    List<Integer> rowIndexes = new ArrayList<>(entities.size());
+    List<byte[]> packedPayloads = new ArrayList<>(entities.size());
+
+    for (int index = 0; index < entities.size(); index++) {
+      try {
+        packedPayloads.add(entities.get(index).getPayload().toPackedBytes());
+        rowIndexes.add(index);
+      } catch (RuntimeException e) {
+        log.error("{}: could not pack diagnosis key payload: {}", index, e.getMessage());
+        result[index] = InsertStatus.FAILED;
+      }
+    }
+
+    List<Object[]> rows = new ArrayList<>(rowIndexes.size());
+
+    try {
+      // all payloads of the batch are encrypted with the cipher of the calling thread
+      List<String> encryptedPayloads = dbEncryptionService.encryptAll(packedPayloads);
+
+      for (int row = 0; row < rowIndexes.size(); row++) {
+        rows.add(toRow(entities.get(rowIndexes.get(row)), encryptedPayloads.get(row)));
+      }
+    } catch (GeneralSecurityException e) {
+      log.error("Could not encrypt diagnosis key payloads: {}", e.getMessage());
+      rowIndexes.forEach(index -> result[index] = InsertStatus.FAILED);
+      rows.clear();
+    }
+
+    if (!rows.isEmpty()) {
+      InsertStatus[] rowResult = jdbcTemplate.execute(
+        (ConnectionCallback<InsertStatus[]>) connection -> executeBatch(connection, rows));
+
+      for (int row = 0; row < rowIndexes.size(); row++) {
+        result[rowIndexes.get(row)] = rowResult[row];
+      }
+    }
+
+    return Arrays.asList(result);
+  }
+
+  private InsertStatus[] executeBatch(Connection connection, List<Object[]> rows) throws SQLException {
+    try (PreparedStatement statement = connection.prepareStatement(INSERT_STATEMENT)) {
+      Savepoint savepoint = setSavepoint(connection);
+
+      try {
+        for (Object[] row : rows) {
+          setParameterValues(statement, row);
+          statement.addBatch();
+        }
+        statement.executeBatch();
+        releaseSavepoint(connection, savepoint);
+      } catch (BatchUpdateException e) {
+        // The update counts of a rewritten batch do not identify the failed row, so the batch is discarded and its
+        // rows are inserted one by one to get the state of every single row.
+        log.warn("Batch insert of {} diagnosis keys failed, inserting them row by row: {}", rows.size(),
+          e.getMessage());
+        rollbackToSavepoint(connection, savepoint);
+        statement.clearBatch();
+
+        return executeRowByRow(connection, statement, rows);
+      }
+    }
+
+    InsertStatus[] rowResult = new InsertStatus[rows.size()];
+    Arrays.fill(rowResult, InsertStatus.INSERTED);
+    return rowResult;
+  }
+
+  private InsertStatus[] executeRowByRow(Connection connection, PreparedStatement statement, List<Object[]> rows)
+    throws SQLException {
+    InsertStatus[] rowResult = new InsertStatus[rows.size()];
+
+    for (int row = 0; row < rows.size(); row++) {
+      Savepoint savepoint = setSavepoint(connection);
+
+      try {
+        setParameterValues(statement, rows.get(row));
+        statement.executeUpdate();
+        releaseSavepoint(connection, savepoint);
+        rowResult[row] = InsertStatus.INSERTED;
+      } catch (SQLException e) {
+        rollbackToSavepoint(connection, savepoint);
+        rowResult[row] = isIntegrityConstraintViolation(e) ? InsertStatus.CONFLICT : InsertStatus.FAILED;
+      }
+    }
+
+    return rowResult;
+  }
+
+  private void setParameterValues(PreparedStatement statement, Object[] row) throws SQLException {
+    for (int column = 0; column < row.length; column++) {
+      StatementCreatorUtils.setParameterValue(statement, column + 1, SqlTypeValue.TYPE_UNKNOWN, row[column]);
+    }
+  }
+
+  /**
+   * Sets a savepoint if the connection takes part in a transaction, so a failed insert can be undone without
+   * discarding the rows inserted before. Without a transaction every statement is committed on its own.
+   */
+  private Savepoint setSavepoint(Connection connection) throws SQLException {
+    return connection.getAutoCommit() ? null : connection.setSavepoint();
+  }
+
+  private void releaseSavepoint(Connection connection, Savepoint savepoint) throws SQLException {
+    if (savepoint != null) {
+      connection.releaseSavepoint(savepoint);
+    }
+  }
+
+  private void rollbackToSavepoint(Connection connection, Savepoint savepoint) throws SQLException {
+    if (savepoint != null) {
+      connection.rollback(savepoint);
+    }
+  }
+
+  private boolean isIntegrityConstraintViolation(SQLException e) {
+    for (SQLException current = e; current != null; current = current.getNextException()) {
+      if (current.getSQLState() != null
+        && current.getSQLState().startsWith(SQL_STATE_CLASS_INTEGRITY_CONSTRAINT_VIOLATION)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private Object[] toRow(DiagnosisKeyEntity entity, String encryptedPayload) {
+    return new Object[] {
+      entity.getCreatedAt() == null ? null : Timestamp.from(entity.getCreatedAt().toInstant()),
+      entity.getPayloadHash(),
+      encryptedPayload,
+      entity.getFormat() == null ? null : entity.getFormat().getMajorVersion(),
+      entity.getFormat() == null ? null : entity.getFormat().getMinorVersion(),
+      entity.getUpload().getId()
+    };
+  }
+}
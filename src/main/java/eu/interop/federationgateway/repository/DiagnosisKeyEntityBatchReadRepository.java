@@ -0,0 +1,69 @@
+/*-
+ * ---license-start
+ * EU-Federation-Gateway-Service / efgs-federation-gateway
+ * ---
+ * Copyright (C) 2020 - 2022 T-Systems International GmbH and all other contributors
+ * ---
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ---license-end
+ */
+
+package eu.interop.federationgateway.repository;
+
+import eu.interop.federationgateway.entity.DiagnosisKeyEntity;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Repository fragment to read many {@link DiagnosisKeyEntity} rows with a forward-only JDBC cursor. The packed
+ * payloads are decrypted per chunk of rows with the cipher of the calling thread instead of once per row.
+ * The read entities are detached and only contain the id, the payload and the batch tag and country of the uploader.
+ */
+public interface DiagnosisKeyEntityBatchReadRepository {
+
+  /**
+   * Passes the keys of a batch which were not uploaded by the given country in chunks to the given consumer, ordered
+   * by their id.
+   *
+   * @param batchTag the batchTag of the batch
+   * @param country  the country code of the downloading country
+   * @param consumer the consumer of the chunks
+   * @param <E>      the exception thrown by the consumer
+   * @return the number of read entities
+   * @throws E if the consumer failed to process a chunk.
+   */
+  <E extends Exception> int streamByBatchTagIsAndUploaderCountryIsNot(
+    String batchTag, String country, ChunkConsumer<E> consumer) throws E;
+
+  /**
+   * Passes the keys of the given uploads in chunks to the given consumer, ordered by their id.
+   *
+   * @param uploaderBatchTags the batch tags of the uploads
+   * @param consumer          the consumer of the chunks
+   * @param <E>               the exception thrown by the consumer
+   * @return the number of read entities
+   * @throws E if the consumer failed to process a chunk.
+   */
+  <E extends Exception> int streamByUploaderBatchTagIn(
+    Collection<String> uploaderBatchTags, ChunkConsumer<E> consumer) throws E;
+
+  /**
+   * Consumer of chunks of read {@link DiagnosisKeyEntity} instances.
+   *
+   * @param <E> the exception thrown by the consumer
+   */
+  @FunctionalInterface
+  interface ChunkConsumer<E extends Exception> {
+    void accept(List<DiagnosisKeyEntity> chunk) throws E;
+  }
+}
@@ -0,0 +1,224 @@
+/*-
+ * ---license-start
+ * EU-Federation-Gateway-Service / efgs-federation-gateway
+ * ---
+ * Copyright (C) 2020 - 2022 T-Systems International GmbH and all other contributors
+ * ---
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ---license-end
+ */
+
+package eu.interop.federationgateway.repository;
+
+import eu.interop.federationgateway.dbencryption.DbEncryptionService;
+import eu.interop.federationgateway.entity.DiagnosisKeyEntity;
+import eu.interop.federationgateway.entity.DiagnosisKeyPayload;
+import eu.interop.federationgateway.entity.DiagnosisKeyUploadInformationEntity;
+import eu.interop.federationgateway.entity.UploaderInformation;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.PersistenceException;
+import java.security.GeneralSecurityException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.SqlTypeValue;
+import org.springframework.jdbc.core.StatementCreatorUtils;
+
+@RequiredArgsConstructor
+public class DiagnosisKeyEntityBatchReadRepositoryImpl implements DiagnosisKeyEntityBatchReadRepository {
+
+  private static final int CHUNK_SIZE = 100;
+
+  private static final String SELECT_KEYS = "SELECT d.id, d.payload_packed, d.upload_id, "
+    + "u.uploader_information_batch_tag, u.uploader_information_country "
+    + "FROM diagnosiskey d JOIN diagnosiskeyuploadinformation u ON u.id = d.upload_id ";
+
+  private final JdbcTemplate jdbcTemplate;
+
+  private final DbEncryptionService dbEncryptionService;
+
+  @PersistenceContext
+  private EntityManager entityManager;
+
+  @Override
+  public <E extends Exception> int streamByBatchTagIsAndUploaderCountryIsNot(
+    String batchTag, String country, ChunkConsumer<E> consumer) throws E {
+    return stream(SELECT_KEYS
+        + "JOIN diagnosiskeybatchmembership m ON m.uploader_batch_tag = u.uploader_information_batch_tag "
+        + "WHERE m.batch_tag = ? AND u.uploader_information_country <> ? ORDER BY d.id ASC",
+      new Object[] {batchTag, country}, consumer);
+  }
+
+  @Override
+  public <E extends Exception> int streamByUploaderBatchTagIn(
+    Collection<String> uploaderBatchTags, ChunkConsumer<E> consumer) throws E {
+    if (uploaderBatchTags.isEmpty()) {
+      return 0;
+    }
+
+    return stream(SELECT_KEYS + "WHERE u.uploader_information_batch_tag IN ("
+        + String.join(", ", Collections.nCopies(uploaderBatchTags.size(), "?")) + ") ORDER BY d.id ASC",
+      uploaderBatchTags.toArray(), consumer);
+  }
+
+  @SuppressWarnings("unchecked")
+  private <E extends Exception> int stream(String sql, Object[] parameters, ChunkConsumer<E> consumer) throws E {
+    ChunkReader reader = new ChunkReader(consumer);
+
+    try {
+      jdbcTemplate.query((PreparedStatementCreator) connection -> {
+        PreparedStatement statement = connection.prepareStatement(sql);
+        statement.setFetchSize(CHUNK_SIZE);
+        for (int index = 0; index < parameters.length; index++) {
+          StatementCreatorUtils.setParameterValue(statement, index + 1, SqlTypeValue.TYPE_UNKNOWN, parameters[index]);
+        }
+        return statement;
+      }, reader);
+
+      reader.flush();
+    } catch (ConsumerException e) {
+      throw (E) e.getCause();
+    }
+
+    return reader.count;
+  }
+
+  private record KeyRow(long id, String encryptedPayload, long uploadId, String uploaderBatchTag, String country) {
+  }
+
+  /**
+   * Thrown to pass an exception of the consumer through the {@link RowCallbackHandler}.
+   */
+  private static class ConsumerException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    ConsumerException(Exception cause) {
+      super(cause);
+    }
+  }
+
+  private class ChunkReader implements RowCallbackHandler {
+
+    private final ChunkConsumer<?> consumer;
+
+    private final List<KeyRow> rows = new ArrayList<>(CHUNK_SIZE);
+
+    private int count;
+
+    ChunkReader(ChunkConsumer<?> consumer) {
+      this.consumer = consumer;
+    }
+
+    @Override
+    public void processRow(ResultSet resultSet) throws SQLException {
+      rows.add(new KeyRow(
+        resultSet.getLong(1),
+        resultSet.getString(2),
+        resultSet.getLong(3),
+        resultSet.getString(4),
+        resultSet.getString(5)));
+
+      if (rows.size() == CHUNK_SIZE) {
+        flush();
+      }
+    }
+
+    void flush() {
+      if (rows.isEmpty()) {
+        return;
+      }
+
+      List<DiagnosisKeyEntity> chunk = toEntities(rows);
+      count += chunk.size();
+      rows.clear();
+
+      try {
+        consumer.accept(chunk);
+      } catch (RuntimeException e) {
+        throw e;
+      } catch (Exception e) {
+        throw new ConsumerException(e);
+      }
+    }
+
+    private List<DiagnosisKeyEntity> toEntities(List<KeyRow> rows) {
+      List<String> encryptedPayloads = rows.stream()
+        .map(KeyRow::encryptedPayload)
+        .filter(Objects::nonNull)
+        .toList();
+
+      List<byte[]> packedPayloads;
+      try {
+        packedPayloads = dbEncryptionService.decryptAll(encryptedPayloads);
+      } catch (GeneralSecurityException e) {
+        throw new PersistenceException(e);
+      }
+
+      Map<Long, DiagnosisKeyEntity> legacyEntities = loadLegacyEntities(rows);
+      List<DiagnosisKeyEntity> entities = new ArrayList<>(rows.size());
+      int packedPayload = 0;
+
+      for (KeyRow row : rows) {
+        if (row.encryptedPayload() == null) {
+          entities.add(legacyEntities.get(row.id()));
+          continue;
+        }
+
+        DiagnosisKeyEntity entity = new DiagnosisKeyEntity();
+        entity.setId(row.id());
+        entity.setPayload(DiagnosisKeyPayload.fromPackedBytes(packedPayloads.get(packedPayload++)));
+        entity.setUpload(new DiagnosisKeyUploadInformationEntity(row.uploadId(), null,
+          new UploaderInformation(row.uploaderBatchTag(), null, null, null, row.country())));
+        entities.add(entity);
+      }
+
+      return entities;
+    }
+
+    /**
+     * Keys which are not re-encoded yet store their payload in the legacy columns, they are read with JPA.
+     */
+    private Map<Long, DiagnosisKeyEntity> loadLegacyEntities(List<KeyRow> rows) {
+      List<Long> legacyIds = rows.stream()
+        .filter(row -> row.encryptedPayload() == null)
+        .map(KeyRow::id)
+        .toList();
+
+      if (legacyIds.isEmpty()) {
+        return Map.of();
+      }
+
+      List<DiagnosisKeyEntity> entities = entityManager
+        .createQuery("SELECT d FROM DiagnosisKeyEntity d WHERE d.id IN :ids", DiagnosisKeyEntity.class)
+        .setParameter("ids", legacyIds)
+        .getResultList();
+      entities.forEach(entityManager::detach);
+
+      return entities.stream().collect(Collectors.toMap(DiagnosisKeyEntity::getId, Function.identity()));
+    }
+  }
+}
@@ -21,10 +21,10 @@
 package eu.interop.federationgateway.repository;
 
 import eu.interop.federationgateway.entity.DiagnosisKeyEntity;
-import eu.interop.federationgateway.model.AuditEntry;
 import java.time.ZonedDateTime;
+import java.util.Collection;
 import java.util.List;
-import java.util.Optional;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
@@ -33,33 +33,31 @@
 import org.springframework.transaction.annotation.Transactional;
 
 @Transactional(isolation = Isolation.REPEATABLE_READ)
-public interface DiagnosisKeyEntityRepository extends JpaRepository<DiagnosisKeyEntity, Long> {
+public interface DiagnosisKeyEntityRepository extends JpaRepository<DiagnosisKeyEntity, Long>,
+  DiagnosisKeyEntityBatchInsertRepository, DiagnosisKeyEntityBatchReadRepository {
+
+  /**
+   * The keys of a batch are all keys of the uploads which are members of the batch.
+   */
+  String JOIN_BATCH_MEMBERSHIP = "JOIN d.upload u "
+    + "JOIN DiagnosisKeyBatchMembershipEntity m ON m.uploaderBatchTag = u.uploader.batchTag ";
 
   @Modifying
   @Query("DELETE FROM DiagnosisKeyEntity d WHERE d.createdAt < :before")
   int deleteByCreatedAtBefore(@Param("before") ZonedDateTime before);
 
-  List<DiagnosisKeyEntity> findAllByPayloadOrigin(String country);
-
-  int countAllByUploader_BatchTag(String batchTag);
-
-  @Query("SELECT new eu.interop.federationgateway.model.AuditEntry("
-    + "min(uploader.country), min(createdAt), min(uploader.thumbprint), min(uploader.signingCertThumbprint)"
-    + ", COUNT(*), min(uploader.batchSignature), min(id) as minId) "
-    + "FROM DiagnosisKeyEntity WHERE batchTag = :batchTag "
-    + "GROUP BY uploader.batchTag ORDER BY minId ASC")
-  List<AuditEntry> getAuditInformationByBatchTag(@Param("batchTag") String batchTag);
+  @Query("SELECT d FROM DiagnosisKeyEntity d WHERE d.upload.uploader.country = :country")
+  List<DiagnosisKeyEntity> findAllByUploader_Country(@Param("country") String country);
 
-  Optional<DiagnosisKeyEntity> findFirstByBatchTagIsNull();
+  @Query("SELECT d.payloadHash FROM DiagnosisKeyEntity d WHERE d.payloadHash IN :payloadHashes")
+  List<String> findExistingPayloadHashes(@Param("payloadHashes") Collection<String> payloadHashes);
 
-  Optional<DiagnosisKeyEntity> findFirstByBatchTagIsNullAndUploaderBatchTagIsNotIn(List<String> uploaderBatchTags);
+  List<DiagnosisKeyEntity> findByPayloadIsNullOrderByIdAsc(Pageable pageable);
 
-  List<DiagnosisKeyEntity> findByBatchTagIsAndUploader_CountryIsNotOrderByIdAsc(String batchTag, String country);
-
-  @Modifying
-  @Query("UPDATE DiagnosisKeyEntity d SET d.batchTag = :batchTag WHERE d.uploader.batchTag IN :uploaderBatchTags")
-  int setBatchTagByUploaderBatchTag(
-    @Param("uploaderBatchTags") List<String> uploaderBatchTags,
-    @Param("batchTag") String batchTag);
+  @Query("SELECT d FROM DiagnosisKeyEntity d " + JOIN_BATCH_MEMBERSHIP
+    + "WHERE m.batchTag = :batchTag AND u.uploader.country <> :country ORDER BY d.id ASC")
+  List<DiagnosisKeyEntity> findByBatchTagIsAndUploader_CountryIsNotOrderByIdAsc(
+    @Param("batchTag") String batchTag,
+    @Param("country") String country);
 
 }
@@ -0,0 +1,58 @@
+/*-
+ * ---license-start
+ * EU-Federation-Gateway-Service / efgs-federation-gateway
+ * ---
+ * Copyright (C) 2020 - 2022 T-Systems International GmbH and all other contributors
+ * ---
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ---license-end
+ */
+
+package eu.interop.federationgateway.repository;
+
+import eu.interop.federationgateway.entity.DiagnosisKeyUploadInformationEntity;
+import eu.interop.federationgateway.model.AuditEntry;
+import java.time.ZonedDateTime;
+import java.util.Collection;
+import java.util.List;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Isolation;
+import org.springframework.transaction.annotation.Transactional;
+
+@Transactional(isolation = Isolation.READ_COMMITTED)
+public interface DiagnosisKeyUploadInformationRepository
+  extends JpaRepository<DiagnosisKeyUploadInformationEntity, Long> {
+
+  boolean existsByUploader_BatchTag(String batchTag);
+
+  @Query("SELECT DISTINCT u.uploader.country FROM DiagnosisKeyUploadInformationEntity u "
+    + "WHERE u.uploader.batchTag IN :batchTags AND u.uploader.country IS NOT NULL")
+  List<String> getCountriesByUploaderBatchTagIn(@Param("batchTags") Collection<String> batchTags);
+
+  @Query("SELECT new eu.interop.federationgateway.model.AuditEntry("
+    + "u.uploader.country, u.createdAt, u.uploader.thumbprint, u.uploader.signingCertThumbprint, "
+    + "CAST(m.numberOfKeys AS Long), u.uploader.batchSignature, u.id) "
+    + "FROM DiagnosisKeyUploadInformationEntity u "
+    + "JOIN DiagnosisKeyBatchMembershipEntity m ON m.uploaderBatchTag = u.uploader.batchTag "
+    + "WHERE m.batchTag = :batchTag ORDER BY u.id ASC")
+  List<AuditEntry> getAuditInformationByBatchTag(@Param("batchTag") String batchTag);
+
+  @Modifying
+  @Query("DELETE FROM DiagnosisKeyUploadInformationEntity u WHERE u.createdAt < :before "
+    + "AND NOT EXISTS (SELECT d.id FROM DiagnosisKeyEntity d WHERE d.upload = u)")
+  int deleteByCreatedAtBefore(@Param("before") ZonedDateTime before);
+
+}
@@ -0,0 +1,187 @@
+/*-
+ * ---license-start
+ * EU-Federation-Gateway-Service / efgs-federation-gateway
+ * ---
+ * Copyright (C) 2020 - 2022 T-Systems International GmbH and all other contributors
+ * ---
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ---license-end
+ */
+
+package eu.interop.federationgateway.service;
+
+import eu.interop.federationgateway.config.EfgsProperties;
+import eu.interop.federationgateway.utils.EfgsMdc;
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+/**
+ * Keeps the delivery state of the callback receiver hosts of this node. A circuit breaker stops calling a host after
+ * a number of consecutive failures for the configured open duration and lets a single trial request pass afterwards.
+ * Retries of failed deliveries are limited per host by a retry budget, which allows a minimum number of retries per
+ * window plus a ratio of the first attempts of the same window.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class CallbackHostPolicy {
+
+  private final EfgsProperties efgsProperties;
+
+  private final Map<String, HostState> hostStates = new ConcurrentHashMap<>();
+
+  /**
+   * Checks whether a callback to the given host may be sent now.
+   *
+   * @param host  the host of the callback url.
+   * @param retry true if the callback was already attempted and failed.
+   * @return empty if the callback may be sent, otherwise the time at which the callback should be attempted again.
+   */
+  public Optional<ZonedDateTime> admit(String host, boolean retry) {
+    EfgsProperties.Callback properties = efgsProperties.getCallback();
+    ZonedDateTime now = ZonedDateTime.now(ZoneOffset.UTC);
+    HostState state = hostStates.computeIfAbsent(host, h -> new HostState());
+
+    synchronized (state) {
+      if (state.openUntil != null) {
+        if (now.isBefore(state.openUntil)) {
+          return Optional.of(state.openUntil);
+        }
+
+        ZonedDateTime trialTimeout = state.trialStartedAt == null
+          ? null : state.trialStartedAt.plus(Duration.ofMillis(properties.getTimeout() * 2L));
+        if (trialTimeout != null && now.isBefore(trialTimeout)) {
+          return Optional.of(trialTimeout);
+        }
+      }
+
+      if (state.windowEnd == null || now.isAfter(state.windowEnd)) {
+        state.windowEnd = now.plusSeconds(properties.getRetryBudgetWindow());
+        state.attempts = 0;
+        state.retries = 0;
+      }
+
+      if (retry) {
+        if (state.retries >= properties.getRetryBudgetMinRetries()
+          + properties.getRetryBudgetRatio() * state.attempts) {
+          return Optional.of(state.windowEnd);
+        }
+        state.retries++;
+      } else {
+        state.attempts++;
+      }
+
+      if (state.openUntil != null) {
+        state.trialStartedAt = now;
+      }
+    }
+
+    return Optional.empty();
+  }
+
+  /**
+   * Records a successful callback and closes the circuit of the host.
+   *
+   * @param host the host of the callback url.
+   */
+  public void onSuccess(String host) {
+    HostState state = hostStates.computeIfAbsent(host, h -> new HostState());
+
+    synchronized (state) {
+      if (state.openUntil != null) {
+        EfgsMdc.put("callbackHostname", host);
+        log.info("Closing circuit of callback host.");
+        EfgsMdc.remove("callbackHostname");
+      }
+
+      state.consecutiveFailures = 0;
+      state.openUntil = null;
+      state.trialStartedAt = null;
+    }
+  }
+
+  /**
+   * Records a failed callback. The circuit of the host is opened if the failure threshold is reached or the trial
+   * request of an open circuit has failed.
+   *
+   * @param host      the host of the callback url.
+   * @param throttled true if the host has asked to slow down (HTTP 429). Throttling is no failure of the host but
+   *                  reopens the circuit during a trial request.
+   */
+  public void onFailure(String host, boolean throttled) {
+    EfgsProperties.Callback properties = efgsProperties.getCallback();
+    HostState state = hostStates.computeIfAbsent(host, h -> new HostState());
+
+    synchronized (state) {
+      if (!throttled) {
+        state.consecutiveFailures++;
+      }
+
+      if (state.trialStartedAt != null
+        || state.consecutiveFailures >= properties.getCircuitBreakerFailureThreshold()) {
+        state.openUntil = ZonedDateTime.now(ZoneOffset.UTC).plusSeconds(properties.getCircuitBreakerOpenDuration());
+        state.trialStartedAt = null;
+
+        EfgsMdc.put("callbackHostname", host);
+        EfgsMdc.put("consecutiveFailures", state.consecutiveFailures);
+        log.warn("Opening circuit of callback host.");
+        EfgsMdc.remove("callbackHostname");
+        EfgsMdc.remove("consecutiveFailures");
+      }
+    }
+  }
+
+  /**
+   * Calculates the wait time before the next attempt of a failed delivery. The wait time grows exponentially with
+   * the number of retries starting at retryWait up to maxRetryWait. Half of the wait time is randomized, so the
+   * retries of many subscriptions do not hit a host at the same time. A longer Retry-After of the host is respected
+   * up to maxRetryWait.
+   *
+   * @param retries    the number of failed attempts of the delivery (at least 1).
+   * @param retryAfter the wait time the host has asked for, may be null.
+   * @return the wait time.
+   */
+  public Duration getBackoff(int retries, Duration retryAfter) {
+    EfgsProperties.Callback properties = efgsProperties.getCallback();
+
+    long maxBackoff = Math.max(properties.getRetryWait(), properties.getMaxRetryWait());
+    long backoff = properties.getRetryWait() * (1L << Math.min(Math.max(retries - 1, 0), 20));
+    backoff = Math.min(backoff, maxBackoff);
+
+    long halfBackoffMillis = backoff * 500;
+    Duration jitteredBackoff = Duration.ofMillis(
+      halfBackoffMillis + ThreadLocalRandom.current().nextLong(halfBackoffMillis + 1));
+
+    if (retryAfter != null && retryAfter.compareTo(jitteredBackoff) > 0) {
+      return retryAfter.compareTo(Duration.ofSeconds(maxBackoff)) > 0 ? Duration.ofSeconds(maxBackoff) : retryAfter;
+    }
+    return jitteredBackoff;
+  }
+
+  private static class HostState {
+    private int consecutiveFailures;
+    private ZonedDateTime openUntil;
+    private ZonedDateTime trialStartedAt;
+    private ZonedDateTime windowEnd;
+    private int attempts;
+    private int retries;
+  }
+}
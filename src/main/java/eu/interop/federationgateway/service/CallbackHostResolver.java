@@ -0,0 +1,178 @@
+/*-
+ * ---license-start
+ * EU-Federation-Gateway-Service / efgs-federation-gateway
+ * ---
+ * Copyright (C) 2020 - 2022 T-Systems International GmbH and all other contributors
+ * ---
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ---license-end
+ */
+
+package eu.interop.federationgateway.service;
+
+import eu.interop.federationgateway.config.EfgsProperties;
+import io.netty.resolver.AddressResolver;
+import io.netty.resolver.AddressResolverGroup;
+import io.netty.resolver.InetNameResolver;
+import io.netty.resolver.InetSocketAddressResolver;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.Promise;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.security.web.util.matcher.IpAddressMatcher;
+import org.springframework.stereotype.Component;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Resolves the hosts of callback urls and keeps the resolved addresses for the configured time. The callback
+ * web client connects to the cached address, so a callback is sent to the address which has passed the url check
+ * and not to the result of a second DNS lookup.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class CallbackHostResolver {
+
+  private static final IpAddressMatcher[] LOCAL_SUBNET_MATCHERS = {
+    new IpAddressMatcher("10.0.0.0/8"),
+    new IpAddressMatcher("127.0.0.0/8"),
+    new IpAddressMatcher("100.64.0.0/10"),
+    new IpAddressMatcher("169.254.0.0/16"),
+    new IpAddressMatcher("172.16.0.0/12"),
+    new IpAddressMatcher("192.168.0.0/16"),
+    new IpAddressMatcher("::1"),
+    new IpAddressMatcher("fc00::/7"),
+    new IpAddressMatcher("0"),
+    new IpAddressMatcher("0177.0.0.0/8"),
+    new IpAddressMatcher("[::]"),
+    new IpAddressMatcher("0144.0100.0.0/10"),
+  };
+
+  private final EfgsProperties efgsProperties;
+
+  private final Map<String, ResolvedHost> resolvedHosts = new ConcurrentHashMap<>();
+
+  /**
+   * Returns the address of the given host. The address is looked up if it is not cached or the cached address has
+   * expired.
+   *
+   * @param host the host of the callback url.
+   * @return the address of the host.
+   * @throws UnknownHostException if the host cannot be resolved.
+   */
+  public InetAddress resolve(String host) throws UnknownHostException {
+    InetAddress cachedAddress = getCachedAddress(host);
+    if (cachedAddress != null) {
+      return cachedAddress;
+    }
+
+    long now = System.currentTimeMillis();
+    resolvedHosts.values().removeIf(cached -> cached.expiresAt() <= now);
+
+    ResolvedHost resolvedHost = new ResolvedHost(InetAddress.getByName(host),
+      now + efgsProperties.getCallback().getHostResolutionCacheTtl() * 1000L);
+    resolvedHosts.put(host, resolvedHost);
+
+    return resolvedHost.address();
+  }
+
+  private InetAddress getCachedAddress(String host) {
+    ResolvedHost resolvedHost = resolvedHosts.get(host);
+    if (resolvedHost == null || resolvedHost.expiresAt() <= System.currentTimeMillis()) {
+      return null;
+    }
+    return resolvedHost.address();
+  }
+
+  /**
+   * Checks whether the given address belongs to a private or local IP range.
+   *
+   * @param address the address to check.
+   * @return true if callbacks must not be sent to this address.
+   */
+  public static boolean isLocalAddress(InetAddress address) {
+    String hostAddress = address.getHostAddress();
+    return Arrays.stream(LOCAL_SUBNET_MATCHERS).anyMatch(matcher -> matcher.matches(hostAddress));
+  }
+
+  /**
+   * Creates the resolver for the callback web client. It resolves hosts through this cache and refuses to connect
+   * to addresses of private or local IP ranges.
+   *
+   * @return the {@link AddressResolverGroup} for the callback web client.
+   */
+  public AddressResolverGroup<InetSocketAddress> addressResolverGroup() {
+    return new AddressResolverGroup<>() {
+      @Override
+      protected AddressResolver<InetSocketAddress> newResolver(EventExecutor executor) {
+        return new InetSocketAddressResolver(executor, new CachedNameResolver(executor));
+      }
+    };
+  }
+
+  private record ResolvedHost(InetAddress address, long expiresAt) {
+  }
+
+  private class CachedNameResolver extends InetNameResolver {
+
+    CachedNameResolver(EventExecutor executor) {
+      super(executor);
+    }
+
+    @Override
+    protected void doResolve(String inetHost, Promise<InetAddress> promise) {
+      InetAddress cachedAddress = getCachedAddress(inetHost);
+      if (cachedAddress != null) {
+        completeWithAllowedAddress(cachedAddress, promise);
+        return;
+      }
+
+      // this is called on the event loop of the connection, the blocking lookup must not stall its other channels
+      Schedulers.boundedElastic().schedule(() -> {
+        try {
+          completeWithAllowedAddress(CallbackHostResolver.this.resolve(inetHost), promise);
+        } catch (UnknownHostException e) {
+          promise.tryFailure(e);
+        }
+      });
+    }
+
+    @Override
+    protected void doResolveAll(String inetHost, Promise<List<InetAddress>> promise) {
+      Promise<InetAddress> addressPromise = executor().newPromise();
+      addressPromise.addListener(future -> {
+        if (future.isSuccess()) {
+          promise.trySuccess(List.of(addressPromise.getNow()));
+        } else {
+          promise.tryFailure(future.cause());
+        }
+      });
+      doResolve(inetHost, addressPromise);
+    }
+
+    private void completeWithAllowedAddress(InetAddress address, Promise<InetAddress> promise) {
+      if (isLocalAddress(address)) {
+        promise.tryFailure(new UnknownHostException("IP Address of callback host is from private IP range."));
+      } else {
+        promise.trySuccess(address);
+      }
+    }
+  }
+}
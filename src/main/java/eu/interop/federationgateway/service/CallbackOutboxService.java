@@ -20,43 +20,35 @@
 
 package eu.interop.federationgateway.service;
 
-import eu.interop.federationgateway.config.EfgsProperties;
 import eu.interop.federationgateway.utils.EfgsMdc;
-import java.time.ZonedDateTime;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import net.javacrumbs.shedlock.spring.annotation.SchedulerLock;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
+/**
+ * Maintains the callback outbox. The events are kept until every subscription has acknowledged them, so pending
+ * callbacks are derived from the outbox and the last acknowledged event of each subscription.
+ */
+@Slf4j
 @Component
 @RequiredArgsConstructor
-@Slf4j
-public class CallbackTaskCleanupService {
+public class CallbackOutboxService {
 
   private final CallbackService callbackService;
 
-  private final EfgsProperties efgsProperties;
-
-
   /**
-   * Removes periodically the execution locks from abandoned tasks.
+   * scheduled service - deletes the events which were acknowledged by all subscriptions.
    */
   @Scheduled(fixedDelay = 60000)
-  @SchedulerLock(name = "CallbackTaskCleanupService_deleteAbandonedLocks", lockAtLeastFor = "PT0S",
+  @SchedulerLock(name = "CallbackOutboxService_deleteDeliveredEvents", lockAtLeastFor = "PT0S",
     lockAtMostFor = "${efgs.callback.locklimit}")
-  public void deleteAbandonedLocks() {
-    log.info("Deleting task locks of abandoned tasks");
-
-    ZonedDateTime timestamp = ZonedDateTime.now().minusSeconds(efgsProperties.getCallback().getTaskLockTimeout());
-
-    int updateCount = callbackService.removeTaskLocksOlderThan(timestamp);
-
-    EfgsMdc.put("taskCount", updateCount);
-    log.info("Removing of task locks of abandoned tasks finished.");
-    EfgsMdc.clear();
+  public void deleteDeliveredEvents() {
+    int eventCount = callbackService.deleteDeliveredOutboxEvents();
 
+    EfgsMdc.put("eventCount", eventCount);
+    log.info("Deleted delivered callback outbox events.");
+    EfgsMdc.remove("eventCount");
   }
-
-
 }
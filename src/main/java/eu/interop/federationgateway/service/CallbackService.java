@@ -20,25 +20,29 @@
 
 package eu.interop.federationgateway.service;
 
+import eu.interop.federationgateway.entity.CallbackDeliveryEntity;
+import eu.interop.federationgateway.entity.CallbackOutboxEntity;
 import eu.interop.federationgateway.entity.CallbackSubscriptionEntity;
-import eu.interop.federationgateway.entity.CallbackTaskEntity;
 import eu.interop.federationgateway.entity.DiagnosisKeyBatchEntity;
+import eu.interop.federationgateway.repository.CallbackDeliveryRepository;
+import eu.interop.federationgateway.repository.CallbackOutboxRepository;
 import eu.interop.federationgateway.repository.CallbackSubscriptionRepository;
-import eu.interop.federationgateway.repository.CallbackTaskRepository;
 import eu.interop.federationgateway.utils.EfgsMdc;
+import jakarta.transaction.Transactional;
 import java.net.InetAddress;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.UnknownHostException;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
-import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.security.web.util.matcher.IpAddressMatcher;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 @Slf4j
 @Component
@@ -47,60 +51,70 @@ public class CallbackService {
 
   private final CallbackSubscriptionRepository callbackSubscriptionRepository;
 
-  private final CallbackTaskRepository callbackTaskRepository;
+  private final CallbackDeliveryRepository callbackDeliveryRepository;
 
-  public int removeTaskLocksOlderThan(ZonedDateTime timestamp) {
-    return callbackTaskRepository.removeTaskLocksOlderThan(timestamp);
-  }
+  private final CallbackOutboxRepository callbackOutboxRepository;
 
-  public CallbackTaskEntity saveCallbackTaskEntity(CallbackTaskEntity entity) {
-    return callbackTaskRepository.save(entity);
-  }
+  private final ObjectProvider<CallbackTaskExecutorService> callbackTaskExecutorServiceProvider;
 
-  private CallbackTaskEntity getNotBeforeCallbackTask(CallbackSubscriptionEntity subscriptionEntity) {
-    return callbackTaskRepository
-      .findFirstByCallbackSubscriptionIsOrderByCreatedAtDesc(subscriptionEntity);
-  }
+  private final CallbackHostResolver callbackHostResolver;
 
   /**
-   * Deletes tasks in database that are assigned to given subscription.
+   * Deletes the delivery state of the given subscription.
    *
    * @param subscription CallbackSubscriptionEntity
    */
-  public void deleteAllTasksForSubscription(CallbackSubscriptionEntity subscription) {
+  public void deleteDeliveryForSubscription(CallbackSubscriptionEntity subscription) {
     EfgsMdc.put("callbackId", subscription.getCallbackId());
     EfgsMdc.put("country", subscription.getCountry());
 
-    log.info("Deleting all CallbackTaskEntities for subscription.");
-    callbackTaskRepository.deleteAllByCallbackSubscriptionIs(subscription);
+    log.info("Deleting CallbackDeliveryEntity for subscription.");
+    callbackDeliveryRepository.deleteAllByCallbackSubscriptionIs(subscription);
   }
 
   /**
-   * Creates new CallbackTasks for each callback subscription for given batch.
+   * Returns the delivery state of the given subscription.
+   *
+   * @param subscription CallbackSubscriptionEntity
+   * @return the {@link CallbackDeliveryEntity} of the subscription.
+   */
+  public Optional<CallbackDeliveryEntity> getCallbackDelivery(CallbackSubscriptionEntity subscription) {
+    return callbackDeliveryRepository.findByCallbackSubscription(subscription);
+  }
+
+  /**
+   * Writes the event that the given batch was sealed to the callback outbox. Must be called within the transaction
+   * creating the batch. Every subscription is notified about the events after its last acknowledged event. The
+   * callback dispatcher is woken up as soon as the transaction is committed.
    *
    * @param batch The batch that has to be announced.
    */
-  public void notifyAllCountriesForNewBatchTag(DiagnosisKeyBatchEntity batch) {
-    List<CallbackSubscriptionEntity> callbacks = getAllCallbackSubscriptions();
-
-    callbacks.forEach(callbackSubscription -> {
-      EfgsMdc.put("country", callbackSubscription.getCountry());
-      EfgsMdc.put("batchTag", batch.getBatchName());
-      log.info("Saving Callback Task to DB");
-
-      CallbackTaskEntity callbackTask = new CallbackTaskEntity(
-        null,
-        ZonedDateTime.now(ZoneOffset.UTC),
-        null,
-        null,
-        0,
-        getNotBeforeCallbackTask(callbackSubscription),
-        batch,
-        callbackSubscription
-      );
-
-      saveCallbackTaskEntity(callbackTask);
-    });
+  @Transactional(Transactional.TxType.MANDATORY)
+  public void publishBatchSealedEvent(DiagnosisKeyBatchEntity batch) {
+    callbackOutboxRepository.save(new CallbackOutboxEntity(null, ZonedDateTime.now(ZoneOffset.UTC), batch));
+
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+        @Override
+        public void afterCommit() {
+          callbackTaskExecutorServiceProvider.ifAvailable(CallbackTaskExecutorService::wakeUp);
+        }
+      });
+    }
+  }
+
+  /**
+   * Deletes the callback outbox events which were acknowledged by all subscriptions.
+   *
+   * @return the number of deleted events.
+   */
+  public int deleteDeliveredOutboxEvents() {
+    Long lastDeliveredEventId = callbackDeliveryRepository.getLowestLastEventId();
+    if (lastDeliveredEventId == null) {
+      lastDeliveredEventId = callbackOutboxRepository.getLastEventId();
+    }
+
+    return lastDeliveredEventId == null ? 0 : callbackOutboxRepository.deleteByIdLessThanEqual(lastDeliveredEventId);
   }
 
   /**
@@ -110,7 +124,7 @@ public void notifyAllCountriesForNewBatchTag(DiagnosisKeyBatchEntity batch) {
    */
   public void deleteCallbackSubscription(CallbackSubscriptionEntity callbackSubscriptionEntity) {
     log.info("Start deleting callback subscription.");
-    deleteAllTasksForSubscription(callbackSubscriptionEntity);
+    deleteDeliveryForSubscription(callbackSubscriptionEntity);
     callbackSubscriptionRepository.delete(callbackSubscriptionEntity);
   }
 
@@ -153,7 +167,23 @@ public CallbackSubscriptionEntity saveCallbackSubscription(CallbackSubscriptionE
       callbackSubscriptionEntity = callbackInDatabase;
     }
 
-    return callbackSubscriptionRepository.save(callbackSubscriptionEntity);
+    callbackSubscriptionEntity = callbackSubscriptionRepository.save(callbackSubscriptionEntity);
+
+    if (optional.isEmpty()) {
+      createDelivery(callbackSubscriptionEntity);
+    }
+
+    return callbackSubscriptionEntity;
+  }
+
+  /**
+   * New subscriptions are notified about the batches sealed after their creation only.
+   */
+  private void createDelivery(CallbackSubscriptionEntity subscription) {
+    Long lastEventId = callbackOutboxRepository.getLastEventId();
+
+    callbackDeliveryRepository.save(new CallbackDeliveryEntity(null, ZonedDateTime.now(ZoneOffset.UTC), subscription,
+      lastEventId == null ? 0 : lastEventId, null, null, 0, null, null));
   }
 
   /**
@@ -169,7 +199,8 @@ public Optional<CallbackSubscriptionEntity> getCallbackSubscription(String callb
   }
 
   /**
-   * Checks whether a given URL can be accepted for callback.
+   * Checks whether a given URL can be accepted for callback. The address of the host is taken from the cache of
+   * the {@link CallbackHostResolver}, so repeated checks of the same host do not block on DNS lookups.
    *
    * @param urlToCheck the url that has to be checked.
    * @param country    the country code to check whether a certificate exists.
@@ -201,7 +232,7 @@ public boolean checkUrl(String urlToCheck, String country) {
     }
 
     try {
-      hostAddress = InetAddress.getByName(url.getHost());
+      hostAddress = callbackHostResolver.resolve(url.getHost());
     } catch (UnknownHostException e) {
       log.error("Could not resolve host for callback");
       return false;
@@ -209,23 +240,7 @@ public boolean checkUrl(String urlToCheck, String country) {
 
     EfgsMdc.put("host", hostAddress.getHostAddress());
 
-    IpAddressMatcher[] localSubnetMatchers = {
-      new IpAddressMatcher("10.0.0.0/8"),
-      new IpAddressMatcher("127.0.0.0/8"),
-      new IpAddressMatcher("100.64.0.0/10"),
-      new IpAddressMatcher("169.254.0.0/16"),
-      new IpAddressMatcher("172.16.0.0/12"),
-      new IpAddressMatcher("192.168.0.0/16"),
-      new IpAddressMatcher("::1"),
-      new IpAddressMatcher("fc00::/7"),
-      new IpAddressMatcher("0"),
-      new IpAddressMatcher("0177.0.0.0/8"),
-      new IpAddressMatcher("[::]"),
-      new IpAddressMatcher("0144.0100.0.0/10"),
-    };
-
-    if (Arrays.stream(localSubnetMatchers)
-      .anyMatch(matcher -> matcher.matches(hostAddress.getHostAddress()))) {
+    if (CallbackHostResolver.isLocalAddress(hostAddress)) {
       log.error("IP Address of callback host is from private IP range.");
       return false;
     }
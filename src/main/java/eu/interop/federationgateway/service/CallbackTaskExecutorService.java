@@ -21,31 +21,47 @@
 package eu.interop.federationgateway.service;
 
 import eu.interop.federationgateway.config.EfgsProperties;
+import eu.interop.federationgateway.entity.CallbackDeliveryEntity;
+import eu.interop.federationgateway.entity.CallbackOutboxEntity;
 import eu.interop.federationgateway.entity.CallbackSubscriptionEntity;
-import eu.interop.federationgateway.entity.CallbackTaskEntity;
-import eu.interop.federationgateway.repository.CallbackTaskRepository;
+import eu.interop.federationgateway.entity.DiagnosisKeyBatchEntity;
+import eu.interop.federationgateway.repository.CallbackOutboxRepository;
 import eu.interop.federationgateway.utils.EfgsMdc;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import java.net.URI;
+import java.time.Duration;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.data.domain.PageRequest;
 import org.springframework.http.HttpHeaders;
-import org.springframework.http.ResponseEntity;
+import org.springframework.http.HttpStatus;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
 import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
 @Component
 @Slf4j
 @RequiredArgsConstructor
 public class CallbackTaskExecutorService {
 
-  protected static final String MDC_PROP_TASK_ID = "taskId";
+  protected static final String MDC_PROP_DELIVERY_ID = "deliveryId";
+  protected static final String MDC_PROP_EVENT_ID = "eventId";
   protected static final String MDC_PROP_COUNTRY = "country";
   protected static final String MDC_PROP_CALLBACK_ID = "callbackId";
 
@@ -54,108 +70,369 @@ public class CallbackTaskExecutorService {
   private final EfgsProperties efgsProperties;
   private final WebClient webClient;
   private final CallbackService callbackService;
-  private final CallbackTaskRepository callbackTaskRepository;
+  private final CallbackOutboxRepository callbackOutboxRepository;
   private final TransactionalCallbackTaskExecutorService transactionalCallbackTaskExecutorService;
+  private final CallbackHostPolicy callbackHostPolicy;
+
+  private final AtomicBoolean dispatchRequested = new AtomicBoolean();
+
+  private ScheduledExecutorService dispatchScheduler;
+
+  @PostConstruct
+  public void init() {
+    dispatchScheduler = Executors.newSingleThreadScheduledExecutor();
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    dispatchScheduler.shutdownNow();
+  }
+
+  /**
+   * Requests a callback processing run on the in-process dispatch thread, e.g. after a batch was sealed. Requests
+   * arriving while a run is still queued are merged into this run.
+   */
+  public void wakeUp() {
+    if (efgsProperties.getCallback().isDispatchOnCommit() && dispatchRequested.compareAndSet(false, true)) {
+      dispatchScheduler.execute(this::dispatch);
+    }
+  }
+
+  private void dispatch() {
+    dispatchRequested.set(false);
+
+    try {
+      execute();
+    } catch (RuntimeException e) {
+      EfgsMdc.put("callbackErrorMessage", e.getMessage());
+      log.error("Callback processing failed.");
+      EfgsMdc.clear();
+    }
+  }
 
   /**
-   * Execute Callback processing.
+   * Execute Callback processing. The scheduled run is a recovery sweep only, new batches wake up the processing
+   * directly. Pending deliveries are claimed in chunks and processed concurrently, limited by
+   * the configured core thread pool size. Each claimed delivery sends the outbox events following its last
+   * acknowledged event one by one in the order they were published, so a slow country only delays itself.
+   * If notifications are coalesced, a delivery with a backlog announces only its first pending batch and
+   * acknowledges all events published so far. The receiver follows the nextBatchTag of the downloads itself.
    */
   @Scheduled(fixedDelayString = "${efgs.callback.execute-interval}")
   public void execute() {
     log.info("Callback processing started.");
 
-    CallbackTaskEntity currentTask = getNextCallbackTask();
+    int concurrency = Math.max(1, efgsProperties.getCallback().getCoreThreadPoolSize());
+    long deliveryCount;
+
+    do {
+      deliveryCount = Flux.<List<CallbackDeliveryEntity>>generate(sink -> {
+        List<CallbackDeliveryEntity> deliveries = claimPendingDeliveries(concurrency);
+        if (deliveries.isEmpty()) {
+          sink.complete();
+        } else {
+          sink.next(deliveries);
+        }
+      })
+        .flatMapIterable(deliveries -> deliveries, 1)
+        .subscribeOn(Schedulers.boundedElastic())
+        .flatMap(this::processDelivery, concurrency)
+        .count()
+        .blockOptional()
+        .orElse(0L);
+    } while (deliveryCount > 0);
+
+    log.info("Callback processing finished.");
+  }
 
-    while (currentTask != null) {
-      transactionalCallbackTaskExecutorService.setExecutionLock(currentTask);
-      CallbackSubscriptionEntity subscription = currentTask.getCallbackSubscription();
+  /**
+   * Sends the pending events of a claimed delivery until no event is left or a callback has failed.
+   */
+  private Mono<CallbackDeliveryEntity> processDelivery(CallbackDeliveryEntity delivery) {
+    return Mono.fromCallable(() -> checkSubscription(delivery))
+      .subscribeOn(Schedulers.boundedElastic())
+      .filter(Boolean::booleanValue)
+      .flatMapMany(urlChecked -> Mono.defer(() -> deliverNextEvent(delivery)).repeat())
+      .takeWhile(Boolean::booleanValue)
+      .then(Mono.just(delivery))
+      .onErrorResume(e -> {
+        putMdc(delivery);
+        EfgsMdc.put("callbackErrorMessage", e.getMessage());
+        log.error("Callback processing of delivery failed. Execution lock expires after the task lock timeout.");
+        EfgsMdc.clear();
+        return Mono.just(delivery);
+      });
+  }
 
-      EfgsMdc.put(MDC_PROP_CALLBACK_ID, subscription.getCallbackId());
-      EfgsMdc.put(MDC_PROP_COUNTRY, subscription.getCountry());
-      EfgsMdc.put("url", subscription.getUrl());
+  private boolean checkSubscription(CallbackDeliveryEntity delivery) {
+    CallbackSubscriptionEntity subscription = delivery.getCallbackSubscription();
+    putMdc(delivery);
 
+    try {
       if (!callbackService.checkUrl(subscription.getUrl(), subscription.getCountry())) {
         log.error("Security check for callback url has failed. Deleting callback subscription.");
 
         callbackService.deleteCallbackSubscription(subscription);
-        currentTask = getNextCallbackTask();
-        continue;
+        return false;
       }
+      return true;
+    } finally {
+      EfgsMdc.clear();
+    }
+  }
 
-      boolean callbackResult = sendCallback(currentTask);
-      EfgsMdc.put("retry", currentTask.getRetries());
+  /**
+   * Sends the event following the cursor of the delivery, unless the host policy defers the callback.
+   *
+   * @return true if the event was delivered and the next event can be sent.
+   */
+  private Mono<Boolean> deliverNextEvent(CallbackDeliveryEntity delivery) {
+    return Mono.fromCallable(() -> findNextEvent(delivery))
+      .subscribeOn(Schedulers.boundedElastic())
+      .flatMap(nextEvent -> nextEvent
+        .map(event -> attemptDelivery(delivery, event))
+        .orElse(Mono.just(false)));
+  }
 
-      if (callbackResult) {
-        log.info("Successfully executed callback. Deleting callback task from database");
-        transactionalCallbackTaskExecutorService.removeNotBeforeForNextTaskAndDeleteTask(currentTask);
-      } else {
-        if (currentTask.getRetries() >= efgsProperties.getCallback().getMaxRetries()) {
-          log.error("Callback reached max amount of retries. Deleting callback subscription.");
+  private Mono<Boolean> attemptDelivery(CallbackDeliveryEntity delivery, CallbackOutboxEntity event) {
+    String host = URI.create(delivery.getCallbackSubscription().getUrl()).getHost();
+    Optional<ZonedDateTime> deferredUntil = callbackHostPolicy.admit(host, delivery.getRetries() > 0);
 
-          callbackService.deleteCallbackSubscription(subscription);
-        } else {
-          currentTask.setRetries(currentTask.getRetries() + 1);
-          currentTask.setLastTry(ZonedDateTime.now(ZoneOffset.UTC));
+    if (deferredUntil.isPresent()) {
+      return Mono.fromCallable(() -> deferDelivery(delivery, deferredUntil.get()))
+        .subscribeOn(Schedulers.boundedElastic());
+    }
 
-          transactionalCallbackTaskExecutorService.removeExecutionLock(currentTask);
-        }
-      }
+    PendingCallback pendingCallback = getPendingCallback(delivery, event);
+
+    return sendCallback(delivery.getCallbackSubscription(), pendingCallback.event().getBatch())
+      .publishOn(Schedulers.boundedElastic())
+      .map(callbackResult -> handleCallbackResult(
+        delivery, pendingCallback.event(), pendingCallback.coveredEventId(), host, callbackResult));
+  }
+
+  /**
+   * Determines the event to announce and the last event which is acknowledged by a successful callback. A coalesced
+   * callback announces the pending batch which comes first in the chain of next batch tags, because batches are not
+   * necessarily published in the order of their tags. The receiver reaches all covered batches from there. Events
+   * published later are sent with a further callback.
+   */
+  private PendingCallback getPendingCallback(CallbackDeliveryEntity delivery, CallbackOutboxEntity nextEvent) {
+    if (!efgsProperties.getCallback().isCoalesceNotifications()) {
+      return new PendingCallback(nextEvent, nextEvent.getId());
+    }
+
+    Long lastEventId = callbackOutboxRepository.getLastEventId();
+    if (lastEventId == null || lastEventId <= nextEvent.getId()) {
+      return new PendingCallback(nextEvent, nextEvent.getId());
+    }
+
+    CallbackOutboxEntity announcedEvent = callbackOutboxRepository
+      .findAllWithBatchByIdBetween(delivery.getLastEventId(), lastEventId).stream()
+      .min(Comparator.comparing(event -> event.getBatch().getBatchName(),
+        DiagnosisKeyBatchSequenceService.BATCH_TAG_ORDER))
+      .orElse(nextEvent);
+
+    putMdc(delivery);
+    EfgsMdc.put(MDC_PROP_EVENT_ID, announcedEvent.getId());
+    EfgsMdc.put("coveredEventId", lastEventId);
+    log.info("Coalescing pending callback events into one callback.");
+    EfgsMdc.clear();
+
+    return new PendingCallback(announcedEvent, lastEventId);
+  }
+
+  private boolean deferDelivery(CallbackDeliveryEntity delivery, ZonedDateTime deferredUntil) {
+    putMdc(delivery);
+    EfgsMdc.put("nextTry", deferredUntil.toString());
+    log.info("Callback host is not available or has exhausted its retry budget. Deferring delivery.");
+    EfgsMdc.clear();
+
+    delivery.setNextTry(deferredUntil);
+    transactionalCallbackTaskExecutorService.removeExecutionLock(delivery);
+    scheduleWakeUp(deferredUntil);
+    return false;
+  }
+
+  private Optional<CallbackOutboxEntity> findNextEvent(CallbackDeliveryEntity delivery) {
+    Optional<CallbackOutboxEntity> nextEvent =
+      callbackOutboxRepository.findFirstByIdGreaterThanOrderByIdAsc(delivery.getLastEventId());
+
+    if (nextEvent.isEmpty()) {
+      putMdc(delivery);
+      log.info("No pending callback event for subscription.");
+      transactionalCallbackTaskExecutorService.removeExecutionLock(delivery);
       EfgsMdc.clear();
-      currentTask = getNextCallbackTask();
     }
-    log.info("Callback processing finished.");
+
+    return nextEvent;
   }
 
-  boolean sendCallback(CallbackTaskEntity callbackTask) {
-    CallbackSubscriptionEntity callbackSubscription = callbackTask.getCallbackSubscription();
+  private boolean handleCallbackResult(
+    CallbackDeliveryEntity delivery, CallbackOutboxEntity event, long coveredEventId, String host,
+    CallbackResult callbackResult) {
+    putMdc(delivery);
+    EfgsMdc.put(MDC_PROP_EVENT_ID, event.getId());
+    EfgsMdc.put("retry", delivery.getRetries());
 
-    EfgsMdc.put(MDC_PROP_CALLBACK_ID, callbackSubscription.getCallbackId());
-    EfgsMdc.put(MDC_PROP_COUNTRY, callbackSubscription.getCountry());
+    try {
+      if (callbackResult.successful()) {
+        log.info("Successfully executed callback. Moving delivery to next event");
+        callbackHostPolicy.onSuccess(host);
+        transactionalCallbackTaskExecutorService.acknowledgeEvent(delivery, coveredEventId);
+        return true;
+      }
+
+      boolean throttled = callbackResult.statusCode() != null
+        && callbackResult.statusCode() == HttpStatus.TOO_MANY_REQUESTS.value();
+      callbackHostPolicy.onFailure(host, throttled);
+
+      if (!throttled && delivery.getRetries() >= efgsProperties.getCallback().getMaxRetries()) {
+        log.error("Callback reached max amount of retries. Deleting callback subscription.");
+
+        callbackService.deleteCallbackSubscription(delivery.getCallbackSubscription());
+      } else {
+        // throttled callbacks are postponed without using up the retries of the subscription
+        int retries = throttled ? Math.max(delivery.getRetries(), 1) : delivery.getRetries() + 1;
+        ZonedDateTime now = ZonedDateTime.now(ZoneOffset.UTC);
+        ZonedDateTime nextTry = now.plus(callbackHostPolicy.getBackoff(retries, callbackResult.retryAfter()));
+
+        delivery.setRetries(throttled ? delivery.getRetries() : retries);
+        delivery.setLastTry(now);
+        delivery.setNextTry(nextTry);
+        delivery.setLastStatusCode(callbackResult.statusCode());
+
+        EfgsMdc.put("nextTry", nextTry.toString());
+        log.info("Scheduled retry of callback.");
 
+        transactionalCallbackTaskExecutorService.removeExecutionLock(delivery);
+        scheduleWakeUp(nextTry);
+      }
+      return false;
+    } finally {
+      EfgsMdc.clear();
+    }
+  }
+
+  Mono<CallbackResult> sendCallback(CallbackSubscriptionEntity callbackSubscription, DiagnosisKeyBatchEntity batch) {
     URI requestUri = UriComponentsBuilder.fromHttpUrl(callbackSubscription.getUrl())
-      .queryParam("batchTag", callbackTask.getBatch().getBatchName())
-      .queryParam("date", callbackTask.getBatch().getCreatedAt()
+      .queryParam("batchTag", batch.getBatchName())
+      .queryParam("date", batch.getCreatedAt()
         .withZoneSameInstant(ZoneOffset.UTC).format(DateTimeFormatter.ISO_LOCAL_DATE))
       .build().toUri();
 
-    ResponseEntity<Void> callbackResponse;
+    return webClient.get()
+      .uri(requestUri)
+      .header(HttpHeaders.USER_AGENT, EFGS_USER_AGENT)
+      .retrieve()
+      .toBodilessEntity()
+      .map(callbackResponse -> {
+        if (callbackResponse.getStatusCode().is2xxSuccessful()) {
+          return new CallbackResult(true, callbackResponse.getStatusCode().value(), null);
+        }
+        logCallbackFailure(callbackSubscription, "Got a non 2xx response for callback.",
+          callbackResponse.getStatusCode().value(), null);
+        return new CallbackResult(false, callbackResponse.getStatusCode().value(),
+          parseRetryAfter(callbackResponse.getHeaders()));
+      })
+      .switchIfEmpty(Mono.fromCallable(() -> {
+        logCallbackFailure(callbackSubscription, "Got no response for callback.", null, null);
+        return new CallbackResult(false, null, null);
+      }))
+      .onErrorResume(e -> {
+        if (e instanceof WebClientResponseException responseException) {
+          logCallbackFailure(callbackSubscription, "Callback request failed",
+            responseException.getStatusCode().value(), e.getMessage());
+          return Mono.just(new CallbackResult(false, responseException.getStatusCode().value(),
+            parseRetryAfter(responseException.getHeaders())));
+        }
+
+        logCallbackFailure(callbackSubscription, "Callback request failed", null, e.getMessage());
+        return Mono.just(new CallbackResult(false, null, null));
+      });
+  }
+
+  /**
+   * Parses the Retry-After header, which contains either the delay in seconds or an HTTP date.
+   */
+  static Duration parseRetryAfter(HttpHeaders headers) {
+    String retryAfter = headers.getFirst(HttpHeaders.RETRY_AFTER);
+    if (retryAfter == null || retryAfter.isBlank()) {
+      return null;
+    }
+
     try {
-      callbackResponse = webClient.get()
-        .uri(requestUri)
-        .header(HttpHeaders.USER_AGENT, EFGS_USER_AGENT)
-        .retrieve()
-        .toBodilessEntity()
-        .block();
-    } catch (Exception e) {
-      EfgsMdc.put("callbackErrorMessage", e.getMessage());
-      log.error("Callback request failed");
-      return false;
+      return Duration.ofSeconds(Math.max(0, Long.parseLong(retryAfter.trim())));
+    } catch (NumberFormatException e) {
+      try {
+        Duration delay = Duration.between(ZonedDateTime.now(ZoneOffset.UTC),
+          ZonedDateTime.parse(retryAfter.trim(), DateTimeFormatter.RFC_1123_DATE_TIME));
+        return delay.isNegative() ? Duration.ZERO : delay;
+      } catch (DateTimeParseException ignored) {
+        return null;
+      }
     }
+  }
 
-    if (callbackResponse != null) {
-      if (callbackResponse.getStatusCode().is2xxSuccessful()) {
-        log.info("Got 2xx response for callback.");
+  /**
+   * Wakes up the processing again when a deferred delivery is due. The dispatch scheduler keeps the pending wake-ups
+   * ordered by their due time.
+   */
+  private void scheduleWakeUp(ZonedDateTime dueAt) {
+    if (dispatchScheduler != null && !dispatchScheduler.isShutdown()) {
+      long delay = Math.max(0, Duration.between(ZonedDateTime.now(ZoneOffset.UTC), dueAt).toMillis()) + 1000;
+      dispatchScheduler.schedule(this::wakeUp, delay, TimeUnit.MILLISECONDS);
+    }
+  }
 
-        return true;
-      } else {
-        EfgsMdc.put("statusCode", callbackResponse.getStatusCodeValue());
-        log.error("Got a non 2xx response for callback.");
-      }
-    } else {
-      log.error("Got no response for callback.");
+  private void logCallbackFailure(
+    CallbackSubscriptionEntity callbackSubscription, String message, Integer statusCode, String errorMessage) {
+    EfgsMdc.put(MDC_PROP_CALLBACK_ID, callbackSubscription.getCallbackId());
+    EfgsMdc.put(MDC_PROP_COUNTRY, callbackSubscription.getCountry());
+    if (statusCode != null) {
+      EfgsMdc.put("statusCode", statusCode);
+    }
+    if (errorMessage != null) {
+      EfgsMdc.put("callbackErrorMessage", errorMessage);
     }
 
-    return false;
+    log.error(message);
+    EfgsMdc.clear();
   }
 
-  private CallbackTaskEntity getNextCallbackTask() {
-    ZonedDateTime timestamp = ZonedDateTime.now(ZoneOffset.UTC).minusSeconds(
-      efgsProperties.getCallback().getRetryWait()
-    );
+  private void putMdc(CallbackDeliveryEntity delivery) {
+    CallbackSubscriptionEntity subscription = delivery.getCallbackSubscription();
+
+    EfgsMdc.put(MDC_PROP_DELIVERY_ID, delivery.getId());
+    EfgsMdc.put(MDC_PROP_CALLBACK_ID, subscription.getCallbackId());
+    EfgsMdc.put(MDC_PROP_COUNTRY, subscription.getCountry());
+    EfgsMdc.put("url", subscription.getUrl());
+  }
+
+  /**
+   * Claims up to the given number of pending deliveries. Deliveries of other nodes are skipped unless their lease
+   * has expired.
+   */
+  private List<CallbackDeliveryEntity> claimPendingDeliveries(int limit) {
+    ZonedDateTime now = ZonedDateTime.now(ZoneOffset.UTC);
+
+    return transactionalCallbackTaskExecutorService.claimPendingDeliveries(limit, now,
+      now.minusSeconds(efgsProperties.getCallback().getTaskLockTimeout()));
+  }
 
-    List<CallbackTaskEntity> callbackTaskEntities = callbackTaskRepository
-      .findNextPendingCallbackTask(timestamp, PageRequest.of(0, 1));
+  /**
+   * The event announced by a callback and the last event acknowledged by it.
+   */
+  private record PendingCallback(CallbackOutboxEntity event, long coveredEventId) {
+  }
 
-    return callbackTaskEntities.size() == 1 ? callbackTaskEntities.get(0) : null;
+  /**
+   * Outcome of a callback request.
+   *
+   * @param successful true if the receiver has answered with 2xx.
+   * @param statusCode the HTTP status code, null if no response was received.
+   * @param retryAfter the wait time requested by the receiver with Retry-After, may be null.
+   */
+  record CallbackResult(boolean successful, Integer statusCode, Duration retryAfter) {
   }
 }
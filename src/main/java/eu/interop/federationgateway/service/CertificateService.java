@@ -23,6 +23,7 @@
 import eu.interop.federationgateway.config.EfgsProperties;
 import eu.interop.federationgateway.entity.CertificateEntity;
 import eu.interop.federationgateway.model.AuditEntry;
+import eu.interop.federationgateway.model.CertificateTableVersion;
 import eu.interop.federationgateway.repository.CertificateRepository;
 import eu.interop.federationgateway.utils.CertificateUtils;
 import eu.interop.federationgateway.utils.EfgsMdc;
@@ -37,13 +38,20 @@
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
 import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.bouncycastle.cert.X509CertificateHolder;
 import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
 import org.bouncycastle.openssl.PEMParser;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
 @Slf4j
@@ -56,6 +64,12 @@ public class CertificateService {
   private final KeyStore trustAnchorKeyStore;
   private final EfgsProperties efgsProperties;
 
+  private final Map<CertificateCacheKey, CachedCertificate> certificateCache = new LinkedHashMap<>(16, 0.75f, true);
+
+  private long cacheGeneration;
+
+  private CertificateTableVersion certificateTableVersion;
+
   /**
    * Add operator signatures to the audit entries.
    *
@@ -95,7 +109,8 @@ public List<AuditEntry> addOperatorSignatures(List<AuditEntry> auditEntries) {
   }
 
   /**
-   * Method to query the db for a certificate.
+   * Method to query the db for a certificate. Validated certificates and lookups without a valid certificate are
+   * cached, see {@link EfgsProperties.CertificateCache}.
    *
    * @param thumbprint RSA-256 thumbprint of certificate.
    * @param country    country of certificate.
@@ -105,23 +120,135 @@ public List<AuditEntry> addOperatorSignatures(List<AuditEntry> auditEntries) {
   public Optional<CertificateEntity> getCertificate(
     String thumbprint, String country, CertificateEntity.CertificateType type) {
 
-    return certificateRepository.getFirstByThumbprintAndCountryAndType(thumbprint, country, type)
-      .map(certificateEntity -> validateCertificateIntegrity(certificateEntity) ? certificateEntity : null);
+    return getCachedOrLoadCertificate(new CertificateCacheKey(thumbprint, country, type),
+      () -> certificateRepository.getFirstByThumbprintAndCountryAndType(thumbprint, country, type));
   }
 
   /**
-   * Method to query the db for a authentication certificate.
+   * Method to query the db for a authentication certificate. Validated certificates and lookups without a valid
+   * certificate are cached, see {@link EfgsProperties.CertificateCache}.
    *
    * @param thumbprint RSA-256 thumbprint of certificate.
    * @return Optional holding the certificate if found.
    */
   public Optional<CertificateEntity> getAuthenticationCertificate(String thumbprint) {
 
-    return certificateRepository.getFirstByThumbprintAndType(
-      thumbprint, CertificateEntity.CertificateType.AUTHENTICATION)
+    return getCachedOrLoadCertificate(
+      new CertificateCacheKey(thumbprint, null, CertificateEntity.CertificateType.AUTHENTICATION),
+      () -> certificateRepository.getFirstByThumbprintAndType(
+        thumbprint, CertificateEntity.CertificateType.AUTHENTICATION));
+  }
+
+  /**
+   * Evicts all cached lookups for the thumbprint or the database entry of the given certificate. Has to be called
+   * whenever a certificate is added, changed (e.g. revoked) or deleted.
+   *
+   * @param certificate the changed certificate.
+   */
+  public void evictCertificate(CertificateEntity certificate) {
+    synchronized (certificateCache) {
+      cacheGeneration++;
+      certificateCache.entrySet().removeIf(entry ->
+        Objects.equals(entry.getKey().thumbprint(), certificate.getThumbprint())
+          || (entry.getValue().certificate() != null && certificate.getId() != null
+          && certificate.getId().equals(entry.getValue().certificate().getId())));
+    }
+  }
+
+  /**
+   * Evicts all cached certificate lookups.
+   */
+  public void evictAll() {
+    synchronized (certificateCache) {
+      cacheGeneration++;
+      certificateCache.clear();
+    }
+  }
+
+  /**
+   * scheduled service - evicts all cached certificate lookups if certificates were added, deleted or revoked
+   * bypassing JPA, e.g. directly in the database. Runs on every node, as every node has its own cache.
+   */
+  @Scheduled(fixedDelayString = "${efgs.certificate-cache.version-check-interval}")
+  public void evictChangedCertificates() {
+    if (!efgsProperties.getCertificateCache().isEnabled()) {
+      return;
+    }
+
+    CertificateTableVersion version = certificateRepository.getCertificateTableVersion();
+
+    synchronized (certificateCache) {
+      if (version.equals(certificateTableVersion)) {
+        return;
+      }
+      certificateTableVersion = version;
+    }
+
+    evictAll();
+    log.info("Certificates changed, evicted all cached certificate lookups.");
+  }
+
+  private Optional<CertificateEntity> getCachedOrLoadCertificate(
+    CertificateCacheKey key, Supplier<Optional<CertificateEntity>> loader) {
+
+    EfgsProperties.CertificateCache settings = efgsProperties.getCertificateCache();
+    if (!settings.isEnabled()) {
+      return loadValidCertificate(loader);
+    }
+
+    long generation;
+    synchronized (certificateCache) {
+      CachedCertificate cachedCertificate = certificateCache.get(key);
+      if (cachedCertificate != null && cachedCertificate.expiresAt() - System.nanoTime() > 0) {
+        return Optional.ofNullable(cachedCertificate.certificate()).map(CertificateService::copyCertificate);
+      }
+      certificateCache.remove(key);
+      generation = cacheGeneration;
+    }
+
+    Optional<CertificateEntity> certificate = loadValidCertificate(loader);
+
+    long timeToLive = TimeUnit.SECONDS.toNanos(certificate.isPresent()
+      ? settings.getTimeToLiveInSeconds() : settings.getNegativeTimeToLiveInSeconds());
+
+    synchronized (certificateCache) {
+      // a certificate changed while it was loaded, the loaded state might already be outdated
+      if (generation == cacheGeneration) {
+        certificateCache.put(key, new CachedCertificate(
+          certificate.map(CertificateService::copyCertificate).orElse(null), System.nanoTime() + timeToLive));
+
+        Iterator<CachedCertificate> iterator = certificateCache.values().iterator();
+        while (certificateCache.size() > settings.getMaxSize() && iterator.hasNext()) {
+          iterator.next();
+          iterator.remove();
+        }
+      }
+    }
+
+    return certificate;
+  }
+
+  private Optional<CertificateEntity> loadValidCertificate(Supplier<Optional<CertificateEntity>> loader) {
+    return loader.get()
       .map(certificateEntity -> validateCertificateIntegrity(certificateEntity) ? certificateEntity : null);
   }
 
+  /**
+   * Cached certificates are shared between callers, so every caller gets its own copy to work with.
+   */
+  private static CertificateEntity copyCertificate(CertificateEntity certificate) {
+    return new CertificateEntity(
+      certificate.getId(),
+      certificate.getCreatedAt(),
+      certificate.getThumbprint(),
+      certificate.getCountry(),
+      certificate.getType(),
+      certificate.getRevoked(),
+      certificate.getHost(),
+      certificate.getSignature(),
+      certificate.getRawData());
+  }
+
   private boolean validateCertificateIntegrity(CertificateEntity certificateEntity) {
 
     EfgsMdc.put(MDC_PROP_CERT_THUMBPRINT, certificateEntity.getThumbprint());
@@ -212,4 +339,13 @@ private X509Certificate getX509CertificateFromEntity(CertificateEntity certifica
       return null;
     }
   }
+
+  private record CertificateCacheKey(String thumbprint, String country, CertificateEntity.CertificateType type) {
+  }
+
+  /**
+   * A cached lookup, the certificate is null if no valid certificate was found.
+   */
+  private record CachedCertificate(CertificateEntity certificate, long expiresAt) {
+  }
 }
@@ -0,0 +1,338 @@
+/*-
+ * ---license-start
+ * EU-Federation-Gateway-Service / efgs-federation-gateway
+ * ---
+ * Copyright (C) 2020 - 2022 T-Systems International GmbH and all other contributors
+ * ---
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ---license-end
+ */
+
+package eu.interop.federationgateway.service;
+
+import com.google.protobuf.CodedOutputStream;
+import eu.interop.federationgateway.config.EfgsProperties;
+import eu.interop.federationgateway.config.ProtobufConverter;
+import eu.interop.federationgateway.entity.DiagnosisKeyBatchArtifactEntity;
+import eu.interop.federationgateway.entity.DiagnosisKeyBatchEntity;
+import eu.interop.federationgateway.mapper.DiagnosisKeyMapper;
+import eu.interop.federationgateway.model.DiagnosisKeyBatchArtifact;
+import eu.interop.federationgateway.model.EfgsProto;
+import eu.interop.federationgateway.repository.DiagnosisKeyBatchArtifactRepository;
+import eu.interop.federationgateway.utils.EfgsMdc;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+/**
+ * Precomputes the serialized download of a batch per downloading country and stores it in the database after the
+ * batch is created, so the downloads following the callbacks for a new batch do not need to query the diagnosis
+ * keys. Batches are immutable once they are created, so the stored artifacts are also cached in memory until the
+ * cache exceeds its configured size or the batch is older than the download retention.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class DiagnosisKeyBatchArtifactService {
+
+  private final DiagnosisKeyEntityService diagnosisKeyEntityService;
+
+  private final DiagnosisKeyMapper diagnosisKeyMapper;
+
+  private final DiagnosisKeyBatchArtifactRepository diagnosisKeyBatchArtifactRepository;
+
+  private final EfgsProperties properties;
+
+  private final Map<ArtifactKey, CachedArtifact> artifacts = new LinkedHashMap<>(16, 0.75f, true);
+
+  private long cachedBytes;
+
+  private ExecutorService precomputeExecutor;
+
+  @PostConstruct
+  public void init() {
+    precomputeExecutor = Executors.newFixedThreadPool(
+      properties.getDownloadSettings().getArtifactCache().getPrecomputeThreads());
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    precomputeExecutor.shutdown();
+  }
+
+  /**
+   * Gets the serialized batch without the keys uploaded by the downloading country if it is cached or was
+   * precomputed. The artifact is never rendered on demand, so downloads of other batches are streamed or rendered
+   * by the caller instead and only precomputed artifacts are cached.
+   *
+   * @param batch   the batch to download
+   * @param country the country code of the downloading country
+   * @return the serialized batch or empty if it is neither cached nor stored
+   */
+  public Optional<DiagnosisKeyBatchArtifact> findArtifact(DiagnosisKeyBatchEntity batch, String country) {
+    ArtifactKey key = new ArtifactKey(batch.getBatchName(), country);
+
+    DiagnosisKeyBatchArtifact artifact = getCachedArtifact(key);
+    if (artifact != null) {
+      return Optional.of(artifact);
+    }
+
+    Optional<DiagnosisKeyBatchArtifact> storedArtifact = loadStoredArtifact(batch, country);
+    storedArtifact.ifPresent(stored -> putArtifact(key, batch.getCreatedAt(), stored));
+    return storedArtifact;
+  }
+
+  /**
+   * Renders the artifacts of a newly created batch in the background and stores them in the database. One artifact is
+   * stored for every uploading country of the batch without its own keys and one containing all keys for every
+   * other downloading country. The keys are read once with a cursor and appended to every artifact containing them,
+   * so the batch itself is never held in memory.
+   * Must be called after the transaction creating the batch has committed. A failed precomputation is only logged,
+   * the batch is then downloaded like a batch without stored artifacts.
+   *
+   * @param batch the newly created batch
+   * @param uploaderBatchTags the tags of the uploads which become members of the batch
+   * @return the running precomputation
+   */
+  public CompletableFuture<Void> precomputeArtifacts(DiagnosisKeyBatchEntity batch, List<String> uploaderBatchTags) {
+    if (!properties.getDownloadSettings().getArtifactCache().isPrecompute()) {
+      return CompletableFuture.completedFuture(null);
+    }
+
+    return CompletableFuture.runAsync(() -> {
+      EfgsMdc.put("batchTag", batch.getBatchName());
+      try {
+        storeArtifacts(batch, uploaderBatchTags);
+      } catch (RuntimeException e) {
+        log.error("Precomputing the download artifacts failed, they are rendered on download", e);
+      } finally {
+        EfgsMdc.remove("batchTag");
+      }
+    }, precomputeExecutor);
+  }
+
+  /**
+   * Deletes the stored artifacts and evicts the cached artifacts of all batches created before the given timestamp.
+   *
+   * @param timestamp the timestamp
+   * @return the number of deleted stored artifacts
+   */
+  public int deleteAllBefore(ZonedDateTime timestamp) {
+    int deletedArtifacts = diagnosisKeyBatchArtifactRepository.deleteByCreatedAtBefore(timestamp);
+    evictBatchesCreatedBefore(timestamp);
+    return deletedArtifacts;
+  }
+
+  /**
+   * Evicts the artifacts of all batches created before the given timestamp.
+   *
+   * @param timestamp the timestamp
+   */
+  public void evictBatchesCreatedBefore(ZonedDateTime timestamp) {
+    int evictedArtifacts = 0;
+
+    synchronized (artifacts) {
+      Iterator<CachedArtifact> iterator = artifacts.values().iterator();
+      while (iterator.hasNext()) {
+        CachedArtifact cachedArtifact = iterator.next();
+        if (cachedArtifact.batchCreatedAt.isBefore(timestamp)) {
+          cachedBytes -= cachedArtifact.artifact.getSize();
+          iterator.remove();
+          evictedArtifacts++;
+        }
+      }
+    }
+
+    EfgsMdc.put("evictedArtifacts", evictedArtifacts);
+    log.info("Evicted download artifacts of deleted batches");
+  }
+
+  /**
+   * Evicts all cached artifacts.
+   */
+  public void evictAll() {
+    synchronized (artifacts) {
+      artifacts.clear();
+      cachedBytes = 0;
+    }
+  }
+
+  private DiagnosisKeyBatchArtifact getCachedArtifact(ArtifactKey key) {
+    synchronized (artifacts) {
+      CachedArtifact cachedArtifact = artifacts.get(key);
+      if (cachedArtifact == null) {
+        return null;
+      }
+
+      if (isExpired(cachedArtifact.batchCreatedAt)) {
+        artifacts.remove(key);
+        cachedBytes -= cachedArtifact.artifact.getSize();
+        return null;
+      }
+
+      return cachedArtifact.artifact;
+    }
+  }
+
+  private void putArtifact(ArtifactKey key, ZonedDateTime batchCreatedAt, DiagnosisKeyBatchArtifact artifact) {
+    long maxSizeInBytes = properties.getDownloadSettings().getArtifactCache().getMaxSizeInBytes();
+    if (artifact.getSize() > maxSizeInBytes || isExpired(batchCreatedAt)) {
+      return;
+    }
+
+    synchronized (artifacts) {
+      CachedArtifact previous = artifacts.put(key, new CachedArtifact(artifact, batchCreatedAt));
+      if (previous != null) {
+        cachedBytes -= previous.artifact.getSize();
+      }
+      cachedBytes += artifact.getSize();
+
+      Iterator<CachedArtifact> iterator = artifacts.values().iterator();
+      while (cachedBytes > maxSizeInBytes && iterator.hasNext()) {
+        cachedBytes -= iterator.next().artifact.getSize();
+        iterator.remove();
+      }
+    }
+  }
+
+  private Optional<DiagnosisKeyBatchArtifact> loadStoredArtifact(DiagnosisKeyBatchEntity batch, String country) {
+    return diagnosisKeyBatchArtifactRepository
+      .findFirstByBatchIdAndCountry(batch.getId(), country)
+      .or(() -> diagnosisKeyBatchArtifactRepository.findFirstByBatchIdAndCountryIsNull(batch.getId()))
+      .map(stored -> new DiagnosisKeyBatchArtifact(stored.getProtobuf(), stored.getJson(), stored.getNumberOfKeys()));
+  }
+
+  private void storeArtifacts(DiagnosisKeyBatchEntity batch, List<String> uploaderBatchTags) {
+    Map<String, ArtifactWriter> writers = new LinkedHashMap<>();
+    diagnosisKeyEntityService.getUploaderCountriesOfUploads(uploaderBatchTags)
+      .forEach(country -> writers.put(country, new ArtifactWriter()));
+    ArtifactWriter allKeysWriter = new ArtifactWriter();
+
+    try {
+      diagnosisKeyEntityService.streamDiagnosisKeysOfUploads(uploaderBatchTags, entity -> {
+        // like the download query keys without uploader country are never included
+        String uploaderCountry = entity.getUploader().getCountry();
+        if (uploaderCountry == null) {
+          return;
+        }
+
+        EncodedKey key = ArtifactWriter.encode(diagnosisKeyMapper.entityToProto(entity));
+        allKeysWriter.write(key);
+        writers.forEach((country, writer) -> {
+          if (!country.equals(uploaderCountry)) {
+            writer.write(key);
+          }
+        });
+      });
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+
+    writers.put(null, allKeysWriter);
+    List<DiagnosisKeyBatchArtifactEntity> artifacts = writers.entrySet().stream()
+      .map(writer -> {
+        DiagnosisKeyBatchArtifact artifact = writer.getValue().toArtifact();
+        return new DiagnosisKeyBatchArtifactEntity(null, batch.getCreatedAt(), batch.getId(), writer.getKey(),
+          artifact.getNumberOfKeys(), artifact.getProtobuf(), artifact.getJson());
+      })
+      .toList();
+
+    diagnosisKeyBatchArtifactRepository.saveAll(artifacts);
+
+    EfgsMdc.put("precomputedArtifacts", artifacts.size());
+    log.info("Precomputed download artifacts");
+    EfgsMdc.remove("precomputedArtifacts");
+  }
+
+  private boolean isExpired(ZonedDateTime batchCreatedAt) {
+    LocalDate thresholdDate = LocalDate.now(ZoneOffset.UTC)
+      .minusDays(properties.getDownloadSettings().getMaxAgeInDays());
+
+    return batchCreatedAt.withZoneSameInstant(ZoneOffset.UTC).toLocalDate().isBefore(thresholdDate);
+  }
+
+  private record ArtifactKey(String batchTag, String country) {
+  }
+
+  private record EncodedKey(byte[] protobuf, byte[] json) {
+  }
+
+  /**
+   * Appends encoded keys to an artifact. The artifact has the wire format of the corresponding
+   * {@link EfgsProto.DiagnosisKeyBatch}, like a streamed download written by the ProtobufHttpMessageConverter.
+   */
+  private static class ArtifactWriter {
+
+    private static final byte[] JSON_KEYS_PREFIX = "{\"keys\": [".getBytes(StandardCharsets.UTF_8);
+
+    private static final byte[] JSON_KEYS_SEPARATOR = ",".getBytes(StandardCharsets.UTF_8);
+
+    private static final byte[] JSON_KEYS_SUFFIX = "]}".getBytes(StandardCharsets.UTF_8);
+
+    private static final byte[] JSON_EMPTY_MESSAGE = "{}".getBytes(StandardCharsets.UTF_8);
+
+    private final ByteArrayOutputStream protobuf = new ByteArrayOutputStream();
+
+    private final ByteArrayOutputStream json = new ByteArrayOutputStream();
+
+    private int numberOfKeys;
+
+    /**
+     * Encodes a key once for all artifacts containing it, as length-delimited keys field and as JSON object.
+     */
+    static EncodedKey encode(EfgsProto.DiagnosisKey key) throws IOException {
+      byte[] protobuf = new byte[CodedOutputStream.computeMessageSize(
+        EfgsProto.DiagnosisKeyBatch.KEYS_FIELD_NUMBER, key)];
+      CodedOutputStream codedOutputStream = CodedOutputStream.newInstance(protobuf);
+      codedOutputStream.writeMessage(EfgsProto.DiagnosisKeyBatch.KEYS_FIELD_NUMBER, key);
+      codedOutputStream.checkNoSpaceLeft();
+
+      ByteArrayOutputStream json = new ByteArrayOutputStream();
+      new ProtobufConverter().print(key, json);
+
+      return new EncodedKey(protobuf, json.toByteArray());
+    }
+
+    void write(EncodedKey key) {
+      protobuf.writeBytes(key.protobuf());
+      json.writeBytes(numberOfKeys == 0 ? JSON_KEYS_PREFIX : JSON_KEYS_SEPARATOR);
+      json.writeBytes(key.json());
+      numberOfKeys++;
+    }
+
+    DiagnosisKeyBatchArtifact toArtifact() {
+      json.writeBytes(numberOfKeys == 0 ? JSON_EMPTY_MESSAGE : JSON_KEYS_SUFFIX);
+      return new DiagnosisKeyBatchArtifact(protobuf.toByteArray(), json.toByteArray(), numberOfKeys);
+    }
+  }
+
+  private record CachedArtifact(DiagnosisKeyBatchArtifact artifact, ZonedDateTime batchCreatedAt) {
+  }
+}
@@ -0,0 +1,116 @@
+/*-
+ * ---license-start
+ * EU-Federation-Gateway-Service / efgs-federation-gateway
+ * ---
+ * Copyright (C) 2020 - 2022 T-Systems International GmbH and all other contributors
+ * ---
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ---license-end
+ */
+
+package eu.interop.federationgateway.service;
+
+import eu.interop.federationgateway.entity.FormatInformation;
+import eu.interop.federationgateway.model.UnbatchedUpload;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Plans which uploads are put into the next batch. Uploads cannot be split, so the planner selects the subset of the
+ * unbatched uploads which fills the batch as much as possible without exceeding the document limit.
+ */
+public final class DiagnosisKeyBatchPlanner {
+
+  /**
+   * The number of the oldest uploads with the format of the next batch considered for one batch. Bounds the time and
+   * memory needed for planning when a large backlog of uploads has to be batched.
+   */
+  static final int MAX_CANDIDATES = 256;
+
+  private DiagnosisKeyBatchPlanner() {
+  }
+
+  /**
+   * Selects the uploads for the next batch. The oldest upload is always part of the next batch, so no upload waits
+   * forever, and all uploads of a batch share its format. An upload exceeding the document limit on its own is put
+   * into a batch of its own. Among equally filled batches the batch with the older uploads is chosen.
+   *
+   * @param uploads  the unbatched uploads, ordered by upload time.
+   * @param doclimit the maximum number of keys per batch.
+   * @return the uploads of the next batch in upload order, empty if there are no unbatched uploads.
+   */
+  public static List<UnbatchedUpload> planNextBatch(List<UnbatchedUpload> uploads, int doclimit) {
+    if (uploads.isEmpty()) {
+      return List.of();
+    }
+
+    UnbatchedUpload oldestUpload = uploads.get(0);
+    int capacity = doclimit - Math.min(oldestUpload.getNumberOfKeys(), doclimit);
+    if (capacity == 0) {
+      return List.of(oldestUpload);
+    }
+
+    FormatInformation batchFormat = oldestUpload.getFormat();
+    List<UnbatchedUpload> candidates = new ArrayList<>();
+    for (int i = 1; i < uploads.size() && candidates.size() < MAX_CANDIDATES; i++) {
+      UnbatchedUpload upload = uploads.get(i);
+      if (upload.getNumberOfKeys() <= capacity && batchFormat.equals(upload.getFormat())) {
+        candidates.add(upload);
+      }
+    }
+
+    List<UnbatchedUpload> batch = new ArrayList<>();
+    batch.add(oldestUpload);
+    batch.addAll(selectFillMaximizingSubset(candidates, capacity));
+    return batch;
+  }
+
+  /**
+   * Solves the subset sum problem for the candidates. reachable[i][s] is true if a subset of the candidates i to n - 1
+   * contains exactly s keys, so walking through the candidates in order and taking every candidate which still allows
+   * to reach the best sum prefers older uploads.
+   */
+  private static List<UnbatchedUpload> selectFillMaximizingSubset(List<UnbatchedUpload> candidates, int capacity) {
+    int candidateCount = candidates.size();
+    boolean[][] reachable = new boolean[candidateCount + 1][];
+    reachable[candidateCount] = new boolean[capacity + 1];
+    reachable[candidateCount][0] = true;
+
+    for (int i = candidateCount - 1; i >= 0; i--) {
+      int size = candidates.get(i).getNumberOfKeys();
+      boolean[] next = reachable[i + 1];
+      boolean[] current = next.clone();
+      for (int sum = capacity; sum >= size; sum--) {
+        current[sum] |= next[sum - size];
+      }
+      reachable[i] = current;
+    }
+
+    int remaining = capacity;
+    while (!reachable[0][remaining]) {
+      remaining--;
+    }
+
+    List<UnbatchedUpload> selected = new ArrayList<>();
+    for (int i = 0; i < candidateCount && remaining > 0; i++) {
+      int size = candidates.get(i).getNumberOfKeys();
+      if (size <= remaining && reachable[i + 1][remaining - size]) {
+        selected.add(candidates.get(i));
+        remaining -= size;
+      }
+    }
+
+    return selected;
+  }
+
+}
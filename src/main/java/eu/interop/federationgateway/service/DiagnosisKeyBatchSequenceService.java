@@ -0,0 +1,214 @@
+/*-
+ * ---license-start
+ * EU-Federation-Gateway-Service / efgs-federation-gateway
+ * ---
+ * Copyright (C) 2020 - 2022 T-Systems International GmbH and all other contributors
+ * ---
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ---license-end
+ */
+
+package eu.interop.federationgateway.service;
+
+import eu.interop.federationgateway.entity.DiagnosisKeyBatchEntity;
+import eu.interop.federationgateway.entity.DiagnosisKeyBatchSequenceEntity;
+import eu.interop.federationgateway.repository.DiagnosisKeyBatchRepository;
+import eu.interop.federationgateway.repository.DiagnosisKeyBatchSequenceRepository;
+import jakarta.transaction.Transactional;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Comparator;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+
+/**
+ * Allocates the tags of new batches. The tags are numbered per UTC day ({@code yyyyMMdd-N}) with one counter row per
+ * day, so neither the latest batch has to be read nor its link has to be updated to create the next batch.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class DiagnosisKeyBatchSequenceService {
+
+  private static final DateTimeFormatter BATCH_DATE_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd");
+
+  private static final Pattern BATCH_TAG_PATTERN = Pattern.compile("(\\d{8})-(\\d+)");
+
+  /**
+   * Orders batch tags as they are chained by their next batch tags: by day and by sequence within a day.
+   */
+  public static final Comparator<String> BATCH_TAG_ORDER = DiagnosisKeyBatchSequenceService::compareBatchTags;
+
+  private final DiagnosisKeyBatchSequenceRepository diagnosisKeyBatchSequenceRepository;
+
+  private final DiagnosisKeyBatchRepository diagnosisKeyBatchRepository;
+
+  /**
+   * Allocates the tag of a new batch of the given day. The counter of the day stays locked until the calling
+   * transaction is finished, so tags are assigned without gaps and batches become visible in the order of their tags.
+   * It should therefore be called as late as possible in the transaction creating the batch.
+   *
+   * <p>The counter is not created here, because a failed insert of a counter created concurrently would roll back the
+   * whole batch. The calling transaction has to be rolled back and retried once the counter was created with
+   * {@link #createSequenceOfDay(LocalDate)}.</p>
+   *
+   * @param batchDate the UTC day of the new batch
+   * @return the tag of the new batch
+   * @throws MissingBatchSequenceException if the counter of the day does not exist yet.
+   */
+  @Transactional(Transactional.TxType.MANDATORY)
+  public String allocateBatchTag(LocalDate batchDate) {
+    if (diagnosisKeyBatchSequenceRepository.incrementLastSequence(batchDate) == 0) {
+      throw new MissingBatchSequenceException(batchDate);
+    }
+
+    return formatBatchTag(batchDate, diagnosisKeyBatchSequenceRepository.getLastSequence(batchDate));
+  }
+
+  /**
+   * Creates the counter of the given day if it does not exist yet, so concurrently created batches of the day only
+   * have to increment it. A counter created concurrently by another batching process is kept.
+   *
+   * @param batchDate the UTC day
+   */
+  public void createSequenceOfDay(LocalDate batchDate) {
+    if (diagnosisKeyBatchSequenceRepository.existsById(batchDate)) {
+      return;
+    }
+
+    try {
+      diagnosisKeyBatchSequenceRepository.saveAndFlush(
+        new DiagnosisKeyBatchSequenceEntity(batchDate, getLastSequenceOfExistingBatches(batchDate)));
+    } catch (DataIntegrityViolationException e) {
+      log.info("Batch sequence of the day was created concurrently");
+    }
+  }
+
+  /**
+   * Gets the tag of the first batch of the given day or, if the day has no batches, of the next day with batches.
+   * Concurrently created batches may be started in a different order than they got their tags, so the first batch
+   * of a day is the one with the lowest sequence number and not the oldest one.
+   *
+   * @param batchDate the UTC day
+   * @return the tag of the first batch or null if no batch exists from this day on.
+   */
+  public String getFirstBatchTagFrom(LocalDate batchDate) {
+    return diagnosisKeyBatchRepository
+      .findFirstByCreatedAtIsGreaterThanOrderByCreatedAtAsc(batchDate.atStartOfDay(ZoneOffset.UTC))
+      .map(DiagnosisKeyBatchEntity::getBatchName)
+      .map(batchTag -> {
+        Matcher matcher = BATCH_TAG_PATTERN.matcher(batchTag);
+        if (!matcher.matches()) {
+          return batchTag;
+        }
+
+        String prefix = matcher.group(1) + "-";
+        return findBatchTagOfDayAfter(prefix, prefix).orElse(batchTag);
+      })
+      .orElse(null);
+  }
+
+  /**
+   * Gets the tag of the next batch. This is the batch with the next higher sequence number of the same day, which
+   * is the next sequence number unless batches of the day were created before its counter existed. The last batch of
+   * a day is followed by the first batch of the next day with batches, as with the links of the batches. Batches
+   * which were linked to their successor when it was created keep this link.
+   *
+   * @param batch the batch
+   * @return the tag of the next batch or null if no next batch exists yet.
+   */
+  public String getNextBatchTag(DiagnosisKeyBatchEntity batch) {
+    if (batch.getBatchLink() != null) {
+      return batch.getBatchLink();
+    }
+
+    Matcher matcher = BATCH_TAG_PATTERN.matcher(batch.getBatchName());
+    if (!matcher.matches()) {
+      return null;
+    }
+
+    LocalDate batchDate = LocalDate.parse(matcher.group(1), BATCH_DATE_FORMAT);
+
+    return findBatchTagOfDayAfter(matcher.group(1) + "-", batch.getBatchName())
+      .orElseGet(() -> getFirstBatchTagFrom(batchDate.plusDays(1)));
+  }
+
+  /**
+   * Deletes the counters of all days before the given day.
+   *
+   * @param batchDate the first day to keep
+   * @return the number of deleted rows.
+   */
+  public int deleteAllBefore(LocalDate batchDate) {
+    return diagnosisKeyBatchSequenceRepository.deleteByBatchDateBefore(batchDate);
+  }
+
+  /**
+   * Batches created before the counter of their day existed, e.g. before an update, have to be considered when the
+   * counter of a day is created.
+   */
+  private int getLastSequenceOfExistingBatches(LocalDate batchDate) {
+    return diagnosisKeyBatchRepository
+      .findLastBatchNamesOfDay(batchDate.format(BATCH_DATE_FORMAT) + "-", PageRequest.of(0, 1)).stream()
+      .map(BATCH_TAG_PATTERN::matcher)
+      .filter(Matcher::matches)
+      .mapToInt(matcher -> Integer.parseInt(matcher.group(2)))
+      .findFirst()
+      .orElse(0);
+  }
+
+  private Optional<String> findBatchTagOfDayAfter(String prefix, String batchTag) {
+    return diagnosisKeyBatchRepository.findBatchNamesOfDayAfter(prefix, batchTag, PageRequest.of(0, 1)).stream()
+      .findFirst();
+  }
+
+  private static int compareBatchTags(String batchTag, String otherBatchTag) {
+    Matcher matcher = BATCH_TAG_PATTERN.matcher(batchTag);
+    Matcher otherMatcher = BATCH_TAG_PATTERN.matcher(otherBatchTag);
+
+    if (!matcher.matches() || !otherMatcher.matches()) {
+      return batchTag.compareTo(otherBatchTag);
+    }
+
+    int dayComparison = matcher.group(1).compareTo(otherMatcher.group(1));
+    return dayComparison != 0
+      ? dayComparison : Integer.compare(Integer.parseInt(matcher.group(2)), Integer.parseInt(otherMatcher.group(2)));
+  }
+
+  private static String formatBatchTag(LocalDate batchDate, int sequence) {
+    return batchDate.format(BATCH_DATE_FORMAT) + "-" + sequence;
+  }
+
+  /**
+   * Thrown if a batch tag of a day is allocated before the counter of the day was created.
+   */
+  public static class MissingBatchSequenceException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+    @Getter
+    private final LocalDate batchDate;
+
+    MissingBatchSequenceException(LocalDate batchDate) {
+      super("Batch sequence of " + batchDate + " does not exist yet");
+      this.batchDate = batchDate;
+    }
+  }
+}
@@ -22,15 +22,32 @@
 
 import eu.interop.federationgateway.config.EfgsProperties;
 import eu.interop.federationgateway.entity.DiagnosisKeyBatchEntity;
+import eu.interop.federationgateway.entity.FormatInformation;
+import eu.interop.federationgateway.repository.DiagnosisKeyBatchMembershipRepository;
 import eu.interop.federationgateway.repository.DiagnosisKeyBatchRepository;
 import eu.interop.federationgateway.utils.EfgsMdc;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.time.Duration;
 import java.time.LocalDate;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.IntStream;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import net.javacrumbs.shedlock.core.ClockProvider;
+import net.javacrumbs.shedlock.core.LockConfiguration;
+import net.javacrumbs.shedlock.core.LockProvider;
+import net.javacrumbs.shedlock.core.SimpleLock;
 import net.javacrumbs.shedlock.spring.annotation.SchedulerLock;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
@@ -42,44 +59,140 @@
 @Component
 public class DiagnosisKeyBatchService {
 
+  private static final String LOCK_NAME = "DiagnosisKeyBatchService_batchDocuments";
+
   private final EfgsProperties properties;
   private final DiagnosisKeyBatchRepository diagnosisKeyBatchRepository;
+  private final DiagnosisKeyBatchMembershipRepository diagnosisKeyBatchMembershipRepository;
   private final TransactionalDiagnosisKeyBatchService transactionalDiagnosisKeyBatchService;
+  private final DiagnosisKeyBatchSequenceService diagnosisKeyBatchSequenceService;
+  private final LockProvider lockProvider;
+
+  private ExecutorService batchingExecutor;
+
+  @PostConstruct
+  public void init() {
+    batchingExecutor = Executors.newFixedThreadPool(properties.getBatching().getThreads());
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    batchingExecutor.shutdown();
+  }
 
   /**
-   * scheduled service - bundles uploaded documents into batches.
+   * scheduled service - bundles uploaded documents into batches as soon as batching is due. Batching is due if the
+   * pending uploads contain at least doclimit keys or if the oldest pending upload waits longer than the configured
+   * timeinterval. Only one node of the cluster checks and batches at a time, the work units are batched
+   * concurrently by the executor of this node.
    */
   @Scheduled(
-    fixedDelayString = "${efgs.batching.timeinterval}"
+    fixedDelayString = "${efgs.batching.triggerinterval}"
   )
-  @SchedulerLock(name = "DiagnosisKeyBatchService_batchDocuments", lockAtLeastFor = "PT0S",
+  @SchedulerLock(name = "DiagnosisKeyBatchService_batchDocumentsIfDue", lockAtLeastFor = "PT0S",
     lockAtMostFor = "${efgs.batching.locklimit}")
+  public void batchDocumentsIfDue() {
+    if (isBatchingDue()) {
+      batchDocuments();
+    }
+  }
+
+  /**
+   * Checks the pending uploads, which are registered by the upload, whether batching is due.
+   *
+   * @return true if a batch should be created.
+   */
+  public boolean isBatchingDue() {
+    long unbatchedKeys = diagnosisKeyBatchMembershipRepository.countUnbatchedKeys();
+
+    if (unbatchedKeys == 0) {
+      return false;
+    } else if (unbatchedKeys >= properties.getBatching().getDoclimit()) {
+      return true;
+    }
+
+    ZonedDateTime oldestUpload = diagnosisKeyBatchMembershipRepository.getOldestUnbatchedUploadTime();
+    ZonedDateTime maxWaitThreshold = ZonedDateTime.now(ZoneOffset.UTC)
+      .minus(properties.getBatching().getTimeinterval(), ChronoUnit.MILLIS);
+
+    return oldestUpload != null && !oldestUpload.isAfter(maxWaitThreshold);
+  }
+
+  /**
+   * Bundles all pending uploaded documents into batches. The pending uploads are split into work units by their
+   * format and a shard of their id. The work units are batched concurrently, each unit is locked separately, so a
+   * unit is never batched twice at the same time.
+   */
   public void batchDocuments() {
     log.info("Batch Process started");
 
     long startTime = System.currentTimeMillis();
-    int batchCount = 0;
+    List<BatchingUnit> units = getPendingUnits();
 
-    boolean batchCreationResult;
-    do {
-      batchCreationResult = transactionalDiagnosisKeyBatchService.createNextBatch();
+    if (!units.isEmpty()) {
+      diagnosisKeyBatchSequenceService.createSequenceOfDay(LocalDate.now(ZoneOffset.UTC));
+    }
 
-      long elapsedTime = System.currentTimeMillis() - startTime;
-      if (elapsedTime > properties.getBatching().getTimelimit()) {
-        EfgsMdc.put("batchTime", elapsedTime);
-        log.info("Maximum time for one batching execution reached.");
-        break;
-      }
+    List<CompletableFuture<Integer>> workers = units.stream()
+      .map(unit -> CompletableFuture.supplyAsync(() -> batchUnitIfNotLocked(unit, startTime), batchingExecutor))
+      .toList();
 
-      batchCount += batchCreationResult ? 1 : 0;
-    } while (batchCreationResult);
+    int batchCount = workers.stream().mapToInt(CompletableFuture::join).sum();
 
     EfgsMdc.put("batchCount", batchCount);
     log.info("Batch Process finished");
 
-
     EfgsMdc.remove("batchCount");
-    EfgsMdc.remove("batchTime");
+  }
+
+  private List<BatchingUnit> getPendingUnits() {
+    int shards = properties.getBatching().getShards();
+
+    return diagnosisKeyBatchMembershipRepository.getFormatsOfUnbatchedUploads().stream()
+      .sorted(Comparator.comparingInt(FormatInformation::getMajorVersion)
+        .thenComparingInt(FormatInformation::getMinorVersion))
+      .flatMap(format -> IntStream.range(0, shards).mapToObj(shard -> new BatchingUnit(format, shards, shard)))
+      .toList();
+  }
+
+  private int batchUnitIfNotLocked(BatchingUnit unit, long startTime) {
+    Optional<SimpleLock> lock = lockProvider.lock(new LockConfiguration(ClockProvider.now(), unit.getLockName(),
+      Duration.ofMillis(properties.getBatching().getLocklimit()), Duration.ZERO));
+
+    if (lock.isEmpty()) {
+      log.info("Work unit {} is batched by another node", unit.getLockName());
+      return 0;
+    }
+
+    try {
+      return batchUnit(unit, startTime);
+    } finally {
+      lock.get().unlock();
+    }
+  }
+
+  private int batchUnit(BatchingUnit unit, long startTime) {
+    int batchCount = 0;
+
+    while (System.currentTimeMillis() - startTime <= properties.getBatching().getTimelimit()) {
+      try {
+        if (!transactionalDiagnosisKeyBatchService.createNextBatch(unit.format(), unit.shards(), unit.shard())) {
+          return batchCount;
+        }
+        batchCount++;
+      } catch (OptimisticLockingFailureException e) {
+        log.info("Uploads were batched concurrently, planning the batch again");
+      } catch (DiagnosisKeyBatchSequenceService.MissingBatchSequenceException e) {
+        log.info("Batch sequence of the day does not exist yet, creating it");
+        diagnosisKeyBatchSequenceService.createSequenceOfDay(e.getBatchDate());
+      } catch (RuntimeException e) {
+        log.error("Failed to create batch of work unit {}", unit.getLockName(), e);
+        return batchCount;
+      }
+    }
+
+    log.info("Maximum time for one batching execution reached.");
+    return batchCount;
   }
 
   /**
@@ -99,11 +212,17 @@ public Optional<DiagnosisKeyBatchEntity> getBatchEntity(String batchTag) {
    * @return the BatchTag or null if no batch exists.
    */
   public String getFirstBatchTagOfTheDay(LocalDate date) {
-    ZonedDateTime begin = date.atStartOfDay(ZoneOffset.UTC);
+    return diagnosisKeyBatchSequenceService.getFirstBatchTagFrom(date);
+  }
 
-    Optional<DiagnosisKeyBatchEntity> queryResult =
-      diagnosisKeyBatchRepository.findFirstByCreatedAtIsGreaterThanOrderByCreatedAtAsc(begin);
-    return queryResult.map(DiagnosisKeyBatchEntity::getBatchName).orElse(null);
+  /**
+   * Gets the tag of the next batch, which is the first batch of the next day with batches for the last batch of a day.
+   *
+   * @param batch the batch whose successor should be searched.
+   * @return the BatchTag or null if no next batch exists yet.
+   */
+  public String getNextBatchTag(DiagnosisKeyBatchEntity batch) {
+    return diagnosisKeyBatchSequenceService.getNextBatchTag(batch);
   }
 
   /**
@@ -116,4 +235,11 @@ public int deleteAllBefore(ZonedDateTime timestamp) {
     return diagnosisKeyBatchRepository.deleteByCreatedAtBefore(timestamp);
   }
 
+  private record BatchingUnit(FormatInformation format, int shards, int shard) {
+
+    String getLockName() {
+      return LOCK_NAME + "_" + format.getMajorVersion() + "." + format.getMinorVersion() + "_" + shard;
+    }
+  }
+
 }
@@ -45,6 +45,10 @@ public class DiagnosisKeyCleanupService {
 
   private final DiagnosisKeyEntityService diagnosisKeyEntityService;
 
+  private final DiagnosisKeyBatchArtifactService diagnosisKeyBatchArtifactService;
+
+  private final DiagnosisKeyBatchSequenceService diagnosisKeyBatchSequenceService;
+
   private final DiagnosisKeyCleanupRepository diagnosisKeyCleanupRepository;
   private final EfgsProperties efgsProperties;
 
@@ -73,6 +77,9 @@ public void cleanupDiagnosisKeys() {
     diagnosisKeyCleanupEntity.setKeysAfter(keysAfter);
     diagnosisKeyCleanupRepository.save(diagnosisKeyCleanupEntity);
 
+    diagnosisKeyBatchArtifactService.deleteAllBefore(deleteTimestamp);
+    diagnosisKeyBatchSequenceService.deleteAllBefore(deleteTimestamp.toLocalDate());
+
     EfgsMdc.put("deletedDiagnosisKeys", deletedDiagnosisKeys);
     log.info("DiagnosisKey cleanup finished.");
   }
@@ -20,21 +20,35 @@
 
 package eu.interop.federationgateway.service;
 
+import eu.interop.federationgateway.config.EfgsProperties;
+import eu.interop.federationgateway.entity.DiagnosisKeyBatchMembershipEntity;
 import eu.interop.federationgateway.entity.DiagnosisKeyEntity;
+import eu.interop.federationgateway.entity.DiagnosisKeyUploadInformationEntity;
 import eu.interop.federationgateway.model.AuditEntry;
+import eu.interop.federationgateway.repository.DiagnosisKeyBatchMembershipRepository;
+import eu.interop.federationgateway.repository.DiagnosisKeyEntityBatchInsertRepository;
+import eu.interop.federationgateway.repository.DiagnosisKeyEntityBatchReadRepository;
 import eu.interop.federationgateway.repository.DiagnosisKeyEntityRepository;
+import eu.interop.federationgateway.repository.DiagnosisKeyUploadInformationRepository;
 import eu.interop.federationgateway.utils.EfgsMdc;
 import jakarta.transaction.Transactional;
+import java.io.IOException;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import lombok.Getter;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Component;
 
 @Slf4j
@@ -45,8 +59,17 @@ public class DiagnosisKeyEntityService {
   @NonNull
   private final DiagnosisKeyEntityRepository diagnosisKeyEntityRepository;
 
+  @NonNull
+  private final DiagnosisKeyBatchMembershipRepository diagnosisKeyBatchMembershipRepository;
+
+  @NonNull
+  private final DiagnosisKeyUploadInformationRepository diagnosisKeyUploadInformationRepository;
+
+  @NonNull
+  private final EfgsProperties properties;
+
   public boolean uploadBatchTagExists(String batchTag) {
-    return diagnosisKeyEntityRepository.countAllByUploader_BatchTag(batchTag) != 0;
+    return diagnosisKeyUploadInformationRepository.existsByUploader_BatchTag(batchTag);
   }
 
   /**
@@ -64,6 +87,8 @@ public void saveDiagnosisKeyEntity(DiagnosisKeyEntity diagnosisKeyEntity) {
 
   /**
    * Persists the specified entities of {@link DiagnosisKeyEntity} instances.
+   * Entities with a payload hash that already exists (in the database or earlier in the given list) are rejected
+   * with a single query upfront, the remaining entities are inserted with multi-row JDBC batches.
    *
    * @param diagnosisKeyEntities the diagnosis key entities
    * @throws DiagnosisKeyInsertException will be thrown if an error occurred during insertion.
@@ -78,22 +103,35 @@ public void saveDiagnosisKeyEntities(
     resultMap.put(500, new ArrayList<>());
 
     ZonedDateTime uploadTimestamp = ZonedDateTime.now(ZoneOffset.UTC);
+    diagnosisKeyEntities.forEach(key -> key.setCreatedAt(uploadTimestamp));
+    saveUploadInformation(diagnosisKeyEntities, uploadTimestamp);
+
+    Set<String> existingPayloadHashes = findExistingPayloadHashes(diagnosisKeyEntities);
+    Set<String> uploadedPayloadHashes = new HashSet<>();
+    List<Integer> pendingIndexes = new ArrayList<>(diagnosisKeyEntities.size());
 
     for (int index = 0; index < diagnosisKeyEntities.size(); index++) {
-      DiagnosisKeyEntity key = diagnosisKeyEntities.get(index);
-      key.setCreatedAt(uploadTimestamp);
-      try {
-        saveDiagnosisKeyEntity(key);
-        resultMap.get(201).add(index);
-      } catch (DataIntegrityViolationException e) {
-        log.error("{}: {}", index, e.getMessage());
+      String payloadHash = diagnosisKeyEntities.get(index).getPayloadHash();
+
+      if (payloadHash != null
+        && (existingPayloadHashes.contains(payloadHash) || !uploadedPayloadHashes.add(payloadHash))) {
+        log.error("{}: payload hash already exists", index);
         resultMap.get(409).add(index);
-      } catch (Exception e) {
-        resultMap.get(500).add(index);
+      } else {
+        pendingIndexes.add(index);
       }
     }
 
+    int insertBatchSize = properties.getUploadSettings().getInsertBatchSize();
+    for (int offset = 0; offset < pendingIndexes.size(); offset += insertBatchSize) {
+      List<Integer> batchIndexes =
+        pendingIndexes.subList(offset, Math.min(offset + insertBatchSize, pendingIndexes.size()));
+
+      insertBatch(diagnosisKeyEntities, batchIndexes, resultMap);
+    }
+
     if (!resultMap.get(409).isEmpty() || !resultMap.get(500).isEmpty()) {
+      resultMap.values().forEach(Collections::sort);
 
       EfgsMdc.put("insertedKeyCount", resultMap.get(201).size());
       EfgsMdc.put("conflictKeysCount", resultMap.get(409).size());
@@ -102,6 +140,84 @@ public void saveDiagnosisKeyEntities(
       log.error("error inserting keys");
       throw new DiagnosisKeyInsertException("Error during insertion of diagnosis keys!", resultMap);
     }
+
+    registerUploads(diagnosisKeyEntities, uploadTimestamp);
+  }
+
+  /**
+   * Stores the information about the uploader once per upload and assigns the stored upload to the given keys.
+   */
+  private void saveUploadInformation(List<DiagnosisKeyEntity> diagnosisKeyEntities, ZonedDateTime uploadTimestamp) {
+    Map<String, DiagnosisKeyUploadInformationEntity> uploads = new LinkedHashMap<>();
+
+    for (DiagnosisKeyEntity entity : diagnosisKeyEntities) {
+      DiagnosisKeyUploadInformationEntity upload = uploads.computeIfAbsent(entity.getUploader().getBatchTag(),
+        uploaderBatchTag -> new DiagnosisKeyUploadInformationEntity(null, uploadTimestamp, entity.getUploader()));
+
+      entity.setUpload(upload);
+    }
+
+    diagnosisKeyUploadInformationRepository.saveAll(uploads.values());
+  }
+
+  /**
+   * Registers the uploads of the given keys as not batched yet, so batching does not need to scan the keys.
+   */
+  private void registerUploads(List<DiagnosisKeyEntity> diagnosisKeyEntities, ZonedDateTime uploadTimestamp) {
+    Map<String, DiagnosisKeyBatchMembershipEntity> uploads = new LinkedHashMap<>();
+
+    for (DiagnosisKeyEntity entity : diagnosisKeyEntities) {
+      DiagnosisKeyBatchMembershipEntity upload = uploads.computeIfAbsent(entity.getUploader().getBatchTag(),
+        uploaderBatchTag -> new DiagnosisKeyBatchMembershipEntity(null, uploadTimestamp, uploaderBatchTag, null, 0,
+          entity.getFormat().getMajorVersion(), entity.getFormat().getMinorVersion()));
+
+      upload.setNumberOfKeys(upload.getNumberOfKeys() + 1);
+    }
+
+    diagnosisKeyBatchMembershipRepository.saveAll(uploads.values());
+  }
+
+  private Set<String> findExistingPayloadHashes(List<DiagnosisKeyEntity> diagnosisKeyEntities) {
+    List<String> payloadHashes = diagnosisKeyEntities.stream()
+      .map(DiagnosisKeyEntity::getPayloadHash)
+      .filter(Objects::nonNull)
+      .distinct()
+      .toList();
+
+    Set<String> existingPayloadHashes = new HashSet<>();
+    int insertBatchSize = properties.getUploadSettings().getInsertBatchSize();
+    for (int offset = 0; offset < payloadHashes.size(); offset += insertBatchSize) {
+      existingPayloadHashes.addAll(diagnosisKeyEntityRepository.findExistingPayloadHashes(
+        payloadHashes.subList(offset, Math.min(offset + insertBatchSize, payloadHashes.size()))));
+    }
+    return existingPayloadHashes;
+  }
+
+  private void insertBatch(
+    List<DiagnosisKeyEntity> diagnosisKeyEntities,
+    List<Integer> batchIndexes,
+    Map<Integer, List<Integer>> resultMap
+  ) {
+    List<DiagnosisKeyEntity> batch = batchIndexes.stream()
+      .map(diagnosisKeyEntities::get)
+      .toList();
+
+    List<DiagnosisKeyEntityBatchInsertRepository.InsertStatus> insertStatuses;
+    try {
+      insertStatuses = diagnosisKeyEntityRepository.batchInsert(batch);
+    } catch (Exception e) {
+      log.error("{}-{}: {}", batchIndexes.get(0), batchIndexes.get(batchIndexes.size() - 1), e.getMessage());
+      resultMap.get(500).addAll(batchIndexes);
+      return;
+    }
+
+    for (int i = 0; i < batchIndexes.size(); i++) {
+      switch (insertStatuses.get(i)) {
+        case INSERTED -> resultMap.get(201).add(batchIndexes.get(i));
+        case CONFLICT -> resultMap.get(409).add(batchIndexes.get(i));
+        default -> resultMap.get(500).add(batchIndexes.get(i));
+      }
+    }
   }
 
   /**
@@ -116,13 +232,15 @@ public List<DiagnosisKeyEntity> getAllDiagnosisKeyEntity() {
 
   /**
    * Gets all DiagnosisKeyEntitites that list the country with the origin as {@link DiagnosisKeyEntity} instances.
+   * The origin is only stored within the encrypted payload, but it always equals the country of the uploader because
+   * this is checked on upload.
    *
    * @param country Countrycode for the request
    * @return all DiagnosisKeyEntitites that are from the given country
    */
   public List<DiagnosisKeyEntity> getAllDiagnosisKeyEntityFromOrigin(String country) {
     log.info("Requested all DiagnosisKeyEntitites.");
-    return diagnosisKeyEntityRepository.findAllByPayloadOrigin(country);
+    return diagnosisKeyEntityRepository.findAllByUploader_Country(country);
   }
 
   /**
@@ -133,22 +251,119 @@ public List<DiagnosisKeyEntity> getAllDiagnosisKeyEntityFromOrigin(String countr
    */
   public List<AuditEntry> getAllDiagnosisKeyEntityByBatchTag(String batchTag) {
     log.info("Requested all DiagnosisKeyEntities by a batchTag.");
-    return diagnosisKeyEntityRepository.getAuditInformationByBatchTag(batchTag);
+    return diagnosisKeyUploadInformationRepository.getAuditInformationByBatchTag(batchTag);
   }
 
   /**
-   * Deletes all {@link DiagnosisKeyEntity} instances that are older than the time parameter.
+   * Deletes all {@link DiagnosisKeyEntity} instances and the batch memberships and information of uploads that are
+   * older than the time parameter.
    *
    * @param time the wich to remove the entities up to
    * @return the number of deleted rows.
    */
   public int deleteAllBefore(ZonedDateTime time) {
     log.info("Start delete all Before {}.", time);
-    return diagnosisKeyEntityRepository.deleteByCreatedAtBefore(time);
+    diagnosisKeyBatchMembershipRepository.deleteByCreatedAtBefore(time);
+    int deletedKeys = diagnosisKeyEntityRepository.deleteByCreatedAtBefore(time);
+    diagnosisKeyUploadInformationRepository.deleteByCreatedAtBefore(time);
+    return deletedKeys;
+  }
+
+  /**
+   * Moves the payloads of keys which are still stored in the legacy layout into the packed payload column.
+   *
+   * @param limit the maximum number of keys to re-encode.
+   * @return the number of re-encoded keys.
+   */
+  @Transactional
+  public int repackLegacyPayloads(int limit) {
+    List<DiagnosisKeyEntity> entities =
+      diagnosisKeyEntityRepository.findByPayloadIsNullOrderByIdAsc(PageRequest.of(0, limit));
+
+    int repacked = 0;
+    for (DiagnosisKeyEntity entity : entities) {
+      if (entity.repackLegacyPayload()) {
+        repacked++;
+      }
+    }
+
+    return repacked;
+  }
+
+  /**
+   * Passes all DiagnosisKeyEntities of the given uploads ordered by their id one by one to the given consumer. The
+   * payloads are decrypted in chunks, see {@link DiagnosisKeyEntityBatchReadRepository}.
+   *
+   * @param uploaderBatchTags the batch tags of the uploads
+   * @param consumer          the consumer of the entities
+   * @return the number of consumed entities
+   * @throws IOException if the consumer failed to process an entity.
+   */
+  public int streamDiagnosisKeysOfUploads(
+    List<String> uploaderBatchTags,
+    DiagnosisKeyEntityConsumer consumer
+  ) throws IOException {
+    return diagnosisKeyEntityRepository.streamByUploaderBatchTagIn(uploaderBatchTags, chunk -> {
+      for (DiagnosisKeyEntity entity : chunk) {
+        consumer.accept(entity);
+      }
+    });
   }
 
+  /**
+   * Gets the countries which uploaded the given uploads.
+   *
+   * @param uploaderBatchTags the batch tags of the uploads
+   * @return the distinct uploader countries
+   */
+  public List<String> getUploaderCountriesOfUploads(List<String> uploaderBatchTags) {
+    return diagnosisKeyUploadInformationRepository.getCountriesByUploaderBatchTagIn(uploaderBatchTags);
+  }
+
+  /**
+   * Gets the DiagnosisKeyEntities of a batch which were not uploaded by the given country. The payloads are
+   * decrypted in chunks, see {@link DiagnosisKeyEntityBatchReadRepository}.
+   *
+   * @param batchTag the batchTag of the batch
+   * @param country  the country code of the downloading country
+   * @return the DiagnosisKeyEntities ordered by their id
+   */
   public List<DiagnosisKeyEntity> getDiagnosisKeysBatchForCountry(String batchTag, String country) {
-    return diagnosisKeyEntityRepository.findByBatchTagIsAndUploader_CountryIsNotOrderByIdAsc(batchTag, country);
+    List<DiagnosisKeyEntity> entities = new ArrayList<>();
+    diagnosisKeyEntityRepository.streamByBatchTagIsAndUploaderCountryIsNot(batchTag, country, entities::addAll);
+    return entities;
+  }
+
+  /**
+   * Passes all DiagnosisKeyEntities of a batch which were not uploaded by the given country one by one to the given
+   * consumer. The entities are read with a forward-only cursor in chunks and their payloads are decrypted per chunk,
+   * so the memory usage does not depend on the size of the batch.
+   *
+   * @param batchTag the batchTag of the batch
+   * @param country  the country code of the downloading country
+   * @param consumer the consumer of the entities
+   * @return the number of consumed entities
+   * @throws IOException if the consumer failed to process an entity.
+   */
+  @Transactional
+  public int streamDiagnosisKeysBatchForCountry(
+    String batchTag,
+    String country,
+    DiagnosisKeyEntityConsumer consumer
+  ) throws IOException {
+    return diagnosisKeyEntityRepository.streamByBatchTagIsAndUploaderCountryIsNot(batchTag, country, chunk -> {
+      for (DiagnosisKeyEntity entity : chunk) {
+        consumer.accept(entity);
+      }
+    });
+  }
+
+  /**
+   * Consumer of streamed {@link DiagnosisKeyEntity} instances.
+   */
+  @FunctionalInterface
+  public interface DiagnosisKeyEntityConsumer {
+    void accept(DiagnosisKeyEntity entity) throws IOException;
   }
 
   public static class DiagnosisKeyInsertException extends Exception {
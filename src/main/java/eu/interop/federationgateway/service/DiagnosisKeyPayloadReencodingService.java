@@ -0,0 +1,68 @@
+/*-
+ * ---license-start
+ * EU-Federation-Gateway-Service / efgs-federation-gateway
+ * ---
+ * Copyright (C) 2020 - 2022 T-Systems International GmbH and all other contributors
+ * ---
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ---license-end
+ */
+
+package eu.interop.federationgateway.service;
+
+import eu.interop.federationgateway.config.EfgsProperties;
+import eu.interop.federationgateway.utils.EfgsMdc;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import net.javacrumbs.shedlock.spring.annotation.SchedulerLock;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+@Slf4j
+@RequiredArgsConstructor
+@Service
+public class DiagnosisKeyPayloadReencodingService {
+
+  private final DiagnosisKeyEntityService diagnosisKeyEntityService;
+
+  private final EfgsProperties efgsProperties;
+
+  /**
+   * Background task to move the payloads of keys stored in the legacy layout, with every field encrypted in its own
+   * column, into the packed payload column. Every chunk of keys is re-encoded in its own transaction.
+   */
+  @Scheduled(fixedDelayString = "${efgs.payload-reencoding.interval}")
+  @SchedulerLock(name = "DiagnosisKeyPayloadReencodingService_reencodeLegacyPayloads", lockAtLeastFor = "PT0S",
+    lockAtMostFor = "${efgs.payload-reencoding.locklimit}")
+  public void reencodeLegacyPayloads() {
+    EfgsProperties.PayloadReencoding settings = efgsProperties.getPayloadReencoding();
+
+    if (!settings.isEnabled()) {
+      return;
+    }
+
+    int reencodedKeys = 0;
+    int reencodedChunk;
+
+    do {
+      reencodedChunk = diagnosisKeyEntityService.repackLegacyPayloads(settings.getBatchSize());
+      reencodedKeys += reencodedChunk;
+    } while (reencodedChunk == settings.getBatchSize() && reencodedKeys < settings.getMaxKeysPerRun());
+
+    if (reencodedKeys > 0) {
+      EfgsMdc.put("reencodedKeys", reencodedKeys);
+      log.info("Re-encoded legacy diagnosis key payloads");
+    }
+  }
+
+}
@@ -20,18 +20,19 @@
 
 package eu.interop.federationgateway.service;
 
-import static eu.interop.federationgateway.service.CallbackTaskExecutorService.MDC_PROP_CALLBACK_ID;
-import static eu.interop.federationgateway.service.CallbackTaskExecutorService.MDC_PROP_COUNTRY;
-import static eu.interop.federationgateway.service.CallbackTaskExecutorService.MDC_PROP_TASK_ID;
+import static eu.interop.federationgateway.service.CallbackTaskExecutorService.MDC_PROP_DELIVERY_ID;
+import static eu.interop.federationgateway.service.CallbackTaskExecutorService.MDC_PROP_EVENT_ID;
 
-import eu.interop.federationgateway.entity.CallbackTaskEntity;
-import eu.interop.federationgateway.repository.CallbackTaskRepository;
+import eu.interop.federationgateway.entity.CallbackDeliveryEntity;
+import eu.interop.federationgateway.repository.CallbackDeliveryRepository;
 import eu.interop.federationgateway.utils.EfgsMdc;
 import jakarta.transaction.Transactional;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
+import java.util.List;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Component;
 
 @Component
@@ -39,50 +40,64 @@
 @RequiredArgsConstructor
 public class TransactionalCallbackTaskExecutorService {
 
-  private final CallbackTaskRepository callbackTaskRepository;
+  private final CallbackDeliveryRepository callbackDeliveryRepository;
 
   /**
-   * Queries the database for the following task of a CallbackTaskEntity and removes the notBefore property.
+   * Moves the cursor of a delivery to the given event and resets its retry state. The execution lock is renewed
+   * because the delivery stays claimed until all pending events are sent.
    *
-   * @param currentTask the tasks the following should be searched for.
+   * @param delivery the delivery of the subscription which has received the event.
+   * @param eventId  the id of the last event which is covered by the delivered callback.
    */
   @Transactional(Transactional.TxType.REQUIRES_NEW)
-  void removeNotBeforeForNextTaskAndDeleteTask(CallbackTaskEntity currentTask) {
-    callbackTaskRepository.findFirstByNotBeforeIs(currentTask).ifPresent(task -> {
-      EfgsMdc.put(MDC_PROP_CALLBACK_ID, currentTask.getCallbackSubscription().getCallbackId());
-      EfgsMdc.put(MDC_PROP_COUNTRY, currentTask.getCallbackSubscription().getCountry());
+  void acknowledgeEvent(CallbackDeliveryEntity delivery, long eventId) {
+    EfgsMdc.put(MDC_PROP_DELIVERY_ID, delivery.getId());
+    EfgsMdc.put(MDC_PROP_EVENT_ID, eventId);
+    log.info("Acknowledging callback event.");
 
-      log.info("Removing notBefore restriction from CallbackTask.");
-
-      task.setNotBefore(null);
-      callbackTaskRepository.save(task);
-    });
-
-    log.info("Deleting CallbackTask from db");
-    callbackTaskRepository.delete(currentTask);
+    delivery.setLastEventId(eventId);
+    delivery.setRetries(0);
+    delivery.setLastTry(null);
+    delivery.setNextTry(null);
+    delivery.setLastStatusCode(null);
+    delivery.setExecutionLock(ZonedDateTime.now(ZoneOffset.UTC));
+    callbackDeliveryRepository.save(delivery);
   }
 
   /**
-   * Sets execution lock for given task so that no other instance will work on this task.
+   * Claims up to the given number of pending deliveries by taking a lease on them. The rows are selected with
+   * SELECT ... FOR UPDATE SKIP LOCKED, so concurrent nodes claim disjoint deliveries. A lease which was not renewed
+   * since leaseExpiredBefore is regarded as abandoned and can be claimed again.
    *
-   * @param task The task to be locked.
+   * @param limit              maximum number of deliveries to claim.
+   * @param now                deliveries with a next try after this timestamp are not retried yet.
+   * @param leaseExpiredBefore execution locks older than this timestamp are expired.
+   * @return the claimed deliveries.
    */
-  void setExecutionLock(CallbackTaskEntity task) {
-    EfgsMdc.put(MDC_PROP_TASK_ID, task.getId());
-    log.info("Setting execution lock for CallbackTask");
-    task.setExecutionLock(ZonedDateTime.now(ZoneOffset.UTC));
-    callbackTaskRepository.save(task);
+  @Transactional(Transactional.TxType.REQUIRES_NEW)
+  List<CallbackDeliveryEntity> claimPendingDeliveries(
+    int limit, ZonedDateTime now, ZonedDateTime leaseExpiredBefore) {
+    List<CallbackDeliveryEntity> deliveries =
+      callbackDeliveryRepository.findPendingDeliveriesForUpdate(now, leaseExpiredBefore, PageRequest.of(0, limit));
+
+    deliveries.forEach(delivery -> delivery.setExecutionLock(now));
+
+    EfgsMdc.put("deliveryCount", deliveries.size());
+    log.info("Claimed pending callback deliveries.");
+    EfgsMdc.remove("deliveryCount");
+
+    return callbackDeliveryRepository.saveAll(deliveries);
   }
 
   /**
-   * Removes execution lock from task.
+   * Removes execution lock from delivery.
    *
-   * @param task the task.
+   * @param delivery the delivery.
    */
-  void removeExecutionLock(CallbackTaskEntity task) {
-    EfgsMdc.put(MDC_PROP_TASK_ID, task.getId());
-    log.info("Removing execution lock for CallbackTask.");
-    task.setExecutionLock(null);
-    callbackTaskRepository.save(task);
+  void removeExecutionLock(CallbackDeliveryEntity delivery) {
+    EfgsMdc.put(MDC_PROP_DELIVERY_ID, delivery.getId());
+    log.info("Removing execution lock for CallbackDelivery.");
+    delivery.setExecutionLock(null);
+    callbackDeliveryRepository.save(delivery);
   }
 }
@@ -22,23 +22,21 @@
 
 import eu.interop.federationgateway.config.EfgsProperties;
 import eu.interop.federationgateway.entity.DiagnosisKeyBatchEntity;
-import eu.interop.federationgateway.entity.DiagnosisKeyEntity;
 import eu.interop.federationgateway.entity.FormatInformation;
+import eu.interop.federationgateway.model.UnbatchedUpload;
+import eu.interop.federationgateway.repository.DiagnosisKeyBatchMembershipRepository;
 import eu.interop.federationgateway.repository.DiagnosisKeyBatchRepository;
-import eu.interop.federationgateway.repository.DiagnosisKeyEntityRepository;
 import eu.interop.federationgateway.utils.EfgsMdc;
 import jakarta.transaction.Transactional;
-import java.time.Instant;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
-import java.time.format.DateTimeFormatter;
-import java.time.temporal.ChronoUnit;
-import java.util.ArrayList;
 import java.util.List;
-import java.util.Optional;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 /**
  * A service that holds methods for DiagnosisKeyBatchService.
@@ -50,38 +48,72 @@
 public class TransactionalDiagnosisKeyBatchService {
 
   private final EfgsProperties properties;
-  private final DiagnosisKeyEntityRepository diagnosisKeyEntityRepository;
+  private final DiagnosisKeyBatchMembershipRepository diagnosisKeyBatchMembershipRepository;
   private final DiagnosisKeyBatchRepository diagnosisKeyBatchRepository;
   private final CallbackService callbackService;
+  private final DiagnosisKeyBatchArtifactService diagnosisKeyBatchArtifactService;
+  private final DiagnosisKeyBatchSequenceService diagnosisKeyBatchSequenceService;
 
   /**
-   * Creates a new Batch Entity and sets batchTag to all contained diagnosiskeys.
+   * Creates a new Batch Entity from the oldest unbatched uploads of all formats and makes the contained uploads
+   * members of the batch.
    *
    * @return true if a batch was created or false if not.
    */
   @Transactional(Transactional.TxType.REQUIRES_NEW)
   public boolean createNextBatch() {
+    return createBatch(DiagnosisKeyBatchPlanner.planNextBatch(
+      diagnosisKeyBatchMembershipRepository.getUnbatchedUploads(), properties.getBatching().getDoclimit()));
+  }
 
-    List<String> uploaderBatchTags = collectUploaderBatchTags();
+  /**
+   * Creates a new Batch Entity from the unbatched uploads of one shard of a format and makes the contained uploads
+   * members of the batch. The uploads are distributed to the shards by their id, so batches of different formats and
+   * shards can be created concurrently.
+   *
+   * @param format the format of the uploads
+   * @param shards the number of shards of each format
+   * @param shard  the shard, from 0 to shards - 1
+   * @return true if a batch was created or false if not.
+   * @throws OptimisticLockingFailureException if the planned uploads were put into another batch concurrently.
+   */
+  @Transactional(Transactional.TxType.REQUIRES_NEW)
+  public boolean createNextBatch(FormatInformation format, int shards, int shard) {
+    return createBatch(DiagnosisKeyBatchPlanner.planNextBatch(
+      diagnosisKeyBatchMembershipRepository.getUnbatchedUploadsOfShard(
+        format.getMajorVersion(), format.getMinorVersion(), shards, shard),
+      properties.getBatching().getDoclimit()));
+  }
 
-    if (uploaderBatchTags.isEmpty()) {
+  /**
+   * Creates the batch of the planned uploads. The artifacts of the batch are rendered in the background after the
+   * transaction has committed, so the counter of the day is locked only briefly.
+   */
+  private boolean createBatch(List<UnbatchedUpload> uploads) {
+    if (uploads.isEmpty()) {
       log.info("Successfully finished the document batching process - no more unprocessed diagnosis keys left");
       return false;
     }
 
-    DiagnosisKeyBatchEntity newBatchEntity = createNextBatchEntityAndLinkPredecessor();
+    int numberOfKeys = uploads.stream().mapToInt(UnbatchedUpload::getNumberOfKeys).sum();
 
-    int updatedRows = diagnosisKeyEntityRepository.setBatchTagByUploaderBatchTag(
-      uploaderBatchTags, newBatchEntity.getBatchName());
+    ZonedDateTime createdAt = ZonedDateTime.now(ZoneOffset.UTC);
+    DiagnosisKeyBatchEntity newBatchEntity = diagnosisKeyBatchRepository.save(new DiagnosisKeyBatchEntity(null,
+      createdAt, diagnosisKeyBatchSequenceService.allocateBatchTag(createdAt.toLocalDate()), null, numberOfKeys));
 
-    callbackService.notifyAllCountriesForNewBatchTag(newBatchEntity);
+    List<String> uploaderBatchTags = uploads.stream().map(UnbatchedUpload::getUploaderBatchTag).toList();
+    int claimedUploads = diagnosisKeyBatchMembershipRepository.setBatchTagByUploaderBatchTag(uploaderBatchTags,
+      newBatchEntity.getBatchName());
 
+    if (claimedUploads != uploads.size()) {
+      throw new OptimisticLockingFailureException("Uploads of the batch were put into another batch concurrently");
+    }
 
-    EfgsMdc.put("batchTag", newBatchEntity.getBatchName());
-    EfgsMdc.put("diagnosisKeyCount", updatedRows);
+    precomputeArtifactsAfterCommit(newBatchEntity, uploaderBatchTags);
+    callbackService.publishBatchSealedEvent(newBatchEntity);
 
-    newBatchEntity.setNumberOfKeys(updatedRows);
-    diagnosisKeyBatchRepository.save(newBatchEntity);
+    EfgsMdc.put("batchTag", newBatchEntity.getBatchName());
+    EfgsMdc.put("diagnosisKeyCount", numberOfKeys);
 
     log.info("Batch created");
     EfgsMdc.remove("diagnosisKeyCount");
@@ -91,89 +123,21 @@ public boolean createNextBatch() {
   }
 
   /**
-   * Creates a new instance of DiagnosisKeyBatchEntity und generates a batchTag for it.
-   * Also the preceding batch entity will be linked to the newly created batch entity.
-   *
-   * @return the created DiagnosisKeyBatchEntity.
+   * The artifacts are rendered in the background once the transaction has committed, so neither the batch
+   * transaction nor the batching of the next batch waits for them. Downloads of a batch without stored artifacts are
+   * streamed or rendered on demand.
    */
-  @Transactional(Transactional.TxType.MANDATORY)
-  DiagnosisKeyBatchEntity createNextBatchEntityAndLinkPredecessor() {
-    DiagnosisKeyBatchEntity newBatchEntity = new DiagnosisKeyBatchEntity();
-    newBatchEntity.setCreatedAt(ZonedDateTime.now(ZoneOffset.UTC));
-
-    String formattedDate = ZonedDateTime.now(ZoneOffset.UTC).format(DateTimeFormatter.ofPattern("yyyyMMdd"));
-
-    Optional<DiagnosisKeyBatchEntity> lastBatchEntity = diagnosisKeyBatchRepository.findTopByOrderByCreatedAtDesc();
-
-    String newBatchTag;
-
-    // for today a batch already exists so generate the upcoming batchtag
-    if (lastBatchEntity.isPresent() && isBatchFromToday(lastBatchEntity.get())) {
-      newBatchTag = formattedDate + "-" + (getSequenceNumberFromBatchTag(lastBatchEntity.get().getBatchName()) + 1);
-    } else { // otherwise create the first batch for today
-      newBatchTag = formattedDate + "-1";
+  private void precomputeArtifactsAfterCommit(DiagnosisKeyBatchEntity batch, List<String> uploaderBatchTags) {
+    if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+      diagnosisKeyBatchArtifactService.precomputeArtifacts(batch, uploaderBatchTags);
+      return;
     }
 
-    if (lastBatchEntity.isPresent()) {
-      lastBatchEntity.get().setBatchLink(newBatchTag);
-      diagnosisKeyBatchRepository.save(lastBatchEntity.get());
-    }
-
-    newBatchEntity.setBatchName(newBatchTag);
-    return diagnosisKeyBatchRepository.save(newBatchEntity);
-  }
-
-  /**
-   * Queries the database for unbatched uploaded keys until the maximum batch size is reached.
-   *
-   * @return a list of uploader batch tags that need to be put into one batch.
-   */
-  @Transactional(Transactional.TxType.MANDATORY)
-  List<String> collectUploaderBatchTags() {
-    List<String> uploaderBatchTags = new ArrayList<>();
-    int newBatchSize = 0;
-    FormatInformation batchFormat = null;
-
-    while (true) {
-      Optional<DiagnosisKeyEntity> unbatchedDiagnosisKey = uploaderBatchTags.isEmpty()
-        ? diagnosisKeyEntityRepository.findFirstByBatchTagIsNull()
-        : diagnosisKeyEntityRepository.findFirstByBatchTagIsNullAndUploaderBatchTagIsNotIn(uploaderBatchTags);
-
-      if (unbatchedDiagnosisKey.isEmpty()) {
-        // no more unprocessed keys
-        break;
-      }
-
-      if (batchFormat == null) {
-        batchFormat = unbatchedDiagnosisKey.get().getFormat();
-      } else {
-        // stop batch tag collecting when next upload batch has different format
-        if (!batchFormat.equals(unbatchedDiagnosisKey.get().getFormat())) {
-          break;
-        }
+    TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+      @Override
+      public void afterCommit() {
+        diagnosisKeyBatchArtifactService.precomputeArtifacts(batch, uploaderBatchTags);
       }
-
-      String uploaderBatchTag = unbatchedDiagnosisKey.get().getUploader().getBatchTag();
-      int uploadBatchSize = diagnosisKeyEntityRepository.countAllByUploader_BatchTag(uploaderBatchTag);
-
-      if (newBatchSize + uploadBatchSize <= properties.getBatching().getDoclimit()) {
-        newBatchSize += uploadBatchSize;
-        uploaderBatchTags.add(uploaderBatchTag);
-      } else {
-        break;
-      }
-    }
-
-    return uploaderBatchTags;
-  }
-
-  private boolean isBatchFromToday(DiagnosisKeyBatchEntity lastEntry) {
-    return lastEntry.getCreatedAt().toInstant().truncatedTo(ChronoUnit.DAYS).equals(
-      Instant.now().truncatedTo(ChronoUnit.DAYS));
-  }
-
-  private int getSequenceNumberFromBatchTag(String batchTag) {
-    String lastBatchSequence = batchTag.substring(batchTag.indexOf("-") + 1);
-    return Integer.parseInt(lastBatchSequence);
+    });
   }
 }
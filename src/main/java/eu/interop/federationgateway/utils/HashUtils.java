@@ -0,0 +1,78 @@
+/*-
+ * ---license-start
+ * EU-Federation-Gateway-Service / efgs-federation-gateway
+ * ---
+ * Copyright (C) 2020 - 2022 T-Systems International GmbH and all other contributors
+ * ---
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ---license-end
+ */
+
+package eu.interop.federationgateway.utils;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public class HashUtils {
+
+  public static final int SHA256_LENGTH = 32;
+
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+  private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is not supported", e);
+    }
+  });
+
+  /**
+   * Returns the SHA-256 digest of the current thread. The digest is reset and can be used until the next call of this
+   * method on the same thread.
+   *
+   * @return a reset SHA-256 {@link MessageDigest}.
+   */
+  public static MessageDigest sha256() {
+    MessageDigest digest = SHA256.get();
+    digest.reset();
+    return digest;
+  }
+
+  /**
+   * Hex encodes the given bytes as unsigned number without leading zeros. This is the same format as
+   * {@code new BigInteger(1, bytes).toString(16)}, which is used for the stored payload hashes.
+   *
+   * @param bytes  the array containing the bytes to encode.
+   * @param offset the position of the first byte to encode.
+   * @param length the number of bytes to encode.
+   * @return the hex encoded number.
+   */
+  public static String toHexNumber(byte[] bytes, int offset, int length) {
+    char[] hex = new char[length * 2];
+    for (int i = 0; i < length; i++) {
+      hex[i * 2] = HEX_DIGITS[bytes[offset + i] >>> 4 & 0xf];
+      hex[i * 2 + 1] = HEX_DIGITS[bytes[offset + i] & 0xf];
+    }
+
+    int start = 0;
+    while (start < hex.length - 1 && hex[start] == '0') {
+      start++;
+    }
+
+    return new String(hex, start, hex.length - start);
+  }
+}
@@ -23,6 +23,7 @@
 import com.google.protobuf.ByteString;
 import eu.interop.federationgateway.entity.CallbackSubscriptionEntity;
 import eu.interop.federationgateway.entity.CertificateEntity;
+import eu.interop.federationgateway.entity.DiagnosisKeyBatchMembershipEntity;
 import eu.interop.federationgateway.entity.DiagnosisKeyEntity;
 import eu.interop.federationgateway.entity.DiagnosisKeyPayload;
 import eu.interop.federationgateway.entity.FormatInformation;
@@ -31,6 +32,7 @@
 import eu.interop.federationgateway.model.EfgsProto.DiagnosisKey;
 import eu.interop.federationgateway.model.EfgsProto.DiagnosisKeyBatch;
 import eu.interop.federationgateway.repository.CertificateRepository;
+import eu.interop.federationgateway.repository.DiagnosisKeyBatchMembershipRepository;
 import eu.interop.federationgateway.utils.CertificateUtils;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
@@ -53,7 +55,9 @@
 import java.util.Arrays;
 import java.util.Base64;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Random;
 import org.bouncycastle.asn1.ASN1ObjectIdentifier;
@@ -315,7 +319,6 @@ public static EfgsProto.DiagnosisKey getDiagnosisKeyProto() {
 
   public static DiagnosisKeyEntity getDiagnosisKeyTestEntityforCreation() {
     return new DiagnosisKeyEntity(
-      null,
       null,
       null,
       PAYLOAD_HASH,
@@ -334,13 +337,32 @@ public static DiagnosisKeyEntity getDiagnosisKeyTestEntityforCreation() {
     );
   }
 
+  /**
+   * Registers the uploads of keys which were saved directly with the repository, like an upload does.
+   *
+   * @param membershipRepository the batch membership repository
+   * @param keys                 the saved keys
+   * @param batchTag             the batch containing the uploads, null if the uploads are not batched yet
+   */
+  public static void saveBatchMemberships(DiagnosisKeyBatchMembershipRepository membershipRepository,
+                                          List<DiagnosisKeyEntity> keys, String batchTag) {
+    Map<String, DiagnosisKeyBatchMembershipEntity> memberships = new LinkedHashMap<>();
+    for (DiagnosisKeyEntity key : keys) {
+      DiagnosisKeyBatchMembershipEntity membership = memberships.computeIfAbsent(key.getUploader().getBatchTag(),
+        uploaderBatchTag -> membershipRepository.findFirstByUploaderBatchTag(uploaderBatchTag)
+          .orElse(new DiagnosisKeyBatchMembershipEntity(null, ZonedDateTime.now(ZoneOffset.UTC), uploaderBatchTag,
+            batchTag, 0, key.getFormat().getMajorVersion(), key.getFormat().getMinorVersion())));
+      membership.setNumberOfKeys(membership.getNumberOfKeys() + 1);
+    }
+    membershipRepository.saveAll(memberships.values());
+  }
+
   public static List<DiagnosisKeyEntity> createTestDiagKeysWithoutBatchTag() throws NoSuchAlgorithmException {
 
     List<DiagnosisKeyEntity> testKeys = new ArrayList<>();
 
     // key 1
     DiagnosisKeyEntity diagnosisKeyEntity_1 = new DiagnosisKeyEntity();
-    diagnosisKeyEntity_1.setBatchTag(null);
     diagnosisKeyEntity_1.setCreatedAt(ZonedDateTime.now(ZoneOffset.UTC));
     DiagnosisKeyPayload diagnosisKeyPayload = new DiagnosisKeyPayload();
     diagnosisKeyPayload.setKeyData("123".getBytes());
@@ -367,7 +389,6 @@ public static List<DiagnosisKeyEntity> createTestDiagKeysWithoutBatchTag() throw
 
     // key 2
     DiagnosisKeyEntity diagnosisKeyEntity_2 = new DiagnosisKeyEntity();
-    diagnosisKeyEntity_2.setBatchTag(null);
     diagnosisKeyEntity_2.setCreatedAt(ZonedDateTime.now(ZoneOffset.UTC));
     diagnosisKeyPayload = new DiagnosisKeyPayload();
     diagnosisKeyPayload.setKeyData("234".getBytes());
@@ -394,7 +415,6 @@ public static List<DiagnosisKeyEntity> createTestDiagKeysWithoutBatchTag() throw
 
     // key 3
     DiagnosisKeyEntity diagnosisKeyEntity_3 = new DiagnosisKeyEntity();
-    diagnosisKeyEntity_3.setBatchTag(null);
     diagnosisKeyEntity_3.setCreatedAt(ZonedDateTime.now(ZoneOffset.UTC));
     diagnosisKeyPayload = new DiagnosisKeyPayload();
     diagnosisKeyPayload.setKeyData("345".getBytes());
@@ -427,7 +447,6 @@ public static List<DiagnosisKeyEntity> createTestDiagKeyWithBatchTag() throws No
     List<DiagnosisKeyEntity> testKeys = new ArrayList<>();
 
     DiagnosisKeyEntity diagnosisKeyEntity_1 = new DiagnosisKeyEntity();
-    diagnosisKeyEntity_1.setBatchTag(TEST_BATCH_TAG_2015616);
     diagnosisKeyEntity_1.setCreatedAt(ZonedDateTime.now(ZoneOffset.UTC));
     DiagnosisKeyPayload diagnosisKeyPayload = new DiagnosisKeyPayload();
     diagnosisKeyPayload.setKeyData("123".getBytes());
@@ -467,7 +486,6 @@ public static List<DiagnosisKeyEntity> createTestDiagKeysList(int count, String
 
     for (int i = 0; i < count; i++) {
       DiagnosisKeyEntity key = new DiagnosisKeyEntity();
-      key.setBatchTag(null);
       key.setCreatedAt(ZonedDateTime.now(ZoneOffset.UTC));
       DiagnosisKeyPayload diagnosisKeyPayload = new DiagnosisKeyPayload();
       diagnosisKeyPayload.setKeyData((batchTag + i).getBytes());
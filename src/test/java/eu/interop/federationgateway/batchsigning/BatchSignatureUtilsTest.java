@@ -36,6 +36,7 @@
 import java.util.Comparator;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Collectors;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
@@ -239,6 +240,33 @@ private InputStream readBatchFile(final String filename) {
     return getClass().getClassLoader().getResourceAsStream(filename);
   }
 
+  @Test
+  public void testParallelContentToVerifyIsEqualToSequentialEncoding() throws IOException {
+    final DiagnosisKeyBatch.Builder batchBuilder = DiagnosisKeyBatch.newBuilder();
+    for (int x = 0; x < 2000; x++) {
+      batchBuilder.addKeys(createDiagnosisKey(null));
+    }
+    final DiagnosisKeyBatch batch = batchBuilder.build();
+
+    final ByteArrayOutputStream expectedBytes = new ByteArrayOutputStream();
+    batch.getKeysList().stream()
+      .map(BatchSignatureUtils::generateBytesToVerify)
+      .sorted(Comparator.comparing(BatchSignatureUtils::bytesToBase64))
+      .forEach(expectedBytes::writeBytes);
+
+    final ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      final BatchSignatureContent content = BatchSignatureUtils.generateContentToVerify(batch, pool);
+      final ByteArrayOutputStream streamedBytes = new ByteArrayOutputStream();
+      content.write(streamedBytes);
+
+      Assertions.assertArrayEquals(expectedBytes.toByteArray(), streamedBytes.toByteArray());
+      Assertions.assertArrayEquals(expectedBytes.toByteArray(), (byte[]) content.getContent());
+    } finally {
+      pool.shutdown();
+    }
+  }
+
   @Test
   public void testRandomKeySignatures() {
     for (int x = 0; x < 100000; x++) {
@@ -0,0 +1,114 @@
+/*-
+ * ---license-start
+ * EU-Federation-Gateway-Service / efgs-federation-gateway
+ * ---
+ * Copyright (C) 2020 - 2022 T-Systems International GmbH and all other contributors
+ * ---
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ---license-end
+ */
+
+package eu.interop.federationgateway.batchsigning;
+
+import com.google.protobuf.ByteString;
+import eu.interop.federationgateway.model.EfgsProto.DiagnosisKey;
+import java.io.ByteArrayOutputStream;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class CanonicalKeyEncoderTest {
+
+  private static byte[] encodeWithStrings(DiagnosisKey key) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    writeField(key.getKeyData().toByteArray(), bytes);
+    writeField(ByteBuffer.allocate(4).putInt(key.getRollingStartIntervalNumber()).array(), bytes);
+    writeField(ByteBuffer.allocate(4).putInt(key.getRollingPeriod()).array(), bytes);
+    writeField(ByteBuffer.allocate(4).putInt(key.getTransmissionRiskLevel()).array(), bytes);
+    writeField(String.join(",", key.getVisitedCountriesList()).getBytes(StandardCharsets.US_ASCII), bytes);
+    writeField(key.getOrigin().getBytes(StandardCharsets.US_ASCII), bytes);
+    writeField(ByteBuffer.allocate(4).putInt(key.getReportTypeValue()).array(), bytes);
+    writeField(ByteBuffer.allocate(4).putInt(key.getDaysSinceOnsetOfSymptoms()).array(), bytes);
+    return bytes.toByteArray();
+  }
+
+  private static void writeField(byte[] field, ByteArrayOutputStream bytes) {
+    bytes.writeBytes(Base64.getEncoder().encode(field));
+    bytes.writeBytes(".".getBytes(StandardCharsets.US_ASCII));
+  }
+
+  private static DiagnosisKey createKey(int keyDataLength, List<String> countries, String origin, int value) {
+    byte[] keyData = new byte[keyDataLength];
+    new Random(keyDataLength).nextBytes(keyData);
+
+    return DiagnosisKey.newBuilder()
+      .setKeyData(ByteString.copyFrom(keyData))
+      .setRollingStartIntervalNumber(value)
+      .setRollingPeriod(-value)
+      .setTransmissionRiskLevel(Integer.MIN_VALUE)
+      .addAllVisitedCountries(countries)
+      .setOrigin(origin)
+      .setReportTypeValue(2)
+      .setDaysSinceOnsetOfSymptoms(Integer.MAX_VALUE)
+      .build();
+  }
+
+  @Test
+  public void testEncodingIsEqualToStringBasedEncoding() {
+    List<DiagnosisKey> keys = List.of(
+      createKey(0, List.of(), "", 0),
+      createKey(1, List.of("DE"), "DE", 1),
+      createKey(2, List.of("DE", "FR"), "D", 255),
+      createKey(16, List.of("DE", "FR", "NL"), "DK", 65536),
+      createKey(17, List.of("", "FR"), "Ä😀\uD83D", 144),
+      createKey(18, List.of("ü", "DE"), "\uDE00X", Integer.MAX_VALUE)
+    );
+
+    for (DiagnosisKey key : keys) {
+      Assertions.assertArrayEquals(encodeWithStrings(key), CanonicalKeyEncoder.encode(key));
+    }
+  }
+
+  @Test
+  public void testBatchEncodingIsEqualToSingleKeyEncoding() throws NoSuchAlgorithmException {
+    List<DiagnosisKey> keys = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      keys.add(createKey(i % 20, List.of("DE", "FR").subList(0, i % 3 == 0 ? 1 : 2), "DE", i));
+    }
+
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      CanonicalBatchEncoding encoding = CanonicalKeyEncoder.encode(keys, pool);
+
+      Assertions.assertEquals(keys.size(), encoding.size());
+      for (int i = 0; i < keys.size(); i++) {
+        Assertions.assertArrayEquals(encodeWithStrings(keys.get(i)), encoding.toByteArray(i));
+        Assertions.assertEquals(
+          new BigInteger(1, MessageDigest.getInstance("SHA-256").digest(encodeWithStrings(keys.get(i)))).toString(16),
+          encoding.getPayloadHash(i));
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+}
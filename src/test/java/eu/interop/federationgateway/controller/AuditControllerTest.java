@@ -36,9 +36,12 @@
 import eu.interop.federationgateway.model.AuditEntry;
 import eu.interop.federationgateway.model.EfgsProto;
 import eu.interop.federationgateway.repository.CertificateRepository;
+import eu.interop.federationgateway.repository.DiagnosisKeyBatchMembershipRepository;
 import eu.interop.federationgateway.repository.DiagnosisKeyBatchRepository;
+import eu.interop.federationgateway.repository.DiagnosisKeyBatchSequenceRepository;
 import eu.interop.federationgateway.repository.DiagnosisKeyDownloadRepository;
 import eu.interop.federationgateway.repository.DiagnosisKeyEntityRepository;
+import eu.interop.federationgateway.repository.DiagnosisKeyUploadInformationRepository;
 import eu.interop.federationgateway.service.DiagnosisKeyBatchService;
 import eu.interop.federationgateway.testconfig.EfgsTestKeyStore;
 import java.io.IOException;
@@ -74,6 +77,12 @@ public class AuditControllerTest {
 
   private final ObjectMapper mapper = new ObjectMapper();
 
+  @Autowired
+  private DiagnosisKeyBatchMembershipRepository diagnosisKeyBatchMembershipRepository;
+
+  @Autowired
+  private DiagnosisKeyUploadInformationRepository diagnosisKeyUploadInformationRepository;
+
   @Autowired
   private EfgsProperties properties;
 
@@ -89,6 +98,9 @@ public class AuditControllerTest {
   @Autowired
   private DiagnosisKeyBatchRepository diagnosisKeyBatchRepository;
 
+  @Autowired
+  private DiagnosisKeyBatchSequenceRepository diagnosisKeyBatchSequenceRepository;
+
   @Autowired
   private DiagnosisKeyDownloadRepository diagnosisKeyDownloadRepository;
   @Autowired
@@ -104,6 +116,9 @@ public void setup() throws NoSuchAlgorithmException, CertificateException, IOExc
     diagnosisKeyDownloadRepository.deleteAll();
     diagnosisKeyBatchRepository.deleteAll();
     diagnosisKeyEntityRepository.deleteAll();
+    diagnosisKeyBatchMembershipRepository.deleteAll();
+    diagnosisKeyUploadInformationRepository.deleteAll();
+    diagnosisKeyBatchSequenceRepository.deleteAll();
   }
 
   @Test
@@ -276,6 +276,8 @@ public void testGetAllCallbacksForACountry() throws Exception {
         Assertions.assertEquals(2, callbacks.size());
         Assertions.assertEquals(firstId, callbacks.get(0).getCallbackId());
         Assertions.assertEquals(TestData.CALLBACK_URL_EXAMPLE, callbacks.get(0).getUrl());
+        Assertions.assertEquals(0, callbacks.get(0).getDeliveryStatus().getRetries());
+        Assertions.assertNull(callbacks.get(0).getDeliveryStatus().getNextTry());
 
         Assertions.assertEquals(secondId, callbacks.get(1).getCallbackId());
         Assertions.assertEquals(TestData.CALLBACK_URL_EXAMPLE, callbacks.get(1).getUrl());
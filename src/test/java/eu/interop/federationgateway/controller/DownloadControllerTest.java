@@ -29,14 +29,22 @@
 import eu.interop.federationgateway.TestData;
 import eu.interop.federationgateway.config.EfgsProperties;
 import eu.interop.federationgateway.config.ProtobufConverter;
+import eu.interop.federationgateway.config.ProtobufHttpMessageConverter;
 import eu.interop.federationgateway.entity.DiagnosisKeyBatchEntity;
 import eu.interop.federationgateway.entity.DiagnosisKeyDownloadEntity;
 import eu.interop.federationgateway.entity.DiagnosisKeyEntity;
 import eu.interop.federationgateway.model.EfgsProto;
+import eu.interop.federationgateway.repository.CallbackOutboxRepository;
 import eu.interop.federationgateway.repository.CertificateRepository;
+import eu.interop.federationgateway.repository.DiagnosisKeyBatchArtifactRepository;
+import eu.interop.federationgateway.repository.DiagnosisKeyBatchMembershipRepository;
 import eu.interop.federationgateway.repository.DiagnosisKeyBatchRepository;
 import eu.interop.federationgateway.repository.DiagnosisKeyDownloadRepository;
 import eu.interop.federationgateway.repository.DiagnosisKeyEntityRepository;
+import eu.interop.federationgateway.repository.DiagnosisKeyUploadInformationRepository;
+import eu.interop.federationgateway.service.DiagnosisKeyBatchArtifactService;
+import eu.interop.federationgateway.service.DiagnosisKeyBatchSequenceService;
+import eu.interop.federationgateway.service.TransactionalDiagnosisKeyBatchService;
 import eu.interop.federationgateway.testconfig.EfgsTestKeyStore;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
@@ -46,6 +54,7 @@
 import java.security.NoSuchAlgorithmException;
 import java.security.SignatureException;
 import java.security.cert.CertificateException;
+import java.time.LocalDate;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
@@ -69,6 +78,12 @@
 @AutoConfigureMockMvc
 public class DownloadControllerTest {
 
+  @Autowired
+  private DiagnosisKeyBatchMembershipRepository diagnosisKeyBatchMembershipRepository;
+
+  @Autowired
+  private DiagnosisKeyUploadInformationRepository diagnosisKeyUploadInformationRepository;
+
   @Autowired
   private EfgsProperties properties;
 
@@ -84,6 +99,21 @@ public class DownloadControllerTest {
   @Autowired
   private CertificateRepository certificateRepository;
 
+  @Autowired
+  private DiagnosisKeyBatchArtifactService diagnosisKeyBatchArtifactService;
+
+  @Autowired
+  private DiagnosisKeyBatchArtifactRepository diagnosisKeyBatchArtifactRepository;
+
+  @Autowired
+  private TransactionalDiagnosisKeyBatchService transactionalDiagnosisKeyBatchService;
+
+  @Autowired
+  private DiagnosisKeyBatchSequenceService diagnosisKeyBatchSequenceService;
+
+  @Autowired
+  private CallbackOutboxRepository callbackOutboxRepository;
+
   @Autowired
   private MockMvc mockMvc;
 
@@ -97,8 +127,12 @@ public void setup() throws CertificateException, NoSuchAlgorithmException, IOExc
     TestData.insertCertificatesForAuthentication(certificateRepository);
 
     diagnosisKeyEntityRepository.deleteAll();
+    diagnosisKeyBatchMembershipRepository.deleteAll();
+    diagnosisKeyUploadInformationRepository.deleteAll();
     diagnosisKeyDownloadRepository.deleteAll();
+    callbackOutboxRepository.deleteAll();
     diagnosisKeyBatchRepository.deleteAll();
+    diagnosisKeyBatchArtifactService.evictAll();
   }
 
   @Test
@@ -163,6 +197,27 @@ public void testRequestShouldReturnNextBatchTag() throws Exception {
       .andExpect(header().string("nextBatchTag", batchTag2));
   }
 
+  @Test
+  public void testRequestShouldReturnNextBatchTagOfTheSameDayWithoutBatchLink() throws Exception {
+    ZonedDateTime timestamp = ZonedDateTime.now(ZoneOffset.UTC).minusDays(2);
+    String batchDate = timestamp.format(DateTimeFormatter.ofPattern("yyyyMMdd"));
+    String batchTag1 = batchDate + "-14";
+    String batchTag2 = batchDate + "-15";
+
+    diagnosisKeyBatchRepository.save(new DiagnosisKeyBatchEntity(null, timestamp, batchTag1, null, 10));
+    diagnosisKeyBatchRepository.save(new DiagnosisKeyBatchEntity(null, timestamp.plusHours(1), batchTag2, null, 10));
+
+    mockMvc.perform(get("/diagnosiskeys/download/" + getDateString(timestamp))
+      .accept("application/protobuf; version=1.0")
+      .header("batchTag", batchTag1)
+      .header(properties.getCertAuth().getHeaderFields().getThumbprint(), TestData.AUTH_CERT_HASH)
+      .header(properties.getCertAuth().getHeaderFields().getDistinguishedName(), TestData.DN_STRING_DE)
+    )
+      .andExpect(status().isOk())
+      .andExpect(header().string("batchTag", batchTag1))
+      .andExpect(header().string("nextBatchTag", batchTag2));
+  }
+
   @Test
   public void testRequestShouldReturnNextBatchTagNullIfNoFurtherBatchExists() throws Exception {
     ZonedDateTime timestamp = ZonedDateTime.now(ZoneOffset.UTC).minusDays(2);
@@ -394,13 +449,108 @@ public void testRequestAndDiagnosisKeyDownloadEntity() throws Exception {
 
   }
 
+  @Test
+  public void testCachedAndStreamedDownloadIsEqualToBufferedDownload() throws Exception {
+    ZonedDateTime timestampBatchTag = ZonedDateTime.now(ZoneOffset.UTC).minusHours(2);
+    String batchTag = getDateString(timestampBatchTag) + "-14";
+    String emptyBatchTag = getDateString(timestampBatchTag) + "-15";
+
+    diagnosisKeyBatchRepository.save(new DiagnosisKeyBatchEntity(null, timestampBatchTag, batchTag, null, 10));
+    diagnosisKeyBatchRepository.save(new DiagnosisKeyBatchEntity(null, timestampBatchTag, emptyBatchTag, null, 0));
+
+    saveDiagnosisEntityToDb(batchTag, "o1");
+    saveDiagnosisEntityToDb(batchTag, "o2");
+    saveDiagnosisEntityToDb(batchTag, "o3", "DE");
+    saveDiagnosisEntityToDb(batchTag, "o4");
+
+    for (String accept : List.of("application/protobuf; version=1.0", "application/json; version=1.0")) {
+      for (String tag : List.of(batchTag, emptyBatchTag)) {
+        byte[] buffered = downloadBatch(timestampBatchTag, tag, accept, false, false);
+        byte[] streamed = downloadBatch(timestampBatchTag, tag, accept, false, true);
+        byte[] cached = downloadBatch(timestampBatchTag, tag, accept, true, false);
+        byte[] cachedAgain = downloadBatch(timestampBatchTag, tag, accept, true, false);
+        byte[] cachedOrStreamed = downloadBatch(timestampBatchTag, tag, accept, true, true);
+
+        Assertions.assertArrayEquals(buffered, streamed);
+        Assertions.assertArrayEquals(buffered, cached);
+        Assertions.assertArrayEquals(buffered, cachedAgain);
+        Assertions.assertArrayEquals(buffered, cachedOrStreamed);
+      }
+    }
+
+    Assertions.assertEquals(3, EfgsProto.DiagnosisKeyBatch.parseFrom(
+      downloadBatch(timestampBatchTag, batchTag, "application/protobuf; version=1.0", true, false)).getKeysCount());
+    Assertions.assertEquals(21, diagnosisKeyDownloadRepository.count());
+  }
+
+  @Test
+  public void testDownloadOfPrecomputedArtifactsIsEqualToBufferedDownload() throws Exception {
+    saveDiagnosisEntityToDb(null, "o1", "DE");
+    saveDiagnosisEntityToDb(null, "o2", "DK");
+    saveDiagnosisEntityToDb(null, "o3", "DE");
+
+    diagnosisKeyBatchSequenceService.createSequenceOfDay(LocalDate.now(ZoneOffset.UTC));
+    Assertions.assertTrue(transactionalDiagnosisKeyBatchService.createNextBatch());
+
+    // the artifacts are precomputed in the background
+    long timeout = System.currentTimeMillis() + 10_000;
+    while (diagnosisKeyBatchArtifactRepository.count() < 3 && System.currentTimeMillis() < timeout) {
+      Thread.sleep(50);
+    }
+
+    DiagnosisKeyBatchEntity batch = diagnosisKeyBatchRepository.findAll().get(0);
+    Assertions.assertEquals(3, diagnosisKeyBatchArtifactRepository.count());
+    Assertions.assertTrue(
+      diagnosisKeyBatchArtifactRepository.findFirstByBatchIdAndCountry(batch.getId(), "DE").isPresent());
+
+    for (String accept : List.of("application/protobuf; version=1.0", "application/json; version=1.0")) {
+      byte[] buffered = downloadBatch(batch.getCreatedAt(), batch.getBatchName(), accept, false, false);
+      byte[] precomputed = downloadBatch(batch.getCreatedAt(), batch.getBatchName(), accept, true, false);
+      byte[] precomputedWithStreaming = downloadBatch(batch.getCreatedAt(), batch.getBatchName(), accept, true, true);
+
+      Assertions.assertArrayEquals(buffered, precomputed);
+      Assertions.assertArrayEquals(buffered, precomputedWithStreaming);
+    }
+
+    EfgsProto.DiagnosisKeyBatch response = EfgsProto.DiagnosisKeyBatch.parseFrom(downloadBatch(
+      batch.getCreatedAt(), batch.getBatchName(), "application/protobuf; version=1.0", true, false));
+    Assertions.assertEquals(1, response.getKeysCount());
+    Assertions.assertEquals("o2", response.getKeys(0).getOrigin());
+  }
+
+  private byte[] downloadBatch(ZonedDateTime date, String batchTag, String accept, boolean cache, boolean streaming)
+    throws Exception {
+    EfgsProperties.DownloadSettings downloadSettings = properties.getDownloadSettings();
+    boolean previousCache = downloadSettings.getArtifactCache().isEnabled();
+    boolean previousStreaming = downloadSettings.isStreaming();
+    downloadSettings.getArtifactCache().setEnabled(cache);
+    downloadSettings.setStreaming(streaming);
+
+    try {
+      return mockMvc.perform(get("/diagnosiskeys/download/" + getDateString(date))
+          .accept(accept)
+          .header("batchTag", batchTag)
+          .header(properties.getCertAuth().getHeaderFields().getThumbprint(), TestData.AUTH_CERT_HASH)
+          .header(properties.getCertAuth().getHeaderFields().getDistinguishedName(), TestData.DN_STRING_DE)
+        )
+        .andExpect(status().isOk())
+        .andExpect(content().contentType(accept))
+        .andExpect(header().string(ProtobufHttpMessageConverter.X_PROTOBUF_MESSAGE_HEADER,
+          EfgsProto.DiagnosisKeyBatch.getDescriptor().getFullName()))
+        .andReturn().getResponse().getContentAsByteArray();
+    } finally {
+      downloadSettings.getArtifactCache().setEnabled(previousCache);
+      downloadSettings.setStreaming(previousStreaming);
+    }
+  }
+
   private void saveDiagnosisEntityToDb(String batchTag, String origin) {
     saveDiagnosisEntityToDb(batchTag, origin, null);
   }
 
   private void saveDiagnosisEntityToDb(String batchTag, String origin, String country) {
     DiagnosisKeyEntity entity = TestData.getDiagnosisKeyTestEntityforCreation();
-    entity.setBatchTag(batchTag);
+    entity.getUploader().setBatchTag(batchTag + "_upload");
     entity.setCreatedAt(ZonedDateTime.now(ZoneOffset.UTC));
 
     if (country != null) {
@@ -410,6 +560,7 @@ private void saveDiagnosisEntityToDb(String batchTag, String origin, String coun
     entity.getPayload().setOrigin(origin);
     entity.setPayloadHash(UUID.randomUUID().toString());
     diagnosisKeyEntityRepository.save(entity);
+    TestData.saveBatchMemberships(diagnosisKeyBatchMembershipRepository, List.of(entity), batchTag);
   }
 
 }
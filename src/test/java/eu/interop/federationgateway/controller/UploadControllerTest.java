@@ -34,7 +34,9 @@
 import eu.interop.federationgateway.entity.DiagnosisKeyUploadBatchEntity;
 import eu.interop.federationgateway.model.EfgsProto;
 import eu.interop.federationgateway.repository.CertificateRepository;
+import eu.interop.federationgateway.repository.DiagnosisKeyBatchMembershipRepository;
 import eu.interop.federationgateway.repository.DiagnosisKeyEntityRepository;
+import eu.interop.federationgateway.repository.DiagnosisKeyUploadInformationRepository;
 import eu.interop.federationgateway.repository.DiagnosisKeyUploadRepository;
 import eu.interop.federationgateway.service.CertificateService;
 import eu.interop.federationgateway.testconfig.EfgsTestKeyStore;
@@ -69,6 +71,12 @@
 @AutoConfigureMockMvc
 public class UploadControllerTest {
 
+  @Autowired
+  private DiagnosisKeyBatchMembershipRepository diagnosisKeyBatchMembershipRepository;
+
+  @Autowired
+  private DiagnosisKeyUploadInformationRepository diagnosisKeyUploadInformationRepository;
+
   @Autowired
   private EfgsProperties properties;
 
@@ -101,6 +109,8 @@ public void setup() throws NoSuchAlgorithmException, CertificateException, IOExc
     signatureGenerator = new SignatureGenerator(certificateRepository);
 
     diagnosisKeyEntityRepository.deleteAll();
+    diagnosisKeyBatchMembershipRepository.deleteAll();
+    diagnosisKeyUploadInformationRepository.deleteAll();
   }
 
 
@@ -22,53 +22,171 @@
 
 import eu.interop.federationgateway.TestData;
 import eu.interop.federationgateway.entity.DiagnosisKeyEntity;
+import eu.interop.federationgateway.entity.DiagnosisKeyPayload;
+import eu.interop.federationgateway.mapper.DiagnosisKeyMapper;
+import eu.interop.federationgateway.model.EfgsProto;
+import eu.interop.federationgateway.repository.DiagnosisKeyBatchMembershipRepository;
 import eu.interop.federationgateway.repository.DiagnosisKeyEntityRepository;
+import eu.interop.federationgateway.repository.DiagnosisKeyUploadInformationRepository;
+import eu.interop.federationgateway.service.DiagnosisKeyEntityService;
 import jakarta.persistence.EntityManager;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
 import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
 
 @SpringBootTest
 public class DbEncryptionTest {
 
+  @Autowired
+  DiagnosisKeyBatchMembershipRepository diagnosisKeyBatchMembershipRepository;
+
+  @Autowired
+  DiagnosisKeyUploadInformationRepository diagnosisKeyUploadInformationRepository;
+
   @Autowired
   DiagnosisKeyEntityRepository diagnosisKeyEntityRepository;
 
   @Autowired
   EntityManager entityManager;
 
+  @Autowired
+  DbEncryptionService dbEncryptionService;
+
+  @Autowired
+  DiagnosisKeyEntityService diagnosisKeyEntityService;
+
+  @Autowired
+  JdbcTemplate jdbcTemplate;
+
+  @Autowired
+  DiagnosisKeyMapper diagnosisKeyMapper;
+
   @BeforeEach
   @AfterEach
   public void setup() {
     diagnosisKeyEntityRepository.deleteAll();
+    diagnosisKeyBatchMembershipRepository.deleteAll();
+    diagnosisKeyUploadInformationRepository.deleteAll();
   }
 
   @Test
-  public void testThatDiagnosisKeyDataIsStoredEncrypted() {
+  public void testThatDiagnosisKeyDataIsStoredEncrypted() throws GeneralSecurityException {
     DiagnosisKeyEntity entity = TestData.getDiagnosisKeyTestEntityforCreation();
     entity.setCreatedAt(ZonedDateTime.now());
     entity = diagnosisKeyEntityRepository.save(entity);
 
-    Object databaseEntry = entityManager.createNativeQuery("SELECT "
-      + "d.payload_key_data, d.payload_rolling_start_interval_number, "
-      + "d.payload_rolling_period, d.payload_transmission_risk_level, "
-      + "d.payload_visited_countries, d.payload_origin, d.payload_report_type, "
-      + "d.payload_days_since_onset_of_symptoms FROM diagnosiskey d WHERE ID=:id")
+    Object[] databaseEntry = (Object[]) entityManager.createNativeQuery("SELECT "
+      + "d.payload_packed, d.payload_key_data, d.payload_origin FROM diagnosiskey d WHERE ID=:id")
       .setParameter("id", entity.getId())
       .getSingleResult();
 
-    Assertions.assertTrue(((Object[]) databaseEntry)[0] instanceof String);
-    Assertions.assertNotEquals(entity.getPayload().getRollingStartIntervalNumber(), ((Object[]) databaseEntry)[1]);
-    Assertions.assertNotEquals(entity.getPayload().getRollingPeriod(), ((Object[]) databaseEntry)[2]);
-    Assertions.assertNotEquals(entity.getPayload().getTransmissionRiskLevel(), ((Object[]) databaseEntry)[3]);
-    Assertions.assertNotEquals(entity.getPayload().getVisitedCountries(), ((Object[]) databaseEntry)[4]);
-    Assertions.assertNotEquals(entity.getPayload().getOrigin(), ((Object[]) databaseEntry)[5]);
-    Assertions.assertNotEquals(entity.getPayload().getReportType().ordinal(), ((Object[]) databaseEntry)[6]);
-    Assertions.assertNotEquals(entity.getPayload().getDaysSinceOnsetOfSymptoms(), ((Object[]) databaseEntry)[7]);
+    Assertions.assertTrue(databaseEntry[0] instanceof String);
+    Assertions.assertEquals(entity.getPayload(),
+      DiagnosisKeyPayload.fromPackedBytes(dbEncryptionService.decryptByteArray((String) databaseEntry[0])));
+    Assertions.assertNull(databaseEntry[1]);
+    Assertions.assertNull(databaseEntry[2]);
+  }
+
+  @Test
+  public void testThatLegacyDiagnosisKeyDataIsReadAndRepacked() throws GeneralSecurityException {
+    DiagnosisKeyPayload expected = TestData.getDiagnosisKeyTestEntityforCreation().getPayload();
+
+    jdbcTemplate.update("INSERT INTO diagnosiskey (created_at, payload_hash, "
+      + "payload_key_data, payload_rolling_start_interval_number, payload_rolling_period, "
+      + "payload_transmission_risk_level, payload_visited_countries, payload_origin, payload_report_type, "
+      + "payload_days_since_onset_of_symptoms) "
+      + "VALUES (CURRENT_TIMESTAMP, 'legacyhash', ?, ?, ?, ?, ?, ?, ?, ?)",
+      dbEncryptionService.encryptByteArray(expected.getKeyData()),
+      dbEncryptionService.encryptInteger(expected.getRollingStartIntervalNumber()),
+      dbEncryptionService.encryptInteger(expected.getRollingPeriod()),
+      dbEncryptionService.encryptInteger(expected.getTransmissionRiskLevel()),
+      dbEncryptionService.encryptString(expected.getVisitedCountries()),
+      dbEncryptionService.encryptString(expected.getOrigin()),
+      dbEncryptionService.encryptString(expected.getReportType().name()),
+      dbEncryptionService.encryptInteger(expected.getDaysSinceOnsetOfSymptoms()));
+
+    DiagnosisKeyEntity legacyEntity = diagnosisKeyEntityRepository.findAll().get(0);
+    Assertions.assertEquals(expected, legacyEntity.getPayload());
+
+    Assertions.assertEquals(1, diagnosisKeyEntityService.repackLegacyPayloads(10));
+    Assertions.assertEquals(0, diagnosisKeyEntityService.repackLegacyPayloads(10));
+
+    Object[] databaseEntry = (Object[]) entityManager.createNativeQuery("SELECT "
+      + "d.payload_packed, d.payload_key_data FROM diagnosiskey d WHERE ID=:id")
+      .setParameter("id", legacyEntity.getId())
+      .getSingleResult();
+
+    Assertions.assertTrue(databaseEntry[0] instanceof String);
+    Assertions.assertNull(databaseEntry[1]);
+    Assertions.assertEquals(expected, diagnosisKeyEntityRepository.findById(legacyEntity.getId()).get().getPayload());
+  }
+
+  @Test
+  public void testThatLegacyDiagnosisKeyWithNullColumnsIsReadAndRepacked() throws GeneralSecurityException {
+    DiagnosisKeyPayload expected = TestData.getDiagnosisKeyTestEntityforCreation().getPayload();
+
+    jdbcTemplate.update("INSERT INTO diagnosiskey (created_at, payload_hash, "
+        + "payload_key_data, payload_origin, payload_report_type) VALUES (CURRENT_TIMESTAMP, 'legacyhash', ?, ?, ?)",
+      dbEncryptionService.encryptByteArray(expected.getKeyData()),
+      dbEncryptionService.encryptString(expected.getOrigin()),
+      dbEncryptionService.encryptString(expected.getReportType().name()));
+
+    DiagnosisKeyEntity legacyEntity = diagnosisKeyEntityRepository.findAll().get(0);
+    DiagnosisKeyPayload payload = legacyEntity.getPayload();
+    Assertions.assertArrayEquals(expected.getKeyData(), payload.getKeyData());
+    Assertions.assertEquals(expected.getOrigin(), payload.getOrigin());
+    Assertions.assertEquals(0, payload.getRollingStartIntervalNumber());
+    Assertions.assertEquals(0, payload.getRollingPeriod());
+    Assertions.assertEquals(0, payload.getTransmissionRiskLevel());
+    Assertions.assertEquals(0, payload.getDaysSinceOnsetOfSymptoms());
+    Assertions.assertNull(payload.getVisitedCountries());
+    Assertions.assertEquals(0, diagnosisKeyMapper.entityToProto(legacyEntity).getRollingPeriod());
+
+    Assertions.assertEquals(1, diagnosisKeyEntityService.repackLegacyPayloads(10));
+    Assertions.assertEquals(0, diagnosisKeyEntityService.repackLegacyPayloads(10));
+    Assertions.assertEquals(payload, diagnosisKeyEntityRepository.findAll().get(0).getPayload());
+  }
+
+  @Test
+  public void testPackedPayloadRoundTrip() {
+    DiagnosisKeyPayload payload = TestData.getDiagnosisKeyTestEntityforCreation().getPayload();
+    Assertions.assertEquals(payload, DiagnosisKeyPayload.fromPackedBytes(payload.toPackedBytes()));
+
+    DiagnosisKeyPayload emptyPayload = new DiagnosisKeyPayload();
+    Assertions.assertEquals(emptyPayload, DiagnosisKeyPayload.fromPackedBytes(emptyPayload.toPackedBytes()));
+
+    Assertions.assertThrows(IllegalArgumentException.class,
+      () -> DiagnosisKeyPayload.fromPackedBytes(new byte[] {0x7f}));
+  }
+
+  @Test
+  public void testPackedPayloadStoresProtobufNumberOfReportType() {
+    DiagnosisKeyPayload payload = TestData.getDiagnosisKeyTestEntityforCreation().getPayload();
+
+    for (DiagnosisKeyPayload.ReportType reportType : DiagnosisKeyPayload.ReportType.values()) {
+      payload.setReportType(reportType);
+      byte[] packed = payload.toPackedBytes();
+
+      // version byte followed by four int fields
+      Assertions.assertEquals(EfgsProto.ReportType.valueOf(reportType.name()).getNumber(), packed[17]);
+      Assertions.assertEquals(reportType, DiagnosisKeyPayload.fromPackedBytes(packed).getReportType());
+    }
+
+    byte[] packed = payload.toPackedBytes();
+    packed[17] = 42;
+    Assertions.assertThrows(IllegalArgumentException.class, () -> DiagnosisKeyPayload.fromPackedBytes(packed));
   }
 
   @Test
@@ -81,4 +199,61 @@ public void testThatDiagnosisKeyDataIsDecryptedAfterStoring() {
 
     Assertions.assertEquals(entity.getPayload(), gotEntity.getPayload());
   }
+
+  @Test
+  public void testBulkEncryptionIsEqualToSingleEncryption() throws GeneralSecurityException {
+    List<byte[]> plain = List.of(
+      "DE".getBytes(StandardCharsets.UTF_8),
+      new byte[0],
+      "a longer value spanning multiple cipher blocks".getBytes(StandardCharsets.UTF_8));
+
+    List<String> encrypted = dbEncryptionService.encryptAll(plain);
+
+    Assertions.assertEquals(plain.size(), encrypted.size());
+    for (int i = 0; i < plain.size(); i++) {
+      Assertions.assertEquals(dbEncryptionService.encryptByteArray(plain.get(i)), encrypted.get(i));
+    }
+
+    List<byte[]> decrypted = dbEncryptionService.decryptAll(encrypted);
+    for (int i = 0; i < plain.size(); i++) {
+      Assertions.assertArrayEquals(plain.get(i), decrypted.get(i));
+    }
+  }
+
+  @Test
+  public void testConcurrentEncryptionAndDecryption() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<Boolean>> results = new ArrayList<>();
+      for (int thread = 0; thread < 8; thread++) {
+        int threadNumber = thread;
+        results.add(executor.submit(() -> {
+          for (int i = 0; i < 500; i++) {
+            String plain = "value-" + threadNumber + "-" + i;
+            String encrypted = dbEncryptionService.encryptString(plain);
+            if (!plain.equals(dbEncryptionService.decryptString(encrypted))
+              || !encrypted.equals(dbEncryptionService.encryptString(plain))) {
+              return false;
+            }
+          }
+          return true;
+        }));
+      }
+
+      for (Future<Boolean> result : results) {
+        Assertions.assertTrue(result.get());
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testCipherIsUsableAfterFailedDecryption() throws GeneralSecurityException {
+    String encrypted = dbEncryptionService.encryptString("DE");
+
+    Assertions.assertThrows(GeneralSecurityException.class,
+      () -> dbEncryptionService.decryptByteArray("AAAAAAAAAAAAAAAAAAAAAA=="));
+    Assertions.assertEquals("DE", dbEncryptionService.decryptString(encrypted));
+  }
 }
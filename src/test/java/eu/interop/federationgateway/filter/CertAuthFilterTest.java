@@ -26,9 +26,11 @@
 import eu.interop.federationgateway.TestData;
 import eu.interop.federationgateway.config.EfgsProperties;
 import eu.interop.federationgateway.repository.CertificateRepository;
+import eu.interop.federationgateway.repository.DiagnosisKeyBatchMembershipRepository;
 import eu.interop.federationgateway.repository.DiagnosisKeyBatchRepository;
 import eu.interop.federationgateway.repository.DiagnosisKeyDownloadRepository;
 import eu.interop.federationgateway.repository.DiagnosisKeyEntityRepository;
+import eu.interop.federationgateway.repository.DiagnosisKeyUploadInformationRepository;
 import eu.interop.federationgateway.testconfig.EfgsTestKeyStore;
 import java.io.IOException;
 import java.math.BigInteger;
@@ -57,6 +59,12 @@
 @AutoConfigureMockMvc
 public class CertAuthFilterTest {
 
+  @Autowired
+  private DiagnosisKeyBatchMembershipRepository diagnosisKeyBatchMembershipRepository;
+
+  @Autowired
+  private DiagnosisKeyUploadInformationRepository diagnosisKeyUploadInformationRepository;
+
   @Autowired
   private EfgsProperties properties;
 
@@ -80,6 +88,8 @@ public void setup() throws CertificateException, NoSuchAlgorithmException, IOExc
     TestData.insertCertificatesForAuthentication(certificateRepository);
 
     diagnosisKeyEntityRepository.deleteAll();
+    diagnosisKeyBatchMembershipRepository.deleteAll();
+    diagnosisKeyUploadInformationRepository.deleteAll();
     diagnosisKeyDownloadRepository.deleteAll();
     diagnosisKeyBatchRepository.deleteAll();
   }
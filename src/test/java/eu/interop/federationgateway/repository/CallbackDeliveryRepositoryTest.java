@@ -0,0 +1,169 @@
+/*-
+ * ---license-start
+ * EU-Federation-Gateway-Service / efgs-federation-gateway
+ * ---
+ * Copyright (C) 2020 - 2022 T-Systems International GmbH and all other contributors
+ * ---
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ---license-end
+ */
+
+package eu.interop.federationgateway.repository;
+
+import eu.interop.federationgateway.entity.CallbackDeliveryEntity;
+import eu.interop.federationgateway.entity.CallbackOutboxEntity;
+import eu.interop.federationgateway.entity.CallbackSubscriptionEntity;
+import eu.interop.federationgateway.entity.DiagnosisKeyBatchEntity;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+@SpringBootTest
+public class CallbackDeliveryRepositoryTest {
+
+  @Autowired
+  CallbackDeliveryRepository repository;
+
+  @Autowired
+  CallbackOutboxRepository outboxRepository;
+
+  @Autowired
+  CallbackSubscriptionRepository subscriptionRepository;
+
+  @Autowired
+  DiagnosisKeyBatchRepository diagnosisKeyBatchRepository;
+
+  @Autowired
+  CertificateRepository certificateRepository;
+
+  @Autowired
+  PlatformTransactionManager transactionManager;
+
+  @BeforeEach
+  @AfterEach
+  public void setup() {
+
+    repository.deleteAll();
+    outboxRepository.deleteAll();
+    subscriptionRepository.deleteAll();
+    diagnosisKeyBatchRepository.deleteAll();
+    certificateRepository.deleteAll();
+
+  }
+
+  @Test
+  public void testFindPendingDeliveriesSkipsActiveLeases() {
+    CallbackOutboxEntity event = createEvent();
+    ZonedDateTime now = ZonedDateTime.now(ZoneOffset.UTC);
+
+    CallbackDeliveryEntity unlocked = createEntity(null, "a", event.getId() - 1);
+    createEntity(now.minusMinutes(3), "b", event.getId() - 1);
+    createEntity(now.minusMinutes(4), "c", event.getId() - 1);
+    CallbackDeliveryEntity expired = createEntity(now.minusMinutes(6), "d", event.getId() - 1);
+
+    List<CallbackDeliveryEntity> pending = findPendingDeliveries(now, now.minusMinutes(5), 10);
+
+    Assertions.assertEquals(List.of(unlocked.getId(), expired.getId()),
+      pending.stream().map(CallbackDeliveryEntity::getId).toList());
+  }
+
+  @Test
+  public void testFindPendingDeliveriesOnlyReturnsDeliveriesBehindTheOutbox() {
+    CallbackOutboxEntity event = createEvent();
+
+    CallbackDeliveryEntity upToDate = createEntity(null, "a", event.getId());
+    CallbackDeliveryEntity behind = createEntity(null, "b", event.getId() - 1);
+    createEntity(ZonedDateTime.now(ZoneOffset.UTC), "c", event.getId() - 1);
+
+    ZonedDateTime now = ZonedDateTime.now(ZoneOffset.UTC);
+    List<CallbackDeliveryEntity> pending = findPendingDeliveries(now, now.minusMinutes(5), 10);
+
+    Assertions.assertEquals(1, pending.size());
+    Assertions.assertEquals(behind.getId(), pending.get(0).getId());
+    Assertions.assertEquals(upToDate.getLastEventId(), repository.getLowestLastEventId() + 1);
+  }
+
+  @Test
+  public void testConcurrentClaimsReturnDisjointDeliveries() throws Exception {
+    CallbackOutboxEntity event = createEvent();
+    for (int i = 0; i < 4; i++) {
+      createEntity(null, "r" + i, event.getId() - 1);
+    }
+
+    ZonedDateTime now = ZonedDateTime.now(ZoneOffset.UTC);
+    CountDownLatch firstClaimSelected = new CountDownLatch(1);
+
+    CompletableFuture<List<Long>> firstClaim = CompletableFuture.supplyAsync(() ->
+      new TransactionTemplate(transactionManager).execute(status -> {
+        List<Long> claimed = claim(now, 2);
+        firstClaimSelected.countDown();
+        sleep(500);
+        return claimed;
+      }));
+
+    firstClaimSelected.await();
+    List<Long> secondClaim = new TransactionTemplate(transactionManager).execute(status -> claim(now, 4));
+
+    Assertions.assertEquals(2, firstClaim.get().size());
+    Assertions.assertEquals(2, secondClaim.size());
+    Assertions.assertTrue(secondClaim.stream().noneMatch(firstClaim.get()::contains));
+  }
+
+  private List<Long> claim(ZonedDateTime now, int limit) {
+    List<CallbackDeliveryEntity> deliveries =
+      repository.findPendingDeliveriesForUpdate(now, now.minusMinutes(5), PageRequest.of(0, limit));
+    deliveries.forEach(delivery -> delivery.setExecutionLock(now));
+    return repository.saveAll(deliveries).stream().map(CallbackDeliveryEntity::getId).toList();
+  }
+
+  private List<CallbackDeliveryEntity> findPendingDeliveries(
+    ZonedDateTime lastTry, ZonedDateTime leaseExpiredBefore, int limit) {
+    return new TransactionTemplate(transactionManager).execute(status ->
+      repository.findPendingDeliveriesForUpdate(lastTry, leaseExpiredBefore, PageRequest.of(0, limit)));
+  }
+
+  private static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private CallbackOutboxEntity createEvent() {
+    DiagnosisKeyBatchEntity batch = diagnosisKeyBatchRepository.save(
+      new DiagnosisKeyBatchEntity(null, ZonedDateTime.now(), "batch", null));
+    return outboxRepository.save(new CallbackOutboxEntity(null, ZonedDateTime.now(), batch));
+  }
+
+  private CallbackDeliveryEntity createEntity(ZonedDateTime executionLock, String random, long lastEventId) {
+    CallbackSubscriptionEntity callbackSubscriptionEntity = new CallbackSubscriptionEntity(null, ZonedDateTime.now(), random, random + "url", "DE");
+    callbackSubscriptionEntity = subscriptionRepository.save(callbackSubscriptionEntity);
+
+    return repository.save(new CallbackDeliveryEntity(
+      null, ZonedDateTime.now(), callbackSubscriptionEntity, lastEventId, executionLock, null, 0, null, null));
+  }
+
+
+}
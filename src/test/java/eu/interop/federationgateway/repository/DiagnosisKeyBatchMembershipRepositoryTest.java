@@ -0,0 +1,85 @@
+/*-
+ * ---license-start
+ * EU-Federation-Gateway-Service / efgs-federation-gateway
+ * ---
+ * Copyright (C) 2020 - 2022 T-Systems International GmbH and all other contributors
+ * ---
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ---license-end
+ */
+
+package eu.interop.federationgateway.repository;
+
+import eu.interop.federationgateway.entity.DiagnosisKeyBatchMembershipEntity;
+import eu.interop.federationgateway.entity.FormatInformation;
+import eu.interop.federationgateway.model.UnbatchedUpload;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.List;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+@SpringBootTest
+public class DiagnosisKeyBatchMembershipRepositoryTest {
+
+  @Autowired
+  DiagnosisKeyBatchMembershipRepository repository;
+
+  @BeforeEach
+  public void setup() {
+    repository.deleteAll();
+  }
+
+  @Test
+  public void testGetUnbatchedUploads() {
+    DiagnosisKeyBatchMembershipEntity upload1 = repository.save(createUpload("upload1", 2, 1, 0));
+    repository.save(createUpload("upload2", 1, 1, 1));
+    DiagnosisKeyBatchMembershipEntity batched = createUpload("upload3", 4, 1, 0);
+    batched.setBatchTag("batch1");
+    repository.save(batched);
+
+    List<UnbatchedUpload> result = repository.getUnbatchedUploads();
+
+    Assertions.assertEquals(2, result.size());
+    Assertions.assertEquals("upload1", result.get(0).getUploaderBatchTag());
+    Assertions.assertEquals(2, result.get(0).getNumberOfKeys());
+    Assertions.assertEquals(upload1.getId(), result.get(0).getUploadId());
+    Assertions.assertEquals(new FormatInformation(1, 0), result.get(0).getFormat());
+    Assertions.assertEquals("upload2", result.get(1).getUploaderBatchTag());
+    Assertions.assertEquals(1, result.get(1).getNumberOfKeys());
+    Assertions.assertEquals(new FormatInformation(1, 1), result.get(1).getFormat());
+  }
+
+  @Test
+  public void testSetBatchTagOnlyUpdatesUnbatchedUploads() {
+    repository.save(createUpload("upload1", 2, 1, 0));
+    DiagnosisKeyBatchMembershipEntity batched = createUpload("upload2", 1, 1, 0);
+    batched.setBatchTag("batch1");
+    repository.save(batched);
+
+    int updated = repository.setBatchTagByUploaderBatchTag(List.of("upload1", "upload2"), "batch2");
+
+    Assertions.assertEquals(1, updated);
+    Assertions.assertEquals("batch2", repository.findFirstByUploaderBatchTag("upload1").orElseThrow().getBatchTag());
+    Assertions.assertEquals("batch1", repository.findFirstByUploaderBatchTag("upload2").orElseThrow().getBatchTag());
+  }
+
+  private DiagnosisKeyBatchMembershipEntity createUpload(String uploaderBatchTag, int numberOfKeys,
+                                                         int formatMajorVersion, int formatMinorVersion) {
+    return new DiagnosisKeyBatchMembershipEntity(null, ZonedDateTime.now(ZoneOffset.UTC), uploaderBatchTag, null,
+      numberOfKeys, formatMajorVersion, formatMinorVersion);
+  }
+}
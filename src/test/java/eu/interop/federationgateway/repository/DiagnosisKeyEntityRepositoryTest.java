@@ -22,15 +22,21 @@
 
 import eu.interop.federationgateway.TestData;
 import eu.interop.federationgateway.entity.DiagnosisKeyEntity;
+import eu.interop.federationgateway.entity.DiagnosisKeyUploadInformationEntity;
+import eu.interop.federationgateway.entity.UploaderInformation;
+import eu.interop.federationgateway.repository.DiagnosisKeyEntityBatchInsertRepository.InsertStatus;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Optional;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Sort;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 @SpringBootTest
 public class DiagnosisKeyEntityRepositoryTest {
@@ -38,9 +44,20 @@ public class DiagnosisKeyEntityRepositoryTest {
   @Autowired
   DiagnosisKeyEntityRepository repository;
 
+  @Autowired
+  DiagnosisKeyBatchMembershipRepository membershipRepository;
+
+  @Autowired
+  DiagnosisKeyUploadInformationRepository uploadInformationRepository;
+
+  @Autowired
+  PlatformTransactionManager transactionManager;
+
   @BeforeEach
   public void setup() {
     repository.deleteAll();
+    membershipRepository.deleteAll();
+    uploadInformationRepository.deleteAll();
 
     DiagnosisKeyEntity e1 = TestData.getDiagnosisKeyTestEntityforCreation();
     DiagnosisKeyEntity e2 = TestData.getDiagnosisKeyTestEntityforCreation();
@@ -58,10 +75,6 @@ public void setup() {
     e2.getUploader().setBatchTag(TestData.FIRST_BATCHTAG);
     e3.getUploader().setBatchTag(TestData.SECOND_BATCHTAG);
 
-    e1.setBatchTag(TestData.FIRST_BATCHTAG);
-    e2.setBatchTag(TestData.FIRST_BATCHTAG);
-    e3.setBatchTag(TestData.SECOND_BATCHTAG);
-
     e1.getUploader().setCountry(TestData.COUNTRY_A);
     e2.getUploader().setCountry(TestData.COUNTRY_B);
     e3.getUploader().setCountry(TestData.COUNTRY_B);
@@ -79,16 +92,19 @@ public void setup() {
     repository.save(e1);
     repository.save(e2);
     repository.save(e3);
+
+    TestData.saveBatchMemberships(membershipRepository, List.of(e1, e2), TestData.FIRST_BATCHTAG);
+    TestData.saveBatchMemberships(membershipRepository, List.of(e3), TestData.SECOND_BATCHTAG);
   }
 
   @Test
-  public void testFindByPayloadOrigin() {
-    List<DiagnosisKeyEntity> result = repository.findAllByPayloadOrigin(TestData.FIRST_ORIGIN);
+  public void testFindByUploaderCountry() {
+    List<DiagnosisKeyEntity> result = repository.findAllByUploader_Country(TestData.COUNTRY_A);
 
     Assertions.assertEquals(1, result.size());
     Assertions.assertEquals(TestData.FIRST_ORIGIN, result.get(0).getPayload().getOrigin());
 
-    result = repository.findAllByPayloadOrigin(TestData.SECOND_ORIGIN);
+    result = repository.findAllByUploader_Country(TestData.COUNTRY_B);
 
     Assertions.assertEquals(2, result.size());
     Assertions.assertEquals(TestData.SECOND_ORIGIN, result.get(0).getPayload().getOrigin());
@@ -97,28 +113,9 @@ public void testFindByPayloadOrigin() {
 
   @Test
   public void testFindByBatchTag() {
-    Assertions.assertEquals(2, repository.countAllByUploader_BatchTag(TestData.FIRST_BATCHTAG));
-    Assertions.assertEquals(1, repository.countAllByUploader_BatchTag(TestData.SECOND_BATCHTAG));
-  }
-
-  @Test
-  public void testFindFirstByBatchTagIsNull() {
-    DiagnosisKeyEntity e1 = TestData.getDiagnosisKeyTestEntityforCreation();
-    DiagnosisKeyEntity e2 = TestData.getDiagnosisKeyTestEntityforCreation();
-
-    e1.setPayloadHash("x");
-    e2.setPayloadHash("y");
-
-    e1.setCreatedAt(ZonedDateTime.now(ZoneOffset.UTC));
-    e2.setCreatedAt(ZonedDateTime.now(ZoneOffset.UTC));
-
-    repository.save(e1);
-    repository.save(e2);
-
-    Optional<DiagnosisKeyEntity> result = repository.findFirstByBatchTagIsNull();
-
-    Assertions.assertTrue(result.isPresent());
-    Assertions.assertEquals("x", result.get().getPayloadHash());
+    Assertions.assertTrue(uploadInformationRepository.existsByUploader_BatchTag(TestData.FIRST_BATCHTAG));
+    Assertions.assertTrue(uploadInformationRepository.existsByUploader_BatchTag(TestData.SECOND_BATCHTAG));
+    Assertions.assertFalse(uploadInformationRepository.existsByUploader_BatchTag("unknownBatchTag"));
   }
 
   @Test
@@ -126,21 +123,81 @@ public void testFindByBatchTagIsAndUploader_CountryIsNot() {
     List<DiagnosisKeyEntity> result = repository.findByBatchTagIsAndUploader_CountryIsNotOrderByIdAsc(TestData.FIRST_BATCHTAG, TestData.COUNTRY_A);
     Assertions.assertEquals(1, result.size());
     Assertions.assertEquals(TestData.COUNTRY_B, result.get(0).getUploader().getCountry());
-    Assertions.assertEquals(TestData.FIRST_BATCHTAG, result.get(0).getBatchTag());
+    Assertions.assertEquals(TestData.FIRST_BATCHTAG, result.get(0).getUploader().getBatchTag());
 
     result = repository.findByBatchTagIsAndUploader_CountryIsNotOrderByIdAsc(TestData.FIRST_BATCHTAG, TestData.COUNTRY_B);
     Assertions.assertEquals(1, result.size());
     Assertions.assertEquals(TestData.COUNTRY_A, result.get(0).getUploader().getCountry());
-    Assertions.assertEquals(TestData.FIRST_BATCHTAG, result.get(0).getBatchTag());
+    Assertions.assertEquals(TestData.FIRST_BATCHTAG, result.get(0).getUploader().getBatchTag());
 
     result = repository.findByBatchTagIsAndUploader_CountryIsNotOrderByIdAsc(TestData.SECOND_BATCHTAG, TestData.COUNTRY_A);
     Assertions.assertEquals(1, result.size());
     Assertions.assertEquals(TestData.COUNTRY_B, result.get(0).getUploader().getCountry());
-    Assertions.assertEquals(TestData.SECOND_BATCHTAG, result.get(0).getBatchTag());
+    Assertions.assertEquals(TestData.SECOND_BATCHTAG, result.get(0).getUploader().getBatchTag());
 
     result = repository.findByBatchTagIsAndUploader_CountryIsNotOrderByIdAsc(TestData.SECOND_BATCHTAG, TestData.COUNTRY_B);
     Assertions.assertTrue(result.isEmpty());
   }
 
+  @Test
+  public void testStreamByBatchTagIsAndUploaderCountryIsNot() {
+    for (String batchTag : List.of(TestData.FIRST_BATCHTAG, TestData.SECOND_BATCHTAG)) {
+      for (String country : List.of(TestData.COUNTRY_A, TestData.COUNTRY_B)) {
+        List<DiagnosisKeyEntity> expected =
+          repository.findByBatchTagIsAndUploader_CountryIsNotOrderByIdAsc(batchTag, country);
+        List<DiagnosisKeyEntity> result = new ArrayList<>();
+
+        int count = repository.streamByBatchTagIsAndUploaderCountryIsNot(batchTag, country, result::addAll);
+
+        Assertions.assertEquals(expected.size(), count);
+        assertSameKeys(expected, result);
+      }
+    }
+  }
+
+  @Test
+  public void testStreamByUploaderBatchTagIn() {
+    List<DiagnosisKeyEntity> result = new ArrayList<>();
+
+    int count = repository.streamByUploaderBatchTagIn(
+      List.of(TestData.FIRST_BATCHTAG, TestData.SECOND_BATCHTAG), result::addAll);
+
+    Assertions.assertEquals(3, count);
+    assertSameKeys(repository.findAll(Sort.by("id")), result);
+
+    Assertions.assertEquals(0, repository.streamByUploaderBatchTagIn(List.of(), result::addAll));
+  }
+
+  @Test
+  public void testBatchInsertReportsOnlyTheConflictingKeyOfAFailedBatch() {
+    DiagnosisKeyUploadInformationEntity upload = uploadInformationRepository.save(new DiagnosisKeyUploadInformationEntity(
+      null, ZonedDateTime.now(ZoneOffset.UTC), new UploaderInformation("batchInsert", "b", "c", "d", "e")));
+
+    List<DiagnosisKeyEntity> entities = new ArrayList<>();
+    for (String payloadHash : List.of("x", "a", "y")) {
+      DiagnosisKeyEntity entity = TestData.getDiagnosisKeyTestEntityforCreation();
+      entity.setPayloadHash(payloadHash);
+      entity.setCreatedAt(ZonedDateTime.now(ZoneOffset.UTC));
+      entity.setUpload(upload);
+      entities.add(entity);
+    }
+
+    List<InsertStatus> result =
+      new TransactionTemplate(transactionManager).execute(status -> repository.batchInsert(entities));
+
+    Assertions.assertEquals(List.of(InsertStatus.INSERTED, InsertStatus.CONFLICT, InsertStatus.INSERTED), result);
+    Assertions.assertEquals(5, repository.count());
+  }
+
+  private void assertSameKeys(List<DiagnosisKeyEntity> expected, List<DiagnosisKeyEntity> actual) {
+    Assertions.assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      Assertions.assertEquals(expected.get(i).getId(), actual.get(i).getId());
+      Assertions.assertEquals(expected.get(i).getPayload(), actual.get(i).getPayload());
+      Assertions.assertEquals(expected.get(i).getUploader().getBatchTag(), actual.get(i).getUploader().getBatchTag());
+      Assertions.assertEquals(expected.get(i).getUploader().getCountry(), actual.get(i).getUploader().getCountry());
+    }
+  }
+
 
 }
@@ -0,0 +1,154 @@
+/*-
+ * ---license-start
+ * EU-Federation-Gateway-Service / efgs-federation-gateway
+ * ---
+ * Copyright (C) 2020 - 2022 T-Systems International GmbH and all other contributors
+ * ---
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ---license-end
+ */
+
+package eu.interop.federationgateway.service;
+
+import eu.interop.federationgateway.config.EfgsProperties;
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Optional;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class CallbackHostPolicyTest {
+
+  private static final String HOST = "example.org";
+
+  EfgsProperties efgsProperties;
+
+  CallbackHostPolicy callbackHostPolicy;
+
+  @BeforeEach
+  public void setup() {
+    efgsProperties = new EfgsProperties();
+    efgsProperties.getCallback().setRetryWait(10);
+    efgsProperties.getCallback().setMaxRetryWait(100);
+    efgsProperties.getCallback().setCircuitBreakerFailureThreshold(3);
+    efgsProperties.getCallback().setCircuitBreakerOpenDuration(300);
+    efgsProperties.getCallback().setRetryBudgetMinRetries(2);
+    efgsProperties.getCallback().setRetryBudgetRatio(0.5);
+    efgsProperties.getCallback().setRetryBudgetWindow(60);
+
+    callbackHostPolicy = new CallbackHostPolicy(efgsProperties);
+  }
+
+  @Test
+  public void testCircuitOpensAfterFailureThreshold() {
+    for (int i = 0; i < 2; i++) {
+      Assertions.assertTrue(callbackHostPolicy.admit(HOST, false).isEmpty());
+      callbackHostPolicy.onFailure(HOST, false);
+    }
+    Assertions.assertTrue(callbackHostPolicy.admit(HOST, false).isEmpty());
+
+    callbackHostPolicy.onFailure(HOST, false);
+
+    Optional<ZonedDateTime> openUntil = callbackHostPolicy.admit(HOST, false);
+    Assertions.assertTrue(openUntil.isPresent());
+    Assertions.assertTrue(openUntil.get().isAfter(ZonedDateTime.now(ZoneOffset.UTC).plusSeconds(290)));
+    Assertions.assertTrue(callbackHostPolicy.admit("other.example.org", false).isEmpty());
+  }
+
+  @Test
+  public void testSuccessResetsFailures() {
+    callbackHostPolicy.onFailure(HOST, false);
+    callbackHostPolicy.onFailure(HOST, false);
+    callbackHostPolicy.onSuccess(HOST);
+    callbackHostPolicy.onFailure(HOST, false);
+    callbackHostPolicy.onFailure(HOST, false);
+
+    Assertions.assertTrue(callbackHostPolicy.admit(HOST, false).isEmpty());
+  }
+
+  @Test
+  public void testThrottlingDoesNotOpenCircuit() {
+    for (int i = 0; i < 5; i++) {
+      callbackHostPolicy.onFailure(HOST, true);
+    }
+
+    Assertions.assertTrue(callbackHostPolicy.admit(HOST, false).isEmpty());
+  }
+
+  @Test
+  public void testHalfOpenCircuitAllowsSingleTrial() {
+    efgsProperties.getCallback().setCircuitBreakerOpenDuration(0);
+    for (int i = 0; i < 3; i++) {
+      callbackHostPolicy.onFailure(HOST, false);
+    }
+
+    Assertions.assertTrue(callbackHostPolicy.admit(HOST, false).isEmpty());
+    Assertions.assertTrue(callbackHostPolicy.admit(HOST, false).isPresent());
+
+    callbackHostPolicy.onSuccess(HOST);
+
+    Assertions.assertTrue(callbackHostPolicy.admit(HOST, false).isEmpty());
+    Assertions.assertTrue(callbackHostPolicy.admit(HOST, false).isEmpty());
+  }
+
+  @Test
+  public void testFailedTrialReopensCircuit() {
+    efgsProperties.getCallback().setCircuitBreakerOpenDuration(0);
+    for (int i = 0; i < 3; i++) {
+      callbackHostPolicy.onFailure(HOST, false);
+    }
+
+    Assertions.assertTrue(callbackHostPolicy.admit(HOST, false).isEmpty());
+
+    efgsProperties.getCallback().setCircuitBreakerOpenDuration(300);
+    callbackHostPolicy.onFailure(HOST, false);
+
+    Assertions.assertTrue(callbackHostPolicy.admit(HOST, false).isPresent());
+  }
+
+  @Test
+  public void testRetryBudgetIsLimited() {
+    Assertions.assertTrue(callbackHostPolicy.admit(HOST, true).isEmpty());
+    Assertions.assertTrue(callbackHostPolicy.admit(HOST, true).isEmpty());
+    Assertions.assertTrue(callbackHostPolicy.admit(HOST, true).isPresent());
+
+    // every second first attempt earns another retry
+    Assertions.assertTrue(callbackHostPolicy.admit(HOST, false).isEmpty());
+    Assertions.assertTrue(callbackHostPolicy.admit(HOST, false).isEmpty());
+    Assertions.assertTrue(callbackHostPolicy.admit(HOST, true).isEmpty());
+    Assertions.assertTrue(callbackHostPolicy.admit(HOST, true).isPresent());
+  }
+
+  @Test
+  public void testBackoffGrowsExponentiallyWithJitter() {
+    assertBackoffBetween(callbackHostPolicy.getBackoff(1, null), 5, 10);
+    assertBackoffBetween(callbackHostPolicy.getBackoff(2, null), 10, 20);
+    assertBackoffBetween(callbackHostPolicy.getBackoff(3, null), 20, 40);
+    assertBackoffBetween(callbackHostPolicy.getBackoff(10, null), 50, 100);
+    assertBackoffBetween(callbackHostPolicy.getBackoff(100, null), 50, 100);
+  }
+
+  @Test
+  public void testBackoffRespectsRetryAfter() {
+    Assertions.assertEquals(Duration.ofSeconds(60), callbackHostPolicy.getBackoff(1, Duration.ofSeconds(60)));
+    Assertions.assertEquals(Duration.ofSeconds(100), callbackHostPolicy.getBackoff(1, Duration.ofSeconds(1000)));
+    assertBackoffBetween(callbackHostPolicy.getBackoff(1, Duration.ofSeconds(1)), 5, 10);
+  }
+
+  private void assertBackoffBetween(Duration backoff, long minSeconds, long maxSeconds) {
+    Assertions.assertTrue(backoff.compareTo(Duration.ofSeconds(minSeconds)) >= 0, backoff.toString());
+    Assertions.assertTrue(backoff.compareTo(Duration.ofSeconds(maxSeconds)) <= 0, backoff.toString());
+  }
+}
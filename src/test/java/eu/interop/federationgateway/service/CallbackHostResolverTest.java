@@ -0,0 +1,92 @@
+/*-
+ * ---license-start
+ * EU-Federation-Gateway-Service / efgs-federation-gateway
+ * ---
+ * Copyright (C) 2020 - 2022 T-Systems International GmbH and all other contributors
+ * ---
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ---license-end
+ */
+
+package eu.interop.federationgateway.service;
+
+import eu.interop.federationgateway.config.EfgsProperties;
+import io.netty.resolver.AddressResolver;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.List;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class CallbackHostResolverTest {
+
+  CallbackHostResolver callbackHostResolver;
+
+  @BeforeEach
+  public void setup() {
+    callbackHostResolver = new CallbackHostResolver(new EfgsProperties());
+  }
+
+  @Test
+  public void testLocalAddressesAreDetected() throws UnknownHostException {
+    Assertions.assertTrue(CallbackHostResolver.isLocalAddress(InetAddress.getByName("127.0.0.1")));
+    Assertions.assertTrue(CallbackHostResolver.isLocalAddress(InetAddress.getByName("10.2.5.6")));
+    Assertions.assertTrue(CallbackHostResolver.isLocalAddress(InetAddress.getByName("192.168.178.5")));
+    Assertions.assertTrue(CallbackHostResolver.isLocalAddress(InetAddress.getByName("::1")));
+    Assertions.assertFalse(CallbackHostResolver.isLocalAddress(InetAddress.getByName("8.8.8.8")));
+  }
+
+  @Test
+  public void testResolvedAddressIsCached() throws UnknownHostException {
+    InetAddress address = callbackHostResolver.resolve("localhost");
+
+    Assertions.assertSame(address, callbackHostResolver.resolve("localhost"));
+  }
+
+  @Test
+  public void testConnectionToLocalAddressIsRefused() {
+    AddressResolver<InetSocketAddress> resolver =
+      callbackHostResolver.addressResolverGroup().getResolver(ImmediateEventExecutor.INSTANCE);
+
+    Future<InetSocketAddress> localAddress =
+      resolver.resolve(InetSocketAddress.createUnresolved("localhost", 443)).awaitUninterruptibly();
+    Assertions.assertFalse(localAddress.isSuccess());
+    Assertions.assertInstanceOf(UnknownHostException.class, localAddress.cause());
+
+    Future<InetSocketAddress> publicAddress =
+      resolver.resolve(InetSocketAddress.createUnresolved("8.8.8.8", 443)).awaitUninterruptibly();
+    Assertions.assertTrue(publicAddress.isSuccess());
+    Assertions.assertEquals(443, publicAddress.getNow().getPort());
+    Assertions.assertEquals("8.8.8.8", publicAddress.getNow().getAddress().getHostAddress());
+  }
+
+  @Test
+  public void testCachedAddressIsResolvedWithoutLookup() throws UnknownHostException {
+    InetAddress address = callbackHostResolver.resolve("8.8.8.8");
+    AddressResolver<InetSocketAddress> resolver =
+      callbackHostResolver.addressResolverGroup().getResolver(ImmediateEventExecutor.INSTANCE);
+
+    Future<InetSocketAddress> cachedAddress = resolver.resolve(InetSocketAddress.createUnresolved("8.8.8.8", 443));
+    Assertions.assertTrue(cachedAddress.isSuccess());
+    Assertions.assertSame(address, cachedAddress.getNow().getAddress());
+
+    Future<List<InetSocketAddress>> allAddresses =
+      resolver.resolveAll(InetSocketAddress.createUnresolved("8.8.8.8", 443));
+    Assertions.assertTrue(allAddresses.isSuccess());
+    Assertions.assertEquals(1, allAddresses.getNow().size());
+  }
+}
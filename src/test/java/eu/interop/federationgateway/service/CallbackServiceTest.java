@@ -20,14 +20,14 @@
 
 package eu.interop.federationgateway.service;
 
-import static org.mockito.Mockito.verify;
-
 import eu.interop.federationgateway.TestData;
+import eu.interop.federationgateway.entity.CallbackDeliveryEntity;
+import eu.interop.federationgateway.entity.CallbackOutboxEntity;
 import eu.interop.federationgateway.entity.CallbackSubscriptionEntity;
-import eu.interop.federationgateway.entity.CallbackTaskEntity;
 import eu.interop.federationgateway.entity.DiagnosisKeyBatchEntity;
+import eu.interop.federationgateway.repository.CallbackDeliveryRepository;
+import eu.interop.federationgateway.repository.CallbackOutboxRepository;
 import eu.interop.federationgateway.repository.CallbackSubscriptionRepository;
-import eu.interop.federationgateway.repository.CallbackTaskRepository;
 import eu.interop.federationgateway.repository.DiagnosisKeyBatchRepository;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
@@ -37,10 +37,12 @@
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
-import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 @SpringBootTest
 public class CallbackServiceTest {
@@ -49,22 +51,40 @@ public class CallbackServiceTest {
   CallbackSubscriptionRepository callbackSubscriptionRepository;
 
   @Autowired
-  CallbackTaskRepository callbackTaskRepository;
+  CallbackDeliveryRepository callbackDeliveryRepository;
+
+  @Autowired
+  CallbackOutboxRepository callbackOutboxRepository;
 
   @Autowired
   DiagnosisKeyBatchRepository diagnosisKeyBatchRepository;
 
+  @Autowired
+  PlatformTransactionManager transactionManager;
+
+  @Autowired
+  CallbackHostResolver callbackHostResolver;
+
   CallbackService callbackService;
 
+  CallbackTaskExecutorService callbackTaskExecutorServiceMock;
+
   @BeforeEach
   public void setUp() {
-     callbackService = new CallbackService(callbackSubscriptionRepository, callbackTaskRepository);
+    callbackTaskExecutorServiceMock = Mockito.mock(CallbackTaskExecutorService.class);
+
+    StaticListableBeanFactory beanFactory = new StaticListableBeanFactory();
+    beanFactory.addBean("callbackTaskExecutorService", callbackTaskExecutorServiceMock);
+
+    callbackService = new CallbackService(callbackSubscriptionRepository, callbackDeliveryRepository,
+      callbackOutboxRepository, beanFactory.getBeanProvider(CallbackTaskExecutorService.class), callbackHostResolver);
   }
 
   @BeforeEach
   @AfterEach
   public void teardown() {
-    callbackTaskRepository.deleteAll();
+    callbackDeliveryRepository.deleteAll();
+    callbackOutboxRepository.deleteAll();
     diagnosisKeyBatchRepository.deleteAll();
     callbackSubscriptionRepository.deleteAll();
   }
@@ -102,21 +122,13 @@ public void testDeleteCallbackSubscription() {
 
     subscriptionEntity = callbackService.saveCallbackSubscription(subscriptionEntity);
 
-    DiagnosisKeyBatchEntity batch = new DiagnosisKeyBatchEntity(null, ZonedDateTime.now(), "batchTag", null);
-    batch = diagnosisKeyBatchRepository.save(batch);
-
-    CallbackTaskEntity taskEntity = new CallbackTaskEntity(
-      null, ZonedDateTime.now(), null, null, 0, null, batch, subscriptionEntity);
-
-    callbackTaskRepository.save(taskEntity);
-
     Assertions.assertEquals(1, callbackSubscriptionRepository.count());
-    Assertions.assertEquals(1, callbackTaskRepository.count());
+    Assertions.assertEquals(1, callbackDeliveryRepository.count());
 
     callbackService.deleteCallbackSubscription(subscriptionEntity);
 
     Assertions.assertEquals(0, callbackSubscriptionRepository.count());
-    Assertions.assertEquals(0, callbackTaskRepository.count());
+    Assertions.assertEquals(0, callbackDeliveryRepository.count());
   }
 
   @Test
@@ -205,98 +217,78 @@ public void testCheckUrlMethod() {
   }
 
   @Test
-  public void callbackTaskCleanUpShouldCallRepoMethod() {
-    CallbackTaskRepository callbackTaskRepositoryMock = Mockito.mock(CallbackTaskRepository.class);
-    callbackService = new CallbackService(callbackSubscriptionRepository, callbackTaskRepositoryMock);
-
-    ZonedDateTime timestamp = ZonedDateTime.now();
-
-    ArgumentCaptor<ZonedDateTime> captor = ArgumentCaptor.forClass(ZonedDateTime.class);
-
-    callbackService.removeTaskLocksOlderThan(timestamp);
-
-    verify(callbackTaskRepositoryMock).removeTaskLocksOlderThan(captor.capture());
-    Assertions.assertEquals(timestamp, captor.getValue());
-  }
-
-  @Test
-  public void notBeforePropertyShouldBeSetToPreviousCallbackTask() {
-    CallbackSubscriptionEntity callbackSubscription1 = createCallbackSubscriptionEntity("r1");
-    CallbackSubscriptionEntity callbackSubscription2 = createCallbackSubscriptionEntity("r2");
-
-    DiagnosisKeyBatchEntity batch = new DiagnosisKeyBatchEntity(null, ZonedDateTime.now(), "batchTag", "batchTag2");
-    batch = diagnosisKeyBatchRepository.save(batch);
+  public void newSubscriptionShouldOnlyReceiveEventsPublishedAfterItsCreation() {
+    DiagnosisKeyBatchEntity batch = diagnosisKeyBatchRepository.save(
+      new DiagnosisKeyBatchEntity(null, ZonedDateTime.now(), "batchTag", null));
+    CallbackOutboxEntity event = callbackOutboxRepository.save(
+      new CallbackOutboxEntity(null, ZonedDateTime.now(), batch));
 
-    DiagnosisKeyBatchEntity batch2 = new DiagnosisKeyBatchEntity(null, ZonedDateTime.now(), "batchTag2", null);
-    batch2 = diagnosisKeyBatchRepository.save(batch2);
+    CallbackSubscriptionEntity subscription = callbackService.saveCallbackSubscription(new CallbackSubscriptionEntity(
+      null, null, TestData.CALLBACK_ID_FIRST, TestData.CALLBACK_URL_EXAMPLE, TestData.COUNTRY_A));
 
-    callbackService.notifyAllCountriesForNewBatchTag(batch);
-    callbackService.notifyAllCountriesForNewBatchTag(batch2);
+    List<CallbackDeliveryEntity> deliveries = callbackDeliveryRepository.findAll();
+    Assertions.assertEquals(1, deliveries.size());
+    Assertions.assertEquals(subscription.getId(), deliveries.get(0).getCallbackSubscription().getId());
+    Assertions.assertEquals(event.getId(), deliveries.get(0).getLastEventId());
 
-    List<CallbackTaskEntity> callbackTasks = callbackTaskRepository.findAll();
+    // updating the url of an existing subscription keeps its delivery state
+    callbackService.saveCallbackSubscription(new CallbackSubscriptionEntity(
+      null, null, TestData.CALLBACK_ID_FIRST, TestData.CALLBACK_URL_EFGS, TestData.COUNTRY_A));
 
-    Assertions.assertEquals(4, callbackTasks.size());
-    Assertions.assertEquals(callbackSubscription1.getId(), callbackTasks.get(0).getCallbackSubscription().getId());
-    Assertions.assertEquals(callbackSubscription2.getId(), callbackTasks.get(1).getCallbackSubscription().getId());
-    Assertions.assertEquals(callbackSubscription1.getId(), callbackTasks.get(2).getCallbackSubscription().getId());
-    Assertions.assertEquals(callbackSubscription2.getId(), callbackTasks.get(3).getCallbackSubscription().getId());
-
-    Assertions.assertNull(callbackTasks.get(0).getNotBefore());
-    Assertions.assertNull(callbackTasks.get(1).getNotBefore());
-    Assertions.assertEquals(callbackTasks.get(0), callbackTasks.get(2).getNotBefore());
-    Assertions.assertEquals(callbackTasks.get(1), callbackTasks.get(3).getNotBefore());
+    Assertions.assertEquals(1, callbackDeliveryRepository.count());
   }
 
   @Test
-  public void notBeforePropertyShouldBeSetToPreviousCallbackTask2() {
-    callbackTaskRepository.deleteAll();
-    CallbackSubscriptionEntity callbackSubscription1 = createCallbackSubscriptionEntity("r1");
+  public void publishedEventShouldWakeUpDispatcherAfterCommit() {
+    DiagnosisKeyBatchEntity batch = diagnosisKeyBatchRepository.save(
+      new DiagnosisKeyBatchEntity(null, ZonedDateTime.now(), "batchTag", null));
 
-    DiagnosisKeyBatchEntity batch = new DiagnosisKeyBatchEntity(null, ZonedDateTime.now(), "batchTag", "batchTag2");
-    batch = diagnosisKeyBatchRepository.save(batch);
+    TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
 
-    DiagnosisKeyBatchEntity batch2 = new DiagnosisKeyBatchEntity(null, ZonedDateTime.now(), "batchTag2", "batchTag3");
-    batch2 = diagnosisKeyBatchRepository.save(batch2);
+    transactionTemplate.executeWithoutResult(status -> {
+      callbackService.publishBatchSealedEvent(batch);
+      status.setRollbackOnly();
+    });
 
-    DiagnosisKeyBatchEntity batch3 = new DiagnosisKeyBatchEntity(null, ZonedDateTime.now(), "batchTag3", null);
-    batch3 = diagnosisKeyBatchRepository.save(batch3);
+    Assertions.assertEquals(0, callbackOutboxRepository.count());
+    Mockito.verify(callbackTaskExecutorServiceMock, Mockito.never()).wakeUp();
 
-    callbackService.notifyAllCountriesForNewBatchTag(batch);
-    callbackService.notifyAllCountriesForNewBatchTag(batch2);
-    callbackService.notifyAllCountriesForNewBatchTag(batch3);
+    transactionTemplate.executeWithoutResult(status -> {
+      callbackService.publishBatchSealedEvent(batch);
+      Mockito.verify(callbackTaskExecutorServiceMock, Mockito.never()).wakeUp();
+    });
 
-    List<CallbackTaskEntity> callbackTasks = callbackTaskRepository.findAll();
-
-    Assertions.assertEquals(3, callbackTasks.size());
-    Assertions.assertEquals(callbackSubscription1.getId(), callbackTasks.get(0).getCallbackSubscription().getId());
-    Assertions.assertEquals(callbackSubscription1.getId(), callbackTasks.get(1).getCallbackSubscription().getId());
-    Assertions.assertEquals(callbackSubscription1.getId(), callbackTasks.get(2).getCallbackSubscription().getId());
-
-    Assertions.assertNull(callbackTasks.get(0).getNotBefore());
-    Assertions.assertEquals(callbackTasks.get(0), callbackTasks.get(1).getNotBefore());
-    Assertions.assertEquals(callbackTasks.get(1), callbackTasks.get(2).getNotBefore());
+    Assertions.assertEquals(1, callbackOutboxRepository.count());
+    Mockito.verify(callbackTaskExecutorServiceMock).wakeUp();
   }
 
   @Test
-  public void notifiyAllCallbackSubscribersMethodShouldCreateACallbackTaskForEachSubscriber() {
+  public void deliveredOutboxEventsShouldBeDeleted() {
     CallbackSubscriptionEntity callbackSubscription1 = createCallbackSubscriptionEntity("r1");
     CallbackSubscriptionEntity callbackSubscription2 = createCallbackSubscriptionEntity("r2");
-    CallbackSubscriptionEntity callbackSubscription3 = createCallbackSubscriptionEntity("r3");
 
-    DiagnosisKeyBatchEntity batch = new DiagnosisKeyBatchEntity(null, ZonedDateTime.now(), "batchTag", null);
-    batch = diagnosisKeyBatchRepository.save(batch);
+    DiagnosisKeyBatchEntity batch = diagnosisKeyBatchRepository.save(
+      new DiagnosisKeyBatchEntity(null, ZonedDateTime.now(), "batchTag", null));
+    CallbackOutboxEntity event1 = callbackOutboxRepository.save(
+      new CallbackOutboxEntity(null, ZonedDateTime.now(), batch));
+    CallbackOutboxEntity event2 = callbackOutboxRepository.save(
+      new CallbackOutboxEntity(null, ZonedDateTime.now(), batch));
+    CallbackOutboxEntity event3 = callbackOutboxRepository.save(
+      new CallbackOutboxEntity(null, ZonedDateTime.now(), batch));
+
+    callbackDeliveryRepository.save(new CallbackDeliveryEntity(
+      null, ZonedDateTime.now(), callbackSubscription1, event3.getId(), null, null, 0, null, null));
+    callbackDeliveryRepository.save(new CallbackDeliveryEntity(
+      null, ZonedDateTime.now(), callbackSubscription2, event1.getId(), null, null, 0, null, null));
 
-    callbackService.notifyAllCountriesForNewBatchTag(batch);
+    Assertions.assertEquals(1, callbackService.deleteDeliveredOutboxEvents());
+    Assertions.assertEquals(List.of(event2.getId(), event3.getId()),
+      callbackOutboxRepository.findAll().stream().map(CallbackOutboxEntity::getId).sorted().toList());
 
-    List<CallbackTaskEntity> callbackTasks = callbackTaskRepository.findAll();
+    callbackService.deleteCallbackSubscription(callbackSubscription2);
 
-    Assertions.assertEquals(3, callbackTasks.size());
-    Assertions.assertEquals(callbackSubscription1.getId(), callbackTasks.get(0).getCallbackSubscription().getId());
-    Assertions.assertNull(callbackTasks.get(0).getNotBefore());
-    Assertions.assertEquals(callbackSubscription2.getId(), callbackTasks.get(1).getCallbackSubscription().getId());
-    Assertions.assertNull(callbackTasks.get(1).getNotBefore());
-    Assertions.assertEquals(callbackSubscription3.getId(), callbackTasks.get(2).getCallbackSubscription().getId());
-    Assertions.assertNull(callbackTasks.get(2).getNotBefore());
+    Assertions.assertEquals(2, callbackService.deleteDeliveredOutboxEvents());
+    Assertions.assertEquals(0, callbackOutboxRepository.count());
   }
 
   private CallbackSubscriptionEntity createCallbackSubscriptionEntity(String random) {
@@ -0,0 +1,329 @@
+/*-
+ * ---license-start
+ * EU-Federation-Gateway-Service / efgs-federation-gateway
+ * ---
+ * Copyright (C) 2020 - 2022 T-Systems International GmbH and all other contributors
+ * ---
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ---license-end
+ */
+
+package eu.interop.federationgateway.service;
+
+import eu.interop.federationgateway.TestData;
+import eu.interop.federationgateway.config.EfgsProperties;
+import eu.interop.federationgateway.entity.CallbackDeliveryEntity;
+import eu.interop.federationgateway.entity.CallbackOutboxEntity;
+import eu.interop.federationgateway.entity.CallbackSubscriptionEntity;
+import eu.interop.federationgateway.entity.DiagnosisKeyBatchEntity;
+import eu.interop.federationgateway.repository.CallbackDeliveryRepository;
+import eu.interop.federationgateway.repository.CallbackOutboxRepository;
+import eu.interop.federationgateway.repository.CallbackSubscriptionRepository;
+import eu.interop.federationgateway.repository.DiagnosisKeyBatchRepository;
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+
+@SpringBootTest
+public class CallbackTaskExecutorServiceDispatchTest {
+
+  private static final String SLOW_HOST = "slow.example.org";
+
+  private static final String FAILING_HOST = "failing.example.org";
+
+  private static final String THROTTLED_HOST = "throttled.example.org";
+
+  @Autowired
+  EfgsProperties efgsProperties;
+
+  @Autowired
+  CallbackDeliveryRepository callbackDeliveryRepository;
+
+  @Autowired
+  CallbackOutboxRepository callbackOutboxRepository;
+
+  @Autowired
+  CallbackSubscriptionRepository callbackSubscriptionRepository;
+
+  @Autowired
+  DiagnosisKeyBatchRepository diagnosisKeyBatchRepository;
+
+  @Autowired
+  TransactionalCallbackTaskExecutorService transactionalCallbackTaskExecutorService;
+
+  CallbackService callbackServiceMock;
+
+  List<String> requests;
+
+  AtomicInteger inFlight;
+
+  AtomicInteger maxInFlight;
+
+  @BeforeEach
+  public void setup() {
+    requests = Collections.synchronizedList(new ArrayList<>());
+    inFlight = new AtomicInteger();
+    maxInFlight = new AtomicInteger();
+
+    callbackServiceMock = Mockito.mock(CallbackService.class);
+    Mockito.doReturn(true).when(callbackServiceMock).checkUrl(Mockito.anyString(), Mockito.anyString());
+  }
+
+  @BeforeEach
+  @AfterEach
+  public void cleanupDB() {
+    callbackDeliveryRepository.deleteAll();
+    callbackOutboxRepository.deleteAll();
+    callbackSubscriptionRepository.deleteAll();
+    diagnosisKeyBatchRepository.deleteAll();
+  }
+
+  @Test
+  public void slowSubscriptionShouldNotDelayOtherSubscriptions() {
+    createSubscription("slow", SLOW_HOST);
+    createSubscription("fast", "fast.example.org");
+    publishEvents("BT1", "BT2", "BT3");
+
+    createExecutor(this::respond).execute();
+
+    Assertions.assertEquals(List.of("BT1", "BT2", "BT3"), requestedBatchTags(SLOW_HOST));
+    Assertions.assertEquals(List.of("BT1", "BT2", "BT3"), requestedBatchTags("fast.example.org"));
+    Assertions.assertTrue(requests.indexOf("fast.example.org BT3") < requests.indexOf(SLOW_HOST + " BT2"));
+    Assertions.assertEquals(0, countPendingDeliveries());
+  }
+
+  @Test
+  public void concurrentCallbacksShouldBeLimited() {
+    for (int i = 0; i < 10; i++) {
+      createSubscription("cb" + i, SLOW_HOST.replace("slow", "slow" + i));
+    }
+    publishEvents("BT1");
+
+    createExecutor(this::respond).execute();
+
+    Assertions.assertEquals(10, requests.size());
+    Assertions.assertTrue(maxInFlight.get() > 1);
+    Assertions.assertTrue(maxInFlight.get() <= efgsProperties.getCallback().getCoreThreadPoolSize());
+    Assertions.assertEquals(0, countPendingDeliveries());
+  }
+
+  @Test
+  public void wakeUpShouldDispatchInBackground() throws InterruptedException {
+    createSubscription("fast", "fast.example.org");
+    publishEvents("BT1", "BT2");
+
+    CallbackTaskExecutorService executor = createExecutor(this::respond);
+    executor.init();
+    efgsProperties.getCallback().setDispatchOnCommit(true);
+
+    try {
+      executor.wakeUp();
+      executor.wakeUp();
+
+      for (int i = 0; i < 50 && countPendingDeliveries() > 0; i++) {
+        Thread.sleep(100);
+      }
+    } finally {
+      efgsProperties.getCallback().setDispatchOnCommit(false);
+      executor.shutdown();
+    }
+
+    Assertions.assertEquals(0, countPendingDeliveries());
+    Assertions.assertEquals(List.of("BT1", "BT2"), requestedBatchTags("fast.example.org"));
+  }
+
+  @Test
+  public void failedCallbackShouldOnlyStopItsSubscription() {
+    CallbackSubscriptionEntity failing = createSubscription("failing", FAILING_HOST);
+    createSubscription("working", "working.example.org");
+    List<CallbackOutboxEntity> events = publishEvents("BT1", "BT2");
+
+    createExecutor(this::respond).execute();
+
+    Assertions.assertEquals(List.of("BT1"), requestedBatchTags(FAILING_HOST));
+    Assertions.assertEquals(List.of("BT1", "BT2"), requestedBatchTags("working.example.org"));
+
+    CallbackDeliveryEntity failingDelivery = callbackDeliveryRepository.findAll().stream()
+      .filter(delivery -> delivery.getCallbackSubscription().getId().equals(failing.getId()))
+      .findFirst().get();
+
+    Assertions.assertEquals(1, failingDelivery.getRetries());
+    Assertions.assertNotNull(failingDelivery.getLastTry());
+    Assertions.assertTrue(failingDelivery.getNextTry().isAfter(failingDelivery.getLastTry()));
+    Assertions.assertEquals(HttpStatus.INTERNAL_SERVER_ERROR.value(), failingDelivery.getLastStatusCode());
+    Assertions.assertNull(failingDelivery.getExecutionLock());
+    Assertions.assertTrue(failingDelivery.getLastEventId() < events.get(0).getId());
+    Assertions.assertEquals(1, countPendingDeliveries());
+  }
+
+  @Test
+  public void pendingEventsShouldBeCoalescedIntoOneCallback() {
+    createSubscription("backlog", "backlog.example.org");
+    publishEvents("BT1", "BT2", "BT3");
+
+    efgsProperties.getCallback().setCoalesceNotifications(true);
+    try {
+      createExecutor(this::respond).execute();
+      Assertions.assertEquals(List.of("BT1"), requestedBatchTags("backlog.example.org"));
+      Assertions.assertEquals(0, countPendingDeliveries());
+
+      publishEvents("BT4");
+      createExecutor(this::respond).execute();
+    } finally {
+      efgsProperties.getCallback().setCoalesceNotifications(false);
+    }
+
+    Assertions.assertEquals(List.of("BT1", "BT4"), requestedBatchTags("backlog.example.org"));
+    Assertions.assertEquals(0, countPendingDeliveries());
+  }
+
+  @Test
+  public void coalescedCallbackShouldAnnounceFirstBatchOfTheChain() {
+    createSubscription("backlog", "backlog.example.org");
+    // concurrently created batches are not necessarily published in the order of their tags
+    publishEvents("20200101-2", "20200101-1", "20200102-1");
+
+    efgsProperties.getCallback().setCoalesceNotifications(true);
+    try {
+      createExecutor(this::respond).execute();
+    } finally {
+      efgsProperties.getCallback().setCoalesceNotifications(false);
+    }
+
+    Assertions.assertEquals(List.of("20200101-1"), requestedBatchTags("backlog.example.org"));
+    Assertions.assertEquals(0, countPendingDeliveries());
+  }
+
+  @Test
+  public void throttledCallbackShouldRespectRetryAfterWithoutUsingUpRetries() {
+    CallbackSubscriptionEntity throttled = createSubscription("throttled", THROTTLED_HOST);
+    publishEvents("BT1");
+
+    createExecutor(this::respond).execute();
+    ZonedDateTime retryAfter = ZonedDateTime.now(ZoneOffset.UTC).plusSeconds(3500);
+
+    CallbackDeliveryEntity throttledDelivery = callbackDeliveryRepository.findAll().stream()
+      .filter(delivery -> delivery.getCallbackSubscription().getId().equals(throttled.getId()))
+      .findFirst().get();
+
+    Assertions.assertEquals(List.of("BT1"), requestedBatchTags(THROTTLED_HOST));
+    Assertions.assertEquals(0, throttledDelivery.getRetries());
+    Assertions.assertEquals(HttpStatus.TOO_MANY_REQUESTS.value(), throttledDelivery.getLastStatusCode());
+    Assertions.assertTrue(throttledDelivery.getNextTry().isAfter(retryAfter));
+
+    createExecutor(this::respond).execute();
+
+    Assertions.assertEquals(1, requests.size());
+  }
+
+  @Test
+  public void retryAfterHeaderShouldBeParsed() {
+    HttpHeaders headers = new HttpHeaders();
+    Assertions.assertNull(CallbackTaskExecutorService.parseRetryAfter(headers));
+
+    headers.set(HttpHeaders.RETRY_AFTER, "120");
+    Assertions.assertEquals(Duration.ofSeconds(120), CallbackTaskExecutorService.parseRetryAfter(headers));
+
+    headers.set(HttpHeaders.RETRY_AFTER, DateTimeFormatter.RFC_1123_DATE_TIME.format(
+      ZonedDateTime.now(ZoneOffset.UTC).plusMinutes(10)));
+    Duration retryAfter = CallbackTaskExecutorService.parseRetryAfter(headers);
+    Assertions.assertTrue(retryAfter.compareTo(Duration.ofMinutes(9)) > 0);
+    Assertions.assertTrue(retryAfter.compareTo(Duration.ofMinutes(10)) <= 0);
+
+    headers.set(HttpHeaders.RETRY_AFTER, "soon");
+    Assertions.assertNull(CallbackTaskExecutorService.parseRetryAfter(headers));
+  }
+
+  private Mono<ClientResponse> respond(ClientRequest request) {
+    String host = request.url().getHost();
+    requests.add(host + " " + request.url().getQuery().replaceAll("batchTag=([^&]*).*", "$1"));
+
+    maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+
+    HttpStatus status = switch (host) {
+      case FAILING_HOST -> HttpStatus.INTERNAL_SERVER_ERROR;
+      case THROTTLED_HOST -> HttpStatus.TOO_MANY_REQUESTS;
+      default -> HttpStatus.OK;
+    };
+    Duration delay = host.startsWith("slow") ? Duration.ofMillis(500) : Duration.ofMillis(10);
+
+    return Mono.delay(delay)
+      .map(ignored -> ClientResponse.create(status).header(HttpHeaders.RETRY_AFTER, "3600").build())
+      .doFinally(signal -> inFlight.decrementAndGet());
+  }
+
+  private CallbackTaskExecutorService createExecutor(Function<ClientRequest, Mono<ClientResponse>> exchange) {
+    WebClient webClient = WebClient.builder().exchangeFunction(exchange::apply).build();
+
+    return new CallbackTaskExecutorService(efgsProperties, webClient, callbackServiceMock,
+      callbackOutboxRepository, transactionalCallbackTaskExecutorService, new CallbackHostPolicy(efgsProperties));
+  }
+
+  private List<String> requestedBatchTags(String host) {
+    synchronized (requests) {
+      return requests.stream()
+        .filter(request -> request.startsWith(host + " "))
+        .map(request -> request.substring(host.length() + 1))
+        .toList();
+    }
+  }
+
+  private List<CallbackOutboxEntity> publishEvents(String... batchTags) {
+    return Arrays.stream(batchTags)
+      .map(batchTag -> diagnosisKeyBatchRepository.save(
+        new DiagnosisKeyBatchEntity(null, ZonedDateTime.now(ZoneOffset.UTC), batchTag, null)))
+      .map(batch -> callbackOutboxRepository.save(
+        new CallbackOutboxEntity(null, ZonedDateTime.now(ZoneOffset.UTC), batch)))
+      .toList();
+  }
+
+  private long countPendingDeliveries() {
+    Long lastEventId = callbackOutboxRepository.getLastEventId();
+
+    return callbackDeliveryRepository.findAll().stream()
+      .filter(delivery -> delivery.getLastEventId() < lastEventId)
+      .count();
+  }
+
+  private CallbackSubscriptionEntity createSubscription(String callbackId, String host) {
+    CallbackSubscriptionEntity subscription = callbackSubscriptionRepository.save(new CallbackSubscriptionEntity(
+      null, ZonedDateTime.now(ZoneOffset.UTC), callbackId, "https://" + host + "/callback", TestData.COUNTRY_A));
+
+    long lastEventId = callbackOutboxRepository.getLastEventId() == null ? 0 : callbackOutboxRepository.getLastEventId();
+    callbackDeliveryRepository.save(new CallbackDeliveryEntity(
+      null, ZonedDateTime.now(ZoneOffset.UTC), subscription, lastEventId, null, null, 0, null, null));
+
+    return subscription;
+  }
+
+}
@@ -22,12 +22,14 @@
 
 import eu.interop.federationgateway.TestData;
 import eu.interop.federationgateway.config.EfgsProperties;
+import eu.interop.federationgateway.entity.CallbackDeliveryEntity;
+import eu.interop.federationgateway.entity.CallbackOutboxEntity;
 import eu.interop.federationgateway.entity.CallbackSubscriptionEntity;
-import eu.interop.federationgateway.entity.CallbackTaskEntity;
 import eu.interop.federationgateway.entity.DiagnosisKeyBatchEntity;
 import eu.interop.federationgateway.mtls.ForceCertUsageX509KeyManager;
+import eu.interop.federationgateway.repository.CallbackDeliveryRepository;
+import eu.interop.federationgateway.repository.CallbackOutboxRepository;
 import eu.interop.federationgateway.repository.CallbackSubscriptionRepository;
-import eu.interop.federationgateway.repository.CallbackTaskRepository;
 import eu.interop.federationgateway.repository.CertificateRepository;
 import eu.interop.federationgateway.repository.DiagnosisKeyBatchRepository;
 import eu.interop.federationgateway.testconfig.EfgsTestKeyStore;
@@ -40,6 +42,7 @@
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.Optional;
 import javax.net.ssl.KeyManager;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManager;
@@ -76,7 +79,10 @@ public class CallbackTaskExecutorServiceTest {
   CallbackService callbackService;
 
   @Autowired
-  CallbackTaskRepository callbackTaskRepository;
+  CallbackDeliveryRepository callbackDeliveryRepository;
+
+  @Autowired
+  CallbackOutboxRepository callbackOutboxRepository;
 
   @Autowired
   CertificateService certificateService;
@@ -127,10 +133,11 @@ public void setup() throws IOException, NoSuchAlgorithmException, KeyManagementE
       .when(callbackServiceMock).checkUrl(Mockito.anyString(), Mockito.anyString());
 
     TransactionalCallbackTaskExecutorService tctes =
-      new TransactionalCallbackTaskExecutorService(callbackTaskRepository);
+      new TransactionalCallbackTaskExecutorService(callbackDeliveryRepository);
 
     callbackTaskExecutorService = new CallbackTaskExecutorService(
-      efgsProperties, webClient, callbackServiceMock, callbackTaskRepository, tctes);
+      efgsProperties, webClient, callbackServiceMock, callbackOutboxRepository, tctes,
+      new CallbackHostPolicy(efgsProperties));
   }
 
   //@AfterEach
@@ -142,7 +149,8 @@ public void stopWebServer() throws IOException {
   //@BeforeEach
   //@AfterEach
   public void cleanupDB() {
-    callbackTaskRepository.deleteAll();
+    callbackDeliveryRepository.deleteAll();
+    callbackOutboxRepository.deleteAll();
     callbackSubscriptionRepository.deleteAll();
     diagnosisKeyBatchRepository.deleteAll();
   }
@@ -151,14 +159,14 @@ public void cleanupDB() {
   public void callbackExecutorShouldDeleteSubscriptionIfUrlCheckFails() {
     CallbackSubscriptionEntity subscription1 = createSubscription(TestData.CALLBACK_ID_FIRST, TestData.COUNTRY_A);
     DiagnosisKeyBatchEntity batch = createDiagnosisKeyBatch("BT1", ZonedDateTime.now(ZoneOffset.UTC));
-    createCallbackTask(subscription1, batch, null);
+    publishEvent(batch);
 
     Mockito.when(callbackServiceMock.checkUrl(Mockito.anyString(), Mockito.anyString()))
       .thenReturn(false);
 
     callbackTaskExecutorService.execute();
 
-    Assertions.assertEquals(0, callbackTaskRepository.count());
+    Assertions.assertEquals(0, callbackDeliveryRepository.count());
     Assertions.assertEquals(0, callbackSubscriptionRepository.count());
   }
 
@@ -166,17 +174,17 @@ public void callbackExecutorShouldDeleteSubscriptionIfUrlCheckFails() {
   public void callbackExecutorShouldRetryRequestIfCertificateIsMissing() {
     CallbackSubscriptionEntity subscription1 = createSubscription(TestData.CALLBACK_ID_FIRST, TestData.COUNTRY_A);
     DiagnosisKeyBatchEntity batch = createDiagnosisKeyBatch("BT1", ZonedDateTime.now(ZoneOffset.UTC));
-    createCallbackTask(subscription1, batch, null);
+    publishEvent(batch);
 
     certificateRepository.deleteAll();
 
     callbackTaskExecutorService.execute();
 
-    Assertions.assertEquals(1, callbackTaskRepository.findAll().get(0).getRetries());
-    Assertions.assertNotNull(callbackTaskRepository.findAll().get(0).getLastTry());
-    Assertions.assertNull(callbackTaskRepository.findAll().get(0).getExecutionLock());
+    Assertions.assertEquals(1, callbackDeliveryRepository.findAll().get(0).getRetries());
+    Assertions.assertNotNull(callbackDeliveryRepository.findAll().get(0).getLastTry());
+    Assertions.assertNull(callbackDeliveryRepository.findAll().get(0).getExecutionLock());
 
-    Assertions.assertEquals(1, callbackTaskRepository.count());
+    Assertions.assertEquals(1, countPendingDeliveries());
     Assertions.assertEquals(1, callbackSubscriptionRepository.count());
   }
 
@@ -184,7 +192,7 @@ public void callbackExecutorShouldRetryRequestIfCertificateIsMissing() {
   public void callbackExecutorShouldCallCallbackURL() throws InterruptedException {
     CallbackSubscriptionEntity subscription1 = createSubscription(TestData.CALLBACK_ID_FIRST, TestData.COUNTRY_A);
     DiagnosisKeyBatchEntity batch = createDiagnosisKeyBatch("BT1", ZonedDateTime.now(ZoneOffset.UTC));
-    createCallbackTask(subscription1, batch, null);
+    publishEvent(batch);
 
     mockWebServer.enqueue(new MockResponse().setResponseCode(200));
 
@@ -196,12 +204,12 @@ public void callbackExecutorShouldCallCallbackURL() throws InterruptedException
     Assertions.assertEquals(batch.getBatchName(), request.getRequestUrl().queryParameter("batchTag"));
 
 
-    Assertions.assertEquals(0, callbackTaskRepository.count());
+    Assertions.assertEquals(0, countPendingDeliveries());
     Assertions.assertEquals(1, callbackSubscriptionRepository.count());
   }
 
   //@Test
-  public void callbackExecutorShouldCallCallbackURLForMassiveAmountOfCallbackTasks() throws InterruptedException {
+  public void callbackExecutorShouldCallCallbackURLForMassiveAmountOfCallbacks() throws InterruptedException {
     CallbackSubscriptionEntity subscription1 = createSubscription(TestData.CALLBACK_ID_FIRST, TestData.COUNTRY_A);
     DiagnosisKeyBatchEntity batch = createDiagnosisKeyBatch("BT1", ZonedDateTime.now(ZoneOffset.UTC));
 
@@ -210,22 +218,22 @@ public void callbackExecutorShouldCallCallbackURLForMassiveAmountOfCallbackTasks
       .setResponseCode(200);
 
     for (int i = 0; i < 200; i++) {
-      createCallbackTask(subscription1, batch, null);
+      publishEvent(batch);
       mockWebServer.enqueue(response);
       callbackTaskExecutorService.execute();
     }
 
-    Assertions.assertEquals(0, callbackTaskRepository.count());
+    Assertions.assertEquals(0, countPendingDeliveries());
     Assertions.assertEquals(1, callbackSubscriptionRepository.count());
   }
 
   //@Test
-  public void callbackExecutorShouldNotFailWhenMultipleCallbackTasksArePending() throws InterruptedException {
+  public void callbackExecutorShouldNotFailWhenMultipleDeliveriesArePending() throws InterruptedException {
     CallbackSubscriptionEntity subscription1 = createSubscription(TestData.CALLBACK_ID_FIRST, TestData.COUNTRY_A);
     CallbackSubscriptionEntity subscription2 = createSubscription(TestData.CALLBACK_ID_FIRST, TestData.COUNTRY_B);
     DiagnosisKeyBatchEntity batch = createDiagnosisKeyBatch("BT1", ZonedDateTime.now(ZoneOffset.UTC));
-    createCallbackTask(subscription1, batch, null);
-    createCallbackTask(subscription2, batch, null);
+    publishEvent(batch);
+    publishEvent(batch);
 
     mockWebServer.enqueue(new MockResponse().setResponseCode(200));
     mockWebServer.enqueue(new MockResponse().setResponseCode(200));
@@ -240,7 +248,7 @@ public void callbackExecutorShouldNotFailWhenMultipleCallbackTasksArePending() t
     Assertions.assertEquals(getDateString(batch.getCreatedAt()), request.getRequestUrl().queryParameter("date"));
     Assertions.assertEquals(batch.getBatchName(), request.getRequestUrl().queryParameter("batchTag"));
 
-    Assertions.assertEquals(0, callbackTaskRepository.count());
+    Assertions.assertEquals(0, countPendingDeliveries());
     Assertions.assertEquals(2, callbackSubscriptionRepository.count());
   }
 
@@ -248,10 +256,10 @@ public void callbackExecutorShouldNotFailWhenMultipleCallbackTasksArePending() t
   public void callbackExecutorShouldDeleteSubscriptionAfterMaxRetriesIsReached() throws InterruptedException {
     CallbackSubscriptionEntity subscription1 = createSubscription(TestData.CALLBACK_ID_FIRST, TestData.COUNTRY_A);
     DiagnosisKeyBatchEntity batch1 = createDiagnosisKeyBatch("BT1", ZonedDateTime.now(ZoneOffset.UTC));
-    CallbackTaskEntity task = createCallbackTask(subscription1, batch1, null);
+    publishEvent(batch1);
 
     for (int i = 0; i <= efgsProperties.getCallback().getMaxRetries(); i++) {
-      Assertions.assertEquals(1, callbackTaskRepository.count());
+      Assertions.assertEquals(1, countPendingDeliveries());
       Assertions.assertEquals(1, callbackSubscriptionRepository.count());
 
       mockWebServer.enqueue(new MockResponse().setResponseCode(400));
@@ -263,7 +271,7 @@ public void callbackExecutorShouldDeleteSubscriptionAfterMaxRetriesIsReached() t
 
       final int finalI = i;
 
-      callbackTaskRepository.findById(task.getId()).ifPresent(t -> {
+      findDelivery(subscription1).ifPresent(t -> {
         Assertions.assertEquals(finalI + 1, t.getRetries());
         Assertions.assertNotNull(t.getLastTry());
 
@@ -271,11 +279,11 @@ public void callbackExecutorShouldDeleteSubscriptionAfterMaxRetriesIsReached() t
         t.setLastTry(ZonedDateTime.now(ZoneOffset.UTC).minusSeconds(
           efgsProperties.getCallback().getRetryWait() + 60
         ));
-        callbackTaskRepository.save(t);
+        callbackDeliveryRepository.save(t);
       });
     }
 
-    Assertions.assertEquals(0, callbackTaskRepository.count());
+    Assertions.assertEquals(0, callbackDeliveryRepository.count());
     Assertions.assertEquals(0, callbackSubscriptionRepository.count());
   }
 
@@ -286,10 +294,10 @@ public void callbackExecutorShouldProcessMultipleTasksInCorrectOrder() throws In
     DiagnosisKeyBatchEntity batch2 = createDiagnosisKeyBatch("BT2", ZonedDateTime.now(ZoneOffset.UTC));
     DiagnosisKeyBatchEntity batch3 = createDiagnosisKeyBatch("BT3", ZonedDateTime.now(ZoneOffset.UTC));
     DiagnosisKeyBatchEntity batch4 = createDiagnosisKeyBatch("BT4", ZonedDateTime.now(ZoneOffset.UTC));
-    CallbackTaskEntity task1 = createCallbackTask(subscription1, batch1, null);
-    CallbackTaskEntity task2 = createCallbackTask(subscription1, batch2, task1);
-    CallbackTaskEntity task3 = createCallbackTask(subscription1, batch3, task2);
-    createCallbackTask(subscription1, batch4, task3);
+    CallbackOutboxEntity event1 = publishEvent(batch1);
+    publishEvent(batch2);
+    publishEvent(batch3);
+    publishEvent(batch4);
 
     mockWebServer.enqueue(new MockResponse().setResponseCode(200));
     mockWebServer.enqueue(new MockResponse().setResponseCode(400));
@@ -306,19 +314,19 @@ public void callbackExecutorShouldProcessMultipleTasksInCorrectOrder() throws In
     Assertions.assertEquals(batch2.getBatchName(), request.getRequestUrl().queryParameter("batchTag"));
 
     // checking if last try property is set
-    task2 = callbackTaskRepository.findById(task2.getId()).get();
-    Assertions.assertNotNull(task2.getLastTry());
-    Assertions.assertNull(task2.getNotBefore());
+    CallbackDeliveryEntity delivery = findDelivery(subscription1).get();
+    Assertions.assertNotNull(delivery.getLastTry());
+    Assertions.assertEquals(event1.getId(), delivery.getLastEventId());
 
     // second request failed --> no more callbacks should be executed until timeout is reached
     callbackTaskExecutorService.execute();
     Assertions.assertEquals(2, mockWebServer.getRequestCount());
 
     // modify lastTry property to skip wait time
-    task2.setLastTry(ZonedDateTime.now(ZoneOffset.UTC).minusSeconds(
+    delivery.setLastTry(ZonedDateTime.now(ZoneOffset.UTC).minusSeconds(
       efgsProperties.getCallback().getRetryWait() + 60
     ));
-    callbackTaskRepository.save(task2);
+    callbackDeliveryRepository.save(delivery);
 
     mockWebServer.enqueue(new MockResponse().setResponseCode(200));
     mockWebServer.enqueue(new MockResponse().setResponseCode(200));
@@ -338,7 +346,7 @@ public void callbackExecutorShouldProcessMultipleTasksInCorrectOrder() throws In
     Assertions.assertEquals(getDateString(batch4.getCreatedAt()), request.getRequestUrl().queryParameter("date"));
     Assertions.assertEquals(batch4.getBatchName(), request.getRequestUrl().queryParameter("batchTag"));
 
-    Assertions.assertEquals(0, callbackTaskRepository.count());
+    Assertions.assertEquals(0, countPendingDeliveries());
     Assertions.assertEquals(1, callbackSubscriptionRepository.count());
   }
 
@@ -346,55 +354,55 @@ public void callbackExecutorShouldProcessMultipleTasksInCorrectOrder() throws In
   public void callbackExecutorShouldMarkTaskForRetryOnFailedRequest() {
     CallbackSubscriptionEntity subscription1 = createSubscription(TestData.CALLBACK_ID_FIRST, TestData.COUNTRY_A);
     DiagnosisKeyBatchEntity batch = createDiagnosisKeyBatch("BT1", ZonedDateTime.now(ZoneOffset.UTC));
-    createCallbackTask(subscription1, batch, null);
+    publishEvent(batch);
 
     mockWebServer.enqueue(new MockResponse().setResponseCode(404));
 
     callbackTaskExecutorService.execute();
 
-    Assertions.assertEquals(1, callbackTaskRepository.findAll().get(0).getRetries());
-    Assertions.assertNotNull(callbackTaskRepository.findAll().get(0).getLastTry());
-    Assertions.assertNull(callbackTaskRepository.findAll().get(0).getExecutionLock());
+    Assertions.assertEquals(1, callbackDeliveryRepository.findAll().get(0).getRetries());
+    Assertions.assertNotNull(callbackDeliveryRepository.findAll().get(0).getLastTry());
+    Assertions.assertNull(callbackDeliveryRepository.findAll().get(0).getExecutionLock());
 
-    Assertions.assertEquals(1, callbackTaskRepository.count());
+    Assertions.assertEquals(1, countPendingDeliveries());
     Assertions.assertEquals(1, callbackSubscriptionRepository.count());
   }
 
   //@Test
-  public void callbackExecutorShouldRemoveNotBeforeFromNextTaskOnSuccess() {
+  public void callbackExecutorShouldMoveDeliveryToNextEventOnSuccess() {
     CallbackSubscriptionEntity subscription1 = createSubscription(TestData.CALLBACK_ID_FIRST, TestData.COUNTRY_A);
     DiagnosisKeyBatchEntity batch = createDiagnosisKeyBatch("BT1", ZonedDateTime.now(ZoneOffset.UTC).minusMinutes(1));
     DiagnosisKeyBatchEntity batch2 = createDiagnosisKeyBatch("BT2", ZonedDateTime.now(ZoneOffset.UTC));
-    CallbackTaskEntity task1 = createCallbackTask(subscription1, batch, null);
-    createCallbackTask(subscription1, batch2, task1);
+    CallbackOutboxEntity event1 = publishEvent(batch);
+    publishEvent(batch2);
 
     mockWebServer.enqueue(new MockResponse().setResponseCode(200));
-    mockWebServer.enqueue(new MockResponse().setResponseCode(400)); // let the second request fail to check if notBefore is removed
+    mockWebServer.enqueue(new MockResponse().setResponseCode(400)); // let the second request fail to check the cursor
 
     callbackTaskExecutorService.execute();
 
-    Assertions.assertEquals(1, callbackTaskRepository.count());
+    Assertions.assertEquals(1, countPendingDeliveries());
     Assertions.assertEquals(1, callbackSubscriptionRepository.count());
 
-    Assertions.assertNull(callbackTaskRepository.findAll().get(0).getNotBefore());
+    Assertions.assertEquals(event1.getId(), findDelivery(subscription1).get().getLastEventId());
   }
 
   //@Test
-  public void callbackExecutorShoulNotRemoveNotBeforeFromNextTaskOnFailure() {
+  public void callbackExecutorShoulNotMoveDeliveryOnFailure() {
     CallbackSubscriptionEntity subscription1 = createSubscription(TestData.CALLBACK_ID_FIRST, TestData.COUNTRY_A);
     DiagnosisKeyBatchEntity batch = createDiagnosisKeyBatch("BT1", ZonedDateTime.now(ZoneOffset.UTC).minusMinutes(1));
     DiagnosisKeyBatchEntity batch2 = createDiagnosisKeyBatch("BT2", ZonedDateTime.now(ZoneOffset.UTC));
-    CallbackTaskEntity task1 = createCallbackTask(subscription1, batch, null);
-    createCallbackTask(subscription1, batch2, task1);
+    CallbackOutboxEntity event1 = publishEvent(batch);
+    publishEvent(batch2);
 
     mockWebServer.enqueue(new MockResponse().setResponseCode(400));
 
     callbackTaskExecutorService.execute();
 
-    Assertions.assertEquals(2, callbackTaskRepository.count());
+    Assertions.assertEquals(1, countPendingDeliveries());
     Assertions.assertEquals(1, callbackSubscriptionRepository.count());
 
-    Assertions.assertEquals(task1.getId(), callbackTaskRepository.findAll().get(1).getNotBefore().getId());
+    Assertions.assertTrue(findDelivery(subscription1).get().getLastEventId() < event1.getId());
   }
 
   private DiagnosisKeyBatchEntity createDiagnosisKeyBatch(String batchTag, ZonedDateTime created_at) {
@@ -405,12 +413,22 @@ private DiagnosisKeyBatchEntity createDiagnosisKeyBatch(String batchTag, ZonedDa
     return diagnosisKeyBatchRepository.save(batch);
   }
 
-  private CallbackTaskEntity createCallbackTask(CallbackSubscriptionEntity subscription, DiagnosisKeyBatchEntity batch, CallbackTaskEntity notBefore) {
-    CallbackTaskEntity task = new CallbackTaskEntity(
-      null, ZonedDateTime.now(ZoneOffset.UTC), null, null, 0, notBefore, batch, subscription
-    );
+  private CallbackOutboxEntity publishEvent(DiagnosisKeyBatchEntity batch) {
+    return callbackOutboxRepository.save(new CallbackOutboxEntity(null, ZonedDateTime.now(ZoneOffset.UTC), batch));
+  }
 
-    return callbackTaskRepository.save(task);
+  private Optional<CallbackDeliveryEntity> findDelivery(CallbackSubscriptionEntity subscription) {
+    return callbackDeliveryRepository.findAll().stream()
+      .filter(delivery -> delivery.getCallbackSubscription().getId().equals(subscription.getId()))
+      .findFirst();
+  }
+
+  private long countPendingDeliveries() {
+    long lastEventId = Optional.ofNullable(callbackOutboxRepository.getLastEventId()).orElse(0L);
+
+    return callbackDeliveryRepository.findAll().stream()
+      .filter(delivery -> delivery.getLastEventId() < lastEventId)
+      .count();
   }
 
   private CallbackSubscriptionEntity createSubscription(String callbackId, String country) {
@@ -418,7 +436,13 @@ private CallbackSubscriptionEntity createSubscription(String callbackId, String
       null, ZonedDateTime.now(ZoneOffset.UTC), callbackId, mockCallbackUrl, country
     );
 
-    return callbackSubscriptionRepository.save(subscription);
+    subscription = callbackSubscriptionRepository.save(subscription);
+
+    long lastEventId = Optional.ofNullable(callbackOutboxRepository.getLastEventId()).orElse(0L);
+    callbackDeliveryRepository.save(new CallbackDeliveryEntity(
+      null, ZonedDateTime.now(ZoneOffset.UTC), subscription, lastEventId, null, null, 0, null, null));
+
+    return subscription;
   }
 
   private String getDateString(ZonedDateTime timestamp) {
@@ -38,6 +38,7 @@
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.test.context.ContextConfiguration;
 
 @Slf4j
@@ -50,6 +51,9 @@ public class CertificateServiceTest {
 
   @Autowired
   CertificateService certificateService;
+
+  @Autowired
+  JdbcTemplate jdbcTemplate;
   
   @BeforeEach
   public void setup() throws CertificateException, SignatureException, NoSuchAlgorithmException, IOException, OperatorCreationException, InvalidKeyException {
@@ -126,4 +130,85 @@ public void certificateRepositoryShouldNotReturnCertificateIfIntegrityOfThumbpri
     certOptional = certificateService.getCertificate(anotherCertOptional.get().getThumbprint(), TestData.AUTH_CERT_COUNTRY, CertificateEntity.CertificateType.SIGNING);
     Assertions.assertTrue(certOptional.isEmpty());
   }
+
+  @Test
+  public void certificateServiceShouldCacheValidatedCertificates() {
+    Optional<CertificateEntity> certOptional = certificateService.getCertificate(TestData.validCertificateHash, TestData.AUTH_CERT_COUNTRY, CertificateEntity.CertificateType.SIGNING);
+    Assertions.assertTrue(certOptional.isPresent());
+    Assertions.assertFalse(certOptional.get().getRevoked());
+
+    // changes bypassing JPA are only visible after the cache entry is evicted
+    jdbcTemplate.update("UPDATE certificate SET revoked = true WHERE thumbprint = ?", TestData.validCertificateHash);
+
+    certOptional = certificateService.getCertificate(TestData.validCertificateHash, TestData.AUTH_CERT_COUNTRY, CertificateEntity.CertificateType.SIGNING);
+    Assertions.assertTrue(certOptional.isPresent());
+    Assertions.assertFalse(certOptional.get().getRevoked());
+
+    // modifying a returned certificate does not modify the cached certificate
+    certOptional.get().setRevoked(true);
+
+    certOptional = certificateService.getCertificate(TestData.validCertificateHash, TestData.AUTH_CERT_COUNTRY, CertificateEntity.CertificateType.SIGNING);
+    Assertions.assertFalse(certOptional.get().getRevoked());
+
+    certificateService.evictAll();
+
+    certOptional = certificateService.getCertificate(TestData.validCertificateHash, TestData.AUTH_CERT_COUNTRY, CertificateEntity.CertificateType.SIGNING);
+    Assertions.assertTrue(certOptional.isPresent());
+    Assertions.assertTrue(certOptional.get().getRevoked());
+  }
+
+  @Test
+  public void certificateServiceShouldEvictCachedCertificateWhenItIsChanged() {
+    Optional<CertificateEntity> certOptional = certificateService.getCertificate(TestData.validCertificateHash, TestData.AUTH_CERT_COUNTRY, CertificateEntity.CertificateType.SIGNING);
+    Assertions.assertTrue(certOptional.isPresent());
+
+    CertificateEntity cert = certificateRepository.findById(certOptional.get().getId()).get();
+    cert.setRevoked(true);
+    certificateRepository.save(cert);
+
+    certOptional = certificateService.getCertificate(TestData.validCertificateHash, TestData.AUTH_CERT_COUNTRY, CertificateEntity.CertificateType.SIGNING);
+    Assertions.assertTrue(certOptional.isPresent());
+    Assertions.assertTrue(certOptional.get().getRevoked());
+
+    certificateRepository.delete(cert);
+
+    certOptional = certificateService.getCertificate(TestData.validCertificateHash, TestData.AUTH_CERT_COUNTRY, CertificateEntity.CertificateType.SIGNING);
+    Assertions.assertTrue(certOptional.isEmpty());
+  }
+
+  @Test
+  public void certificateServiceShouldEvictCachedCertificatesWhenTheyAreRevokedInTheDatabase() {
+    certificateService.evictChangedCertificates();
+
+    Optional<CertificateEntity> certOptional = certificateService.getCertificate(TestData.validCertificateHash, TestData.AUTH_CERT_COUNTRY, CertificateEntity.CertificateType.SIGNING);
+    Assertions.assertTrue(certOptional.isPresent());
+    Assertions.assertFalse(certOptional.get().getRevoked());
+
+    // an unchanged certificate table keeps the cached lookups
+    certificateService.evictChangedCertificates();
+    jdbcTemplate.update("UPDATE certificate SET host = 'changed' WHERE thumbprint = ?", TestData.validCertificateHash);
+    certificateService.evictChangedCertificates();
+
+    certOptional = certificateService.getCertificate(TestData.validCertificateHash, TestData.AUTH_CERT_COUNTRY, CertificateEntity.CertificateType.SIGNING);
+    Assertions.assertNotEquals("changed", certOptional.get().getHost());
+
+    jdbcTemplate.update("UPDATE certificate SET revoked = true WHERE thumbprint = ?", TestData.validCertificateHash);
+    certificateService.evictChangedCertificates();
+
+    certOptional = certificateService.getCertificate(TestData.validCertificateHash, TestData.AUTH_CERT_COUNTRY, CertificateEntity.CertificateType.SIGNING);
+    Assertions.assertTrue(certOptional.isPresent());
+    Assertions.assertTrue(certOptional.get().getRevoked());
+  }
+
+  @Test
+  public void certificateServiceShouldEvictCachedUnknownCertificateWhenItIsAdded() throws Exception {
+    String authCertThumbprint = CertificateUtils.getCertThumbprint(TestData.validAuthenticationCertificate);
+    certificateRepository.deleteAll();
+
+    Assertions.assertTrue(certificateService.getAuthenticationCertificate(authCertThumbprint).isEmpty());
+
+    TestData.insertCertificatesForAuthentication(certificateRepository);
+
+    Assertions.assertTrue(certificateService.getAuthenticationCertificate(authCertThumbprint).isPresent());
+  }
 }
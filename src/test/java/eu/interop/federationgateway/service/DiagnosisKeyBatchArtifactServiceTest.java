@@ -0,0 +1,306 @@
+/*-
+ * ---license-start
+ * EU-Federation-Gateway-Service / efgs-federation-gateway
+ * ---
+ * Copyright (C) 2020 - 2022 T-Systems International GmbH and all other contributors
+ * ---
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ---license-end
+ */
+
+package eu.interop.federationgateway.service;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.protobuf.ByteString;
+import eu.interop.federationgateway.TestData;
+import eu.interop.federationgateway.config.EfgsProperties;
+import eu.interop.federationgateway.config.ProtobufConverter;
+import eu.interop.federationgateway.entity.DiagnosisKeyBatchArtifactEntity;
+import eu.interop.federationgateway.entity.DiagnosisKeyBatchEntity;
+import eu.interop.federationgateway.entity.DiagnosisKeyEntity;
+import eu.interop.federationgateway.mapper.DiagnosisKeyMapper;
+import eu.interop.federationgateway.model.DiagnosisKeyBatchArtifact;
+import eu.interop.federationgateway.model.EfgsProto;
+import eu.interop.federationgateway.repository.DiagnosisKeyBatchArtifactRepository;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.Optional;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+public class DiagnosisKeyBatchArtifactServiceTest {
+
+  private static final String COUNTRY_A = "DE";
+
+  private static final String COUNTRY_B = "FR";
+
+  private static final EfgsProto.DiagnosisKey KEY = EfgsProto.DiagnosisKey.newBuilder()
+    .setKeyData(ByteString.copyFrom(new byte[] {1, 2, 3}))
+    .setRollingStartIntervalNumber(1)
+    .setOrigin("DK")
+    .build();
+
+  private DiagnosisKeyEntityService diagnosisKeyEntityServiceMock;
+
+  private DiagnosisKeyMapper diagnosisKeyMapperMock;
+
+  private DiagnosisKeyBatchArtifactRepository artifactRepositoryMock;
+
+  private EfgsProperties properties;
+
+  private DiagnosisKeyBatchArtifactService artifactService;
+
+  @BeforeEach
+  public void setup() {
+    diagnosisKeyEntityServiceMock = Mockito.mock(DiagnosisKeyEntityService.class);
+    diagnosisKeyMapperMock = Mockito.mock(DiagnosisKeyMapper.class);
+    artifactRepositoryMock = Mockito.mock(DiagnosisKeyBatchArtifactRepository.class);
+
+    properties = new EfgsProperties();
+    properties.getDownloadSettings().setMaxAgeInDays(2);
+
+    artifactService = new DiagnosisKeyBatchArtifactService(
+      diagnosisKeyEntityServiceMock, diagnosisKeyMapperMock, artifactRepositoryMock, properties);
+    artifactService.init();
+  }
+
+  @AfterEach
+  public void tearDown() {
+    artifactService.shutdown();
+  }
+
+  @Test
+  public void testStoredArtifactIsLoadedOncePerCountry() {
+    DiagnosisKeyBatchEntity batch = createBatch(42L, ZonedDateTime.now(ZoneOffset.UTC));
+    storeArtifact(42L, COUNTRY_A);
+    storeArtifact(42L, COUNTRY_B);
+
+    DiagnosisKeyBatchArtifact artifact = artifactService.findArtifact(batch, COUNTRY_A).orElseThrow();
+    Assertions.assertSame(artifact, artifactService.findArtifact(batch, COUNTRY_A).orElseThrow());
+    artifactService.findArtifact(batch, COUNTRY_B);
+    artifactService.findArtifact(batch, COUNTRY_B);
+
+    Assertions.assertArrayEquals(new byte[] {1}, artifact.getProtobuf());
+    Assertions.assertArrayEquals(new byte[] {2}, artifact.getJson());
+    Assertions.assertEquals(7, artifact.getNumberOfKeys());
+    verify(artifactRepositoryMock, times(1)).findFirstByBatchIdAndCountry(42L, COUNTRY_A);
+    verify(artifactRepositoryMock, times(1)).findFirstByBatchIdAndCountry(42L, COUNTRY_B);
+  }
+
+  @Test
+  public void testLeastRecentlyUsedArtifactIsEvictedIfCacheIsFull() {
+    DiagnosisKeyBatchEntity batch1 = createBatch(1L, ZonedDateTime.now(ZoneOffset.UTC));
+    DiagnosisKeyBatchEntity batch2 = createBatch(2L, ZonedDateTime.now(ZoneOffset.UTC));
+    DiagnosisKeyBatchEntity batch3 = createBatch(3L, ZonedDateTime.now(ZoneOffset.UTC));
+    storeArtifact(1L, COUNTRY_A);
+    storeArtifact(2L, COUNTRY_A);
+    storeArtifact(3L, COUNTRY_A);
+
+    long artifactSize = artifactService.findArtifact(batch1, COUNTRY_A).orElseThrow().getSize();
+    properties.getDownloadSettings().getArtifactCache().setMaxSizeInBytes(artifactSize * 2);
+
+    artifactService.findArtifact(batch2, COUNTRY_A);
+    artifactService.findArtifact(batch1, COUNTRY_A);
+    artifactService.findArtifact(batch3, COUNTRY_A);
+    artifactService.findArtifact(batch1, COUNTRY_A);
+    artifactService.findArtifact(batch2, COUNTRY_A);
+
+    verify(artifactRepositoryMock, times(1)).findFirstByBatchIdAndCountry(1L, COUNTRY_A);
+    verify(artifactRepositoryMock, times(2)).findFirstByBatchIdAndCountry(2L, COUNTRY_A);
+    verify(artifactRepositoryMock, times(1)).findFirstByBatchIdAndCountry(3L, COUNTRY_A);
+  }
+
+  @Test
+  public void testArtifactOfExpiredBatchIsNotCached() {
+    DiagnosisKeyBatchEntity batch = createBatch(42L, ZonedDateTime.now(ZoneOffset.UTC).minusDays(3));
+    storeArtifact(42L, COUNTRY_A);
+
+    artifactService.findArtifact(batch, COUNTRY_A);
+    artifactService.findArtifact(batch, COUNTRY_A);
+
+    verify(artifactRepositoryMock, times(2)).findFirstByBatchIdAndCountry(42L, COUNTRY_A);
+  }
+
+  @Test
+  public void testEvictBatchesCreatedBefore() {
+    ZonedDateTime now = ZonedDateTime.now(ZoneOffset.UTC);
+    DiagnosisKeyBatchEntity oldBatch = createBatch(1L, now.minusHours(2));
+    DiagnosisKeyBatchEntity newBatch = createBatch(2L, now);
+    storeArtifact(1L, COUNTRY_A);
+    storeArtifact(2L, COUNTRY_A);
+
+    artifactService.findArtifact(oldBatch, COUNTRY_A);
+    artifactService.findArtifact(newBatch, COUNTRY_A);
+
+    artifactService.evictBatchesCreatedBefore(now.minusHours(1));
+
+    artifactService.findArtifact(oldBatch, COUNTRY_A);
+    artifactService.findArtifact(newBatch, COUNTRY_A);
+
+    verify(artifactRepositoryMock, times(2)).findFirstByBatchIdAndCountry(1L, COUNTRY_A);
+    verify(artifactRepositoryMock, times(1)).findFirstByBatchIdAndCountry(2L, COUNTRY_A);
+  }
+
+  @Test
+  public void testStoredArtifactForAllCountriesIsUsedForOtherCountries() {
+    DiagnosisKeyBatchEntity batch = createBatch(42L, ZonedDateTime.now(ZoneOffset.UTC));
+    storeArtifact(42L, null);
+
+    DiagnosisKeyBatchArtifact artifact = artifactService.findArtifact(batch, COUNTRY_A).orElseThrow();
+
+    Assertions.assertEquals(7, artifact.getNumberOfKeys());
+    verify(artifactRepositoryMock).findFirstByBatchIdAndCountry(42L, COUNTRY_A);
+    verify(artifactRepositoryMock).findFirstByBatchIdAndCountryIsNull(42L);
+  }
+
+  @Test
+  public void testFindArtifactNeverRendersArtifacts() {
+    DiagnosisKeyBatchEntity batch = createBatch(42L, ZonedDateTime.now(ZoneOffset.UTC));
+
+    Assertions.assertTrue(artifactService.findArtifact(batch, COUNTRY_A).isEmpty());
+    Assertions.assertTrue(artifactService.findArtifact(batch, COUNTRY_A).isEmpty());
+
+    verify(artifactRepositoryMock, times(2)).findFirstByBatchIdAndCountry(42L, COUNTRY_A);
+    Mockito.verifyNoInteractions(diagnosisKeyEntityServiceMock, diagnosisKeyMapperMock);
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testPrecomputeArtifactsPerUploaderCountry() throws IOException {
+    DiagnosisKeyBatchEntity batch = createBatch(42L, ZonedDateTime.now(ZoneOffset.UTC).minusMinutes(5));
+
+    List<DiagnosisKeyEntity> entities = List.of(
+      createEntity(COUNTRY_A), createEntity(COUNTRY_B), createEntity(null), createEntity(COUNTRY_A));
+    List<EfgsProto.DiagnosisKey> keys = List.of(
+      KEY.toBuilder().setOrigin("o1").build(),
+      KEY.toBuilder().setOrigin("o2").build(),
+      KEY.toBuilder().setOrigin("o3").build(),
+      KEY.toBuilder().setOrigin("o4").build());
+    for (int i = 0; i < entities.size(); i++) {
+      entities.get(i).setId((long) i);
+      when(diagnosisKeyMapperMock.entityToProto(entities.get(i))).thenReturn(keys.get(i));
+    }
+    when(diagnosisKeyEntityServiceMock.getUploaderCountriesOfUploads(List.of("upload1", "upload2")))
+      .thenReturn(List.of(COUNTRY_A, COUNTRY_B));
+    when(diagnosisKeyEntityServiceMock.streamDiagnosisKeysOfUploads(eq(List.of("upload1", "upload2")), any()))
+      .thenAnswer(invocation -> {
+        DiagnosisKeyEntityService.DiagnosisKeyEntityConsumer consumer = invocation.getArgument(1);
+        for (DiagnosisKeyEntity entity : entities) {
+          consumer.accept(entity);
+        }
+        return entities.size();
+      });
+
+    artifactService.precomputeArtifacts(batch, List.of("upload1", "upload2")).join();
+
+    ArgumentCaptor<List<DiagnosisKeyBatchArtifactEntity>> captor = ArgumentCaptor.forClass(List.class);
+    verify(artifactRepositoryMock).saveAll(captor.capture());
+    List<DiagnosisKeyBatchArtifactEntity> artifacts = captor.getValue();
+
+    Assertions.assertEquals(3, artifacts.size());
+    assertArtifact(artifacts.get(0), batch, COUNTRY_A, keys.get(1));
+    assertArtifact(artifacts.get(1), batch, COUNTRY_B, keys.get(0), keys.get(3));
+    assertArtifact(artifacts.get(2), batch, null, keys.get(0), keys.get(1), keys.get(3));
+    verify(diagnosisKeyEntityServiceMock, times(0)).getDiagnosisKeysBatchForCountry(any(), any());
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testPrecomputeArtifactsOfBatchWithoutDownloadableKeys() {
+    DiagnosisKeyBatchEntity batch = createBatch(42L, ZonedDateTime.now(ZoneOffset.UTC));
+    when(diagnosisKeyEntityServiceMock.getUploaderCountriesOfUploads(List.of("upload1"))).thenReturn(List.of());
+
+    artifactService.precomputeArtifacts(batch, List.of("upload1")).join();
+
+    ArgumentCaptor<List<DiagnosisKeyBatchArtifactEntity>> captor = ArgumentCaptor.forClass(List.class);
+    verify(artifactRepositoryMock).saveAll(captor.capture());
+    Assertions.assertEquals(1, captor.getValue().size());
+    assertArtifact(captor.getValue().get(0), batch, null);
+  }
+
+  @Test
+  public void testFailedPrecomputationIsNotPropagated() throws IOException {
+    when(diagnosisKeyEntityServiceMock.getUploaderCountriesOfUploads(any())).thenReturn(List.of(COUNTRY_A));
+    when(diagnosisKeyEntityServiceMock.streamDiagnosisKeysOfUploads(any(), any())).thenThrow(new IOException());
+
+    artifactService.precomputeArtifacts(createBatch(42L, ZonedDateTime.now(ZoneOffset.UTC)), List.of("upload1"))
+      .join();
+
+    verify(artifactRepositoryMock, times(0)).saveAll(any());
+  }
+
+  @Test
+  public void testPrecomputeArtifactsCanBeDisabled() throws IOException {
+    properties.getDownloadSettings().getArtifactCache().setPrecompute(false);
+
+    artifactService.precomputeArtifacts(createBatch(42L, ZonedDateTime.now(ZoneOffset.UTC)), List.of("upload1"))
+      .join();
+
+    verify(diagnosisKeyEntityServiceMock, times(0)).streamDiagnosisKeysOfUploads(any(), any());
+    verify(artifactRepositoryMock, times(0)).saveAll(any());
+  }
+
+  private static void assertArtifact(DiagnosisKeyBatchArtifactEntity artifact, DiagnosisKeyBatchEntity batch,
+                                     String country, EfgsProto.DiagnosisKey... expectedKeys) {
+    EfgsProto.DiagnosisKeyBatch expected = EfgsProto.DiagnosisKeyBatch.newBuilder()
+      .addAllKeys(List.of(expectedKeys))
+      .build();
+    ByteArrayOutputStream expectedJson = new ByteArrayOutputStream();
+    try {
+      new ProtobufConverter().print(expected, expectedJson);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+
+    Assertions.assertEquals(42L, artifact.getBatchId());
+    Assertions.assertEquals(batch.getCreatedAt(), artifact.getCreatedAt());
+    Assertions.assertEquals(country, artifact.getCountry());
+    Assertions.assertEquals(expectedKeys.length, artifact.getNumberOfKeys());
+    Assertions.assertArrayEquals(expected.toByteArray(), artifact.getProtobuf());
+    Assertions.assertArrayEquals(expectedJson.toByteArray(), artifact.getJson());
+  }
+
+  private static DiagnosisKeyEntity createEntity(String uploaderCountry) {
+    DiagnosisKeyEntity entity = TestData.getDiagnosisKeyTestEntityforCreation();
+    entity.getUploader().setCountry(uploaderCountry);
+    return entity;
+  }
+
+  private void storeArtifact(long batchId, String country) {
+    DiagnosisKeyBatchArtifactEntity storedArtifact = new DiagnosisKeyBatchArtifactEntity(
+      1L, ZonedDateTime.now(ZoneOffset.UTC), batchId, country, 7, new byte[] {1}, new byte[] {2});
+
+    if (country == null) {
+      when(artifactRepositoryMock.findFirstByBatchIdAndCountryIsNull(batchId)).thenReturn(Optional.of(storedArtifact));
+    } else {
+      when(artifactRepositoryMock.findFirstByBatchIdAndCountry(batchId, country)).thenReturn(Optional.of(storedArtifact));
+    }
+  }
+
+  private static DiagnosisKeyBatchEntity createBatch(long id, ZonedDateTime createdAt) {
+    return new DiagnosisKeyBatchEntity(id, createdAt, "batch" + id, null, 2);
+  }
+}
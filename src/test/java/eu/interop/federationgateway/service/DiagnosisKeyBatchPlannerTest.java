@@ -0,0 +1,113 @@
+/*-
+ * ---license-start
+ * EU-Federation-Gateway-Service / efgs-federation-gateway
+ * ---
+ * Copyright (C) 2020 - 2022 T-Systems International GmbH and all other contributors
+ * ---
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ---license-end
+ */
+
+package eu.interop.federationgateway.service;
+
+import eu.interop.federationgateway.model.UnbatchedUpload;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class DiagnosisKeyBatchPlannerTest {
+
+  private static final String FIRST_UPLOAD = "upload1";
+
+  @Test
+  public void testNoUploads() {
+    Assertions.assertTrue(DiagnosisKeyBatchPlanner.planNextBatch(List.of(), 10).isEmpty());
+  }
+
+  @Test
+  public void testBatchIsFilledAsMuchAsPossible() {
+    List<UnbatchedUpload> uploads = List.of(
+      upload(FIRST_UPLOAD, 4, 0),
+      upload("upload2", 5, 0),
+      upload("upload3", 3, 0),
+      upload("upload4", 3, 0));
+
+    // taking the uploads in order would stop at 9 keys, 4 + 3 + 3 fills the batch
+    Assertions.assertEquals(List.of(FIRST_UPLOAD, "upload3", "upload4"), plan(uploads, 10));
+  }
+
+  @Test
+  public void testOlderUploadsArePreferred() {
+    List<UnbatchedUpload> uploads = List.of(
+      upload(FIRST_UPLOAD, 4, 0),
+      upload("upload2", 3, 0),
+      upload("upload3", 3, 0),
+      upload("upload4", 3, 0));
+
+    Assertions.assertEquals(List.of(FIRST_UPLOAD, "upload2", "upload3"), plan(uploads, 10));
+  }
+
+  @Test
+  public void testOldestUploadIsAlwaysBatched() {
+    List<UnbatchedUpload> uploads = List.of(
+      upload(FIRST_UPLOAD, 2, 0),
+      upload("upload2", 9, 0),
+      upload("upload3", 8, 0));
+
+    Assertions.assertEquals(List.of(FIRST_UPLOAD, "upload3"), plan(uploads, 10));
+  }
+
+  @Test
+  public void testFormatsAreNotMixed() {
+    List<UnbatchedUpload> uploads = List.of(
+      upload(FIRST_UPLOAD, 2, 0),
+      upload("upload2", 2, 1),
+      upload("upload3", 2, 0));
+
+    Assertions.assertEquals(List.of(FIRST_UPLOAD, "upload3"), plan(uploads, 10));
+  }
+
+  @Test
+  public void testOversizedUploadGetsOwnBatch() {
+    List<UnbatchedUpload> uploads = List.of(
+      upload(FIRST_UPLOAD, 12, 0),
+      upload("upload2", 2, 0));
+
+    Assertions.assertEquals(List.of(FIRST_UPLOAD), plan(uploads, 10));
+  }
+
+  @Test
+  public void testNumberOfCandidatesIsBounded() {
+    List<UnbatchedUpload> uploads = new ArrayList<>();
+    uploads.add(upload(FIRST_UPLOAD, 1, 0));
+    for (int i = 0; i < DiagnosisKeyBatchPlanner.MAX_CANDIDATES + 10; i++) {
+      uploads.add(upload("upload" + (i + 2), 1, 0));
+    }
+
+    List<String> batch = plan(uploads, 5000);
+
+    Assertions.assertEquals(DiagnosisKeyBatchPlanner.MAX_CANDIDATES + 1, batch.size());
+    Assertions.assertEquals(FIRST_UPLOAD, batch.get(0));
+  }
+
+  private static List<String> plan(List<UnbatchedUpload> uploads, int doclimit) {
+    return DiagnosisKeyBatchPlanner.planNextBatch(uploads, doclimit).stream()
+      .map(UnbatchedUpload::getUploaderBatchTag)
+      .toList();
+  }
+
+  private static UnbatchedUpload upload(String uploaderBatchTag, int numberOfKeys, int formatMinorVersion) {
+    return new UnbatchedUpload(uploaderBatchTag, 1, formatMinorVersion, numberOfKeys, 0);
+  }
+}
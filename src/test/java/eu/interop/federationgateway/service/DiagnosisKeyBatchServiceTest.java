@@ -23,23 +23,40 @@
 import eu.interop.federationgateway.TestData;
 import eu.interop.federationgateway.config.EfgsProperties;
 import eu.interop.federationgateway.entity.DiagnosisKeyBatchEntity;
+import eu.interop.federationgateway.entity.DiagnosisKeyBatchMembershipEntity;
+import eu.interop.federationgateway.entity.DiagnosisKeyBatchSequenceEntity;
 import eu.interop.federationgateway.entity.DiagnosisKeyEntity;
+import eu.interop.federationgateway.repository.DiagnosisKeyBatchMembershipRepository;
 import eu.interop.federationgateway.repository.DiagnosisKeyBatchRepository;
+import eu.interop.federationgateway.repository.DiagnosisKeyBatchSequenceRepository;
 import eu.interop.federationgateway.repository.DiagnosisKeyEntityRepository;
+import eu.interop.federationgateway.repository.DiagnosisKeyUploadInformationRepository;
+import java.time.Duration;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
 import lombok.extern.slf4j.Slf4j;
+import net.javacrumbs.shedlock.core.ClockProvider;
+import net.javacrumbs.shedlock.core.LockConfiguration;
+import net.javacrumbs.shedlock.core.LockProvider;
+import net.javacrumbs.shedlock.core.SimpleLock;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.Mockito;
 import org.mockito.internal.stubbing.answers.AnswersWithDelay;
 import org.mockito.internal.stubbing.defaultanswers.ReturnsEmptyValues;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 /**
  * This is the test class for the batch service.
@@ -60,23 +77,52 @@ public class DiagnosisKeyBatchServiceTest {
   @Autowired
   private DiagnosisKeyEntityRepository keyRepository;
   @Autowired
+  private DiagnosisKeyBatchMembershipRepository membershipRepository;
+  @Autowired
+  private DiagnosisKeyUploadInformationRepository uploadInformationRepository;
+  @Autowired
+  private DiagnosisKeyBatchSequenceRepository sequenceRepository;
+  @Autowired
   private EfgsProperties efgsProperties;
   @Autowired
+  private LockProvider lockProvider;
+  @Autowired
+  private TransactionalDiagnosisKeyBatchService transactionalBeanBatchService;
+  @Autowired
   private DiagnosisKeyBatchRepository diagnosisKeyBatchRepository;
+  @Autowired
+  private PlatformTransactionManager transactionManager;
   private DiagnosisKeyBatchService batchService;
 
   private TransactionalDiagnosisKeyBatchService transactionalBatchService;
 
+  private DiagnosisKeyBatchSequenceService sequenceService;
+
   private CallbackService callbackServiceMock;
 
+  private DiagnosisKeyBatchArtifactService artifactServiceMock;
+
   @BeforeEach
   public void before() {
     batchRepository.deleteAll();
     keyRepository.deleteAll();
+    membershipRepository.deleteAll();
+    uploadInformationRepository.deleteAll();
+    sequenceRepository.deleteAll();
 
     callbackServiceMock = Mockito.mock(CallbackService.class);
-    transactionalBatchService = new TransactionalDiagnosisKeyBatchService(efgsProperties, keyRepository, batchRepository, callbackServiceMock);
-    batchService = new DiagnosisKeyBatchService(efgsProperties, batchRepository, transactionalBatchService);
+    artifactServiceMock = Mockito.mock(DiagnosisKeyBatchArtifactService.class);
+    sequenceService = Mockito.spy(new DiagnosisKeyBatchSequenceService(sequenceRepository, batchRepository));
+    transactionalBatchService = new TransactionalDiagnosisKeyBatchService(
+      efgsProperties, membershipRepository, batchRepository, callbackServiceMock, artifactServiceMock, sequenceService);
+    batchService = new DiagnosisKeyBatchService(
+      efgsProperties, batchRepository, membershipRepository, transactionalBatchService, sequenceService, lockProvider);
+    batchService.init();
+  }
+
+  @AfterEach
+  public void after() {
+    batchService.shutdown();
   }
 
   /**
@@ -89,7 +135,7 @@ public void before() {
   public void testBatchDocumentsByEmptyRepo() throws Exception {
     log.info("process testBatchDocumentsByEmptyRepo()");
     // save test keys
-    List<DiagnosisKeyEntity> entries = keyRepository.saveAll(TestData.createTestDiagKeysWithoutBatchTag());
+    List<DiagnosisKeyEntity> entries = saveUploads(TestData.createTestDiagKeysWithoutBatchTag(), null);
 
     batchService.batchDocuments();
 
@@ -99,9 +145,9 @@ public void testBatchDocumentsByEmptyRepo() throws Exception {
     Assertions.assertNull(batchRepository.findAll().get(0).getBatchLink());
     Assertions.assertEquals(formattedDate + "-1", batchRepository.findAll().get(0).getBatchName());
     Assertions.assertEquals(3, keyRepository.count(), "error to find 3 test keys");
-    Assertions.assertEquals(formattedDate + "-1", keyRepository.findAll().get(0).getBatchTag());
-    Assertions.assertEquals(formattedDate + "-1", keyRepository.findAll().get(1).getBatchTag());
-    Assertions.assertEquals(formattedDate + "-1", keyRepository.findAll().get(2).getBatchTag());
+    Assertions.assertEquals(formattedDate + "-1", batchTagOf(keyRepository.findAll().get(0)));
+    Assertions.assertEquals(formattedDate + "-1", batchTagOf(keyRepository.findAll().get(1)));
+    Assertions.assertEquals(formattedDate + "-1", batchTagOf(keyRepository.findAll().get(2)));
   }
 
   /**
@@ -114,8 +160,8 @@ public void testBatchDocumentsByEmptyRepo() throws Exception {
   public void testBatchDocumentsByFilledRepos() throws Exception {
     log.info("process testBatchDocumentsByFilledRepos()");
     // save test keys
-    keyRepository.saveAll(TestData.createTestDiagKeysWithoutBatchTag());
-    keyRepository.saveAll(TestData.createTestDiagKeyWithBatchTag());
+    saveUploads(TestData.createTestDiagKeysWithoutBatchTag(), null);
+    saveUploads(TestData.createTestDiagKeyWithBatchTag(), TestData.TEST_BATCH_TAG_2015616);
 
     String batchName = formattedDate + "-1";
     batchRepository.save(new DiagnosisKeyBatchEntity(null, ZonedDateTime.now(ZoneOffset.UTC), batchName, null));
@@ -125,18 +171,42 @@ public void testBatchDocumentsByFilledRepos() throws Exception {
     Assertions.assertEquals(2, batchRepository.count(), "error batch repo expect 2 entries");
 
     // check repos
-    Assertions.assertEquals(formattedDate + "-2", batchRepository.findAll().get(0).getBatchLink());
+    Assertions.assertEquals(formattedDate + "-2", batchService.getNextBatchTag(batchRepository.findAll().get(0)));
     Assertions.assertEquals(formattedDate + "-2", batchRepository.findAll().get(1).getBatchName());
 
     Assertions.assertEquals(4, keyRepository.count(), "error to find 4 test keys");
-    Assertions.assertEquals(formattedDate + "-2", keyRepository.findAll().get(0).getBatchTag());
-    Assertions.assertEquals(formattedDate + "-2", keyRepository.findAll().get(1).getBatchTag());
-    Assertions.assertEquals(formattedDate + "-2", keyRepository.findAll().get(2).getBatchTag());
-    Assertions.assertEquals(TestData.TEST_BATCH_TAG_2015616, keyRepository.findAll().get(3).getBatchTag());
+    Assertions.assertEquals(formattedDate + "-2", batchTagOf(keyRepository.findAll().get(0)));
+    Assertions.assertEquals(formattedDate + "-2", batchTagOf(keyRepository.findAll().get(1)));
+    Assertions.assertEquals(formattedDate + "-2", batchTagOf(keyRepository.findAll().get(2)));
+    Assertions.assertEquals(TestData.TEST_BATCH_TAG_2015616, batchTagOf(keyRepository.findAll().get(3)));
 
     ArgumentCaptor<DiagnosisKeyBatchEntity> captor = ArgumentCaptor.forClass(DiagnosisKeyBatchEntity.class);
-    Mockito.verify(callbackServiceMock).notifyAllCountriesForNewBatchTag(captor.capture());
+    Mockito.verify(callbackServiceMock).publishBatchSealedEvent(captor.capture());
     Assertions.assertEquals(formattedDate + "-2", captor.getValue().getBatchName());
+
+    Mockito.verify(artifactServiceMock).precomputeArtifacts(Mockito.eq(captor.getValue()), Mockito.argThat(tags ->
+      Set.copyOf(tags).equals(Set.of("uploaderBatchTag_DE", "uploaderBatchTag_NL"))));
+  }
+
+  @Test
+  public void artifactsShouldBePrecomputedAfterTheBatchIsCommitted() throws Exception {
+    saveUploads(TestData.createTestDiagKeysWithoutBatchTag(), null);
+
+    // a separate connection can only see the batch once it is committed
+    AtomicLong committedBatchesWhileRendering = new AtomicLong(-1);
+    Mockito.doAnswer(invocation -> {
+      committedBatchesWhileRendering.set(CompletableFuture.supplyAsync(batchRepository::count).join());
+      return null;
+    }).when(artifactServiceMock).precomputeArtifacts(Mockito.any(), Mockito.any());
+
+    sequenceService.createSequenceOfDay(currentDateTime.toLocalDate());
+    new TransactionTemplate(transactionManager).execute(status -> transactionalBatchService.createNextBatch());
+
+    Assertions.assertEquals(1, committedBatchesWhileRendering.get());
+
+    InOrder inOrder = Mockito.inOrder(artifactServiceMock, callbackServiceMock);
+    inOrder.verify(callbackServiceMock).publishBatchSealedEvent(Mockito.any());
+    inOrder.verify(artifactServiceMock).precomputeArtifacts(Mockito.any(), Mockito.any());
   }
 
   /**
@@ -149,11 +219,11 @@ public void testBatchDocumentsByFilledRepos() throws Exception {
   public void testBatchDocumentsForLimitation() throws Exception {
     log.info("process testBatchDocumentsForLimitation()");
     // save test keys
-    keyRepository.saveAll(TestData.createTestDiagKeysList(5, "uploaderBatchTag_DE", "DE"));
-    keyRepository.saveAll(TestData.createTestDiagKeysList(5, "uploaderBatchTag_PL", "PL"));
-    keyRepository.saveAll(TestData.createTestDiagKeysList(5, "uploaderBatchTag_ES", "ES"));
-    keyRepository.saveAll(TestData.createTestDiagKeysList(5, "uploaderBatchTag_BG", "BG"));
-    keyRepository.saveAll(TestData.createTestDiagKeysList(3, "uploaderBatchTag_BG_1", "BG1"));
+    saveUploads(TestData.createTestDiagKeysList(5, "uploaderBatchTag_DE", "DE"), null);
+    saveUploads(TestData.createTestDiagKeysList(5, "uploaderBatchTag_PL", "PL"), null);
+    saveUploads(TestData.createTestDiagKeysList(5, "uploaderBatchTag_ES", "ES"), null);
+    saveUploads(TestData.createTestDiagKeysList(5, "uploaderBatchTag_BG", "BG"), null);
+    saveUploads(TestData.createTestDiagKeysList(3, "uploaderBatchTag_BG_1", "BG1"), null);
 
     batchRepository.deleteAll();
 
@@ -163,60 +233,256 @@ public void testBatchDocumentsForLimitation() throws Exception {
     Assertions.assertEquals(4, batchRepository.count());
 
     // check repos
-    Assertions.assertEquals(formattedDate + "-2", batchRepository.findAll().get(0).getBatchLink());
+    Assertions.assertEquals(formattedDate + "-2", batchService.getNextBatchTag(batchRepository.findAll().get(0)));
     Assertions.assertEquals(formattedDate + "-2", batchRepository.findAll().get(1).getBatchName());
 
     Assertions.assertEquals(23, keyRepository.count(), "error to find 23 test keys");
-    Assertions.assertEquals(formattedDate + "-1", keyRepository.findAll().get(0).getBatchTag());
-    Assertions.assertEquals(formattedDate + "-2", keyRepository.findAll().get(5).getBatchTag());
-    Assertions.assertEquals(formattedDate + "-3", keyRepository.findAll().get(10).getBatchTag());
-    Assertions.assertEquals(formattedDate + "-4", keyRepository.findAll().get(17).getBatchTag());
+    Assertions.assertEquals(formattedDate + "-1", batchTagOf(keyRepository.findAll().get(0)));
+    Assertions.assertEquals(formattedDate + "-2", batchTagOf(keyRepository.findAll().get(5)));
+    Assertions.assertEquals(formattedDate + "-3", batchTagOf(keyRepository.findAll().get(10)));
+    Assertions.assertEquals(formattedDate + "-4", batchTagOf(keyRepository.findAll().get(17)));
+  }
+
+  @Test
+  public void batchTagsShouldContinueTheSequenceOfTheDay() throws Exception {
+    sequenceRepository.save(new DiagnosisKeyBatchSequenceEntity(currentDateTime.toLocalDate(), 5));
+    saveUploads(TestData.createTestDiagKeysList(5, "uploaderBatchTag_DE", "DE"), null);
+    saveUploads(TestData.createTestDiagKeysList(5, "uploaderBatchTag_PL", "PL"), null);
+
+    batchService.batchDocuments();
+
+    Assertions.assertEquals(2, batchRepository.count());
+    Assertions.assertEquals(7, sequenceRepository.getLastSequence(currentDateTime.toLocalDate()));
+
+    DiagnosisKeyBatchEntity firstBatch = batchRepository.findByBatchName(formattedDate + "-6").orElseThrow();
+    DiagnosisKeyBatchEntity secondBatch = batchRepository.findByBatchName(formattedDate + "-7").orElseThrow();
+    Assertions.assertNull(firstBatch.getBatchLink());
+    Assertions.assertEquals(formattedDate + "-7", batchService.getNextBatchTag(firstBatch));
+    Assertions.assertNull(batchService.getNextBatchTag(secondBatch));
+  }
+
+  @Test
+  public void batchingShouldCreateAMissingSequenceOfTheDayAndRetry() throws Exception {
+    // e.g. the day changed after the batching process created the sequence of the previous day
+    Mockito.doNothing().doCallRealMethod().when(sequenceService).createSequenceOfDay(Mockito.any());
+    saveUploads(TestData.createTestDiagKeysList(5, "uploaderBatchTag_DE", "DE"), null);
+
+    batchService.batchDocuments();
+
+    Assertions.assertEquals(1, batchRepository.count());
+    Assertions.assertTrue(batchRepository.findByBatchName(formattedDate + "-1").isPresent());
+    Assertions.assertEquals(1, sequenceRepository.getLastSequence(currentDateTime.toLocalDate()));
+    Mockito.verify(sequenceService, Mockito.times(2)).createSequenceOfDay(currentDateTime.toLocalDate());
+  }
+
+  @Test
+  public void batchTagsShouldBeOrderedBySequenceNumber() {
+    ZonedDateTime startOfDay = currentDateTime.toLocalDate().atStartOfDay(ZoneOffset.UTC);
+    for (int sequence : List.of(10, 2, 9, 11)) {
+      batchRepository.save(new DiagnosisKeyBatchEntity(
+        null, startOfDay.plusSeconds(sequence), formattedDate + "-" + sequence, null, 5));
+    }
+
+    Assertions.assertEquals(formattedDate + "-2", batchService.getFirstBatchTagOfTheDay(currentDateTime.toLocalDate()));
+    Assertions.assertEquals(formattedDate + "-9",
+      batchService.getNextBatchTag(batchRepository.findByBatchName(formattedDate + "-2").orElseThrow()));
+    Assertions.assertEquals(formattedDate + "-10",
+      batchService.getNextBatchTag(batchRepository.findByBatchName(formattedDate + "-9").orElseThrow()));
+    Assertions.assertNull(
+      batchService.getNextBatchTag(batchRepository.findByBatchName(formattedDate + "-11").orElseThrow()));
+
+    sequenceService.createSequenceOfDay(currentDateTime.toLocalDate());
+    Assertions.assertEquals(11, sequenceRepository.getLastSequence(currentDateTime.toLocalDate()));
+  }
+
+  @Test
+  public void firstBatchOfTheDayShouldBeTheLowestTagOfOverlappingUnits() {
+    // unit A created its batch first, but unit B allocated its tag first
+    ZonedDateTime startOfDay = currentDateTime.toLocalDate().atStartOfDay(ZoneOffset.UTC);
+    DiagnosisKeyBatchEntity unitA = batchRepository.save(
+      new DiagnosisKeyBatchEntity(null, startOfDay.plusSeconds(1), formattedDate + "-2", null, 5));
+    DiagnosisKeyBatchEntity unitB = batchRepository.save(
+      new DiagnosisKeyBatchEntity(null, startOfDay.plusSeconds(2), formattedDate + "-1", null, 5));
+
+    Assertions.assertEquals(unitB.getBatchName(), batchService.getFirstBatchTagOfTheDay(currentDateTime.toLocalDate()));
+    Assertions.assertEquals(unitA.getBatchName(), batchService.getNextBatchTag(unitB));
+    Assertions.assertNull(batchService.getNextBatchTag(unitA));
+  }
+
+  @Test
+  public void lastBatchOfTheDayShouldBeFollowedByFirstBatchOfTheNextDayWithBatches() {
+    ZonedDateTime today = currentDateTime.toLocalDate().atStartOfDay(ZoneOffset.UTC);
+    ZonedDateTime twoDaysAgo = today.minusDays(2);
+    String formattedTwoDaysAgo = twoDaysAgo.format(DateTimeFormatter.ofPattern("yyyyMMdd"));
+
+    DiagnosisKeyBatchEntity lastBatchOfTwoDaysAgo = batchRepository.save(
+      new DiagnosisKeyBatchEntity(null, twoDaysAgo.plusHours(1), formattedTwoDaysAgo + "-1", null, 5));
+    batchRepository.save(new DiagnosisKeyBatchEntity(null, today.plusSeconds(1), formattedDate + "-2", null, 5));
+    DiagnosisKeyBatchEntity firstBatchOfToday = batchRepository.save(
+      new DiagnosisKeyBatchEntity(null, today.plusSeconds(2), formattedDate + "-1", null, 5));
+
+    Assertions.assertEquals(firstBatchOfToday.getBatchName(), batchService.getNextBatchTag(lastBatchOfTwoDaysAgo));
+    Assertions.assertEquals(firstBatchOfToday.getBatchName(),
+      batchService.getFirstBatchTagOfTheDay(twoDaysAgo.toLocalDate().plusDays(1)));
   }
 
   @Test
   public void diagnosisKeysFormatVersionShouldNotBeMixed() throws Exception {
     // save test keys
-    keyRepository.saveAll(TestData.createTestDiagKeysList(2, "uploaderBatchTag_DE", "DE", 1, 0));
-    keyRepository.saveAll(TestData.createTestDiagKeysList(2, "uploaderBatchTag_PL", "PL", 1, 0));
-    keyRepository.saveAll(TestData.createTestDiagKeysList(2, "uploaderBatchTag_ES", "ES", 1, 1));
-    keyRepository.saveAll(TestData.createTestDiagKeysList(2, "uploaderBatchTag_BG", "BG", 1, 0));
+    saveUploads(TestData.createTestDiagKeysList(2, "uploaderBatchTag_DE", "DE", 1, 0), null);
+    saveUploads(TestData.createTestDiagKeysList(2, "uploaderBatchTag_PL", "PL", 1, 0), null);
+    saveUploads(TestData.createTestDiagKeysList(2, "uploaderBatchTag_ES", "ES", 1, 1), null);
+    saveUploads(TestData.createTestDiagKeysList(2, "uploaderBatchTag_BG", "BG", 1, 0), null);
 
     batchRepository.deleteAll();
 
     batchService.batchDocuments();
 
-    // Expect 3 batches: 1: DE,PL 2: ES 3: BG
-    Assertions.assertEquals(3, batchRepository.count());
+    // Expect 2 batches: 1: DE,PL,BG 2: ES
+    Assertions.assertEquals(2, batchRepository.count());
 
     Assertions.assertEquals(formattedDate + "-1", batchRepository.findAll().get(0).getBatchName());
     Assertions.assertEquals(formattedDate + "-2", batchRepository.findAll().get(1).getBatchName());
-    Assertions.assertEquals(formattedDate + "-3", batchRepository.findAll().get(2).getBatchName());
 
 
-    Assertions.assertEquals(formattedDate + "-1", keyRepository.findAll().get(0).getBatchTag());
-    Assertions.assertEquals(formattedDate + "-1", keyRepository.findAll().get(1).getBatchTag());
-    Assertions.assertEquals(formattedDate + "-1", keyRepository.findAll().get(2).getBatchTag());
-    Assertions.assertEquals(formattedDate + "-1", keyRepository.findAll().get(3).getBatchTag());
+    Assertions.assertEquals(formattedDate + "-1", batchTagOf(keyRepository.findAll().get(0)));
+    Assertions.assertEquals(formattedDate + "-1", batchTagOf(keyRepository.findAll().get(1)));
+    Assertions.assertEquals(formattedDate + "-1", batchTagOf(keyRepository.findAll().get(2)));
+    Assertions.assertEquals(formattedDate + "-1", batchTagOf(keyRepository.findAll().get(3)));
 
-    Assertions.assertEquals(formattedDate + "-2", keyRepository.findAll().get(4).getBatchTag());
-    Assertions.assertEquals(formattedDate + "-2", keyRepository.findAll().get(5).getBatchTag());
+    Assertions.assertEquals(formattedDate + "-2", batchTagOf(keyRepository.findAll().get(4)));
+    Assertions.assertEquals(formattedDate + "-2", batchTagOf(keyRepository.findAll().get(5)));
 
-    Assertions.assertEquals(formattedDate + "-3", keyRepository.findAll().get(6).getBatchTag());
-    Assertions.assertEquals(formattedDate + "-3", keyRepository.findAll().get(7).getBatchTag());
+    Assertions.assertEquals(formattedDate + "-1", batchTagOf(keyRepository.findAll().get(6)));
+    Assertions.assertEquals(formattedDate + "-1", batchTagOf(keyRepository.findAll().get(7)));
   }
 
+  @Test
+  public void workUnitsLockedByAnotherNodeShouldBeSkipped() throws Exception {
+    saveUploads(TestData.createTestDiagKeysList(2, "uploaderBatchTag_DE", "DE", 1, 0), null);
+    saveUploads(TestData.createTestDiagKeysList(2, "uploaderBatchTag_ES", "ES", 1, 1), null);
+
+    SimpleLock lock = lockProvider.lock(new LockConfiguration(ClockProvider.now(),
+      "DiagnosisKeyBatchService_batchDocuments_1.0_0", Duration.ofMinutes(1), Duration.ZERO)).orElseThrow();
+
+    try {
+      batchService.batchDocuments();
+    } finally {
+      lock.unlock();
+    }
+
+    Assertions.assertEquals(1, batchRepository.count());
+    Assertions.assertNull(batchTagOf(keyRepository.findAll().get(0)));
+    Assertions.assertEquals(formattedDate + "-1", batchTagOf(keyRepository.findAll().get(2)));
+
+    batchService.batchDocuments();
+
+    Assertions.assertEquals(2, batchRepository.count());
+    Assertions.assertEquals(formattedDate + "-2", batchTagOf(keyRepository.findAll().get(0)));
+  }
+
+  @Test
+  public void concurrentlyCreatedBatchesShouldHaveDistinctTags() throws Exception {
+    efgsProperties.getBatching().setThreads(4);
+    efgsProperties.getBatching().setShards(4);
+
+    // the transactional bean is needed, so every batch is created in its own transaction
+    DiagnosisKeyBatchService concurrentBatchService = new DiagnosisKeyBatchService(efgsProperties, batchRepository,
+      membershipRepository, transactionalBeanBatchService, sequenceService, lockProvider);
+    concurrentBatchService.init();
+
+    try {
+      for (int i = 0; i < 20; i++) {
+        saveUploads(TestData.createTestDiagKeysList(3, "uploaderBatchTag_" + i, "DE", 1, i % 2), null);
+      }
+
+      concurrentBatchService.batchDocuments();
+    } finally {
+      concurrentBatchService.shutdown();
+      efgsProperties.getBatching().setThreads(1);
+      efgsProperties.getBatching().setShards(1);
+    }
+
+    Assertions.assertEquals(0, membershipRepository.countUnbatchedKeys());
+
+    List<String> batchTags = batchRepository.findAll().stream().map(DiagnosisKeyBatchEntity::getBatchName).toList();
+    Assertions.assertEquals(batchTags.size(), Set.copyOf(batchTags).size());
+    for (int i = 1; i <= batchTags.size(); i++) {
+      Assertions.assertTrue(batchTags.contains(formattedDate + "-" + i));
+    }
+  }
+
+  @Test
+  public void batchesShouldBeFilledWithUploadsWhichFit() throws Exception {
+    // save test keys
+    saveUploads(TestData.createTestDiagKeysList(5, "uploaderBatchTag_DE", "DE"), null);
+    saveUploads(TestData.createTestDiagKeysList(6, "uploaderBatchTag_PL", "PL"), null);
+    saveUploads(TestData.createTestDiagKeysList(2, "uploaderBatchTag_ES", "ES"), null);
+    saveUploads(TestData.createTestDiagKeysList(2, "uploaderBatchTag_BG", "BG"), null);
+
+    batchRepository.deleteAll();
+
+    batchService.batchDocuments();
+
+    // Expect 2 batches: 1: DE,ES,BG (9 keys) 2: PL (6 keys)
+    Assertions.assertEquals(2, batchRepository.count());
+
+    List<DiagnosisKeyEntity> keys = keyRepository.findAll();
+    Assertions.assertEquals(formattedDate + "-1", batchTagOf(keys.get(0)));
+    Assertions.assertEquals(formattedDate + "-2", batchTagOf(keys.get(5)));
+    Assertions.assertEquals(formattedDate + "-1", batchTagOf(keys.get(11)));
+    Assertions.assertEquals(formattedDate + "-1", batchTagOf(keys.get(13)));
+  }
+
+  @Test
+  public void batchingShouldBeDueIfDoclimitIsReached() throws Exception {
+    Assertions.assertFalse(batchService.isBatchingDue());
+
+    saveUploads(TestData.createTestDiagKeysList(5, "uploaderBatchTag_DE", "DE"), null);
+    batchService.batchDocumentsIfDue();
+
+    Assertions.assertFalse(batchService.isBatchingDue());
+    Assertions.assertEquals(0, batchRepository.count());
+
+    saveUploads(TestData.createTestDiagKeysList(5, "uploaderBatchTag_PL", "PL"), null);
+    Assertions.assertTrue(batchService.isBatchingDue());
+
+    batchService.batchDocumentsIfDue();
+
+    Assertions.assertEquals(2, batchRepository.count());
+    Assertions.assertFalse(batchService.isBatchingDue());
+  }
+
+  @Test
+  public void batchingShouldBeDueIfOldestUploadWaitedTooLong() throws Exception {
+    saveUploads(TestData.createTestDiagKeysList(2, "uploaderBatchTag_DE", "DE"), null);
+    Assertions.assertFalse(batchService.isBatchingDue());
+
+    DiagnosisKeyBatchMembershipEntity upload = membershipRepository.findFirstByUploaderBatchTag("uploaderBatchTag_DE")
+      .orElseThrow();
+    upload.setCreatedAt(ZonedDateTime.now(ZoneOffset.UTC)
+      .minusNanos(efgsProperties.getBatching().getTimeinterval() * 1_000_000L + 1));
+    membershipRepository.save(upload);
+
+    Assertions.assertTrue(batchService.isBatchingDue());
+
+    batchService.batchDocumentsIfDue();
+
+    Assertions.assertEquals(1, batchRepository.count());
+    Assertions.assertEquals(formattedDate + "-1", batchTagOf(keyRepository.findAll().get(0)));
+  }
 
   @Test
   public void documentBatchingShouldBeStoppedIfTimelimitIsReached() throws Exception {
     // save test keys
-    keyRepository.saveAll(TestData.createTestDiagKeysList(5, "uploaderBatchTag_DE", "DE"));
-    keyRepository.saveAll(TestData.createTestDiagKeysList(5, "uploaderBatchTag_PL", "PL"));
+    saveUploads(TestData.createTestDiagKeysList(5, "uploaderBatchTag_DE", "DE"), null);
+    saveUploads(TestData.createTestDiagKeysList(5, "uploaderBatchTag_PL", "PL"), null);
 
     batchRepository.deleteAll();
 
     Mockito
       .doAnswer(new AnswersWithDelay(100, new ReturnsEmptyValues()))
-      .when(callbackServiceMock).notifyAllCountriesForNewBatchTag(Mockito.any(DiagnosisKeyBatchEntity.class));
+      .when(callbackServiceMock).publishBatchSealedEvent(Mockito.any(DiagnosisKeyBatchEntity.class));
 
     int defaultTimeLimit = efgsProperties.getBatching().getTimelimit();
     efgsProperties.getBatching().setTimelimit(50);
@@ -232,15 +498,15 @@ public void documentBatchingShouldBeStoppedIfTimelimitIsReached() throws Excepti
     Assertions.assertNull(batchRepository.findAll().get(0).getBatchLink());
     Assertions.assertEquals(formattedDate + "-1", batchRepository.findAll().get(0).getBatchName());
 
-    Assertions.assertEquals(formattedDate + "-1", keyRepository.findAll().get(0).getBatchTag());
-    Assertions.assertNull(keyRepository.findAll().get(5).getBatchTag());
+    Assertions.assertEquals(formattedDate + "-1", batchTagOf(keyRepository.findAll().get(0)));
+    Assertions.assertNull(batchTagOf(keyRepository.findAll().get(5)));
   }
 
   @Test
   public void testBatchDocumentsAndDiagnosisKeyBatchEntityNumberOfKeys() throws Exception {
     log.info("process testBatchDocumentsByEmptyRepo()");
     // save test keys
-    List<DiagnosisKeyEntity> entries = keyRepository.saveAll(TestData.createTestDiagKeysWithoutBatchTag());
+    List<DiagnosisKeyEntity> entries = saveUploads(TestData.createTestDiagKeysWithoutBatchTag(), null);
 
     batchService.batchDocuments();
     List<DiagnosisKeyBatchEntity> diagnosisKeyBatchEntities = diagnosisKeyBatchRepository.findAll();
@@ -255,8 +521,20 @@ public void testBatchDocumentsAndDiagnosisKeyBatchEntityNumberOfKeys() throws Ex
     Assertions.assertNull(batchRepository.findAll().get(0).getBatchLink());
     Assertions.assertEquals(formattedDate + "-1", batchRepository.findAll().get(0).getBatchName());
     Assertions.assertEquals(3, keyRepository.count(), "error to find 3 test keys");
-    Assertions.assertEquals(formattedDate + "-1", keyRepository.findAll().get(0).getBatchTag());
-    Assertions.assertEquals(formattedDate + "-1", keyRepository.findAll().get(1).getBatchTag());
-    Assertions.assertEquals(formattedDate + "-1", keyRepository.findAll().get(2).getBatchTag());
+    Assertions.assertEquals(formattedDate + "-1", batchTagOf(keyRepository.findAll().get(0)));
+    Assertions.assertEquals(formattedDate + "-1", batchTagOf(keyRepository.findAll().get(1)));
+    Assertions.assertEquals(formattedDate + "-1", batchTagOf(keyRepository.findAll().get(2)));
+  }
+
+  private List<DiagnosisKeyEntity> saveUploads(List<DiagnosisKeyEntity> keys, String batchTag) {
+    List<DiagnosisKeyEntity> savedKeys = keyRepository.saveAll(keys);
+    TestData.saveBatchMemberships(membershipRepository, savedKeys, batchTag);
+    return savedKeys;
+  }
+
+  private String batchTagOf(DiagnosisKeyEntity key) {
+    return membershipRepository.findFirstByUploaderBatchTag(key.getUploader().getBatchTag())
+      .map(DiagnosisKeyBatchMembershipEntity::getBatchTag)
+      .orElse(null);
   }
 }
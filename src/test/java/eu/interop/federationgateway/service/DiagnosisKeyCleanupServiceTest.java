@@ -28,9 +28,11 @@
 import eu.interop.federationgateway.entity.DiagnosisKeyPayload;
 import eu.interop.federationgateway.entity.FormatInformation;
 import eu.interop.federationgateway.entity.UploaderInformation;
+import eu.interop.federationgateway.repository.DiagnosisKeyBatchMembershipRepository;
 import eu.interop.federationgateway.repository.DiagnosisKeyBatchRepository;
 import eu.interop.federationgateway.repository.DiagnosisKeyCleanupRepository;
 import eu.interop.federationgateway.repository.DiagnosisKeyEntityRepository;
+import eu.interop.federationgateway.repository.DiagnosisKeyUploadInformationRepository;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.util.List;
@@ -45,6 +47,12 @@
 @SpringBootTest
 public class DiagnosisKeyCleanupServiceTest {
 
+  @Autowired
+  DiagnosisKeyBatchMembershipRepository diagnosisKeyBatchMembershipRepository;
+
+  @Autowired
+  DiagnosisKeyUploadInformationRepository diagnosisKeyUploadInformationRepository;
+
   @Autowired
   DiagnosisKeyBatchRepository diagnosisKeyBatchRepository;
 
@@ -65,6 +73,8 @@ public class DiagnosisKeyCleanupServiceTest {
   public void cleanup() {
     diagnosisKeyBatchRepository.deleteAll();
     diagnosisKeyEntityRepository.deleteAll();
+    diagnosisKeyBatchMembershipRepository.deleteAll();
+    diagnosisKeyUploadInformationRepository.deleteAll();
   }
 
   @Test
@@ -143,7 +153,6 @@ private DiagnosisKeyEntity createDiagnosisKey(ZonedDateTime createdAt) {
     return diagnosisKeyEntityRepository.save(new DiagnosisKeyEntity(
       null,
       createdAt,
-      null,
       String.valueOf(random.nextInt()),
       new DiagnosisKeyPayload(
         new byte[0],
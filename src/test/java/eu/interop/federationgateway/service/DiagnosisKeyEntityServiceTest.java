@@ -28,19 +28,23 @@
 import static org.mockito.Mockito.when;
 
 import eu.interop.federationgateway.TestData;
+import eu.interop.federationgateway.config.EfgsProperties;
+import eu.interop.federationgateway.entity.DiagnosisKeyBatchMembershipEntity;
 import eu.interop.federationgateway.entity.DiagnosisKeyEntity;
+import eu.interop.federationgateway.entity.DiagnosisKeyUploadInformationEntity;
+import eu.interop.federationgateway.repository.DiagnosisKeyBatchMembershipRepository;
+import eu.interop.federationgateway.repository.DiagnosisKeyEntityBatchInsertRepository.InsertStatus;
 import eu.interop.federationgateway.repository.DiagnosisKeyEntityRepository;
+import eu.interop.federationgateway.repository.DiagnosisKeyUploadInformationRepository;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
+import java.util.ArrayList;
 import java.util.List;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
-import org.mockito.internal.stubbing.answers.AnswersWithDelay;
-import org.mockito.internal.stubbing.defaultanswers.ReturnsEmptyValues;
-import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.dao.QueryTimeoutException;
 
 public class DiagnosisKeyEntityServiceTest {
@@ -49,35 +53,94 @@ public class DiagnosisKeyEntityServiceTest {
 
   private DiagnosisKeyEntityRepository diagnosisKeyEntityRepositoryMock;
 
+  private DiagnosisKeyBatchMembershipRepository diagnosisKeyBatchMembershipRepositoryMock;
+
+  private DiagnosisKeyUploadInformationRepository diagnosisKeyUploadInformationRepositoryMock;
+
+  private EfgsProperties properties;
+
   @BeforeEach
   public void setup() {
     diagnosisKeyEntityRepositoryMock = Mockito.mock(DiagnosisKeyEntityRepository.class);
-    this.diagnosisKeyEntityService = new DiagnosisKeyEntityService(diagnosisKeyEntityRepositoryMock);
+    diagnosisKeyBatchMembershipRepositoryMock = Mockito.mock(DiagnosisKeyBatchMembershipRepository.class);
+    diagnosisKeyUploadInformationRepositoryMock = Mockito.mock(DiagnosisKeyUploadInformationRepository.class);
+    properties = new EfgsProperties();
+    properties.getUploadSettings().setInsertBatchSize(500);
+    this.diagnosisKeyEntityService = new DiagnosisKeyEntityService(
+      diagnosisKeyEntityRepositoryMock, diagnosisKeyBatchMembershipRepositoryMock,
+      diagnosisKeyUploadInformationRepositoryMock, properties);
+  }
+
+  private static List<DiagnosisKeyEntity> createTestEntities(int count) {
+    List<DiagnosisKeyEntity> entities = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      DiagnosisKeyEntity entity = TestData.getDiagnosisKeyTestEntityforCreation();
+      entity.setPayloadHash(TestData.PAYLOAD_HASH + i);
+      entities.add(entity);
+    }
+    return entities;
   }
 
   @Test
   public void assertThatBatchTagExistsMethodReturnsCorrectAnswer() {
     String dummyBatchTag = "dummyBatchTag";
 
-    when(diagnosisKeyEntityRepositoryMock.countAllByUploader_BatchTag(matches(dummyBatchTag))).thenReturn(5);
+    when(diagnosisKeyUploadInformationRepositoryMock.existsByUploader_BatchTag(matches(dummyBatchTag))).thenReturn(true);
     Assertions.assertTrue(diagnosisKeyEntityService.uploadBatchTagExists(dummyBatchTag));
 
-    when(diagnosisKeyEntityRepositoryMock.countAllByUploader_BatchTag(matches(dummyBatchTag))).thenReturn(0);
+    when(diagnosisKeyUploadInformationRepositoryMock.existsByUploader_BatchTag(matches(dummyBatchTag))).thenReturn(false);
     Assertions.assertFalse(diagnosisKeyEntityService.uploadBatchTagExists(dummyBatchTag));
   }
 
   @Test
   public void assertThatNewEntitiesAreSavedToDatabaseAndCreatedAtTimestampIsSet() throws DiagnosisKeyEntityService.DiagnosisKeyInsertException {
-    DiagnosisKeyEntity testEntity = TestData.getDiagnosisKeyTestEntityforCreation();
-    DiagnosisKeyEntity testEntity2 = TestData.getDiagnosisKeyTestEntityforCreation();
-    DiagnosisKeyEntity testEntity3 = TestData.getDiagnosisKeyTestEntityforCreation();
+    when(diagnosisKeyEntityRepositoryMock.batchInsert(any()))
+      .thenReturn(List.of(InsertStatus.INSERTED, InsertStatus.INSERTED, InsertStatus.INSERTED));
 
-    diagnosisKeyEntityService.saveDiagnosisKeyEntities(List.of(testEntity, testEntity2, testEntity3));
+    diagnosisKeyEntityService.saveDiagnosisKeyEntities(createTestEntities(3));
 
-    ArgumentCaptor<DiagnosisKeyEntity> captor = ArgumentCaptor.forClass(DiagnosisKeyEntity.class);
-    verify(diagnosisKeyEntityRepositoryMock, times(3)).save(captor.capture());
+    ArgumentCaptor<List<DiagnosisKeyEntity>> captor = ArgumentCaptor.forClass(List.class);
+    verify(diagnosisKeyEntityRepositoryMock).batchInsert(captor.capture());
+
+    Assertions.assertEquals(3, captor.getValue().size());
+    captor.getValue().forEach(entity -> Assertions.assertNotNull(entity.getCreatedAt()));
+  }
 
-    captor.getAllValues().forEach(Assertions::assertNotNull);
+  @Test
+  public void assertThatUploadIsRegisteredAsNotBatched() throws DiagnosisKeyEntityService.DiagnosisKeyInsertException {
+    when(diagnosisKeyEntityRepositoryMock.batchInsert(any()))
+      .thenReturn(List.of(InsertStatus.INSERTED, InsertStatus.INSERTED, InsertStatus.INSERTED));
+
+    diagnosisKeyEntityService.saveDiagnosisKeyEntities(createTestEntities(3));
+
+    ArgumentCaptor<Iterable<DiagnosisKeyBatchMembershipEntity>> captor = ArgumentCaptor.forClass(Iterable.class);
+    verify(diagnosisKeyBatchMembershipRepositoryMock).saveAll(captor.capture());
+
+    List<DiagnosisKeyBatchMembershipEntity> uploads = new ArrayList<>();
+    captor.getValue().forEach(uploads::add);
+    Assertions.assertEquals(1, uploads.size());
+    Assertions.assertEquals(TestData.FIRST_BATCHTAG, uploads.get(0).getUploaderBatchTag());
+    Assertions.assertNull(uploads.get(0).getBatchTag());
+    Assertions.assertEquals(3, uploads.get(0).getNumberOfKeys());
+  }
+
+  @Test
+  public void assertThatUploadInformationIsSavedOncePerUpload() throws DiagnosisKeyEntityService.DiagnosisKeyInsertException {
+    when(diagnosisKeyEntityRepositoryMock.batchInsert(any()))
+      .thenReturn(List.of(InsertStatus.INSERTED, InsertStatus.INSERTED, InsertStatus.INSERTED));
+
+    List<DiagnosisKeyEntity> entities = createTestEntities(3);
+    diagnosisKeyEntityService.saveDiagnosisKeyEntities(entities);
+
+    ArgumentCaptor<Iterable<DiagnosisKeyUploadInformationEntity>> captor = ArgumentCaptor.forClass(Iterable.class);
+    verify(diagnosisKeyUploadInformationRepositoryMock).saveAll(captor.capture());
+
+    List<DiagnosisKeyUploadInformationEntity> uploads = new ArrayList<>();
+    captor.getValue().forEach(uploads::add);
+    Assertions.assertEquals(1, uploads.size());
+    Assertions.assertEquals(TestData.FIRST_BATCHTAG, uploads.get(0).getUploader().getBatchTag());
+    Assertions.assertEquals(entities.get(0).getCreatedAt(), uploads.get(0).getCreatedAt());
+    entities.forEach(entity -> Assertions.assertSame(uploads.get(0), entity.getUpload()));
   }
 
   @Test
@@ -96,68 +159,87 @@ public void assertThatCreatedAtFieldIsNotChangedWhenAlreadyExists() {
 
   @Test
   public void assertThatFailedInsertationOfMultipleEntitiesThrowsCorrectExceptionDbError() throws DiagnosisKeyEntityService.DiagnosisKeyInsertException {
-    when(diagnosisKeyEntityRepositoryMock.save(any()))
+    when(diagnosisKeyEntityRepositoryMock.batchInsert(any()))
       .thenThrow(new QueryTimeoutException("DB is broken"));
 
-    DiagnosisKeyEntity testEntity = TestData.getDiagnosisKeyTestEntityforCreation();
-    DiagnosisKeyEntity testEntity2 = TestData.getDiagnosisKeyTestEntityforCreation();
-    DiagnosisKeyEntity testEntity3 = TestData.getDiagnosisKeyTestEntityforCreation();
-
     DiagnosisKeyEntityService.DiagnosisKeyInsertException e = Assertions.assertThrows(DiagnosisKeyEntityService.DiagnosisKeyInsertException.class,
-      () -> diagnosisKeyEntityService.saveDiagnosisKeyEntities(List.of(testEntity, testEntity2, testEntity3)));
+      () -> diagnosisKeyEntityService.saveDiagnosisKeyEntities(createTestEntities(3)));
 
     Assertions.assertTrue(e.getResultMap().get(201).isEmpty());
     Assertions.assertTrue(e.getResultMap().get(409).isEmpty());
-    Assertions.assertTrue(e.getResultMap().get(500).contains(0));
-    Assertions.assertTrue(e.getResultMap().get(500).contains(1));
-    Assertions.assertTrue(e.getResultMap().get(500).contains(2));
+    Assertions.assertEquals(List.of(0, 1, 2), e.getResultMap().get(500));
 
-    verify(diagnosisKeyEntityRepositoryMock, times(3)).save(any());
+    verify(diagnosisKeyEntityRepositoryMock, times(1)).batchInsert(any());
   }
 
   @Test
   public void assertThatFailedInsertationOfMultipleEntitiesThrowsCorrectExceptionOnIntegrityCheck() throws DiagnosisKeyEntityService.DiagnosisKeyInsertException {
-    when(diagnosisKeyEntityRepositoryMock.save(any()))
-      .thenReturn(null)
-      .thenThrow(new DataIntegrityViolationException("test"))
-      .thenReturn(null);
-
-    DiagnosisKeyEntity testEntity = TestData.getDiagnosisKeyTestEntityforCreation();
-    DiagnosisKeyEntity testEntity2 = TestData.getDiagnosisKeyTestEntityforCreation();
-    DiagnosisKeyEntity testEntity3 = TestData.getDiagnosisKeyTestEntityforCreation();
+    when(diagnosisKeyEntityRepositoryMock.batchInsert(any()))
+      .thenReturn(List.of(InsertStatus.INSERTED, InsertStatus.CONFLICT, InsertStatus.INSERTED));
 
     DiagnosisKeyEntityService.DiagnosisKeyInsertException e = Assertions.assertThrows(DiagnosisKeyEntityService.DiagnosisKeyInsertException.class,
-      () -> diagnosisKeyEntityService.saveDiagnosisKeyEntities(List.of(testEntity, testEntity2, testEntity3)));
+      () -> diagnosisKeyEntityService.saveDiagnosisKeyEntities(createTestEntities(3)));
 
-    Assertions.assertTrue(e.getResultMap().get(201).contains(0));
-    Assertions.assertTrue(e.getResultMap().get(201).contains(2));
+    Assertions.assertEquals(List.of(0, 2), e.getResultMap().get(201));
     Assertions.assertTrue(e.getResultMap().get(500).isEmpty());
-    Assertions.assertTrue(e.getResultMap().get(409).contains(1));
+    Assertions.assertEquals(List.of(1), e.getResultMap().get(409));
 
-    verify(diagnosisKeyEntityRepositoryMock, times(3)).save(any());
+    verify(diagnosisKeyEntityRepositoryMock, times(1)).batchInsert(any());
   }
 
+  @Test
+  public void assertThatExistingAndDuplicatePayloadHashesAreRejectedBeforeInsert() {
+    List<DiagnosisKeyEntity> entities = createTestEntities(4);
+    entities.get(3).setPayloadHash(entities.get(0).getPayloadHash());
+
+    when(diagnosisKeyEntityRepositoryMock.findExistingPayloadHashes(any()))
+      .thenReturn(List.of(entities.get(1).getPayloadHash()));
+    when(diagnosisKeyEntityRepositoryMock.batchInsert(any()))
+      .thenReturn(List.of(InsertStatus.INSERTED, InsertStatus.INSERTED));
+
+    DiagnosisKeyEntityService.DiagnosisKeyInsertException e = Assertions.assertThrows(DiagnosisKeyEntityService.DiagnosisKeyInsertException.class,
+      () -> diagnosisKeyEntityService.saveDiagnosisKeyEntities(entities));
+
+    Assertions.assertEquals(List.of(0, 2), e.getResultMap().get(201));
+    Assertions.assertEquals(List.of(1, 3), e.getResultMap().get(409));
+    Assertions.assertTrue(e.getResultMap().get(500).isEmpty());
+
+    ArgumentCaptor<List<DiagnosisKeyEntity>> captor = ArgumentCaptor.forClass(List.class);
+    verify(diagnosisKeyEntityRepositoryMock).batchInsert(captor.capture());
+    Assertions.assertEquals(List.of(entities.get(0), entities.get(2)), captor.getValue());
+  }
 
   @Test
-  public void assertThatAllEntitiesHaveTheSameUploadTimestamp() throws DiagnosisKeyEntityService.DiagnosisKeyInsertException {
+  public void assertThatEntitiesAreInsertedInBatchesOfConfiguredSize() throws DiagnosisKeyEntityService.DiagnosisKeyInsertException {
+    properties.getUploadSettings().setInsertBatchSize(2);
 
+    when(diagnosisKeyEntityRepositoryMock.batchInsert(any()))
+      .thenAnswer(invocation -> ((List<?>) invocation.getArgument(0)).stream()
+        .map(entity -> InsertStatus.INSERTED)
+        .toList());
 
-    when(diagnosisKeyEntityRepositoryMock.save(any()))
-      .thenAnswer(new AnswersWithDelay(100, new ReturnsEmptyValues()));
+    diagnosisKeyEntityService.saveDiagnosisKeyEntities(createTestEntities(5));
 
-    DiagnosisKeyEntity testEntity = TestData.getDiagnosisKeyTestEntityforCreation();
-    DiagnosisKeyEntity testEntity2 = TestData.getDiagnosisKeyTestEntityforCreation();
-    DiagnosisKeyEntity testEntity3 = TestData.getDiagnosisKeyTestEntityforCreation();
+    ArgumentCaptor<List<DiagnosisKeyEntity>> captor = ArgumentCaptor.forClass(List.class);
+    verify(diagnosisKeyEntityRepositoryMock, times(3)).batchInsert(captor.capture());
+    verify(diagnosisKeyEntityRepositoryMock, times(3)).findExistingPayloadHashes(any());
+
+    Assertions.assertEquals(List.of(2, 2, 1), captor.getAllValues().stream().map(List::size).toList());
+  }
 
-    diagnosisKeyEntityService.saveDiagnosisKeyEntities(List.of(testEntity, testEntity2, testEntity3));
+  @Test
+  public void assertThatAllEntitiesHaveTheSameUploadTimestamp() throws DiagnosisKeyEntityService.DiagnosisKeyInsertException {
+    when(diagnosisKeyEntityRepositoryMock.batchInsert(any()))
+      .thenReturn(List.of(InsertStatus.INSERTED, InsertStatus.INSERTED, InsertStatus.INSERTED));
 
-    ArgumentCaptor<DiagnosisKeyEntity> captor = ArgumentCaptor.forClass(DiagnosisKeyEntity.class);
+    diagnosisKeyEntityService.saveDiagnosisKeyEntities(createTestEntities(3));
 
-    verify(diagnosisKeyEntityRepositoryMock, times(3)).save(captor.capture());
+    ArgumentCaptor<List<DiagnosisKeyEntity>> captor = ArgumentCaptor.forClass(List.class);
+    verify(diagnosisKeyEntityRepositoryMock).batchInsert(captor.capture());
 
-    ZonedDateTime firstTimestamp = captor.getAllValues().get(0).getCreatedAt();
+    ZonedDateTime firstTimestamp = captor.getValue().get(0).getCreatedAt();
 
-    captor.getAllValues().forEach(entity -> Assertions.assertEquals(firstTimestamp, entity.getCreatedAt()));
+    captor.getValue().forEach(entity -> Assertions.assertEquals(firstTimestamp, entity.getCreatedAt()));
   }
 
   @Test
@@ -169,7 +251,7 @@ public void testGetAllMethod() {
   @Test
   public void testGetAllFromOriginMethod() {
     diagnosisKeyEntityService.getAllDiagnosisKeyEntityFromOrigin("test");
-    verify(diagnosisKeyEntityRepositoryMock).findAllByPayloadOrigin(matches("test"));
+    verify(diagnosisKeyEntityRepositoryMock).findAllByUploader_Country(matches("test"));
   }
 
   @Test
@@ -182,9 +264,10 @@ public void testDeleteAllBeforeMethod() {
   @Test
   public void testBatchForCountry() {
     diagnosisKeyEntityService.getDiagnosisKeysBatchForCountry(TestData.FIRST_BATCHTAG, TestData.COUNTRY_A);
-    verify(diagnosisKeyEntityRepositoryMock).findByBatchTagIsAndUploader_CountryIsNotOrderByIdAsc(
+    verify(diagnosisKeyEntityRepositoryMock).streamByBatchTagIsAndUploaderCountryIsNot(
       eq(TestData.FIRST_BATCHTAG),
-      eq(TestData.COUNTRY_A)
+      eq(TestData.COUNTRY_A),
+      any()
     );
   }
 
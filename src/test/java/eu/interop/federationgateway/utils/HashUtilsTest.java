@@ -0,0 +1,59 @@
+/*-
+ * ---license-start
+ * EU-Federation-Gateway-Service / efgs-federation-gateway
+ * ---
+ * Copyright (C) 2020 - 2022 T-Systems International GmbH and all other contributors
+ * ---
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ---license-end
+ */
+
+package eu.interop.federationgateway.utils;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class HashUtilsTest {
+
+  @Test
+  public void testHexNumberIsEqualToBigIntegerFormat() {
+    Random random = new Random(42);
+    for (int i = 0; i < 1000; i++) {
+      byte[] bytes = new byte[HashUtils.SHA256_LENGTH];
+      random.nextBytes(bytes);
+      bytes[0] = (byte) (i % 3 == 0 ? 0 : bytes[0]);
+      bytes[1] = (byte) (i % 6 == 0 ? 0x0f : bytes[1]);
+
+      Assertions.assertEquals(new BigInteger(1, bytes).toString(16),
+        HashUtils.toHexNumber(bytes, 0, bytes.length));
+    }
+
+    Assertions.assertEquals("0", HashUtils.toHexNumber(new byte[4], 0, 4));
+    Assertions.assertEquals("ff01", HashUtils.toHexNumber(new byte[] {0, (byte) 0xff, 1, 0}, 1, 2));
+  }
+
+  @Test
+  public void testSha256DigestIsResetAndReusedPerThread() {
+    byte[] data = "efgs".getBytes(StandardCharsets.US_ASCII);
+
+    HashUtils.sha256().update(data);
+    byte[] hash = HashUtils.sha256().digest(data);
+
+    Assertions.assertSame(HashUtils.sha256(), HashUtils.sha256());
+    Assertions.assertEquals("83cc595d81d1df8e859eed73ab4f4328c66aeaa358e873f1a36e335df4d4b922",
+      HashUtils.toHexNumber(hash, 0, hash.length));
+  }
+}